@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.ctap2;
+
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.fido2.domain.AuthenticatorTransport;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialDescriptor;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialParameters;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialRpEntity;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialType;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
+import de.cotech.hw.fido2.internal.cbor_java.CborBuilder;
+import de.cotech.hw.fido2.internal.cbor_java.CborEncoder;
+import de.cotech.hw.fido2.internal.cbor_java.CborException;
+import de.cotech.hw.fido2.internal.cbor_java.builder.ArrayBuilder;
+import de.cotech.hw.fido2.internal.cbor_java.builder.MapBuilder;
+import de.cotech.hw.fido2.internal.cose.CoseIdentifiers.CoseAlg;
+import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertion;
+import de.cotech.hw.fido2.internal.ctap2.commands.getInfo.AuthenticatorOptions;
+import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential;
+import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential.AuthenticatorMakeCredentialOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares the streaming {@link Ctap2CborSerializer} with encoding the same commands through a cbor_java data item
+ * tree, as the serializer did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Ctap2CborSerializerBenchmark {
+    @Param({ "1", "16", "64" })
+    int credentialCount;
+
+    Ctap2CborSerializer serializer;
+    AuthenticatorMakeCredential makeCredential;
+    AuthenticatorGetAssertion getAssertion;
+
+    @Setup
+    public void setUp() {
+        byte[] clientDataHash = new byte[32];
+        Arrays.fill(clientDataHash, (byte) 0x42);
+        byte[] pinAuth = new byte[16];
+        Arrays.fill(pinAuth, (byte) 0x17);
+
+        List<PublicKeyCredentialDescriptor> descriptors = new ArrayList<>();
+        for (int i = 0; i < credentialCount; i++) {
+            // credential ids of resident keys are typically 64 bytes or more
+            byte[] credentialId = new byte[64];
+            Arrays.fill(credentialId, (byte) i);
+            descriptors.add(PublicKeyCredentialDescriptor.create(PublicKeyCredentialType.PUBLIC_KEY, credentialId,
+                    Arrays.asList(AuthenticatorTransport.USB, AuthenticatorTransport.NFC)));
+        }
+
+        serializer = new Ctap2CborSerializer();
+        makeCredential = AuthenticatorMakeCredential.create(clientDataHash, "{}",
+                PublicKeyCredentialRpEntity.create("example.com", "Example", null),
+                PublicKeyCredentialUserEntity.create(new byte[32], "alice", "Alice", null),
+                PublicKeyCredentialParameters.createDefaultEs256List(), descriptors,
+                AuthenticatorMakeCredentialOptions.create(true, null), pinAuth, 1);
+        getAssertion = AuthenticatorGetAssertion.create("example.com", clientDataHash, "{}",
+                descriptors, AuthenticatorOptions.create(), pinAuth, 1);
+    }
+
+    @Benchmark
+    public byte[] makeCredentialStreaming() {
+        return serializer.toCborBytes(makeCredential);
+    }
+
+    @Benchmark
+    public byte[] makeCredentialCborJava() throws CborException {
+        CborBuilder cborBuilder = new CborBuilder();
+        MapBuilder<?> mapBuilder = cborBuilder.addMap();
+        mapBuilder.put(0x01, makeCredential.clientDataHash());
+        MapBuilder<?> rpMapBuilder = mapBuilder.putMap(0x02);
+        rpMapBuilder.put("name", makeCredential.rp().name());
+        rpMapBuilder.put("id", makeCredential.rp().id());
+        MapBuilder<?> userMapBuilder = mapBuilder.putMap(0x03);
+        userMapBuilder.put("name", makeCredential.user().name());
+        userMapBuilder.put("id", makeCredential.user().id());
+        userMapBuilder.put("displayName", makeCredential.user().displayName());
+        ArrayBuilder<?> pubCredBuilder = mapBuilder.putArray(0x04);
+        MapBuilder<?> pubCredMapBuilder = pubCredBuilder.addMap();
+        pubCredMapBuilder.put("type", PublicKeyCredentialType.PUBLIC_KEY.type);
+        pubCredMapBuilder.put("alg", CoseAlg.ES256.label);
+        putDescriptors(mapBuilder.putArray(0x05), makeCredential.excludeList());
+        mapBuilder.putMap(0x07).put("rk", true);
+        mapBuilder.put(0x08, makeCredential.pinAuth());
+        mapBuilder.put(0x09, makeCredential.pinProtocol());
+        return encode(cborBuilder);
+    }
+
+    @Benchmark
+    public byte[] getAssertionStreaming() {
+        return serializer.toCborBytes(getAssertion);
+    }
+
+    @Benchmark
+    public byte[] getAssertionCborJava() throws CborException {
+        CborBuilder cborBuilder = new CborBuilder();
+        MapBuilder<?> mapBuilder = cborBuilder.addMap();
+        mapBuilder.put(0x01, getAssertion.rpId());
+        mapBuilder.put(0x02, getAssertion.clientDataHash());
+        putDescriptors(mapBuilder.putArray(0x03), getAssertion.allowList());
+        mapBuilder.put(0x06, getAssertion.pinAuth());
+        mapBuilder.put(0x07, getAssertion.pinProtocol());
+        return encode(cborBuilder);
+    }
+
+    private static void putDescriptors(ArrayBuilder<?> arrayBuilder, List<PublicKeyCredentialDescriptor> descriptors) {
+        for (PublicKeyCredentialDescriptor descriptor : descriptors) {
+            MapBuilder<?> descriptorMapBuilder = arrayBuilder.addMap();
+            descriptorMapBuilder.put("type", descriptor.type().type);
+            descriptorMapBuilder.put("id", descriptor.id());
+            ArrayBuilder<?> transportsBuilder = descriptorMapBuilder.putArray("transports");
+            for (AuthenticatorTransport transport : descriptor.transports()) {
+                transportsBuilder.add(transport.transport);
+            }
+        }
+    }
+
+    private static byte[] encode(CborBuilder cborBuilder) throws CborException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new CborEncoder(outputStream).encode(cborBuilder.build());
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.pinauth;
+
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.fido2.internal.Fido2AppletConnection;
+import de.cotech.hw.fido2.internal.cbor.CborWriter;
+import de.cotech.hw.fido2.internal.cose.CoseIdentifiers.CoseAlg;
+import de.cotech.hw.fido2.internal.cose.CosePublicKeyUtils;
+import de.cotech.hw.fido2.internal.crypto.P256;
+import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPin;
+import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPinResponse;
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.internal.transport.FakeTransport;
+import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.util.HashUtil;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Host CPU cost of {@link PinProtocolV1#clientPinAuthenticate}, with a fresh connection for every operation as for
+ * consecutive taps of the same authenticator. The authenticator answers instantly, so only the platform side is
+ * measured.
+ * <p>
+ * {@link #clientPinAuthenticatePerOperationCrypto} does the key agreement like clientPinAuthenticate did before
+ * crypto sessions were introduced: a new key pair, key factory, ECDH and ciphers for every operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinProtocolV1Benchmark {
+    private static final String PIN = "123456";
+
+    FakeTransport transport;
+    ECParameterSpec curveSpec;
+    PinAuthCryptoUtil pinAuthCryptoUtil;
+    PinProtocolV1 pinProtocolV1;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair authenticatorKeyPair = P256.newKeyPair();
+        curveSpec = ((ECPublicKey) authenticatorKeyPair.getPublic()).getParams();
+        byte[] authenticatorKeyAgreement = CosePublicKeyUtils.encodex962PublicKeyAsCose(
+                P256.serializePublicKey(authenticatorKeyPair.getPublic()), CoseAlg.ECDH_ES_w_HKDF_256);
+        byte[] pinTokenEnc = new byte[32];
+        Arrays.fill(pinTokenEnc, (byte) 0x5a);
+
+        // a single response that answers getRetries, getKeyAgreement and getPinToken alike
+        CborWriter writer = new CborWriter();
+        writer.writeRaw(new byte[] { 0x00 });
+        writer.writeMapHeader(3);
+        writer.writeInteger(1);
+        writer.writeRaw(authenticatorKeyAgreement);
+        writer.writeInteger(2);
+        writer.writeByteString(pinTokenEnc);
+        writer.writeInteger(3);
+        writer.writeInteger(8);
+        transport = new FakeTransport();
+        transport.setTransportType(TransportType.USB_CCID);
+        transport.replyToAllWith(ResponseApdu.create(0x9000, writer.toByteArray()));
+
+        pinAuthCryptoUtil = new PinAuthCryptoUtil();
+        pinProtocolV1 = new PinProtocolV1(pinAuthCryptoUtil);
+    }
+
+    @Benchmark
+    public PinToken clientPinAuthenticate() throws IOException {
+        return pinProtocolV1.clientPinAuthenticate(newConnection(), PIN, true);
+    }
+
+    @Benchmark
+    public PinToken clientPinAuthenticateNewKeyAgreement() throws IOException {
+        // as after a power cycle: a new crypto session, with the platform key pair taken from the background
+        return new PinProtocolV1(pinAuthCryptoUtil).clientPinAuthenticate(newConnection(), PIN, true);
+    }
+
+    @Benchmark
+    public byte[] clientPinAuthenticatePerOperationCrypto() throws Exception {
+        Fido2AppletConnection connection = newConnection();
+        connection.ctap2CommunicateOrThrow(AuthenticatorClientPin.createGetRetries());
+        AuthenticatorClientPinResponse keyAgreementResponse =
+                connection.ctap2CommunicateOrThrow(AuthenticatorClientPin.createGetKeyAgreement());
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        PublicKey authenticatorPublicKey = deserializePublicKey(
+                CosePublicKeyUtils.encodeCosePublicKeyAsX962(keyAgreementResponse.keyAgreement()));
+        keyPairGenerator.initialize(curveSpec);
+        KeyPair platformKeyPair = keyPairGenerator.generateKeyPair();
+
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+        keyAgreement.init(platformKeyPair.getPrivate());
+        keyAgreement.doPhase(authenticatorPublicKey, true);
+        byte[] sharedSecret = HashUtil.sha256(keyAgreement.generateSecret());
+
+        Cipher encryptCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        encryptCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sharedSecret, "AES"),
+                new IvParameterSpec(new byte[16]));
+        byte[] pinHashEnc = encryptCipher.doFinal(Arrays.copyOfRange(HashUtil.sha256(PIN.getBytes()), 0, 16));
+        byte[] platformKeyAgreement = CosePublicKeyUtils.encodex962PublicKeyAsCose(
+                P256.serializePublicKey(platformKeyPair.getPublic()), CoseAlg.ECDH_ES_w_HKDF_256);
+
+        AuthenticatorClientPinResponse pinTokenResponse = connection.ctap2CommunicateOrThrow(
+                AuthenticatorClientPin.createGetPinToken(platformKeyAgreement, pinHashEnc));
+        Cipher decryptCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        decryptCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(sharedSecret, "AES"),
+                new IvParameterSpec(new byte[16]));
+        return decryptCipher.doFinal(pinTokenResponse.pinToken());
+    }
+
+    private Fido2AppletConnection newConnection() {
+        return Fido2AppletConnection.getInstanceForTransport(transport);
+    }
+
+    private PublicKey deserializePublicKey(byte[] x962PublicKey) throws GeneralSecurityException {
+        BigInteger x = new BigInteger(1, Arrays.copyOfRange(x962PublicKey, 1, 33));
+        BigInteger y = new BigInteger(1, Arrays.copyOfRange(x962PublicKey, 33, 65));
+        return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(new ECPoint(x, y), curveSpec));
+    }
+}
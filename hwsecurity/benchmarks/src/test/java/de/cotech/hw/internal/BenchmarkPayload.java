@@ -22,22 +22,35 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package de.cotech.hw.fido2.internal.ctap2;
+package de.cotech.hw.internal;
 
 
-import de.cotech.hw.fido2.internal.cbor_java.model.UnicodeString;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnsignedInteger;
+/**
+ * Realistic payload sizes for the codec benchmarks.
+ */
+public enum BenchmarkPayload {
+    /** e.g. a PSO:CDS with an ECDSA P-256 digest info */
+    SHORT(51),
+    /** e.g. PUT DATA for a 2 KB X.509 certificate */
+    CERTIFICATE(2048),
+    /** extended header list with all CRT parameters and the modulus of an RSA-4096 key */
+    RSA_4096_IMPORT(1828);
+
+    private final int length;
 
+    BenchmarkPayload(int length) {
+        this.length = length;
+    }
 
-public class Ctap2CborConstants {
-    public static final UnsignedInteger CBOR_ONE = new UnsignedInteger(1);
-    public static final UnsignedInteger CBOR_TWO = new UnsignedInteger(2);
-    public static final UnsignedInteger CBOR_THREE = new UnsignedInteger(3);
-    public static final UnsignedInteger CBOR_FOUR = new UnsignedInteger(4);
-    public static final UnsignedInteger CBOR_FIVE = new UnsignedInteger(5);
+    public int getLength() {
+        return length;
+    }
 
-    public static final UnicodeString CBOR_ID = new UnicodeString("id");
-    public static final UnicodeString CBOR_NAME = new UnicodeString("name");
-    public static final UnicodeString CBOR_DISPLAYNAME = new UnicodeString("displayName");
-    public static final UnicodeString CBOR_ICON = new UnicodeString("icon");
+    public byte[] createData() {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
 }
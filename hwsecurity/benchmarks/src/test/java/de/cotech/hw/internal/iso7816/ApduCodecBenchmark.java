@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.iso7816;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.BenchmarkPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApduCodecBenchmark {
+    @Param({ "SHORT", "CERTIFICATE", "RSA_4096_IMPORT" })
+    BenchmarkPayload payload;
+
+    CommandApdu commandApdu;
+    byte[] rawCommandApdu;
+    byte[] rawResponseApdu;
+
+    @Setup
+    public void setUp() {
+        byte[] data = payload.createData();
+        // PUT DATA, extended Le so every size uses the same encoding case
+        commandApdu = CommandApdu.create(0x00, 0xDA, 0x7F, 0x21, data, CommandApdu.MAX_APDU_NE_EXTENDED);
+        rawCommandApdu = commandApdu.toBytes();
+
+        rawResponseApdu = new byte[data.length + 2];
+        System.arraycopy(data, 0, rawResponseApdu, 0, data.length);
+        rawResponseApdu[data.length] = (byte) 0x90;
+        rawResponseApdu[data.length + 1] = (byte) 0x00;
+    }
+
+    @Benchmark
+    public byte[] commandApduToBytes() {
+        return commandApdu.toBytes();
+    }
+
+    @Benchmark
+    public CommandApdu commandApduFromBytes() throws IOException {
+        return CommandApdu.fromBytes(rawCommandApdu);
+    }
+
+    @Benchmark
+    public ResponseApdu responseApduFromBytes() throws IOException {
+        return ResponseApdu.fromBytes(rawResponseApdu);
+    }
+}
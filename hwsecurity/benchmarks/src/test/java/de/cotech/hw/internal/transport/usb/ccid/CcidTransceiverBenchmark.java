@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid;
+
+
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.BenchmarkPayload;
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.internal.transport.usb.ccid.CcidTransceiver.CcidDataBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CcidTransceiverBenchmark {
+    private static final int PROTOCOL_T1 = 2;
+    private static final int FEATURES_AUTO_VOLTAGE_AUTO_PPS_SHORT_APDU = 0x20088;
+
+    @Param({ "SHORT", "CERTIFICATE", "RSA_4096_IMPORT" })
+    BenchmarkPayload payload;
+
+    byte[] xfrPayload;
+    CcidTransceiver ccidTransceiver;
+    CcidTransceiver echoCcidTransceiver;
+
+    @Setup
+    public void setUp() throws UsbTransportException {
+        xfrPayload = payload.createData();
+        byte[] statusOnlyResponse = { (byte) 0x90, 0x00 };
+
+        ccidTransceiver = new FakeCcidReader(xfrPayload -> statusOnlyResponse)
+                .createTransceiver(PROTOCOL_T1, FEATURES_AUTO_VOLTAGE_AUTO_PPS_SHORT_APDU);
+        ccidTransceiver.iccPowerOn();
+
+        echoCcidTransceiver = new FakeCcidReader(xfrPayload -> xfrPayload)
+                .createTransceiver(PROTOCOL_T1, FEATURES_AUTO_VOLTAGE_AUTO_PPS_SHORT_APDU);
+        echoCcidTransceiver.iccPowerOn();
+    }
+
+    @Benchmark
+    public CcidDataBlock sendXfrBlock() throws UsbTransportException {
+        return ccidTransceiver.sendXfrBlock(xfrPayload);
+    }
+
+    @Benchmark
+    public CcidDataBlock sendXfrBlockEcho() throws UsbTransportException {
+        // same size in both directions, e.g. reading back a certificate
+        return echoCcidTransceiver.sendXfrBlock(xfrPayload);
+    }
+}
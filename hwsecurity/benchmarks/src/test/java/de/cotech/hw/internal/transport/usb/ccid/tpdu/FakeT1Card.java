@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid.tpdu;
+
+
+import java.io.ByteArrayOutputStream;
+
+import de.cotech.hw.internal.transport.usb.ccid.FakeCcidReader.XfrBlockResponder;
+
+
+/**
+ * Card side of the T=1 block protocol with LRC, answering every APDU with a fixed response.
+ * Responses are chained in I-blocks of at most IFSD bytes, which starts at the default of 32
+ * until the host negotiates a larger one.
+ */
+class FakeT1Card implements XfrBlockResponder {
+    private static final int DEFAULT_IFSD = 32;
+    private static final int PCB_MASK_CHAINING = 0x20;
+    private static final int PCB_MASK_BLOCK_TYPE = 0xC0;
+    private static final int PCB_VALUE_RBLOCK = 0x80;
+    private static final int PCB_VALUE_SBLOCK = 0xC0;
+    private static final int PCB_IFS_REQUEST = 0xC1;
+    private static final int PCB_IFS_RESPONSE = 0xE1;
+
+    private final byte[] responseApdu;
+    private final ByteArrayOutputStream receivedApdu = new ByteArrayOutputStream();
+
+    private int cardSequence;
+    private int ifsd = DEFAULT_IFSD;
+    private int responseOffset = -1;
+
+    FakeT1Card(byte[] responseApdu) {
+        this.responseApdu = responseApdu;
+    }
+
+    @Override
+    public byte[] respond(byte[] block) {
+        int pcb = block[1] & 0xff;
+        int len = block[2] & 0xff;
+
+        if (pcb == PCB_IFS_REQUEST) {
+            ifsd = block[3] & 0xff;
+            return createBlock(PCB_IFS_RESPONSE, block, 3, 1);
+        }
+        if ((pcb & PCB_MASK_BLOCK_TYPE) == PCB_VALUE_SBLOCK) {
+            throw new IllegalStateException("Unexpected S-block");
+        }
+
+        if ((pcb & PCB_MASK_BLOCK_TYPE) == PCB_VALUE_RBLOCK) {
+            // host acknowledged our last chained I-block
+            return nextResponseIBlock();
+        }
+
+        receivedApdu.write(block, 3, len);
+        if ((pcb & PCB_MASK_CHAINING) != 0) {
+            int hostSequence = (pcb >> 6) & 1;
+            return createBlock(PCB_VALUE_RBLOCK | (((hostSequence + 1) & 1) << 4), responseApdu, 0, 0);
+        }
+
+        receivedApdu.reset();
+        responseOffset = 0;
+        return nextResponseIBlock();
+    }
+
+    private byte[] nextResponseIBlock() {
+        int len = Math.min(ifsd, responseApdu.length - responseOffset);
+        boolean hasMore = responseOffset + len < responseApdu.length;
+
+        int pcb = (cardSequence << 6) | (hasMore ? PCB_MASK_CHAINING : 0);
+        cardSequence ^= 1;
+
+        byte[] block = createBlock(pcb, responseApdu, responseOffset, len);
+        responseOffset += len;
+        return block;
+    }
+
+    private static byte[] createBlock(int pcb, byte[] data, int offset, int len) {
+        byte[] block = new byte[3 + len + 1];
+        block[0] = 0;
+        block[1] = (byte) pcb;
+        block[2] = (byte) len;
+        System.arraycopy(data, offset, block, 3, len);
+
+        byte lrc = 0;
+        for (int i = 0; i < block.length - 1; i++) {
+            lrc ^= block[i];
+        }
+        block[block.length - 1] = lrc;
+        return block;
+    }
+}
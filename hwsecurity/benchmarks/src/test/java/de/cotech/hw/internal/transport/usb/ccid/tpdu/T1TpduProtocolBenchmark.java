@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid.tpdu;
+
+
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.BenchmarkPayload;
+import de.cotech.hw.internal.iso7816.CommandApdu;
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.internal.transport.usb.ccid.FakeCcidReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Command APDUs larger than one information field are sent as chained I-blocks, so the
+ * CERTIFICATE and RSA_4096_IMPORT payloads cover T=1 chaining in both directions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class T1TpduProtocolBenchmark {
+    private static final int PROTOCOL_T1 = 2;
+    private static final int FEATURES_AUTO_VOLTAGE_AUTO_PPS_TPDU = 0x10088;
+
+    @Param({ "SHORT", "CERTIFICATE", "RSA_4096_IMPORT" })
+    BenchmarkPayload payload;
+
+    byte[] rawCommandApdu;
+    T1TpduProtocol t1TpduProtocol;
+    T1TpduProtocol echoT1TpduProtocol;
+
+    @Setup
+    public void setUp() throws UsbTransportException {
+        byte[] data = payload.createData();
+        rawCommandApdu = CommandApdu.create(0x00, 0xDA, 0x7F, 0x21, data, CommandApdu.MAX_APDU_NE_EXTENDED).toBytes();
+
+        byte[] statusOnlyResponse = { (byte) 0x90, 0x00 };
+        t1TpduProtocol = new T1TpduProtocol();
+        t1TpduProtocol.connect(new FakeCcidReader(new FakeT1Card(statusOnlyResponse))
+                .createTransceiver(PROTOCOL_T1, FEATURES_AUTO_VOLTAGE_AUTO_PPS_TPDU));
+
+        byte[] dataResponse = new byte[data.length + 2];
+        System.arraycopy(data, 0, dataResponse, 0, data.length);
+        dataResponse[data.length] = (byte) 0x90;
+        echoT1TpduProtocol = new T1TpduProtocol();
+        echoT1TpduProtocol.connect(new FakeCcidReader(new FakeT1Card(dataResponse))
+                .createTransceiver(PROTOCOL_T1, FEATURES_AUTO_VOLTAGE_AUTO_PPS_TPDU));
+    }
+
+    @Benchmark
+    public byte[] transceive() throws UsbTransportException {
+        return t1TpduProtocol.transceive(rawCommandApdu);
+    }
+
+    @Benchmark
+    public byte[] transceiveWithChainedResponse() throws UsbTransportException {
+        return echoT1TpduProtocol.transceive(rawCommandApdu);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ctaphid;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.BenchmarkPayload;
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CtapHidBenchmark {
+    private static final int CHANNEL_ID = 12345678;
+
+    @Param({ "SHORT", "CERTIFICATE", "RSA_4096_IMPORT" })
+    BenchmarkPayload payload;
+
+    CtapHidFrameFactory frameFactory = new CtapHidFrameFactory();
+    byte[] data;
+    // the wrapped frame split into HID reports, as received from the device
+    byte[][] wrappedReports;
+    CtapHidTransportProtocol protocol;
+
+    @Setup
+    public void setUp() throws UsbTransportException {
+        data = payload.createData();
+        byte[] wrappedFrame = frameFactory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_CBOR, data);
+        wrappedReports = new byte[wrappedFrame.length / CtapHidFrameFactory.CTAPHID_BUFFER_SIZE][];
+        for (int i = 0; i < wrappedReports.length; i++) {
+            int offset = i * CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
+            int end = offset + CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
+            wrappedReports[i] = Arrays.copyOfRange(wrappedFrame, offset, end);
+        }
+
+        protocol = new FakeCtapHidDevice(this::respond).createProtocol();
+        protocol.connect();
+    }
+
+    /**
+     * Answers INIT with a new channel, and every other command on the same channel with the payload.
+     */
+    private byte[] respond(int channelId, byte cmdId, byte[] requestPayload) throws UsbTransportException {
+        byte[] response;
+        if (cmdId == CtapHidFrameFactory.CTAPHID_INIT) {
+            response = ByteBuffer.allocate(17)
+                    .put(requestPayload)
+                    .putInt(CHANNEL_ID)
+                    .put((byte) 2) // versionInterface
+                    .put((byte) 5) // versionMajor
+                    .put((byte) 2) // versionMinor
+                    .put((byte) 7) // versionBuild
+                    .put((byte) 0x05) // capability flags: wink, cbor
+                    .array();
+        } else {
+            response = data;
+        }
+        return frameFactory.wrapFrame(CHANNEL_ID, cmdId, response);
+    }
+
+    @TearDown
+    public void tearDown() {
+        protocol.close();
+    }
+
+    @Benchmark
+    public byte[] wrapFrame() throws UsbTransportException {
+        return frameFactory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_CBOR, data);
+    }
+
+    @Benchmark
+    public byte[] decodeFrame() throws UsbTransportException {
+        CtapHidFrameFactory.FrameDecoder decoder = frameFactory.newFrameDecoder(CHANNEL_ID);
+        for (byte[] report : wrappedReports) {
+            decoder.consumeReport(report);
+        }
+        return decoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_CBOR);
+    }
+
+    @Benchmark
+    public byte[] transceiveCbor() throws UsbTransportException {
+        return protocol.transceiveCbor(data);
+    }
+}
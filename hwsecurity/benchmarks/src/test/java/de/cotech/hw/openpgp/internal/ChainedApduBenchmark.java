@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.internal;
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.BenchmarkPayload;
+import de.cotech.hw.internal.iso7816.CommandApdu;
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.internal.transport.FakeTransport;
+import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Command chaining as done for transports without extended length support.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChainedApduBenchmark {
+    private static final int DO_CARDHOLDER_CERTIFICATE = 0x7F21;
+
+    @Param({ "SHORT", "CERTIFICATE", "RSA_4096_IMPORT" })
+    BenchmarkPayload payload;
+
+    OpenPgpCommandApduFactory commandFactory = new OpenPgpCommandApduFactory();
+    FakeTransport transport = new FakeTransport();
+    CommandApdu putDataCommand;
+
+    @Setup
+    public void setUp() {
+        transport.setTransportType(TransportType.USB_CCID);
+        transport.replyToAllWith(ResponseApdu.create(0x9000, new byte[0]));
+        putDataCommand = commandFactory.createPutDataCommand(DO_CARDHOLDER_CERTIFICATE, payload.createData());
+    }
+
+    @Benchmark
+    public ResponseApdu transceiveChained() throws IOException {
+        ResponseApdu lastResponse = null;
+        List<CommandApdu> chainedApdus = commandFactory.createChainedApdus(putDataCommand);
+        for (CommandApdu chainedApdu : chainedApdus) {
+            // encode like a real transport would
+            chainedApdu.toBytes();
+            lastResponse = transport.transceive(chainedApdu);
+        }
+        return lastResponse;
+    }
+}
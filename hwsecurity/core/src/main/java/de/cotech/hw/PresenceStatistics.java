@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw;
+
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import com.google.auto.value.AutoValue;
+
+
+/**
+ * A snapshot of the statistics about presence checks of connected security keys.
+ *
+ * @see SecurityKeyManager#getPresenceStatistics()
+ */
+@AutoValue
+public abstract class PresenceStatistics {
+    /** Returns the number of presence pings sent to security keys. */
+    public abstract long getPingCount();
+
+    /** Returns the number of presence pings that found a security key gone. */
+    public abstract long getPingFailureCount();
+
+    /** Returns the number of presence pings that were skipped because the security key was busy. */
+    public abstract long getSkippedPingCount();
+
+    /** Returns the average latency of a presence ping, or 0 if none was sent yet. */
+    public abstract long getAveragePingLatencyMillis();
+
+    public abstract long getMaxPingLatencyMillis();
+
+    @RestrictTo(Scope.LIBRARY_GROUP)
+    public static PresenceStatistics create(long pingCount, long pingFailureCount, long skippedPingCount,
+            long averagePingLatencyMillis, long maxPingLatencyMillis) {
+        return new AutoValue_PresenceStatistics(pingCount, pingFailureCount, skippedPingCount,
+                averagePingLatencyMillis, maxPingLatencyMillis);
+    }
+}
@@ -92,6 +92,30 @@ public abstract class SecurityKey {
         return transport.isPersistentConnectionAllowed();
     }
 
+    /**
+     * Returns how long it took to connect to the Security Key until it was ready for the first command, in
+     * milliseconds. This is useful to track connection latency, e.g. in app metrics.
+     *
+     * @return the connect time, or -1 if it wasn't measured for the underlying transport. Currently, this is only
+     *         measured for USB CCID.
+     */
+    @AnyThread
+    public long getConnectTimeMillis() {
+        return transport.getConnectTimeMillis();
+    }
+
+    /**
+     * Returns how long it took to power on the Security Key's smartcard, in milliseconds. This is part of
+     * {@link #getConnectTimeMillis()}.
+     *
+     * @return the power on time, or -1 if it wasn't measured for the underlying transport. Currently, this is only
+     *         measured for USB CCID.
+     */
+    @AnyThread
+    public long getPowerOnTimeMillis() {
+        return transport.getPowerOnTimeMillis();
+    }
+
     /**
      * Releases the Security Key as well as the underlying transport.
      */
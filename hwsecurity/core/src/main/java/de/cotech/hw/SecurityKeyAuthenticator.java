@@ -30,6 +30,10 @@ import androidx.annotation.WorkerThread;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.util.List;
+
+import de.cotech.hw.exceptions.PartialAuthenticationException;
+import de.cotech.hw.internal.BatchSigning;
 
 
 /**
@@ -68,6 +72,22 @@ public interface SecurityKeyAuthenticator {
     @WorkerThread
     byte[] authenticatePresignedDigest(byte[] digest, String hashAlgo) throws IOException;
 
+    /**
+     * Authenticate a list of digests, like {@link #authenticatePresignedDigest(byte[], String)}, but with the
+     * PIN verified only once and the signing commands sent back to back.
+     * <p>
+     * If signing fails after some digests were signed already, a {@link PartialAuthenticationException} is thrown,
+     * which contains the signatures up to the failed digest. If the first digest fails, its error is thrown as is.
+     *
+     * @param digests the digests to sign
+     * @param hashAlgo the algorithm the digests were created with
+     * @return the signatures, in the order of the digests
+     */
+    @WorkerThread
+    default List<byte[]> authenticatePresignedDigests(List<byte[]> digests, String hashAlgo) throws IOException {
+        return BatchSigning.signAll(digests, digest -> authenticatePresignedDigest(digest, hashAlgo));
+    }
+
     /**
      * Authenticate a challenge, by hashing it with the given hashing algorithm and signing it with the Security Key's
      * authentication key.
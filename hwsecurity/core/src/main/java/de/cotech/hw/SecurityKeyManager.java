@@ -29,7 +29,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.app.Activity;
 import android.app.Application;
@@ -38,7 +40,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 
 import androidx.annotation.AnyThread;
@@ -54,7 +55,9 @@ import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.OnLifecycleEvent;
 import de.cotech.hw.internal.HwSentry;
+import de.cotech.hw.internal.dispatch.TransportDispatcher;
 import de.cotech.hw.internal.dispatch.UsbIntentDispatchActivity;
+import de.cotech.hw.internal.transport.PresenceScheduler;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.internal.transport.nfc.NfcConnectionDispatcher;
 import de.cotech.hw.internal.transport.nfc.NfcTagManager;
@@ -105,7 +108,8 @@ import de.cotech.hw.util.HwTimber.DebugTree;
  * can do so using {@link de.cotech.hw.raw.RawSecurityKeyConnectionMode}.
  */
 public class SecurityKeyManager {
-    private ArrayList<RegisteredConnectionMode<?>> registeredCallbacks = new ArrayList<>();
+    // modified on the UI thread, but iterated by transports being connected in parallel
+    private List<RegisteredConnectionMode<?>> registeredCallbacks = new CopyOnWriteArrayList<>();
 
     private static SecurityKeyManager INSTANCE;
 
@@ -114,9 +118,11 @@ public class SecurityKeyManager {
     private UsbDeviceManager usbDeviceManager;
     private NfcTagManager nfcTagManager;
     private Handler callbackHandlerMain;
-    private Handler callbackHandlerWorker;
+    private TransportDispatcher transportDispatcher;
+    private PresenceScheduler presenceScheduler;
 
-    private List<SecurityKey> persistentSecurityKeys = new ArrayList<>(8);
+    // transports of different devices are connected in parallel, so this may be modified from several threads
+    private List<SecurityKey> persistentSecurityKeys = new CopyOnWriteArrayList<>();
     private AtomicBoolean callbackDedup = new AtomicBoolean(false);
 
     /**
@@ -199,17 +205,17 @@ public class SecurityKeyManager {
             });
         }
 
-        HandlerThread handlerThread = new HandlerThread("security-key-dispatcher");
-        handlerThread.start();
-        this.callbackHandlerWorker = new Handler(handlerThread.getLooper());
+        this.transportDispatcher = TransportDispatcher.createInstance();
+        this.presenceScheduler = PresenceScheduler.createInstance();
         this.callbackHandlerMain = new Handler(); // we make sure this is the main thread above
 
         usbDeviceManager = UsbDeviceManager.createInstance(application,
                 this::transportConnectAndDeliverOrPostponeOrFail,
-                callbackHandlerWorker, config.isAllowUntestedUsbDevices(), config.isEnableDebugLogging());
+                transportDispatcher, presenceScheduler, config.isAllowUntestedUsbDevices(), config.isEnableDebugLogging());
         nfcTagManager = NfcTagManager.createInstance(
                 this::transportConnectAndDeliverOrPostponeOrFail,
-                callbackHandlerWorker, config.isEnableDebugLogging(), config.isEnablePersistentNfcConnection());
+                transportDispatcher, presenceScheduler, config.isEnableDebugLogging(),
+                config.isEnablePersistentNfcConnection());
         application.registerActivityLifecycleCallbacks(activityLifecycleCallbacks);
 
         installCotechProviderIfAvailable();
@@ -303,6 +309,7 @@ public class SecurityKeyManager {
             if (activeNfcDispatcher != null) {
                 activeNfcDispatcher.onActive();
             }
+            nfcTagManager.resumePresenceMonitoring();
             postTriggerCallbacksActively();
         }
 
@@ -318,6 +325,7 @@ public class SecurityKeyManager {
             if (activeNfcDispatcher != null) {
                 activeNfcDispatcher.onInactive();
             }
+            nfcTagManager.pausePresenceMonitoring();
         }
 
         @Override
@@ -494,6 +502,15 @@ public class SecurityKeyManager {
         return Collections.unmodifiableList(result);
     }
 
+    /**
+     * Returns a snapshot of the statistics about the checks whether connected security keys are still
+     * present, such as the number of pings sent and their latency.
+     */
+    @AnyThread
+    public PresenceStatistics getPresenceStatistics() {
+        return presenceScheduler.getStatistics();
+    }
+
     @AnyThread
     public void rediscoverConnectedSecurityKeys() {
         postTriggerCallbacksActively();
@@ -542,10 +559,11 @@ public class SecurityKeyManager {
     private class RegisteredConnectionMode<T extends SecurityKey> implements LifecycleObserver {
         final SecurityKeyConnectionMode<T> connectionMode;
         final SecurityKeyCallback<T> callback;
-        boolean isActive;
+        // written on the UI thread, read by transport dispatcher threads
+        volatile boolean isActive;
         boolean isBoundForever;
-        @Nullable
-        Transport postponedTransport;
+        // written by transport dispatcher threads, taken on the UI thread
+        final AtomicReference<Transport> postponedTransport = new AtomicReference<>();
 
         RegisteredConnectionMode(SecurityKeyConnectionMode<T> connectionMode, SecurityKeyCallback<T> callback,
                 boolean isActive) {
@@ -576,7 +594,7 @@ public class SecurityKeyManager {
             }
             if (!isActive && connectionMode.isRelevantTransport(transport)) {
                 HwTimber.d("Postponing callback for paused %s callback", connectionMode.getClass().getSimpleName());
-                postponedTransport = transport;
+                postponedTransport.set(transport);
                 return true;
             }
             return false;
@@ -584,11 +602,10 @@ public class SecurityKeyManager {
 
         @UiThread
         private void maybeDeliverPostponedTransport() {
-            final Transport deliveredTransport = this.postponedTransport;
+            final Transport deliveredTransport = postponedTransport.getAndSet(null);
             if (deliveredTransport == null) {
                 return;
             }
-            this.postponedTransport = null;
 
             if (deliveredTransport.isReleased()) {
                 HwTimber.d("Postponed transport already released, holding off on delivering");
@@ -596,13 +613,13 @@ public class SecurityKeyManager {
             }
 
             HwTimber.d("Delivering postponed transport");
-            callbackHandlerWorker.post(() ->
+            transportDispatcher.dispatch(deliveredTransport, () ->
                     attemptConnectWithRegisteredSecurityMode(deliveredTransport));
         }
 
         @UiThread
         boolean maybeRedeliverSecurityKey(SecurityKey securityKeyCandidate) {
-            if (!isBoundForever && isActive && postponedTransport == null) {
+            if (!isBoundForever && isActive && postponedTransport.get() == null) {
                 if (connectionMode.isRelevantSecurityKey(securityKeyCandidate)) {
                     // noinspection unchecked, this is checked with isRelevantSecurityKey
                     deliverDiscover((T) securityKeyCandidate);
@@ -714,7 +731,7 @@ public class SecurityKeyManager {
             HwTimber.d("onDestroy: %s for %s destroyed",
                     connectionMode.getClass().getSimpleName(), callback.getClass().getSimpleName());
             registeredCallbacks.remove(this);
-            postponedTransport = null;
+            postponedTransport.set(null);
             if (persistentSecurityKeys.isEmpty()) {
                 connectionMode.clearSentryTags();
             }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.exceptions;
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * Thrown when signing a batch of digests failed after some of them were signed already, see
+ * {@link de.cotech.hw.SecurityKeyAuthenticator#authenticatePresignedDigests(List, String)}.
+ * <p>
+ * The signatures of the digests before the failed one are available from {@link #getSignatures()}, and the
+ * cause is the error for the digest at {@link #getFailedIndex()}. Digests after it were not sent to the
+ * Security Key.
+ */
+public class PartialAuthenticationException extends IOException {
+    private final List<byte[]> signatures;
+
+    @RestrictTo(Scope.LIBRARY_GROUP)
+    public PartialAuthenticationException(List<byte[]> signatures, IOException cause) {
+        super("Signing failed after " + signatures.size() + " digests", cause);
+        this.signatures = Collections.unmodifiableList(signatures);
+    }
+
+    /**
+     * Returns the signatures of the digests that were signed before the failure, in order.
+     */
+    public List<byte[]> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Returns the index of the digest that could not be signed.
+     */
+    public int getFailedIndex() {
+        return signatures.size();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal;
+
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * Creates executors for background work such as key generation or encryption.
+ * <p>
+ * Threads are daemon threads, and stop after a few seconds without work, so an executor that is kept in a
+ * static field doesn't hold on to idle threads.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class BackgroundExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * Creates an executor with up to poolSize threads, named threadName-1, threadName-2, and so on.
+     */
+    public static ThreadPoolExecutor createThreadPool(String threadName, int poolSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory(threadName));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Like {@link #createThreadPool(String, int)}, but also supports delayed tasks. While a delayed task is
+     * pending, one thread is kept alive to run it.
+     */
+    public static ScheduledThreadPoolExecutor createScheduledThreadPool(String threadName, int poolSize) {
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(poolSize, new DaemonThreadFactory(threadName));
+        executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String threadName;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        DaemonThreadFactory(String threadName) {
+            this.threadName = threadName;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import de.cotech.hw.exceptions.PartialAuthenticationException;
+
+
+/**
+ * Signs a list of digests one after the other, for
+ * {@link de.cotech.hw.SecurityKeyAuthenticator#authenticatePresignedDigests(List, String)} and its overrides.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class BatchSigning {
+    public interface DigestSigner {
+        byte[] sign(byte[] digest) throws IOException;
+    }
+
+    /**
+     * Signs each digest with the given signer, in order, and stops at the first failure.
+     *
+     * @return the signatures, in the order of the digests
+     * @throws PartialAuthenticationException if signing failed after at least one signature was created. If the
+     *         first digest fails, its error is thrown as is.
+     */
+    public static List<byte[]> signAll(List<byte[]> digests, DigestSigner signer) throws IOException {
+        List<byte[]> signatures = new ArrayList<>(digests.size());
+        for (byte[] digest : digests) {
+            try {
+                signatures.add(signer.sign(digest));
+            } catch (IOException e) {
+                if (signatures.isEmpty()) {
+                    throw e;
+                }
+                throw new PartialAuthenticationException(signatures, e);
+            }
+        }
+        return signatures;
+    }
+}
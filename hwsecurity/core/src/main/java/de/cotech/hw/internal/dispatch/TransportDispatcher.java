@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.dispatch;
+
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import androidx.annotation.VisibleForTesting;
+import de.cotech.hw.internal.BackgroundExecutors;
+import de.cotech.hw.internal.transport.Transport;
+
+
+/**
+ * Runs work for discovered transports, such as connecting and delivering them, on a small shared
+ * pool of worker threads.
+ * <p>
+ * Work for the same transport is executed serially in the order it was dispatched, while
+ * independent transports are handled in parallel. This way, a slow power-on of a USB reader
+ * doesn't hold up an NFC tag that is discovered at the same time.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class TransportDispatcher {
+    private static final int POOL_SIZE = 3;
+
+    private final ExecutorService workerPool;
+    private final Map<Transport, SerialExecutor> serialExecutors = new WeakHashMap<>();
+
+    public static TransportDispatcher createInstance() {
+        return new TransportDispatcher(BackgroundExecutors.createThreadPool("security-key-dispatcher", POOL_SIZE));
+    }
+
+    @VisibleForTesting
+    TransportDispatcher(ExecutorService workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Runs the given work on a worker thread, after all work previously dispatched for the same transport.
+     */
+    @AnyThread
+    public void dispatch(@NonNull Transport transport, @NonNull Runnable runnable) {
+        getSerialExecutor(transport).execute(runnable);
+    }
+
+    @AnyThread
+    private SerialExecutor getSerialExecutor(Transport transport) {
+        synchronized (serialExecutors) {
+            SerialExecutor serialExecutor = serialExecutors.get(transport);
+            if (serialExecutor == null) {
+                serialExecutor = new SerialExecutor();
+                serialExecutors.put(transport, serialExecutor);
+            }
+            return serialExecutor;
+        }
+    }
+
+    private class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+
+        @Override
+        public synchronized void execute(@NonNull Runnable runnable) {
+            tasks.add(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                workerPool.execute(active);
+            }
+        }
+    }
+}
@@ -39,6 +39,7 @@ import de.cotech.hw.util.Hex;
 @RestrictTo(Scope.LIBRARY_GROUP)
 public abstract class ResponseApdu {
     private static final int APDU_SW_SUCCESS = 0x9000;
+    private static final int APDU_SW1_RESPONSE_AVAILABLE = 0x61;
 
     @SuppressWarnings("mutable")
     public abstract byte[] getData();
@@ -69,6 +70,11 @@ public abstract class ResponseApdu {
         return getSw() == APDU_SW_SUCCESS;
     }
 
+    /** Returns true for 9000, and for 61xx where more response data is available via GET RESPONSE. */
+    public boolean isSuccessOrResponseAvailable() {
+        return isSuccess() || getSw1() == APDU_SW1_RESPONSE_AVAILABLE;
+    }
+
     public byte[] toBytes() {
         byte[] data = getData();
         byte[] bytes = new byte[data.length + 2];
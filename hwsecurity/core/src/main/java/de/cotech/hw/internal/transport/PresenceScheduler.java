@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport;
+
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import de.cotech.hw.PresenceStatistics;
+import de.cotech.hw.internal.BackgroundExecutors;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * Checks whether managed security keys are still present. Checks for all devices are timed on a single
+ * thread, but run on a small pool of worker threads, so a slow ping of one device doesn't delay the
+ * checks of others.
+ * <p>
+ * Checks run in short intervals right after a device was used, and back off while it is idle. A check
+ * is skipped altogether while the device is busy, e.g. in the middle of a transceive or a command chain,
+ * so presence pings never collide with actual commands.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class PresenceScheduler {
+    private static final int CHECK_POOL_SIZE = 3;
+
+    private final ScheduledExecutorService executor;
+    private final Executor checkExecutor;
+
+    private final AtomicLong pingCount = new AtomicLong();
+    private final AtomicLong pingFailureCount = new AtomicLong();
+    private final AtomicLong skippedPingCount = new AtomicLong();
+    private final AtomicLong totalPingLatencyMillis = new AtomicLong();
+    private final AtomicLong maxPingLatencyMillis = new AtomicLong();
+
+    public static PresenceScheduler createInstance() {
+        ScheduledExecutorService executor = BackgroundExecutors.createScheduledThreadPool("security-key-presence", 1);
+        Executor checkExecutor = BackgroundExecutors.createThreadPool("security-key-presence-check", CHECK_POOL_SIZE);
+        return new PresenceScheduler(executor, checkExecutor);
+    }
+
+    @VisibleForTesting
+    PresenceScheduler(ScheduledExecutorService executor, Executor checkExecutor) {
+        this.executor = executor;
+        this.checkExecutor = checkExecutor;
+    }
+
+    /**
+     * Starts monitoring a device. The first check runs after minIntervalMillis, after that the interval
+     * doubles with every check that finds the device idle, up to maxIntervalMillis. Pass the same value
+     * for both to check at a fixed interval. Monitoring ends when the device is found to be gone, after
+     * calling {@link PresenceCheck#onPresenceLost()}, or when the returned check is cancelled.
+     */
+    @AnyThread
+    public ScheduledPresenceCheck schedule(
+            PresenceCheck presenceCheck, long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Invalid presence check intervals");
+        }
+        ScheduledPresenceCheck scheduledPresenceCheck =
+                new ScheduledPresenceCheck(presenceCheck, minIntervalMillis, maxIntervalMillis);
+        scheduledPresenceCheck.scheduleNext();
+        return scheduledPresenceCheck;
+    }
+
+    /**
+     * Returns a snapshot of the ping statistics.
+     */
+    @AnyThread
+    public PresenceStatistics getStatistics() {
+        long count = pingCount.get();
+        long averageLatencyMillis = count != 0 ? totalPingLatencyMillis.get() / count : 0;
+        return PresenceStatistics.create(count, pingFailureCount.get(), skippedPingCount.get(),
+                averageLatencyMillis, maxPingLatencyMillis.get());
+    }
+
+    private void recordPing(long latencyMillis, boolean isPresent) {
+        pingCount.incrementAndGet();
+        totalPingLatencyMillis.addAndGet(latencyMillis);
+        long maxLatencyMillis;
+        do {
+            maxLatencyMillis = maxPingLatencyMillis.get();
+        } while (latencyMillis > maxLatencyMillis
+                && !maxPingLatencyMillis.compareAndSet(maxLatencyMillis, latencyMillis));
+        if (!isPresent) {
+            pingFailureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Runs on the scheduler thread when a check is due, and hands the check itself to the check executor.
+     */
+    public class ScheduledPresenceCheck implements Runnable {
+        private final PresenceCheck presenceCheck;
+        private final long minIntervalMillis;
+        private final long maxIntervalMillis;
+
+        private long intervalMillis;
+        private long lastSeenActivityTime;
+        private boolean cancelled;
+        private Future<?> pendingRun;
+
+        private ScheduledPresenceCheck(PresenceCheck presenceCheck, long minIntervalMillis, long maxIntervalMillis) {
+            this.presenceCheck = presenceCheck;
+            this.minIntervalMillis = minIntervalMillis;
+            this.maxIntervalMillis = maxIntervalMillis;
+            this.intervalMillis = minIntervalMillis;
+        }
+
+        @Override
+        @WorkerThread
+        public void run() {
+            checkExecutor.execute(this::runCheck);
+        }
+
+        @WorkerThread
+        private void runCheck() {
+            if (isCancelled()) {
+                return;
+            }
+
+            boolean isPresent;
+            try {
+                isPresent = checkPresence();
+            } catch (RuntimeException e) {
+                HwTimber.e(e, "Error checking security key presence");
+                isPresent = false;
+            }
+
+            if (isPresent) {
+                scheduleNext();
+            } else if (!isCancelled()) {
+                presenceCheck.onPresenceLost();
+            }
+        }
+
+        @WorkerThread
+        private boolean checkPresence() {
+            if (presenceCheck.isBusy()) {
+                skippedPingCount.incrementAndGet();
+                intervalMillis = minIntervalMillis;
+                return true;
+            }
+
+            long lastActivityTime = presenceCheck.getLastActivityTime();
+            if (lastActivityTime != lastSeenActivityTime) {
+                lastSeenActivityTime = lastActivityTime;
+                intervalMillis = minIntervalMillis;
+            } else {
+                intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+            }
+
+            // the device was used just now, no need to ask it again
+            if (lastActivityTime + minIntervalMillis > System.currentTimeMillis()) {
+                return true;
+            }
+
+            long startTime = SystemClock.elapsedRealtime();
+            boolean isPresent = presenceCheck.isPresent();
+            recordPing(SystemClock.elapsedRealtime() - startTime, isPresent);
+            return isPresent;
+        }
+
+        @AnyThread
+        synchronized void scheduleNext() {
+            if (!cancelled) {
+                pendingRun = executor.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Stops monitoring the device. A check that is already running is finished, but neither schedules
+         * another check nor reports the device as lost.
+         */
+        @AnyThread
+        public synchronized void cancel() {
+            cancelled = true;
+            if (pendingRun != null) {
+                pendingRun.cancel(false);
+                pendingRun = null;
+            }
+        }
+
+        @AnyThread
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public interface PresenceCheck {
+        /**
+         * Returns the time of the last use of the device, in {@link System#currentTimeMillis()}.
+         * A change resets the check interval to its minimum.
+         */
+        @WorkerThread
+        long getLastActivityTime();
+
+        /**
+         * Returns true if the device is in use right now, and must not be disturbed with a ping.
+         */
+        @WorkerThread
+        boolean isBusy();
+
+        /**
+         * Checks whether the device is still present, e.g. by sending a ping.
+         */
+        @WorkerThread
+        boolean isPresent();
+
+        @WorkerThread
+        void onPresenceLost();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * Remembers which AID was last selected successfully on a security key, keyed by
+ * {@link Transport#getSecurityKeyIdentifier()}.
+ * <p>
+ * Applet connections try a list of AIDs in order, and every miss costs a SELECT round trip. With the AID
+ * from the last connection tried first, a known security key is usually connected with a single SELECT.
+ * Each connection mode keeps its own instance, since the AIDs of different applets are unrelated.
+ * <p>
+ * Entries are only kept in memory. A miss costs one extra SELECT on the first connection after the app
+ * started, which is not worth persisting, and many security keys use a random NFC tag ID for each
+ * connection, which would only accumulate stale entries on disk.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class SelectedAidCache {
+    private final HashMap<String, byte[]> selectedAids = new HashMap<>();
+
+    /**
+     * Returns the given AIDs, with the one last selected on this security key moved to the front.
+     */
+    @AnyThread
+    @NonNull
+    public List<byte[]> getAidsInSelectOrder(Transport transport, List<byte[]> aids) {
+        String securityKeyIdentifier = transport.getSecurityKeyIdentifier();
+        if (securityKeyIdentifier == null) {
+            return aids;
+        }
+        byte[] selectedAid;
+        synchronized (this) {
+            selectedAid = selectedAids.get(securityKeyIdentifier);
+        }
+        if (selectedAid == null) {
+            return aids;
+        }
+
+        List<byte[]> result = new ArrayList<>(aids.size());
+        for (byte[] aid : aids) {
+            if (Arrays.equals(aid, selectedAid)) {
+                result.add(0, aid);
+            } else {
+                result.add(aid);
+            }
+        }
+        return result;
+    }
+
+    @AnyThread
+    public void put(Transport transport, byte[] selectedAid) {
+        String securityKeyIdentifier = transport.getSecurityKeyIdentifier();
+        if (securityKeyIdentifier == null) {
+            return;
+        }
+        synchronized (this) {
+            selectedAids.put(securityKeyIdentifier, selectedAid);
+        }
+    }
+}
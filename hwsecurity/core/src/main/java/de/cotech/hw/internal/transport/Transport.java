@@ -26,6 +26,8 @@ package de.cotech.hw.internal.transport;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -49,6 +51,31 @@ public interface Transport {
      */
     ResponseApdu transceive(CommandApdu data) throws IOException;
 
+    /**
+     * Transmit a sequence of commands, stopping at the first response that is neither 9000 nor 61xx.
+     * <p>
+     * Transports may send the whole sequence without giving up the connection in between, so
+     * this is cheaper than individual calls to {@link #transceive(CommandApdu)} for sequences that
+     * are known in advance. Note that the data of a 61xx response must be fetched with GET RESPONSE
+     * before the next command, so this is only useful for commands whose response isn't needed
+     * in that case.
+     *
+     * @param commandApdus commands to transmit, in order
+     * @return one response per transmitted command, the last one may be an error
+     * @throws IOException
+     */
+    default List<ResponseApdu> transceiveBatch(List<CommandApdu> commandApdus) throws IOException {
+        List<ResponseApdu> responseApdus = new ArrayList<>(commandApdus.size());
+        for (CommandApdu commandApdu : commandApdus) {
+            ResponseApdu responseApdu = transceive(commandApdu);
+            responseApdus.add(responseApdu);
+            if (!responseApdu.isSuccessOrResponseAvailable()) {
+                break;
+            }
+        }
+        return responseApdus;
+    }
+
     /**
      * Disconnect and release connection
      */
@@ -86,6 +113,32 @@ public interface Transport {
     @Nullable
     SecurityKeyInfo.SecurityKeyType getSecurityKeyTypeIfAvailable();
 
+    /**
+     * Returns a string that identifies the connected security key across connections, such as its
+     * NFC tag ID or USB serial number, or null if there is none. This is only a hint for caching,
+     * e.g. some security keys use a random NFC tag ID for each connection.
+     */
+    @Nullable
+    default String getSecurityKeyIdentifier() {
+        return null;
+    }
+
+    /**
+     * Returns how long {@link #connect()} took until the transport was ready for the first APDU,
+     * or -1 if not connected yet or not measured by this transport.
+     */
+    default long getConnectTimeMillis() {
+        return -1;
+    }
+
+    /**
+     * Returns how long powering on the card took during {@link #connect()}, or -1 if not connected
+     * yet or not applicable to this transport. This is part of {@link #getConnectTimeMillis()}.
+     */
+    default long getPowerOnTimeMillis() {
+        return -1;
+    }
+
     @RestrictTo(Scope.LIBRARY_GROUP)
     default void setTransportReleaseCallback(TransportReleasedCallback callback) {
         throw new UnsupportedOperationException();
@@ -30,39 +30,46 @@ import java.util.HashMap;
 import android.content.Intent;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.os.Handler;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
+import de.cotech.hw.internal.dispatch.TransportDispatcher;
+import de.cotech.hw.internal.transport.PresenceScheduler;
+import de.cotech.hw.internal.transport.PresenceScheduler.PresenceCheck;
+import de.cotech.hw.internal.transport.PresenceScheduler.ScheduledPresenceCheck;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
 
 
 @RestrictTo(Scope.LIBRARY_GROUP)
 public class NfcTagManager {
-    private static final long MONITOR_SLEEP_INTERVAL = 250;
-    private static final int MONITOR_PING_DELAY = 750;
+    private static final long MONITOR_MIN_INTERVAL = 250;
+    private static final long MONITOR_MAX_INTERVAL = 2000;
     private static final int MONITOR_TIMEOUT_DELAY = 20000;
 
     private final OnDiscoveredNfcTagListener callback;
-    private final Handler callbackHandler;
+    private final TransportDispatcher transportDispatcher;
+    private final PresenceScheduler presenceScheduler;
     private final boolean enableDebugLogging;
     private final boolean enablePersistentNfcConnection;
 
     private final HashMap<Tag, ManagedNfcTag> managedNfcTags = new HashMap<>();
 
     public static NfcTagManager createInstance(OnDiscoveredNfcTagListener callback,
-            Handler handler, boolean enableDebugLogging, boolean enablePersistentNfcConnection) {
-        return new NfcTagManager(callback, handler, enableDebugLogging, enablePersistentNfcConnection);
+            TransportDispatcher transportDispatcher, PresenceScheduler presenceScheduler, boolean enableDebugLogging,
+            boolean enablePersistentNfcConnection) {
+        return new NfcTagManager(callback, transportDispatcher, presenceScheduler, enableDebugLogging,
+                enablePersistentNfcConnection);
     }
 
-    private NfcTagManager(OnDiscoveredNfcTagListener callback, Handler handler, boolean enableDebugLogging,
-            boolean enablePersistentNfcConnection) {
+    private NfcTagManager(OnDiscoveredNfcTagListener callback, TransportDispatcher transportDispatcher,
+            PresenceScheduler presenceScheduler, boolean enableDebugLogging, boolean enablePersistentNfcConnection) {
         this.callback = callback;
-        this.callbackHandler = handler;
+        this.transportDispatcher = transportDispatcher;
+        this.presenceScheduler = presenceScheduler;
         this.enableDebugLogging = enableDebugLogging;
         this.enablePersistentNfcConnection = enablePersistentNfcConnection;
     }
@@ -108,6 +115,7 @@ public class NfcTagManager {
     private class ManagedNfcTag {
         private final Tag nfcTag;
         private NfcTransport activeTransport;
+        private ScheduledPresenceCheck scheduledPresenceCheck;
 
         private ManagedNfcTag(Tag nfcTag) {
             this.nfcTag = nfcTag;
@@ -115,7 +123,24 @@ public class NfcTagManager {
 
         @AnyThread
         synchronized void clearActiveNfcTransport() {
-            callbackHandler.post(activeTransport::release);
+            stopPresenceMonitoring();
+            transportDispatcher.dispatch(activeTransport, activeTransport::release);
+        }
+
+        @AnyThread
+        synchronized void startPresenceMonitoring() {
+            if (scheduledPresenceCheck == null) {
+                scheduledPresenceCheck = presenceScheduler.schedule(
+                        new NfcPresenceCheck(this), MONITOR_MIN_INTERVAL, MONITOR_MAX_INTERVAL);
+            }
+        }
+
+        @AnyThread
+        synchronized void stopPresenceMonitoring() {
+            if (scheduledPresenceCheck != null) {
+                scheduledPresenceCheck.cancel();
+                scheduledPresenceCheck = null;
+            }
         }
 
         @AnyThread
@@ -129,14 +154,31 @@ public class NfcTagManager {
 
             NfcTransport nfcTransport = NfcTransport.createNfcTransport(nfcTag, enableDebugLogging, enablePersistentNfcConnection);
             activeTransport = nfcTransport;
-            startMonitorThread(this).start();
-            callbackHandler.post(() -> callback.nfcTransportDiscovered(nfcTransport));
+            startPresenceMonitoring();
+            transportDispatcher.dispatch(nfcTransport, () -> callback.nfcTransportDiscovered(nfcTransport));
         }
     }
 
-    @AnyThread
-    private NfcMonitorThread startMonitorThread(ManagedNfcTag managedNfcTag) {
-        return new NfcMonitorThread(managedNfcTag);
+    /**
+     * Stops checking the presence of managed tags while the manager is inactive, so they aren't pinged
+     * while the app is in the background. Tags that are gone by then are dropped once checks resume.
+     */
+    @UiThread
+    public void pausePresenceMonitoring() {
+        synchronized (managedNfcTags) {
+            for (ManagedNfcTag managedNfcTag : managedNfcTags.values()) {
+                managedNfcTag.stopPresenceMonitoring();
+            }
+        }
+    }
+
+    @UiThread
+    public void resumePresenceMonitoring() {
+        synchronized (managedNfcTags) {
+            for (ManagedNfcTag managedNfcTag : managedNfcTags.values()) {
+                managedNfcTag.startPresenceMonitoring();
+            }
+        }
     }
 
     @AnyThread
@@ -164,43 +206,40 @@ public class NfcTagManager {
         }
     }
 
-    private class NfcMonitorThread extends Thread {
+    private class NfcPresenceCheck implements PresenceCheck {
         final ManagedNfcTag managedNfcTag;
 
-        NfcMonitorThread(ManagedNfcTag managedNfcTag) {
+        NfcPresenceCheck(ManagedNfcTag managedNfcTag) {
             this.managedNfcTag = managedNfcTag;
         }
 
         @Override
         @WorkerThread
-        public void run() {
-            try {
-                while (deviceIsStillConnected()) {
-                    sleepInterruptibly();
-                }
-            } finally {
-                onNfcTagLost(managedNfcTag.nfcTag);
-            }
+        public long getLastActivityTime() {
+            return managedNfcTag.activeTransport.getLastTransceiveTime();
         }
 
+        @Override
         @WorkerThread
-        boolean deviceIsStillConnected() {
-            long lastTransceiveTime = managedNfcTag.activeTransport.getLastTransceiveTime();
+        public boolean isBusy() {
+            return managedNfcTag.activeTransport.isBusy();
+        }
+
+        @Override
+        @WorkerThread
+        public boolean isPresent() {
             if (enablePersistentNfcConnection) {
-                boolean connectionIsActive = lastTransceiveTime + MONITOR_PING_DELAY > System.currentTimeMillis();
-                return connectionIsActive || managedNfcTag.activeTransport.ping();
+                return managedNfcTag.activeTransport.ping();
             } else {
+                long lastTransceiveTime = managedNfcTag.activeTransport.getLastTransceiveTime();
                 return lastTransceiveTime + MONITOR_TIMEOUT_DELAY > System.currentTimeMillis();
             }
         }
 
+        @Override
         @WorkerThread
-        void sleepInterruptibly() {
-            try {
-                Thread.sleep(MONITOR_SLEEP_INTERVAL);
-            } catch (InterruptedException e) {
-                // nvm
-            }
+        public void onPresenceLost() {
+            onNfcTagLost(managedNfcTag.nfcTag);
         }
     }
 
@@ -26,6 +26,9 @@ package de.cotech.hw.internal.transport.nfc;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import android.nfc.Tag;
 import android.nfc.TagLostException;
@@ -44,6 +47,7 @@ import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.internal.transport.SecurityKeyInfo;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
 import de.cotech.hw.internal.transport.Transport;
+import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
 
 @RestrictTo(Scope.LIBRARY_GROUP)
@@ -61,7 +65,7 @@ public class NfcTransport implements Transport {
     private final boolean isPersistentlyManaged;
     private IsoDep mIsoDep;
 
-    private final Object connectionLock = new Object();
+    private final ReentrantLock connectionLock = new ReentrantLock();
     private volatile boolean isTransceiving = false;
     private volatile boolean isTransceivingChain = false;
     private volatile long lastTransceiveTime;
@@ -85,51 +89,92 @@ public class NfcTransport implements Transport {
         if (!isConnected()) {
             throw new SecurityKeyDisconnectedException();
         }
-        synchronized (connectionLock) {
-            try {
-                isTransceiving = true;
-                isTransceivingChain = (commandApdu.getCLA() & CLA_MASK_CHAINING) == CLA_MASK_CHAINING;
-                byte[] rawCommand = commandApdu.toBytes();
-                if (enableDebugLogging) {
-                    HwTimber.d("NFC out: %s", commandApdu);
+        connectionLock.lock();
+        try {
+            return transceiveLocked(commandApdu);
+        } finally {
+            lastTransceiveTime = System.currentTimeMillis();
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * Transmits all commands under a single hold of the connection lock, so no ping can get in between.
+     */
+    @Override
+    public List<ResponseApdu> transceiveBatch(List<CommandApdu> commandApdus) throws IOException {
+        if (!isConnected()) {
+            throw new SecurityKeyDisconnectedException();
+        }
+        List<ResponseApdu> responseApdus = new ArrayList<>(commandApdus.size());
+        connectionLock.lock();
+        try {
+            for (CommandApdu commandApdu : commandApdus) {
+                ResponseApdu responseApdu = transceiveLocked(commandApdu);
+                responseApdus.add(responseApdu);
+                if (!responseApdu.isSuccessOrResponseAvailable()) {
+                    break;
                 }
+            }
+            return responseApdus;
+        } finally {
+            lastTransceiveTime = System.currentTimeMillis();
+            connectionLock.unlock();
+        }
+    }
+
+    private ResponseApdu transceiveLocked(CommandApdu commandApdu) throws IOException {
+        try {
+            isTransceiving = true;
+            isTransceivingChain = (commandApdu.getCLA() & CLA_MASK_CHAINING) == CLA_MASK_CHAINING;
+            byte[] rawCommand = commandApdu.toBytes();
+            if (enableDebugLogging) {
+                HwTimber.d("NFC out: %s", commandApdu);
+            }
 
-                long startRealtime = SystemClock.elapsedRealtime();
-                byte[] rawResponse = mIsoDep.transceive(rawCommand);
+            long startRealtime = SystemClock.elapsedRealtime();
+            byte[] rawResponse = mIsoDep.transceive(rawCommand);
 
-                ResponseApdu responseApdu = ResponseApdu.fromBytes(rawResponse);
-                if (enableDebugLogging) {
-                    long totalTime = SystemClock.elapsedRealtime() - startRealtime;
-                    HwTimber.d("NFC  in: %s", responseApdu);
-                    HwTimber.d("NFC communication took %dms", totalTime);
-                }
+            ResponseApdu responseApdu = ResponseApdu.fromBytes(rawResponse);
+            if (enableDebugLogging) {
+                long totalTime = SystemClock.elapsedRealtime() - startRealtime;
+                HwTimber.d("NFC  in: %s", responseApdu);
+                HwTimber.d("NFC communication took %dms", totalTime);
+            }
 
-                if (responseApdu.getSw1() == APDU_SW1_RESPONSE_AVAILABLE) {
-                    isTransceivingChain = true;
-                }
-                return responseApdu;
-            } catch (TagLostException e) {
-                throw new SecurityKeyDisconnectedException();
-            } finally {
-                lastTransceiveTime = System.currentTimeMillis();
-                isTransceiving = false;
+            if (responseApdu.getSw1() == APDU_SW1_RESPONSE_AVAILABLE) {
+                isTransceivingChain = true;
             }
+            return responseApdu;
+        } catch (TagLostException e) {
+            throw new SecurityKeyDisconnectedException();
+        } finally {
+            isTransceiving = false;
         }
     }
 
+    /**
+     * Checks if the tag is still in the field. The ping is skipped if a command or a command chain
+     * is in flight, since it would interfere with it. Pings don't count as use of the tag, see
+     * {@link #getLastTransceiveTime()}.
+     */
     @Override
     public boolean ping() {
         if (!isConnected()) {
             return false;
         }
+        if (isBusy() || !connectionLock.tryLock()) {
+            HwTimber.d("Tag is busy, skipping nfc ping");
+            return true;
+        }
         HwTimber.d("Sending nfc ping…");
         long startTime = SystemClock.elapsedRealtime();
         try {
-            transceive(PING_APDU);
+            transceiveLocked(PING_APDU);
             long totalTime = SystemClock.elapsedRealtime() - startTime;
             HwTimber.d("got pong in %dms!", totalTime);
             return true;
-        } catch (TagLostException e) {
+        } catch (SecurityKeyDisconnectedException e) {
             long totalTime = SystemClock.elapsedRealtime() - startTime;
             HwTimber.d("tag lost, waited %dms!", totalTime);
             return false;
@@ -137,20 +182,23 @@ public class NfcTransport implements Transport {
             long totalTime = SystemClock.elapsedRealtime() - startTime;
             HwTimber.e(e, "tag lost, waited %dms!", totalTime);
             return false;
+        } finally {
+            connectionLock.unlock();
         }
     }
 
-    long getLastTransceiveTime() {
+    /**
+     * Returns true while a command is transceived, or a command chain was started and not finished
+     * within {@link #TIMEOUT_WHILE_CHAINING}.
+     */
+    boolean isBusy() {
         if (isTransceiving) {
-            return System.currentTimeMillis();
-        }
-        if (isTransceivingChain) {
-            boolean isChainTransceiveTimeout = lastTransceiveTime + TIMEOUT_WHILE_CHAINING > System.currentTimeMillis();
-            if (!isChainTransceiveTimeout) {
-                HwTimber.d("Timeout while chaining commands!");
-                return System.currentTimeMillis();
-            }
+            return true;
         }
+        return isTransceivingChain && lastTransceiveTime + TIMEOUT_WHILE_CHAINING > System.currentTimeMillis();
+    }
+
+    long getLastTransceiveTime() {
         return lastTransceiveTime;
     }
 
@@ -227,6 +275,13 @@ public class NfcTransport implements Transport {
         return null;
     }
 
+    @Nullable
+    @Override
+    public String getSecurityKeyIdentifier() {
+        byte[] tagId = mTag.getId();
+        return tagId != null ? "nfc:" + Hex.encodeHexString(tagId) : null;
+    }
+
     public Tag getTag() {
         return mTag;
     }
@@ -44,38 +44,55 @@ import android.hardware.usb.UsbManager;
 import android.hardware.usb.UsbRequest;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
-import android.os.Handler;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
+import de.cotech.hw.internal.dispatch.TransportDispatcher;
+import de.cotech.hw.internal.transport.PresenceScheduler;
+import de.cotech.hw.internal.transport.PresenceScheduler.PresenceCheck;
+import de.cotech.hw.internal.transport.PresenceScheduler.ScheduledPresenceCheck;
 import de.cotech.hw.internal.transport.Transport;
+import de.cotech.hw.internal.transport.usb.ccid.CcidVoltageCache;
 import de.cotech.hw.internal.transport.usb.ccid.UsbCcidTransport;
+import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidChannelCache;
 import de.cotech.hw.internal.transport.usb.ctaphid.UsbCtapHidTransport;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
 
 
 public class UsbDeviceManager {
+    private static final long MONITOR_INTERVAL = 250;
+
     private final OnDiscoveredUsbDeviceListener callback;
-    private final android.os.Handler callbackHandler;
+    private final TransportDispatcher transportDispatcher;
+    private final PresenceScheduler presenceScheduler;
     private final boolean allowUntested;
     private boolean enableDebugLogging;
 
     private final UsbManager usbManager;
 
     private final HashMap<UsbDevice, ManagedUsbDevice> managedUsbDevices = new HashMap<>();
+    // CTAPHID channels outlive managed devices, they are only dropped once the device is detached
+    private final HashMap<UsbDevice, CtapHidChannelCache> ctapHidChannelCaches = new HashMap<>();
+    // power on voltages are remembered across attachments, identified by vendor id, product id and serial
+    private final CcidVoltageCache ccidVoltageCache = new CcidVoltageCache();
 
     public static UsbDeviceManager createInstance(Context context, OnDiscoveredUsbDeviceListener callback,
-                                                  Handler handler, boolean allowUntested, boolean enableDebugLogging) {
+                                                  TransportDispatcher transportDispatcher,
+                                                  PresenceScheduler presenceScheduler, boolean allowUntested,
+                                                  boolean enableDebugLogging) {
         UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
-        return new UsbDeviceManager(usbManager, callback, handler, allowUntested, enableDebugLogging);
+        return new UsbDeviceManager(usbManager, callback, transportDispatcher, presenceScheduler, allowUntested,
+                enableDebugLogging);
     }
 
     private UsbDeviceManager(UsbManager usbManager, OnDiscoveredUsbDeviceListener callback,
-            Handler handler, boolean allowUntested, boolean enableDebugLogging) {
+            TransportDispatcher transportDispatcher, PresenceScheduler presenceScheduler, boolean allowUntested,
+            boolean enableDebugLogging) {
         this.callback = callback;
-        this.callbackHandler = handler;
+        this.transportDispatcher = transportDispatcher;
+        this.presenceScheduler = presenceScheduler;
         this.allowUntested = allowUntested;
         this.usbManager = usbManager;
         this.enableDebugLogging = enableDebugLogging;
@@ -108,6 +125,7 @@ public class UsbDeviceManager {
             try {
                 ManagedUsbDevice managedUsbDevice = createManagedUsbDevice(usbDevice);
                 managedUsbDevices.put(usbDevice, managedUsbDevice);
+                startMonitoring(managedUsbDevice);
             } catch (IOException e) {
                 HwTimber.e(e, "Failed to initialize usb device!");
             }
@@ -127,7 +145,7 @@ public class UsbDeviceManager {
             } catch (UsbTransportException e) {
                 HwTimber.d("Failed to reclaim USB device, releasing (0x%s 0x%s)",
                         Integer.toHexString(usbDevice.getVendorId()), Integer.toHexString(usbDevice.getProductId()));
-                managedUsbDevice.clearAllActiveUsbTransports();
+                managedUsbDevice.release();
                 managedUsbDevices.remove(usbDevice);
                 return false;
             }
@@ -153,7 +171,6 @@ public class UsbDeviceManager {
 
         ManagedUsbDevice managedUsbDevice = new ManagedUsbDevice(usbDevice, usbConnection, usbInterfaces);
         managedUsbDevice.claimInterface();
-        startMonitorThread(managedUsbDevice, usbInterfaces).start();
         return managedUsbDevice;
     }
 
@@ -181,6 +198,7 @@ public class UsbDeviceManager {
         private List<UsbInterface> usbInterfaces;
 
         private Map<UsbInterface, Transport> currentActiveTransports = new HashMap<>();
+        private ScheduledPresenceCheck scheduledPresenceCheck;
 
         private ManagedUsbDevice(
                 UsbDevice usbDevice, UsbDeviceConnection usbConnection, List<UsbInterface> usbInterfaces) {
@@ -200,10 +218,28 @@ public class UsbDeviceManager {
         }
 
         @AnyThread
-        synchronized void clearAllActiveUsbTransports() {
+        synchronized void startPresenceMonitoring() {
+            scheduledPresenceCheck = presenceScheduler.schedule(
+                    new UsbPresenceCheck(this), MONITOR_INTERVAL, MONITOR_INTERVAL);
+        }
+
+        /**
+         * Stops monitoring the device and releases all of its transports, before it is dropped.
+         */
+        @AnyThread
+        synchronized void release() {
+            if (scheduledPresenceCheck != null) {
+                scheduledPresenceCheck.cancel();
+                scheduledPresenceCheck = null;
+            }
+            clearAllActiveUsbTransports();
+        }
+
+        @AnyThread
+        private void clearAllActiveUsbTransports() {
             for (Entry<UsbInterface, Transport> entry : currentActiveTransports.entrySet()) {
                 final Transport disconnectedTransport = entry.getValue();
-                callbackHandler.post(disconnectedTransport::release);
+                transportDispatcher.dispatch(disconnectedTransport, disconnectedTransport::release);
             }
             currentActiveTransports.clear();
         }
@@ -212,7 +248,7 @@ public class UsbDeviceManager {
         synchronized void clearActiveUsbTransport(UsbInterface usbInterface) {
             Transport disconnectedTransport = currentActiveTransports.remove(usbInterface);
             if (disconnectedTransport != null) {
-                callbackHandler.post(disconnectedTransport::release);
+                transportDispatcher.dispatch(disconnectedTransport, disconnectedTransport::release);
             }
         }
 
@@ -226,27 +262,51 @@ public class UsbDeviceManager {
             Transport usbTransport;
             if (usbInterface.getInterfaceClass() == UsbConstants.USB_CLASS_CSCID) {
                 usbTransport = UsbCcidTransport.createUsbTransport(
-                        usbManager, usbDevice, usbConnection, usbInterface, enableDebugLogging);
+                        usbManager, usbDevice, usbConnection, usbInterface, ccidVoltageCache, enableDebugLogging);
             } else if (usbInterface.getInterfaceClass() == UsbConstants.USB_CLASS_HID) {
-                usbTransport = UsbCtapHidTransport.createUsbTransport(
-                        usbManager, usbDevice, usbConnection, usbInterface, enableDebugLogging);
+                usbTransport = UsbCtapHidTransport.createUsbTransport(usbManager, usbDevice, usbConnection,
+                        usbInterface, getCtapHidChannelCache(usbDevice), enableDebugLogging);
             } else {
                 throw new RuntimeException("unsupported USB class");
             }
             HwTimber.d("USB transport created on interface class %s", usbInterface.getInterfaceClass());
             currentActiveTransports.put(usbInterface, usbTransport);
-            callbackHandler.post(() -> callback.usbTransportDiscovered(usbTransport));
+            transportDispatcher.dispatch(usbTransport, () -> callback.usbTransportDiscovered(usbTransport));
         }
     }
 
+    @AnyThread
+    private CtapHidChannelCache getCtapHidChannelCache(UsbDevice usbDevice) {
+        synchronized (ctapHidChannelCaches) {
+            CtapHidChannelCache channelCache = ctapHidChannelCaches.get(usbDevice);
+            if (channelCache == null) {
+                channelCache = new CtapHidChannelCache();
+                ctapHidChannelCaches.put(usbDevice, channelCache);
+            }
+            return channelCache;
+        }
+    }
+
+    /**
+     * CCID readers that notify about slot changes are monitored on their interrupt endpoint, which
+     * needs a thread of its own to wait on. For all other devices, all ICCs are assumed to be connected,
+     * and the shared presence scheduler checks whether the device is still attached.
+     */
     @UiThread
-    private UsbMonitorThread startMonitorThread(ManagedUsbDevice managedUsbDevice, List<UsbInterface> usbInterfaces) {
-        Map<UsbEndpoint, UsbInterface> interruptEndpoints = getIntEndpointsIfOnlyCcid(usbInterfaces);
+    private void startMonitoring(ManagedUsbDevice managedUsbDevice) {
+        Map<UsbEndpoint, UsbInterface> interruptEndpoints = getIntEndpointsIfOnlyCcid(managedUsbDevice.usbInterfaces);
         if (!interruptEndpoints.isEmpty()) {
-            return new UsbInterruptMonitorThread(managedUsbDevice, interruptEndpoints);
-        } else {
-            return new UsbSimpleMonitorThread(managedUsbDevice, usbInterfaces);
+            new UsbInterruptMonitorThread(managedUsbDevice, interruptEndpoints).start();
+            return;
         }
+
+        HwTimber.d("Simple device, assuming all ICCs are connected");
+        for (UsbInterface usbInterface : managedUsbDevice.usbInterfaces) {
+            managedUsbDevice.createNewActiveUsbTransport(usbInterface);
+        }
+        // USB transports don't report their use, so there is no activity to adapt to. Checking is cheap,
+        // it only looks at the list of attached devices, so do that at a fixed interval.
+        managedUsbDevice.startPresenceMonitoring();
     }
 
     @AnyThread
@@ -254,7 +314,7 @@ public class UsbDeviceManager {
         HwTimber.d("Clearing USB managed device state");
         synchronized (managedUsbDevices) {
             for (ManagedUsbDevice managedUsbDevice : managedUsbDevices.values()) {
-                managedUsbDevice.clearAllActiveUsbTransports();
+                managedUsbDevice.release();
             }
             managedUsbDevices.clear();
         }
@@ -263,13 +323,16 @@ public class UsbDeviceManager {
     @WorkerThread
     private void onUsbDeviceLost(UsbDevice usbDevice) {
         HwTimber.d("Lost USB security key, dropping managed device");
+        synchronized (ctapHidChannelCaches) {
+            ctapHidChannelCaches.remove(usbDevice);
+        }
         synchronized (managedUsbDevices) {
             ManagedUsbDevice managedUsbDevice = managedUsbDevices.get(usbDevice);
             if (managedUsbDevice == null) {
                 HwTimber.d("Device already dropped");
                 return;
             }
-            managedUsbDevice.clearAllActiveUsbTransports();
+            managedUsbDevice.release();
             managedUsbDevices.remove(usbDevice);
         }
     }
@@ -293,74 +356,63 @@ public class UsbDeviceManager {
         }
     }
 
-    private abstract class UsbMonitorThread extends Thread {
+    private class UsbPresenceCheck implements PresenceCheck {
         final ManagedUsbDevice managedUsbDevice;
 
-        UsbMonitorThread(ManagedUsbDevice managedUsbDevice) {
+        UsbPresenceCheck(ManagedUsbDevice managedUsbDevice) {
             this.managedUsbDevice = managedUsbDevice;
         }
 
         @Override
-        public void run() {
-            try {
-                loopMonitorUsb();
-            } finally {
-                onUsbDeviceLost(managedUsbDevice.usbDevice);
-            }
-        }
-
         @WorkerThread
-        abstract void loopMonitorUsb();
+        public long getLastActivityTime() {
+            // not tracked, checks run at a fixed interval instead
+            return 0;
+        }
 
+        @Override
         @WorkerThread
-        void sleepInterruptibly(long time) {
-            try {
-                Thread.sleep(time);
-            } catch (InterruptedException e) {
-                // nvm
-            }
+        public boolean isBusy() {
+            return false;
         }
 
-        @AnyThread
-        boolean deviceIsStillConnected() {
+        @Override
+        @WorkerThread
+        public boolean isPresent() {
             return UsbUtils.isDeviceStillConnected(usbManager, managedUsbDevice.usbDevice);
         }
-    }
-
-    private class UsbSimpleMonitorThread extends UsbMonitorThread {
-        final List<UsbInterface> usbInterfaces;
-
-        private UsbSimpleMonitorThread(ManagedUsbDevice managedUsbDevice, List<UsbInterface> usbInterfaces) {
-            super(managedUsbDevice);
-            this.usbInterfaces = usbInterfaces;
-        }
 
+        @Override
         @WorkerThread
-        void loopMonitorUsb() {
-            HwTimber.d("Simple device, assuming all ICCs are connected");
-            for (UsbInterface usbInterface : usbInterfaces) {
-                onIccConnect(managedUsbDevice.usbDevice, usbInterface);
-            }
-            while (deviceIsStillConnected()) {
-                sleepInterruptibly(250);
-            }
+        public void onPresenceLost() {
+            onUsbDeviceLost(managedUsbDevice.usbDevice);
         }
     }
 
-    private class UsbInterruptMonitorThread extends UsbMonitorThread {
+    private class UsbInterruptMonitorThread extends Thread {
         // https://www.usb.org/sites/default/files/DWG_Smart-Card_CCID_Rev110.pdf
         // 6.3.1 RDR_to_PC_NotifySlotChange
         static final int CCID_NOTIFY_SLOT_CHANGE = 0x50;
         static final int ICC_SLOT_CHANGE_NOT_PRESENT = 0x02;
         static final int ICC_SLOT_CHANGE_PRESENT = 0x03;
 
+        final ManagedUsbDevice managedUsbDevice;
         private final Map<UsbEndpoint, UsbInterface> usbInterruptEndpoints;
 
         private UsbInterruptMonitorThread(ManagedUsbDevice managedUsbDevice, Map<UsbEndpoint, UsbInterface> usbInterruptEndpoints) {
-            super(managedUsbDevice);
+            this.managedUsbDevice = managedUsbDevice;
             this.usbInterruptEndpoints = usbInterruptEndpoints;
         }
 
+        @Override
+        public void run() {
+            try {
+                loopMonitorUsb();
+            } finally {
+                onUsbDeviceLost(managedUsbDevice.usbDevice);
+            }
+        }
+
         @WorkerThread
         void loopMonitorUsb() {
             for (UsbEndpoint usbInterruptEndpoint : usbInterruptEndpoints.keySet()) {
@@ -416,6 +468,20 @@ public class UsbDeviceManager {
                 sleepInterruptibly(100);
             }
         }
+
+        @WorkerThread
+        void sleepInterruptibly(long time) {
+            try {
+                Thread.sleep(time);
+            } catch (InterruptedException e) {
+                // nvm
+            }
+        }
+
+        @AnyThread
+        boolean deviceIsStillConnected() {
+            return UsbUtils.isDeviceStillConnected(usbManager, managedUsbDevice.usbDevice);
+        }
     }
 
     @AnyThread
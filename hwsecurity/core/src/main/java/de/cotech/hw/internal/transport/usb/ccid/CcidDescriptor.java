@@ -35,8 +35,7 @@ import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.VisibleForTesting;
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
-import de.cotech.hw.internal.transport.usb.ccid.tpdu.T0ShortApduProtocol;
-import de.cotech.hw.internal.transport.usb.ccid.tpdu.T1ShortApduProtocol;
+import de.cotech.hw.internal.transport.usb.ccid.tpdu.ApduLevelProtocol;
 import de.cotech.hw.internal.transport.usb.ccid.tpdu.T1TpduProtocol;
 
 
@@ -47,6 +46,7 @@ abstract class CcidDescriptor {
     private static final int DESCRIPTOR_TYPE = 0x21;
 
     // dwFeatures Masks
+    private static final int FEATURE_AUTOMATIC_PARAMETERS = 0x00002;
     private static final int FEATURE_AUTOMATIC_VOLTAGE = 0x00008;
     private static final int FEATURE_AUTOMATIC_PPS = 0x00080;
 
@@ -60,7 +60,19 @@ abstract class CcidDescriptor {
     private static final byte VOLTAGE_1_8V = 4;
 
     private static final int SLOT_OFFSET = 4;
+    private static final int DEFAULT_CLOCK_OFFSET = 10;
+    private static final int MAX_IFSD_OFFSET = 28;
     private static final int FEATURES_OFFSET = 40;
+    private static final int MAX_CCID_MESSAGE_LENGTH_OFFSET = 44;
+
+    // minimum allowed by the spec: header plus a short APDU with Lc = 255 and Le
+    static final int MIN_MAX_CCID_MESSAGE_LENGTH = 10 + 261;
+    // header plus the longest possible extended APDU
+    private static final int MAX_MAX_CCID_MESSAGE_LENGTH = 10 + 65544;
+    // typical clock for readers that don't report one, in kHz
+    private static final int DEFAULT_CLOCK_KHZ = 3580;
+    private static final int MAX_IFSD = 254;
+
     private static final short MASK_T0_PROTO = 1;
     private static final short MASK_T1_PROTO = 2;
 
@@ -68,15 +80,32 @@ abstract class CcidDescriptor {
     public abstract byte getVoltageSupport();
     public abstract int getProtocols();
     public abstract int getFeatures();
+    public abstract int getMaxCcidMessageLength();
+    public abstract int getDefaultClock();
+    public abstract int getMaxIfsd();
 
     @VisibleForTesting
     static CcidDescriptor fromValues(byte maxSlotIndex, byte voltageSupport, int protocols, int features) {
-        return new AutoValue_CcidDescriptor(maxSlotIndex, voltageSupport, protocols, features);
+        return fromValues(maxSlotIndex, voltageSupport, protocols, features, MIN_MAX_CCID_MESSAGE_LENGTH);
+    }
+
+    @VisibleForTesting
+    static CcidDescriptor fromValues(byte maxSlotIndex, byte voltageSupport, int protocols, int features,
+            int maxCcidMessageLength) {
+        return fromValues(maxSlotIndex, voltageSupport, protocols, features, maxCcidMessageLength,
+                DEFAULT_CLOCK_KHZ, MAX_IFSD);
+    }
+
+    @VisibleForTesting
+    static CcidDescriptor fromValues(byte maxSlotIndex, byte voltageSupport, int protocols, int features,
+            int maxCcidMessageLength, int defaultClock, int maxIfsd) {
+        return new AutoValue_CcidDescriptor(maxSlotIndex, voltageSupport, protocols, features, maxCcidMessageLength,
+                defaultClock, maxIfsd);
     }
 
     @NonNull
     static CcidDescriptor fromRawDescriptors(byte[] desc) throws UsbTransportException {
-        int dwProtocols = 0, dwFeatures = 0;
+        int dwProtocols = 0, dwFeatures = 0, dwMaxCcidMessageLength = 0, dwDefaultClock = 0, dwMaxIfsd = 0;
         byte bMaxSlotIndex = 0, bVoltageSupport = 0;
 
         boolean hasCcidDescriptor = false;
@@ -97,8 +126,23 @@ abstract class CcidDescriptor {
 
                 byteBuffer.reset();
 
+                byteBuffer.position(byteBuffer.position() + DEFAULT_CLOCK_OFFSET);
+                dwDefaultClock = byteBuffer.getInt();
+
+                byteBuffer.reset();
+
+                byteBuffer.position(byteBuffer.position() + MAX_IFSD_OFFSET);
+                dwMaxIfsd = byteBuffer.getInt();
+
+                byteBuffer.reset();
+
                 byteBuffer.position(byteBuffer.position() + FEATURES_OFFSET);
                 dwFeatures = byteBuffer.getInt();
+
+                byteBuffer.reset();
+
+                byteBuffer.position(byteBuffer.position() + MAX_CCID_MESSAGE_LENGTH_OFFSET);
+                dwMaxCcidMessageLength = byteBuffer.getInt();
                 hasCcidDescriptor = true;
                 break;
             } else {
@@ -110,7 +154,23 @@ abstract class CcidDescriptor {
             throw new UsbTransportException("CCID descriptor not found");
         }
 
-        return new AutoValue_CcidDescriptor(bMaxSlotIndex, bVoltageSupport, dwProtocols, dwFeatures);
+        // some readers report nonsense here, stay within what the spec allows
+        if (dwMaxCcidMessageLength < MIN_MAX_CCID_MESSAGE_LENGTH) {
+            dwMaxCcidMessageLength = MIN_MAX_CCID_MESSAGE_LENGTH;
+        } else if (dwMaxCcidMessageLength > MAX_MAX_CCID_MESSAGE_LENGTH) {
+            dwMaxCcidMessageLength = MAX_MAX_CCID_MESSAGE_LENGTH;
+        }
+
+        if (dwDefaultClock <= 0) {
+            dwDefaultClock = DEFAULT_CLOCK_KHZ;
+        }
+        // zero is reported by readers without T=1 support on TPDU level
+        if (dwMaxIfsd < 0 || dwMaxIfsd > MAX_IFSD) {
+            dwMaxIfsd = MAX_IFSD;
+        }
+
+        return new AutoValue_CcidDescriptor(bMaxSlotIndex, bVoltageSupport, dwProtocols, dwFeatures,
+                dwMaxCcidMessageLength, dwDefaultClock, dwMaxIfsd);
     }
 
     Voltage[] getVoltages() {
@@ -130,36 +190,37 @@ abstract class CcidDescriptor {
     }
 
     CcidTransportProtocol getSuitableTransportProtocol() throws UsbTransportException {
+        boolean hasT0Protocol = (getProtocols() & MASK_T0_PROTO) != 0;
         boolean hasT1Protocol = (getProtocols() & MASK_T1_PROTO) != 0;
-        if (hasT1Protocol) {
-            if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_TPDU)) {
-                return new T1TpduProtocol();
-            } else if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_SHORT_APDU) ||
-                    hasFeature(CcidDescriptor.FEATURE_EXCHAGE_LEVEL_EXTENDED_APDU)) {
-                return new T1ShortApduProtocol();
-            } else {
-                throw new UsbTransportException("Character level exchange is not supported for T=1");
-            }
+        if (!hasT0Protocol && !hasT1Protocol) {
+            throw new UsbTransportException("No suitable usb protocol supported");
         }
 
-        boolean hasT0Protocol = (getProtocols() & MASK_T0_PROTO) != 0;
-        if (hasT0Protocol) {
-            if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_SHORT_APDU)) {
-                return new T0ShortApduProtocol();
-            } else if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_TPDU)) {
-                throw new UsbTransportException("TPDU level exchange is not supported for T=0");
-            } else {
-                throw new UsbTransportException("Character level exchange is not supported for T=0");
+        // on APDU level, the reader takes care of the protocol with the card
+        if (hasFeature(CcidDescriptor.FEATURE_EXCHAGE_LEVEL_EXTENDED_APDU)) {
+            return new ApduLevelProtocol(true);
+        } else if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_SHORT_APDU)) {
+            return new ApduLevelProtocol(false);
+        }
+
+        if (hasFeature(CcidDescriptor.FEATURE_EXCHANGE_LEVEL_TPDU)) {
+            if (hasT1Protocol) {
+                return new T1TpduProtocol();
             }
+            throw new UsbTransportException("TPDU level exchange is not supported for T=0");
         }
 
-        throw new UsbTransportException("No suitable usb protocol supported");
+        throw new UsbTransportException("Character level exchange is not supported");
     }
 
     boolean hasAutomaticPps() {
         return hasFeature(FEATURE_AUTOMATIC_PPS);
     }
 
+    boolean hasAutomaticParameters() {
+        return hasFeature(FEATURE_AUTOMATIC_PARAMETERS);
+    }
+
     private boolean hasFeature(int feature) {
         return (getFeatures() & feature) != 0;
     }
@@ -25,8 +25,11 @@
 package de.cotech.hw.internal.transport.usb.ccid;
 
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
@@ -47,28 +50,58 @@ public class CcidTransceiver {
     private static final int CCID_HEADER_LENGTH = 10;
 
     private static final int MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK = 0x80;
+    private static final int MESSAGE_TYPE_RDR_TO_PC_PARAMETERS = 0x82;
     private static final int MESSAGE_TYPE_PC_TO_RDR_ICC_POWER_ON = 0x62;
     private static final int MESSAGE_TYPE_PC_TO_RDR_ICC_POWER_OFF = 0x63;
     private static final int MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK = 0x6f;
+    private static final int MESSAGE_TYPE_PC_TO_RDR_SET_PARAMETERS = 0x61;
 
     private static final int COMMAND_STATUS_SUCCESS = 0;
     private static final int COMMAND_STATUS_TIME_EXTENSION_RQUESTED = 2;
 
     private static final int SLOT_NUMBER = 0x00;
 
+    // wLevelParameter of PC_to_RDR_XfrBlock, for extended APDU level exchange
+    private static final int LEVEL_PARAMETER_BEGIN_AND_END = 0x00;
+    private static final int LEVEL_PARAMETER_BEGIN = 0x01;
+    private static final int LEVEL_PARAMETER_END = 0x02;
+    private static final int LEVEL_PARAMETER_CONTINUE = 0x03;
+    private static final int LEVEL_PARAMETER_RESPONSE_CONTINUE = 0x10;
+
+    // bChainParameter of RDR_to_PC_DataBlock, for extended APDU level exchange
+    private static final int CHAIN_PARAMETER_BEGIN = 0x01;
+    private static final int CHAIN_PARAMETER_CONTINUE = 0x03;
+
     private static final int ICC_STATUS_SUCCESS = 0;
 
     private static final int DEVICE_COMMUNICATE_TIMEOUT_MILLIS = 5000;
-    private static final int DEVICE_SKIP_TIMEOUT_MILLIS = 100;
+    // a timeout of 0 blocks forever on Android, so this is the closest we get to a non-blocking read
+    private static final int DEVICE_SKIP_TIMEOUT_MILLIS = 1;
+    // responses to earlier commands that may still arrive before the response to an IccPowerOn
+    private static final int MAX_STALE_MESSAGES = 4;
+    // leeway on top of the card's block waiting time, for the reader and USB
+    private static final int BLOCK_WAITING_TIME_MARGIN_MILLIS = 1000;
 
 
     private final UsbDeviceConnection usbConnection;
     private final UsbEndpoint usbBulkIn;
     private final UsbEndpoint usbBulkOut;
     private final CcidDescriptor usbCcidDescription;
-    private final byte[] inputBuffer;
+
+    /* Preallocated per connection, messages are assembled and parsed in place. */
+    private byte[] transmitBuffer;
+    private byte[] receiveBuffer;
+    // number of bytes at the start of the receive buffer that may hold response data
+    private int receiveBufferDirtyLength;
 
     private byte currentSequenceNumber;
+    private int blockWaitingTimeMillis;
+
+    @Nullable
+    private CcidDescriptor.Voltage preferredVoltage;
+    @Nullable
+    private CcidDescriptor.Voltage poweredOnVoltage;
+    private long powerOnTimeMillis = -1;
 
 
     CcidTransceiver(UsbDeviceConnection connection, UsbEndpoint bulkIn, UsbEndpoint bulkOut,
@@ -78,12 +111,19 @@ public class CcidTransceiver {
         usbBulkOut = bulkOut;
         usbCcidDescription = ccidDescription;
 
-        inputBuffer = new byte[usbBulkIn.getMaxPacketSize()];
+        int maxMessageLength = ccidDescription != null ?
+                ccidDescription.getMaxCcidMessageLength() : CcidDescriptor.MIN_MAX_CCID_MESSAGE_LENGTH;
+        transmitBuffer = new byte[maxMessageLength];
+        // one packet of slack, so we can always read a full packet into the buffer
+        receiveBuffer = new byte[maxMessageLength + usbBulkIn.getMaxPacketSize()];
     }
 
     /**
      * Power of ICC
      * Spec: 6.1.1 PC_to_RDR_IccPowerOn
+     * <p>
+     * If a preferred voltage was set, it is tried first, so a known token powers on with a single
+     * IccPowerOn. The remaining voltages supported by the reader are tried after a power select error.
      */
     @WorkerThread
     public synchronized CcidDataBlock iccPowerOn() throws UsbTransportException {
@@ -92,7 +132,7 @@ public class CcidTransceiver {
         skipAvailableInput();
 
         CcidDataBlock response = null;
-        for (CcidDescriptor.Voltage v : usbCcidDescription.getVoltages()) {
+        for (CcidDescriptor.Voltage v : getVoltagesInPowerOnOrder()) {
             HwTimber.v("CCID: attempting to power on with voltage %s", v.toString());
             try {
                 response = iccPowerOnVoltage(v.powerOnValue);
@@ -107,6 +147,7 @@ public class CcidTransceiver {
                 throw e;
             }
 
+            poweredOnVoltage = v;
             break;
         }
         if (response == null) {
@@ -114,6 +155,7 @@ public class CcidTransceiver {
         }
 
         long elapsedTime = SystemClock.elapsedRealtime() - startTime;
+        powerOnTimeMillis = elapsedTime;
 
         HwTimber.d("Usb transport connected, took " + elapsedTime + "ms, ATR=" +
                 Hex.encodeHexString(response.getData()));
@@ -121,6 +163,37 @@ public class CcidTransceiver {
         return response;
     }
 
+    private List<CcidDescriptor.Voltage> getVoltagesInPowerOnOrder() {
+        List<CcidDescriptor.Voltage> voltages = new ArrayList<>();
+        for (CcidDescriptor.Voltage v : usbCcidDescription.getVoltages()) {
+            if (v == preferredVoltage) {
+                voltages.add(0, v);
+            } else {
+                voltages.add(v);
+            }
+        }
+        return voltages;
+    }
+
+    /**
+     * Sets the voltage to try first on {@link #iccPowerOn()}, usually the one that worked the last
+     * time this token was connected. Ignored if the reader doesn't support it.
+     */
+    synchronized void setPreferredVoltage(@Nullable CcidDescriptor.Voltage preferredVoltage) {
+        this.preferredVoltage = preferredVoltage;
+    }
+
+    /** Returns the voltage the ICC was powered on with, or null if it wasn't powered on yet. */
+    @Nullable
+    synchronized CcidDescriptor.Voltage getPoweredOnVoltage() {
+        return poweredOnVoltage;
+    }
+
+    /** Returns how long the last {@link #iccPowerOn()} took, or -1 if the ICC wasn't powered on yet. */
+    public synchronized long getPowerOnTimeMillis() {
+        return powerOnTimeMillis;
+    }
+
     private CcidDataBlock iccPowerOnVoltage(byte voltage) throws UsbTransportException {
         byte sequenceNumber = currentSequenceNumber++;
         final byte[] iccPowerCommand = {
@@ -134,7 +207,9 @@ public class CcidTransceiver {
 
         sendRaw(iccPowerCommand, 0, iccPowerCommand.length);
 
-        return receiveDataBlock(sequenceNumber);
+        CcidDataBlock response = receiveMessage(MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK, sequenceNumber,
+                DEVICE_COMMUNICATE_TIMEOUT_MILLIS, true);
+        return response.withData(copyReceivedData(response));
     }
 
     private void iccPowerOff() throws UsbTransportException {
@@ -158,28 +233,217 @@ public class CcidTransceiver {
      */
     @WorkerThread
     public synchronized CcidDataBlock sendXfrBlock(byte[] payload) throws UsbTransportException {
-        long startTime = SystemClock.elapsedRealtime();
+        ensureTransmitBufferCapacity(payload.length);
+        System.arraycopy(payload, 0, transmitBuffer, CCID_HEADER_LENGTH, payload.length);
+
+        CcidDataBlock response = transceiveXfrBlockInPlace(payload.length);
+        byte[] data = copyReceivedData(response);
+        clearReceivedData();
+        return response.withData(data);
+    }
+
+    /**
+     * Transmits a command APDU to a reader with extended APDU level exchange. If it doesn't fit
+     * into a single CCID message, it is split over several XfrBlocks, as is the response.
+     * Spec: 6.1.4 PC_to_RDR_XfrBlock, Table 6.1-3 and 6.2.1 RDR_to_PC_DataBlock, Table 6.2-3
+     *
+     * @param apdu command APDU to transmit
+     * @return the complete response APDU
+     */
+    @WorkerThread
+    public synchronized byte[] sendXfrBlockWithLevelChaining(byte[] apdu) throws UsbTransportException {
+        int maxPayloadLength = getMaxXfrBlockPayloadLength();
+
+        CcidDataBlock response = null;
+        int sentLength = 0;
+        do {
+            int length = Math.min(maxPayloadLength, apdu.length - sentLength);
+            boolean isFirst = sentLength == 0;
+            boolean isLast = sentLength + length == apdu.length;
+            int levelParameter;
+            if (isFirst) {
+                levelParameter = isLast ? LEVEL_PARAMETER_BEGIN_AND_END : LEVEL_PARAMETER_BEGIN;
+            } else {
+                levelParameter = isLast ? LEVEL_PARAMETER_END : LEVEL_PARAMETER_CONTINUE;
+            }
 
-        int l = payload.length;
+            System.arraycopy(apdu, sentLength, transmitBuffer, CCID_HEADER_LENGTH, length);
+            response = transceiveXfrBlockInPlace(length, 0, levelParameter);
+            sentLength += length;
+        } while (sentLength < apdu.length);
+
+        if (!isChainedResponse(response)) {
+            byte[] responseApdu = copyReceivedData(response);
+            clearReceivedData();
+            return responseApdu;
+        }
+
+        ByteArrayOutputStream responseApdu = new ByteArrayOutputStream();
+        responseApdu.write(receiveBuffer, CCID_HEADER_LENGTH, response.getDataLength());
+        while (isChainedResponse(response)) {
+            response = transceiveXfrBlockInPlace(0, 0, LEVEL_PARAMETER_RESPONSE_CONTINUE);
+            responseApdu.write(receiveBuffer, CCID_HEADER_LENGTH, response.getDataLength());
+        }
+        clearReceivedData();
+        return responseApdu.toByteArray();
+    }
+
+    private static boolean isChainedResponse(CcidDataBlock response) {
+        return response.getChainParameter() == CHAIN_PARAMETER_BEGIN ||
+                response.getChainParameter() == CHAIN_PARAMETER_CONTINUE;
+    }
+
+    /**
+     * Transmits XfrBlock, like {@link #sendXfrBlock(byte[])}, but returns the response data as a
+     * slice of the receive buffer instead of a copy.
+     * <p>
+     * The returned buffer is only valid until the next call to this transceiver. Call
+     * {@link #clearReceivedData()} once the response was copied out.
+     */
+    @WorkerThread
+    public synchronized ByteBuffer sendXfrBlockForSlice(byte[] payload, int offset, int length)
+            throws UsbTransportException {
+        ensureTransmitBufferCapacity(length);
+        System.arraycopy(payload, offset, transmitBuffer, CCID_HEADER_LENGTH, length);
+
+        return sendXfrBlockInPlace(length);
+    }
+
+    /**
+     * Transmits an XfrBlock whose payload has already been written to the transmit buffer
+     * obtained via {@link #getTransmitBuffer()}, starting at {@link #getXfrBlockPayloadOffset()}.
+     * <p>
+     * The response data is returned as a slice of the receive buffer, which is only valid until
+     * the next call to this transceiver. Call {@link #clearReceivedData()} once the response was
+     * copied out.
+     */
+    @WorkerThread
+    public synchronized ByteBuffer sendXfrBlockInPlace(int payloadLength) throws UsbTransportException {
+        return sendXfrBlockInPlace(payloadLength, 0);
+    }
+
+    /**
+     * Like {@link #sendXfrBlockInPlace(int)}, but extends the block waiting time for this
+     * transfer by the given multiplier, as requested by the card with a T=1 S(WTX request).
+     */
+    @WorkerThread
+    public synchronized ByteBuffer sendXfrBlockInPlace(int payloadLength, int blockWaitingTimeMultiplier)
+            throws UsbTransportException {
+        checkXfrBlockPayloadLength(payloadLength);
+        if (blockWaitingTimeMultiplier < 0 || blockWaitingTimeMultiplier > 0xff) {
+            throw new IllegalArgumentException("Invalid block waiting time multiplier " + blockWaitingTimeMultiplier);
+        }
+
+        CcidDataBlock response = transceiveXfrBlockInPlace(payloadLength, blockWaitingTimeMultiplier,
+                LEVEL_PARAMETER_BEGIN_AND_END);
+        return ByteBuffer.wrap(receiveBuffer, CCID_HEADER_LENGTH, response.getDataLength()).slice();
+    }
+
+    /**
+     * Sets protocol parameters of the ICC, for readers that don't configure themselves from the ATR.
+     * Spec: 6.1.7 PC_to_RDR_SetParameters
+     *
+     * @param protocolNum 0 for T=0, 1 for T=1
+     * @param protocolData the abProtocolDataStructure for the given protocol
+     */
+    @WorkerThread
+    public synchronized void setParameters(byte protocolNum, byte[] protocolData) throws UsbTransportException {
         byte sequenceNumber = currentSequenceNumber++;
-        byte[] headerData = {
-                MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK,
-                (byte) l, (byte) (l >> 8), (byte) (l >> 16), (byte) (l >> 24),
-                SLOT_NUMBER,
-                sequenceNumber,
-                0x00, // block waiting time
-                0x00, 0x00 // level parameters
-        };
-        byte[] data = Arrays.concatenate(headerData, payload);
+        int l = protocolData.length;
+        byte[] setParametersCommand = new byte[CCID_HEADER_LENGTH + l];
+        setParametersCommand[0] = MESSAGE_TYPE_PC_TO_RDR_SET_PARAMETERS;
+        setParametersCommand[1] = (byte) l;
+        setParametersCommand[5] = SLOT_NUMBER;
+        setParametersCommand[6] = sequenceNumber;
+        setParametersCommand[7] = protocolNum;
+        System.arraycopy(protocolData, 0, setParametersCommand, CCID_HEADER_LENGTH, l);
+
+        sendRaw(setParametersCommand, 0, setParametersCommand.length);
+
+        receiveMessage(MESSAGE_TYPE_RDR_TO_PC_PARAMETERS, sequenceNumber, DEVICE_COMMUNICATE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sets the block waiting time of the card. Reads from the reader wait at least this long,
+     * so slow operations like on-card key generation don't run into the USB timeout.
+     */
+    public synchronized void setBlockWaitingTimeMillis(int blockWaitingTimeMillis) {
+        this.blockWaitingTimeMillis = blockWaitingTimeMillis;
+    }
+
+    private int computeReceiveTimeoutMillis(int blockWaitingTimeMultiplier) {
+        long timeoutMillis = (long) blockWaitingTimeMillis * Math.max(1, blockWaitingTimeMultiplier)
+                + BLOCK_WAITING_TIME_MARGIN_MILLIS;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(DEVICE_COMMUNICATE_TIMEOUT_MILLIS, timeoutMillis));
+    }
+
+    /**
+     * Returns the transmit buffer for use with {@link #sendXfrBlockInPlace(int)}. The CCID header
+     * is written in front of the payload, so the payload must start at {@link #getXfrBlockPayloadOffset()}.
+     */
+    public byte[] getTransmitBuffer() {
+        return transmitBuffer;
+    }
+
+    public int getXfrBlockPayloadOffset() {
+        return CCID_HEADER_LENGTH;
+    }
+
+    public int getMaxXfrBlockPayloadLength() {
+        return transmitBuffer.length - CCID_HEADER_LENGTH;
+    }
+
+    private void ensureTransmitBufferCapacity(int payloadLength) {
+        int requiredLength = CCID_HEADER_LENGTH + payloadLength;
+        if (transmitBuffer.length >= requiredLength) {
+            return;
+        }
+
+        // this worked before we sized buffers from the descriptor, so give the reader a chance
+        HwTimber.w("Sending message of %d bytes, larger than dwMaxCCIDMessageLength of reader", requiredLength);
+        transmitBuffer = new byte[requiredLength];
+    }
+
+    private void checkXfrBlockPayloadLength(int payloadLength) throws UsbTransportException {
+        if (payloadLength < 0 || payloadLength > getMaxXfrBlockPayloadLength()) {
+            throw new UsbTransportException("XfrBlock payload of " + payloadLength +
+                    " bytes exceeds maximum CCID message length of reader");
+        }
+    }
+
+    private CcidDataBlock transceiveXfrBlockInPlace(int payloadLength) throws UsbTransportException {
+        return transceiveXfrBlockInPlace(payloadLength, 0, LEVEL_PARAMETER_BEGIN_AND_END);
+    }
 
+    private CcidDataBlock transceiveXfrBlockInPlace(int payloadLength, int blockWaitingTimeMultiplier,
+            int levelParameter) throws UsbTransportException {
+        long startTime = SystemClock.elapsedRealtime();
+
+        int l = payloadLength;
+        byte sequenceNumber = currentSequenceNumber++;
+        transmitBuffer[0] = MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK;
+        transmitBuffer[1] = (byte) l;
+        transmitBuffer[2] = (byte) (l >> 8);
+        transmitBuffer[3] = (byte) (l >> 16);
+        transmitBuffer[4] = (byte) (l >> 24);
+        transmitBuffer[5] = SLOT_NUMBER;
+        transmitBuffer[6] = sequenceNumber;
+        transmitBuffer[7] = (byte) blockWaitingTimeMultiplier; // block waiting time
+        transmitBuffer[8] = (byte) levelParameter; // level parameters
+        transmitBuffer[9] = (byte) (levelParameter >> 8);
+
+        int messageLength = CCID_HEADER_LENGTH + payloadLength;
         int sentBytes = 0;
-        while (sentBytes < data.length) {
-            int bytesToSend = Math.min(usbBulkOut.getMaxPacketSize(), data.length - sentBytes);
-            sendRaw(data, sentBytes, bytesToSend);
+        while (sentBytes < messageLength) {
+            int bytesToSend = Math.min(usbBulkOut.getMaxPacketSize(), messageLength - sentBytes);
+            sendRaw(transmitBuffer, sentBytes, bytesToSend);
             sentBytes += bytesToSend;
         }
+        // the payload may contain secrets like PINs, don't keep them around
+        Arrays.fill(transmitBuffer, CCID_HEADER_LENGTH, messageLength, (byte) 0);
 
-        CcidDataBlock ccidDataBlock = receiveDataBlock(sequenceNumber);
+        CcidDataBlock ccidDataBlock = receiveMessage(MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK, sequenceNumber,
+                computeReceiveTimeoutMillis(blockWaitingTimeMultiplier));
 
         long elapsedTime = SystemClock.elapsedRealtime() - startTime;
         HwTimber.d("USB XferBlock call took " + elapsedTime + "ms");
@@ -187,22 +451,45 @@ public class CcidTransceiver {
         return ccidDataBlock;
     }
 
+    /**
+     * Zeroes the response data in the receive buffer. Responses may contain secrets like decrypted session
+     * keys, so they shouldn't stay around after they were copied out. Data of earlier responses is also
+     * cleared when the next response is received.
+     */
+    public synchronized void clearReceivedData() {
+        Arrays.fill(receiveBuffer, 0, receiveBufferDirtyLength, (byte) 0);
+        receiveBufferDirtyLength = 0;
+    }
+
+    private byte[] copyReceivedData(CcidDataBlock dataBlock) {
+        return Arrays.copyOfRange(receiveBuffer, CCID_HEADER_LENGTH, CCID_HEADER_LENGTH + dataBlock.getDataLength());
+    }
+
     private void skipAvailableInput() {
         int ignoredBytes;
         do {
             ignoredBytes = usbConnection.bulkTransfer(
-                    usbBulkIn, inputBuffer, inputBuffer.length, DEVICE_SKIP_TIMEOUT_MILLIS);
+                    usbBulkIn, receiveBuffer, usbBulkIn.getMaxPacketSize(), DEVICE_SKIP_TIMEOUT_MILLIS);
             if (ignoredBytes > 0) {
+                receiveBufferDirtyLength = Math.max(receiveBufferDirtyLength, ignoredBytes);
                 HwTimber.e("Skipped " + ignoredBytes + " bytes: " + Hex.encodeHexString(
-                        Arrays.copyOfRange(inputBuffer, 0, ignoredBytes)));
+                        Arrays.copyOfRange(receiveBuffer, 0, ignoredBytes)));
             }
         } while (ignoredBytes > 0);
+        clearReceivedData();
+    }
+
+    private CcidDataBlock receiveMessage(int expectedMessageType, byte expectedSequenceNumber, int timeoutMillis)
+            throws UsbTransportException {
+        return receiveMessage(expectedMessageType, expectedSequenceNumber, timeoutMillis, false);
     }
 
-    private CcidDataBlock receiveDataBlock(byte expectedSequenceNumber) throws UsbTransportException {
+    private CcidDataBlock receiveMessage(int expectedMessageType, byte expectedSequenceNumber, int timeoutMillis,
+            boolean skipStaleMessages) throws UsbTransportException {
         CcidDataBlock response;
         do {
-            response = receiveDataBlockImmediate(expectedSequenceNumber);
+            response = receiveMessageImmediate(expectedMessageType, expectedSequenceNumber, timeoutMillis,
+                    skipStaleMessages);
         } while (response.isStatusTimeoutExtensionRequest());
 
         if (!response.isStatusSuccess()) {
@@ -212,45 +499,107 @@ public class CcidTransceiver {
         return response;
     }
 
-    private CcidDataBlock receiveDataBlockImmediate(byte expectedSequenceNumber) throws UsbTransportException {
-        int readBytes = usbConnection.bulkTransfer(usbBulkIn, inputBuffer, inputBuffer.length, DEVICE_COMMUNICATE_TIMEOUT_MILLIS);
+    private CcidDataBlock receiveMessageImmediate(int expectedMessageType, byte expectedSequenceNumber,
+            int timeoutMillis, boolean skipStaleMessages) throws UsbTransportException {
+        clearReceivedData();
+        int readBytes = receiveRaw(0, timeoutMillis);
+        int skippedMessages = 0;
+        while (skipStaleMessages && readBytes >= CCID_HEADER_LENGTH && receiveBuffer[6] != expectedSequenceNumber
+                && skippedMessages++ < MAX_STALE_MESSAGES) {
+            skipMessage(readBytes, timeoutMillis);
+            readBytes = receiveRaw(0, timeoutMillis);
+        }
         if (readBytes < CCID_HEADER_LENGTH) {
             throw new UsbTransportException("USB-CCID error - failed to receive CCID header");
         }
-        if (inputBuffer[0] != (byte) MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK) {
-            if (expectedSequenceNumber != inputBuffer[6]) {
-                throw new UsbTransportException("USB-CCID error - bad CCID header, type " + inputBuffer[0] + " (expected " +
-                        MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK + "), sequence number " + inputBuffer[6] + " (expected " +
+        if (receiveBuffer[0] != (byte) expectedMessageType) {
+            if (expectedSequenceNumber != receiveBuffer[6]) {
+                throw new UsbTransportException("USB-CCID error - bad CCID header, type " + receiveBuffer[0] + " (expected " +
+                        expectedMessageType + "), sequence number " + receiveBuffer[6] + " (expected " +
                         expectedSequenceNumber + ")");
             }
 
-            throw new UsbTransportException("USB-CCID error - bad CCID header type " + inputBuffer[0]);
+            throw new UsbTransportException("USB-CCID error - bad CCID header type " + receiveBuffer[0]);
         }
-        CcidDataBlock result = CcidDataBlock.parseHeaderFromBytes(inputBuffer);
+        CcidDataBlock result = CcidDataBlock.parseHeaderFromBytes(receiveBuffer, expectedMessageType);
 
         if (expectedSequenceNumber != result.getSeq()) {
             throw new UsbTransportException("USB-CCID error - expected sequence number " +
                     expectedSequenceNumber + ", got " + result);
         }
 
-        byte[] dataBuffer = new byte[result.getDataLength()];
-        int bufferedBytes = readBytes - CCID_HEADER_LENGTH;
-        System.arraycopy(inputBuffer, CCID_HEADER_LENGTH, dataBuffer, 0, bufferedBytes);
+        int messageLength = CCID_HEADER_LENGTH + result.getDataLength();
+        if (result.getDataLength() < 0 || messageLength < 0) {
+            throw new UsbTransportException("USB-CCID error - invalid data length " + result);
+        }
+        ensureReceiveBufferCapacity(messageLength, readBytes);
 
-        while (bufferedBytes < dataBuffer.length) {
-            readBytes = usbConnection.bulkTransfer(usbBulkIn, inputBuffer, inputBuffer.length, DEVICE_COMMUNICATE_TIMEOUT_MILLIS);
+        int bufferedBytes = readBytes;
+        while (bufferedBytes < messageLength) {
+            readBytes = receiveRaw(bufferedBytes, timeoutMillis);
             if (readBytes < 0) {
                 throw new UsbTransportException("USB error - failed reading response data! Header: " + result);
             }
-            System.arraycopy(inputBuffer, 0, dataBuffer, bufferedBytes, readBytes);
             bufferedBytes += readBytes;
         }
 
-        result = result.withData(dataBuffer);
-
         return result;
     }
 
+    /**
+     * Skips a message that doesn't belong to the current command, like the unread response to an
+     * IccPowerOff, or one that arrived after the input was drained.
+     */
+    private void skipMessage(int readBytes, int timeoutMillis) {
+        HwTimber.d("Skipping stale message: %s", Hex.encodeHexString(
+                Arrays.copyOfRange(receiveBuffer, 0, CCID_HEADER_LENGTH)));
+
+        long dataLength = ByteBuffer.wrap(receiveBuffer, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffL;
+        long remainingBytes = CCID_HEADER_LENGTH + dataLength - readBytes;
+        while (remainingBytes > 0) {
+            readBytes = receiveRaw(0, timeoutMillis);
+            if (readBytes <= 0) {
+                return;
+            }
+            remainingBytes -= readBytes;
+        }
+    }
+
+    private void ensureReceiveBufferCapacity(int messageLength, int bufferedBytes) {
+        int requiredLength = messageLength + usbBulkIn.getMaxPacketSize();
+        if (receiveBuffer.length >= requiredLength) {
+            return;
+        }
+
+        HwTimber.w("Reader sent message of %d bytes, larger than its dwMaxCCIDMessageLength", messageLength);
+        byte[] largerReceiveBuffer = new byte[requiredLength];
+        System.arraycopy(receiveBuffer, 0, largerReceiveBuffer, 0, bufferedBytes);
+        clearReceivedData();
+        receiveBuffer = largerReceiveBuffer;
+        receiveBufferDirtyLength = bufferedBytes;
+    }
+
+    private int receiveRaw(int offset, int timeoutMillis) {
+        int length = usbBulkIn.getMaxPacketSize();
+        int readBytes;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            readBytes = usbConnection.bulkTransfer(usbBulkIn, receiveBuffer, offset, length, timeoutMillis);
+        } else if (offset == 0) {
+            readBytes = usbConnection.bulkTransfer(usbBulkIn, receiveBuffer, length, timeoutMillis);
+        } else {
+            byte[] packetBuffer = new byte[length];
+            readBytes = usbConnection.bulkTransfer(usbBulkIn, packetBuffer, length, timeoutMillis);
+            if (readBytes > 0) {
+                System.arraycopy(packetBuffer, 0, receiveBuffer, offset, readBytes);
+                Arrays.fill(packetBuffer, (byte) 0);
+            }
+        }
+        if (readBytes > 0) {
+            receiveBufferDirtyLength = Math.max(receiveBufferDirtyLength, offset + readBytes);
+        }
+        return readBytes;
+    }
+
     private void sendRaw(byte[] data, int offset, int length) throws UsbTransportException {
         int tr1;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
@@ -269,7 +618,24 @@ public class CcidTransceiver {
         return usbCcidDescription.hasAutomaticPps();
     }
 
-    /** Corresponds to 6.2.1 RDR_to_PC_DataBlock. */
+    public boolean hasAutomaticParameters() {
+        return usbCcidDescription.hasAutomaticParameters();
+    }
+
+    /** Returns the default ICC clock frequency of the reader, in kHz. */
+    public int getDefaultClock() {
+        return usbCcidDescription.getDefaultClock();
+    }
+
+    /** Returns the maximum IFSD for T=1 supported by the reader, or 0 if unknown. */
+    public int getMaxIfsd() {
+        return usbCcidDescription.getMaxIfsd();
+    }
+
+    /**
+     * Corresponds to 6.2.1 RDR_to_PC_DataBlock. Also used for the header of 6.2.3 RDR_to_PC_Parameters,
+     * where the chain parameter holds the protocol number.
+     */
     @AutoValue
     public abstract static class CcidDataBlock {
         public abstract int getDataLength();
@@ -282,12 +648,12 @@ public class CcidTransceiver {
         @SuppressWarnings("mutable")
         public abstract byte[] getData();
 
-        static CcidDataBlock parseHeaderFromBytes(byte[] headerBytes) {
+        static CcidDataBlock parseHeaderFromBytes(byte[] headerBytes, int expectedMessageType) {
             ByteBuffer buf = ByteBuffer.wrap(headerBytes);
             buf.order(ByteOrder.LITTLE_ENDIAN);
 
             byte type = buf.get();
-            if (type != (byte) MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK) {
+            if (type != (byte) expectedMessageType) {
                 throw new IllegalArgumentException("Header has incorrect type value!");
             }
             int dwLength = buf.getInt();
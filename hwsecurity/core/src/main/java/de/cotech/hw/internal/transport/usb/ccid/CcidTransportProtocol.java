@@ -34,4 +34,9 @@ import de.cotech.hw.internal.transport.usb.UsbTransportException;
 public interface CcidTransportProtocol {
     void connect(@NonNull CcidTransceiver transceiver) throws UsbTransportException;
     byte[] transceive(@NonNull byte[] apdu) throws UsbTransportException;
+
+    /**
+     * Returns true if APDUs with extended length can be sent with this protocol.
+     */
+    boolean isExtendedLengthSupported();
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid;
+
+
+import java.util.HashMap;
+
+import android.hardware.usb.UsbDevice;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * Remembers the voltage that a token was powered on with, keyed by vendor id, product id and serial.
+ * <p>
+ * Readers without automatic voltage selection are tried with each supported voltage in turn, and every
+ * power select error costs an IccPowerOn and an IccPowerOff. With the voltage from the last connection
+ * tried first, a known token powers on with a single IccPowerOn. Unlike the transports, entries are
+ * kept after the token is detached.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class CcidVoltageCache {
+    private final HashMap<String, CcidDescriptor.Voltage> voltages = new HashMap<>();
+
+    @AnyThread
+    @Nullable
+    synchronized CcidDescriptor.Voltage get(UsbDevice usbDevice, @Nullable String serial) {
+        return voltages.get(getKey(usbDevice, serial));
+    }
+
+    @AnyThread
+    synchronized void put(UsbDevice usbDevice, @Nullable String serial, CcidDescriptor.Voltage voltage) {
+        voltages.put(getKey(usbDevice, serial), voltage);
+    }
+
+    private static String getKey(UsbDevice usbDevice, @Nullable String serial) {
+        return usbDevice.getVendorId() + ":" + usbDevice.getProductId() + ":" + serial;
+    }
+}
@@ -31,9 +31,12 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
+import android.os.SystemClock;
 import android.util.Pair;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -62,25 +65,31 @@ public class UsbCcidTransport implements Transport {
     private final UsbDevice usbDevice;
     private final UsbDeviceConnection usbConnection;
     private final UsbInterface usbInterface;
+    private final CcidVoltageCache voltageCache;
     private boolean enableDebugLogging;
+    private CcidTransceiver ccidTransceiver;
     private CcidTransportProtocol ccidTransportProtocol;
+    private long powerOnTimeMillis = -1;
+    private long connectTimeMillis = -1;
 
     private boolean released = false;
     private TransportReleasedCallback transportReleasedCallback;
 
     public static UsbCcidTransport createUsbTransport(UsbManager usbManager, UsbDevice usbDevice,
             UsbDeviceConnection usbConnection,
-            UsbInterface usbInterface, boolean enableDebugLogging) {
-        return new UsbCcidTransport(usbManager, usbDevice, usbConnection, usbInterface, enableDebugLogging);
+            UsbInterface usbInterface, CcidVoltageCache voltageCache, boolean enableDebugLogging) {
+        return new UsbCcidTransport(usbManager, usbDevice, usbConnection, usbInterface, voltageCache,
+                enableDebugLogging);
     }
 
     private UsbCcidTransport(UsbManager usbManager, UsbDevice usbDevice,
             UsbDeviceConnection usbConnection, UsbInterface usbInterface,
-            boolean enableDebugLogging) {
+            CcidVoltageCache voltageCache, boolean enableDebugLogging) {
         this.usbManager = usbManager;
         this.usbDevice = usbDevice;
         this.usbConnection = usbConnection;
         this.usbInterface = usbInterface;
+        this.voltageCache = voltageCache;
         this.enableDebugLogging = enableDebugLogging;
     }
 
@@ -104,9 +113,12 @@ public class UsbCcidTransport implements Transport {
         this.transportReleasedCallback = callback;
     }
 
+    /**
+     * Only known after connecting, as it depends on the exchange level of the reader.
+     */
     @Override
     public boolean isExtendedLengthSupported() {
-        return true;
+        return ccidTransportProtocol != null && ccidTransportProtocol.isExtendedLengthSupported();
     }
 
     /**
@@ -125,6 +137,8 @@ public class UsbCcidTransport implements Transport {
      */
     @Override
     public void connect() throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+
         Pair<UsbEndpoint, UsbEndpoint> ioEndpoints = UsbUtils.getIoEndpoints(
                 usbInterface, UsbConstants.USB_ENDPOINT_XFER_BULK);
         UsbEndpoint usbBulkIn = ioEndpoints.first;
@@ -137,10 +151,32 @@ public class UsbCcidTransport implements Transport {
         CcidDescriptor ccidDescriptor = CcidDescriptor.fromRawDescriptors(usbConnection.getRawDescriptors());
         HwTimber.d("CCID Descriptor: %s", ccidDescriptor);
         CcidTransceiver transceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, ccidDescriptor);
+        String serial = usbConnection.getSerial();
+        transceiver.setPreferredVoltage(voltageCache.get(usbDevice, serial));
 
         CcidTransportProtocol ccidTransportProtocol = ccidDescriptor.getSuitableTransportProtocol();
+        HwTimber.d("Using CCID transport protocol %s", ccidTransportProtocol.getClass().getSimpleName());
         ccidTransportProtocol.connect(transceiver);
+        this.ccidTransceiver = transceiver;
         this.ccidTransportProtocol = ccidTransportProtocol;
+
+        CcidDescriptor.Voltage poweredOnVoltage = transceiver.getPoweredOnVoltage();
+        if (poweredOnVoltage != null) {
+            voltageCache.put(usbDevice, serial, poweredOnVoltage);
+        }
+        powerOnTimeMillis = transceiver.getPowerOnTimeMillis();
+        connectTimeMillis = SystemClock.elapsedRealtime() - startTime;
+        HwTimber.d("USB_CCID connect took %dms, power on %dms", connectTimeMillis, powerOnTimeMillis);
+    }
+
+    @Override
+    public long getConnectTimeMillis() {
+        return connectTimeMillis;
+    }
+
+    @Override
+    public long getPowerOnTimeMillis() {
+        return powerOnTimeMillis;
     }
 
     /**
@@ -154,27 +190,63 @@ public class UsbCcidTransport implements Transport {
         if (released) {
             throw new SecurityKeyDisconnectedException();
         }
+
+        try {
+            return transceiveInternal(commandApdu);
+        } catch (UsbTransportException e) {
+            throw releaseIfDisconnected(e);
+        }
+    }
+
+    /**
+     * Transmits all commands while holding on to the transceiver, so the bulk endpoints are
+     * used for this sequence only until it is done.
+     */
+    @Override
+    public List<ResponseApdu> transceiveBatch(List<CommandApdu> commandApdus) throws IOException {
+        if (released) {
+            throw new SecurityKeyDisconnectedException();
+        }
+
+        List<ResponseApdu> responseApdus = new ArrayList<>(commandApdus.size());
+        try {
+            synchronized (ccidTransceiver) {
+                for (CommandApdu commandApdu : commandApdus) {
+                    ResponseApdu responseApdu = transceiveInternal(commandApdu);
+                    responseApdus.add(responseApdu);
+                    if (!responseApdu.isSuccessOrResponseAvailable()) {
+                        break;
+                    }
+                }
+            }
+        } catch (UsbTransportException e) {
+            throw releaseIfDisconnected(e);
+        }
+        return responseApdus;
+    }
+
+    private ResponseApdu transceiveInternal(CommandApdu commandApdu) throws IOException {
         byte[] rawCommand = commandApdu.toBytes();
         if (enableDebugLogging) {
             HwTimber.d("USB_CCID out: %s", commandApdu);
         }
 
-        try {
-            byte[] rawResponse = ccidTransportProtocol.transceive(rawCommand);
+        byte[] rawResponse = ccidTransportProtocol.transceive(rawCommand);
 
-            ResponseApdu responseApdu = ResponseApdu.fromBytes(rawResponse);
-            if (enableDebugLogging) {
-                HwTimber.d("USB_CCID  in: %s", responseApdu);
-            }
+        ResponseApdu responseApdu = ResponseApdu.fromBytes(rawResponse);
+        if (enableDebugLogging) {
+            HwTimber.d("USB_CCID  in: %s", responseApdu);
+        }
 
-            return responseApdu;
-        } catch (UsbTransportException e) {
-            if (!UsbUtils.isDeviceStillConnected(usbManager, usbDevice)) {
-                release();
-                throw new SecurityKeyDisconnectedException(e);
-            }
-            throw e;
+        return responseApdu;
+    }
+
+    private IOException releaseIfDisconnected(UsbTransportException e) {
+        if (!UsbUtils.isDeviceStillConnected(usbManager, usbDevice)) {
+            release();
+            return new SecurityKeyDisconnectedException(e);
         }
+        return e;
     }
 
     @Override
@@ -206,4 +278,10 @@ public class UsbCcidTransport implements Transport {
         return UsbSecurityKeyTypes
                 .getSecurityKeyTypeFromUsbDeviceInfo(usbDevice.getVendorId(), usbDevice.getProductId(), usbConnection.getSerial());
     }
+
+    @Nullable
+    @Override
+    public String getSecurityKeyIdentifier() {
+        return "usb:" + usbDevice.getVendorId() + ":" + usbDevice.getProductId() + ":" + usbConnection.getSerial();
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid.tpdu;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import com.google.auto.value.AutoValue;
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.util.Arrays;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * Answer-to-Reset, see ISO 7816-3, Part 8.
+ * <p>
+ * Only the interface bytes relevant for us are kept. Absent bytes take the default values
+ * defined by the standard.
+ */
+@AutoValue
+@RestrictTo(Scope.LIBRARY_GROUP)
+public abstract class AnswerToReset {
+    private static final int TS_DIRECT_CONVENTION = 0x3B;
+    private static final int TS_INVERSE_CONVENTION = 0x3F;
+
+    private static final int MASK_TA_PRESENT = 0x10;
+    private static final int MASK_TB_PRESENT = 0x20;
+    private static final int MASK_TC_PRESENT = 0x40;
+    private static final int MASK_TD_PRESENT = 0x80;
+    private static final int MASK_PROTOCOL = 0x0F;
+    private static final int MASK_HISTORICAL_LENGTH = 0x0F;
+    private static final int MASK_T1_CRC = 0x01;
+
+    private static final int PROTOCOL_T0 = 0;
+    private static final int PROTOCOL_T1 = 1;
+
+    static final int DEFAULT_FI_DI = 0x11;
+    static final int DEFAULT_T1_IFSC = 32;
+    static final int DEFAULT_T1_BWI = 4;
+    static final int DEFAULT_T1_CWI = 13;
+
+    private static final int MAX_T1_IFSC = 254;
+    private static final int MAX_T1_BWI = 9;
+
+    // Fd, the default clock rate conversion integer
+    private static final int DEFAULT_CLOCK_RATE_CONVERSION = 372;
+
+    public abstract boolean isInverseConvention();
+    /** Bit mask of the offered protocols, with bit i set for T=i. */
+    public abstract int getProtocols();
+    /** TA1, Fi in the high and Di in the low nibble */
+    public abstract int getFiDi();
+    /** TC1, extra guard time */
+    public abstract int getExtraGuardTime();
+    public abstract int getT1Ifsc();
+    public abstract int getT1Bwi();
+    public abstract int getT1Cwi();
+    public abstract boolean isT1CrcChecksum();
+    @SuppressWarnings("mutable")
+    public abstract byte[] getHistoricalBytes();
+
+    /**
+     * Returns an ATR offering only T=1, with all parameters at their defaults.
+     */
+    @NonNull
+    public static AnswerToReset createDefault() {
+        return new AutoValue_AnswerToReset(false, 1 << PROTOCOL_T1, DEFAULT_FI_DI, 0,
+                DEFAULT_T1_IFSC, DEFAULT_T1_BWI, DEFAULT_T1_CWI, false, new byte[0]);
+    }
+
+    @NonNull
+    public static AnswerToReset fromBytes(byte[] atr) throws UsbTransportException {
+        if (atr == null || atr.length < 2) {
+            throw new UsbTransportException("ATR too short");
+        }
+
+        int ts = atr[0] & 0xFF;
+        if (ts != TS_DIRECT_CONVENTION && ts != TS_INVERSE_CONVENTION) {
+            throw new UsbTransportException("Invalid ATR initial character " + ts);
+        }
+
+        int fiDi = DEFAULT_FI_DI;
+        int extraGuardTime = 0;
+        int protocols = 0;
+        int t1Ifsc = DEFAULT_T1_IFSC, t1Bwi = DEFAULT_T1_BWI, t1Cwi = DEFAULT_T1_CWI;
+        boolean t1Crc = false;
+        boolean hasT1Ta = false, hasT1Tb = false, hasT1Tc = false;
+
+        int t0 = atr[1] & 0xFF;
+        int historicalLength = t0 & MASK_HISTORICAL_LENGTH;
+        int indicator = t0;
+        int previousProtocol = PROTOCOL_T0;
+        int offset = 2;
+        // i as in TAi, TBi, TCi, TDi
+        for (int i = 1; ; i++) {
+            Integer ta = null, tb = null, tc = null, td = null;
+            if ((indicator & MASK_TA_PRESENT) != 0) {
+                ta = readInterfaceByte(atr, offset++);
+            }
+            if ((indicator & MASK_TB_PRESENT) != 0) {
+                tb = readInterfaceByte(atr, offset++);
+            }
+            if ((indicator & MASK_TC_PRESENT) != 0) {
+                tc = readInterfaceByte(atr, offset++);
+            }
+            if ((indicator & MASK_TD_PRESENT) != 0) {
+                td = readInterfaceByte(atr, offset++);
+            }
+
+            if (i == 1) {
+                if (ta != null) {
+                    fiDi = ta;
+                }
+                if (tc != null) {
+                    extraGuardTime = tc;
+                }
+            } else if (i >= 3 && previousProtocol == PROTOCOL_T1) {
+                // only the first TA, TB and TC for T=1 are specific to it
+                if (ta != null && !hasT1Ta) {
+                    hasT1Ta = true;
+                    if (ta >= 1 && ta <= MAX_T1_IFSC) {
+                        t1Ifsc = ta;
+                    } else {
+                        HwTimber.w("Ignoring invalid IFSC %d in ATR", ta);
+                    }
+                }
+                if (tb != null && !hasT1Tb) {
+                    hasT1Tb = true;
+                    if ((tb >> 4) <= MAX_T1_BWI) {
+                        t1Bwi = tb >> 4;
+                        t1Cwi = tb & 0x0F;
+                    } else {
+                        HwTimber.w("Ignoring invalid BWI in ATR");
+                    }
+                }
+                if (tc != null && !hasT1Tc) {
+                    hasT1Tc = true;
+                    t1Crc = (tc & MASK_T1_CRC) != 0;
+                }
+            }
+
+            if (td == null) {
+                break;
+            }
+            previousProtocol = td & MASK_PROTOCOL;
+            protocols |= 1 << previousProtocol;
+            indicator = td;
+        }
+
+        if (protocols == 0) {
+            // no TD1 means only T=0 is offered
+            protocols = 1 << PROTOCOL_T0;
+        }
+
+        if (offset + historicalLength > atr.length) {
+            throw new UsbTransportException("ATR too short for " + historicalLength + " historical bytes");
+        }
+        byte[] historicalBytes = Arrays.copyOfRange(atr, offset, offset + historicalLength);
+        offset += historicalLength;
+
+        // TCK is present unless only T=0 is offered, but it's checked by the reader already
+        boolean hasTck = protocols != (1 << PROTOCOL_T0);
+        if (hasTck && offset != atr.length - 1) {
+            HwTimber.w("Unexpected ATR length, expected TCK at offset %d", offset);
+        }
+
+        return new AutoValue_AnswerToReset(ts == TS_INVERSE_CONVENTION, protocols, fiDi, extraGuardTime,
+                t1Ifsc, t1Bwi, t1Cwi, t1Crc, historicalBytes);
+    }
+
+    private static int readInterfaceByte(byte[] atr, int offset) throws UsbTransportException {
+        if (offset >= atr.length) {
+            throw new UsbTransportException("ATR truncated in interface bytes");
+        }
+        return atr[offset] & 0xFF;
+    }
+
+    public boolean supportsProtocol(int protocol) {
+        return (getProtocols() & (1 << protocol)) != 0;
+    }
+
+    /**
+     * Computes the T=1 block waiting time, BWT = 11 etu + 2^BWI * 960 * Fd / f, see ISO 7816-3, Part 11.4.3.
+     *
+     * @param clockKhz the clock frequency of the card in kHz
+     */
+    public int getT1BlockWaitingTimeMillis(int clockKhz) {
+        // 11 etu are far below a millisecond at any sane clock rate, round up instead
+        long bwtMicros = (1000L * (1 << getT1Bwi()) * 960 * DEFAULT_CLOCK_RATE_CONVERSION) / Math.max(1, clockKhz);
+        return (int) (bwtMicros / 1000) + 1;
+    }
+}
@@ -25,20 +25,31 @@
 package de.cotech.hw.internal.transport.usb.ccid.tpdu;
 
 
+import java.nio.ByteBuffer;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 
 import de.cotech.hw.internal.transport.usb.ccid.CcidTransceiver;
-import de.cotech.hw.internal.transport.usb.ccid.CcidTransceiver.CcidDataBlock;
 import de.cotech.hw.internal.transport.usb.ccid.CcidTransportProtocol;
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
 
 
+/**
+ * For readers with short or extended APDU level exchange. Whole APDUs are sent in a single
+ * XfrBlock, T=0 or T=1 and its chaining are handled by the reader, regardless of the protocol
+ * used by the card.
+ */
 @RestrictTo(Scope.LIBRARY_GROUP)
-public class T0ShortApduProtocol implements CcidTransportProtocol {
+public class ApduLevelProtocol implements CcidTransportProtocol {
+    private final boolean extendedApduExchange;
     private CcidTransceiver ccidTransceiver;
 
+    public ApduLevelProtocol(boolean extendedApduExchange) {
+        this.extendedApduExchange = extendedApduExchange;
+    }
+
     public void connect(@NonNull CcidTransceiver transceiver) throws UsbTransportException {
         ccidTransceiver = transceiver;
         ccidTransceiver.iccPowerOn();
@@ -46,7 +57,19 @@ public class T0ShortApduProtocol implements CcidTransportProtocol {
 
     @Override
     public byte[] transceive(@NonNull byte[] apdu) throws UsbTransportException {
-        CcidDataBlock response = ccidTransceiver.sendXfrBlock(apdu);
-        return response.getData();
+        if (extendedApduExchange) {
+            return ccidTransceiver.sendXfrBlockWithLevelChaining(apdu);
+        }
+
+        ByteBuffer response = ccidTransceiver.sendXfrBlockForSlice(apdu, 0, apdu.length);
+        byte[] responseApdu = new byte[response.remaining()];
+        response.get(responseApdu);
+        ccidTransceiver.clearReceivedData();
+        return responseApdu;
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        return extendedApduExchange;
     }
 }
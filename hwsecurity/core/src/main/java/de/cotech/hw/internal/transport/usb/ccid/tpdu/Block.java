@@ -34,82 +34,85 @@ import de.cotech.hw.util.Hex;
 
 @RestrictTo(Scope.LIBRARY_GROUP)
 class Block {
-    private static final int MAX_PAYLOAD_LEN = 254;
+    static final int MAX_PAYLOAD_LEN = 254;
     private static final int OFFSET_NAD = 0;
     static final int OFFSET_PCB = 1;
     private static final int OFFSET_LEN = 2;
     private static final int OFFSET_DATA = 3;
 
     private final byte[] blockData;
+    private final int blockOffset;
+    private final int blockLength;
     private final BlockChecksumAlgorithm checksumType;
 
     Block(BlockChecksumAlgorithm checksumType, byte[] data) throws UsbTransportException {
+        this(checksumType, data, 0, data.length);
+    }
+
+    /**
+     * Parses a block from a slice of data, without copying it. The data must not be
+     * modified while this block is in use.
+     */
+    Block(BlockChecksumAlgorithm checksumType, byte[] data, int offset, int length) throws UsbTransportException {
         this.checksumType = checksumType;
         this.blockData = data;
+        this.blockOffset = offset;
+        this.blockLength = length;
 
-        int checksumOffset = blockData.length - checksumType.getLength();
-        byte[] checksum = checksumType.computeChecksum(data, 0, checksumOffset);
-        if (!Arrays.areEqual(checksum, getEdc())) {
+        if (length < OFFSET_DATA + checksumType.getLength()) {
+            throw new UsbTransportException("TPDU block too short");
+        }
+        if (!checksumType.verifyChecksum(data, offset, length)) {
             throw new UsbTransportException("TPDU CRC doesn't match");
         }
     }
 
-    /*
-    protected Block(BlockChecksumType checksumType, byte nad, byte pcb, byte[] apdu, int offset, int length)
+    Block(BlockChecksumAlgorithm checksumType, byte nad, byte pcb, byte[] apdu, int offset, int length)
             throws UsbTransportException {
-        apdu = Arrays.copyOfRange(apdu, offset, offset + length);
-
         this.checksumType = checksumType;
-        if (apdu.length > MAX_PAYLOAD_LEN) {
-            throw new UsbTransportException("APDU is too long; should be split");
-        }
-        blockData = Arrays.concatenate(
-                new byte[]{nad, pcb, (byte) apdu.length},
-                apdu,
-                new byte[checksumType.getLength()]);
-
-        int checksumOffset = blockData.length - checksumType.getLength();
-        byte[] checksum = checksumType.computeChecksum(blockData, 0, checksumOffset);
-
-        System.arraycopy(checksum, 0, blockData, checksumOffset, checksumType.getLength());
+        this.blockData = new byte[OFFSET_DATA + length + checksumType.getLength()];
+        this.blockOffset = 0;
+        this.blockLength = writeBlock(checksumType, blockData, 0, nad, pcb, apdu, offset, length);
     }
-    */
 
-//    /*
-    Block(BlockChecksumAlgorithm checksumType, byte nad, byte pcb, byte[] apdu, int offset, int length)
-            throws UsbTransportException {
-        this.checksumType = checksumType;
+    /**
+     * Writes a block with the given information field directly into dest.
+     *
+     * @return the number of bytes written
+     */
+    static int writeBlock(BlockChecksumAlgorithm checksumType, byte[] dest, int destOffset,
+            byte nad, byte pcb, byte[] apdu, int offset, int length) throws UsbTransportException {
         if (length > MAX_PAYLOAD_LEN) {
             throw new IllegalArgumentException("Payload too long! " + length + " > " + MAX_PAYLOAD_LEN);
         }
 
-        int lengthWithoutChecksum = length + 3;
-        int checksumLength = this.checksumType.getLength();
+        int lengthWithoutChecksum = length + OFFSET_DATA;
 
-        blockData = new byte[lengthWithoutChecksum + checksumLength];
-        blockData[0] = nad;
-        blockData[1] = pcb;
-        blockData[2] = (byte) length;
-        System.arraycopy(apdu, offset, blockData, 3, length);
+        dest[destOffset + OFFSET_NAD] = nad;
+        dest[destOffset + OFFSET_PCB] = pcb;
+        dest[destOffset + OFFSET_LEN] = (byte) length;
+        System.arraycopy(apdu, offset, dest, destOffset + OFFSET_DATA, length);
 
-        byte[] checksum = this.checksumType.computeChecksum(blockData, 0, lengthWithoutChecksum);
-        System.arraycopy(checksum, 0, blockData, lengthWithoutChecksum, checksumLength);
+        checksumType.writeChecksum(dest, destOffset, lengthWithoutChecksum);
+
+        return lengthWithoutChecksum + checksumType.getLength();
     }
 
     public byte getNad() {
-        return blockData[OFFSET_NAD];
+        return blockData[blockOffset + OFFSET_NAD];
     }
 
     public byte getPcb() {
-        return blockData[OFFSET_PCB];
+        return blockData[blockOffset + OFFSET_PCB];
     }
 
     public byte getLen() {
-        return blockData[OFFSET_LEN];
+        return blockData[blockOffset + OFFSET_LEN];
     }
 
     public byte[] getEdc() {
-        return Arrays.copyOfRange(blockData, blockData.length - checksumType.getLength(), blockData.length);
+        int blockEnd = blockOffset + blockLength;
+        return Arrays.copyOfRange(blockData, blockEnd - checksumType.getLength(), blockEnd);
     }
 
     public BlockChecksumAlgorithm getChecksumType() {
@@ -117,16 +120,30 @@ class Block {
     }
 
     public byte[] getApdu() {
-        return Arrays.copyOfRange(blockData, OFFSET_DATA, blockData.length - checksumType.getLength());
+        return Arrays.copyOfRange(blockData, blockOffset + OFFSET_DATA, blockOffset + OFFSET_DATA + getApduLength());
+    }
+
+    public int getApduLength() {
+        return blockLength - OFFSET_DATA - checksumType.getLength();
+    }
+
+    /**
+     * Copies the information field of this block to dest, without intermediate copies.
+     */
+    public void copyApduTo(byte[] dest, int destOffset) {
+        System.arraycopy(blockData, blockOffset + OFFSET_DATA, dest, destOffset, getApduLength());
     }
 
     public byte[] getRawData() {
-        return blockData;
+        if (blockOffset == 0 && blockLength == blockData.length) {
+            return blockData;
+        }
+        return Arrays.copyOfRange(blockData, blockOffset, blockOffset + blockLength);
     }
 
     @Override
     public String toString() {
-        return Hex.encodeHexString(blockData);
+        return Hex.encodeHexString(getRawData());
     }
 
 }
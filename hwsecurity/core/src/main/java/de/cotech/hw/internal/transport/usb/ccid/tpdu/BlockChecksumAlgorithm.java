@@ -27,8 +27,6 @@ package de.cotech.hw.internal.transport.usb.ccid.tpdu;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 
-import de.cotech.hw.internal.transport.usb.UsbTransportException;
-
 @RestrictTo(Scope.LIBRARY_GROUP)
 enum BlockChecksumAlgorithm {
     LRC(1), CRC(2);
@@ -39,16 +37,51 @@ enum BlockChecksumAlgorithm {
         mLength = length;
     }
 
-    public byte[] computeChecksum(byte[] data, int offset, int len) throws UsbTransportException {
+    /**
+     * Computes the checksum over len bytes of data starting at offset, and writes it to the
+     * bytes immediately following them.
+     */
+    public void writeChecksum(byte[] data, int offset, int len) {
         if (this == LRC) {
-            byte res = 0;
-            for (int i = offset; i < len; i++) {
-                res ^= data[i];
-            }
-            return new byte[]{res};
+            data[offset + len] = computeLrc(data, offset, len);
+        } else {
+            int crc = computeCrc(data, offset, len);
+            data[offset + len] = (byte) (crc >> 8);
+            data[offset + len + 1] = (byte) crc;
+        }
+    }
+
+    /**
+     * Verifies the checksum of a block of len bytes starting at offset, including the checksum.
+     */
+    public boolean verifyChecksum(byte[] data, int offset, int len) {
+        int checksumOffset = offset + len - mLength;
+        if (this == LRC) {
+            return data[checksumOffset] == computeLrc(data, offset, len - mLength);
         } else {
-            throw new UsbTransportException("CRC checksum is not implemented");
+            int crc = computeCrc(data, offset, len - mLength);
+            return data[checksumOffset] == (byte) (crc >> 8) && data[checksumOffset + 1] == (byte) crc;
+        }
+    }
+
+    private static byte computeLrc(byte[] data, int offset, int len) {
+        byte res = 0;
+        for (int i = offset; i < offset + len; i++) {
+            res ^= data[i];
+        }
+        return res;
+    }
+
+    /* CRC-16 as in ISO/IEC 13239, bit-reversed polynomial x^16 + x^12 + x^5 + 1, initial value 0xFFFF */
+    private static int computeCrc(byte[] data, int offset, int len) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + len; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
         }
+        return crc;
     }
 
     public int getLength() {
@@ -40,7 +40,11 @@ class IBlock extends Block {
     private static final byte BIT_CHAINING = 5;
 
     IBlock(BlockChecksumAlgorithm checksumType, byte[] data) throws UsbTransportException {
-        super(checksumType, data);
+        this(checksumType, data, 0, data.length);
+    }
+
+    IBlock(BlockChecksumAlgorithm checksumType, byte[] data, int offset, int length) throws UsbTransportException {
+        super(checksumType, data, offset, length);
 
         if ((getPcb() & MASK_IBLOCK) != MASK_VALUE_IBLOCK) {
             throw new IllegalArgumentException("Data contained incorrect block type!");
@@ -50,9 +54,11 @@ class IBlock extends Block {
     IBlock(BlockChecksumAlgorithm checksumType, byte nad, byte sequence, boolean chaining, byte[] apdu, int offset,
             int length)
             throws UsbTransportException {
-        super(checksumType, nad,
-                (byte) (((sequence & 1) << BIT_SEQUENCE) | (chaining ? 1 << BIT_CHAINING : 0)),
-                apdu, offset, length);
+        super(checksumType, nad, createPcb(sequence, chaining), apdu, offset, length);
+    }
+
+    static byte createPcb(byte sequence, boolean chaining) {
+        return (byte) (((sequence & 1) << BIT_SEQUENCE) | (chaining ? 1 << BIT_CHAINING : 0));
     }
 
     byte getSequence() {
@@ -38,20 +38,28 @@ class RBlock extends Block {
     private static final byte BIT_SEQUENCE = 4;
 
     RBlock(BlockChecksumAlgorithm checksumType, byte[] data) throws UsbTransportException {
-        super(checksumType, data);
+        this(checksumType, data, 0, data.length);
+    }
+
+    RBlock(BlockChecksumAlgorithm checksumType, byte[] data, int offset, int length) throws UsbTransportException {
+        super(checksumType, data, offset, length);
 
         if ((getPcb() & MASK_RBLOCK) != MASK_VALUE_RBLOCK) {
             throw new IllegalArgumentException("Data contained incorrect block type!");
         }
 
-        if (getApdu().length != 0) {
+        if (getApduLength() != 0) {
             throw new UsbTransportException("Data in R-block");
         }
     }
 
     RBlock(BlockChecksumAlgorithm checksumType, byte nad, byte sequence)
             throws UsbTransportException {
-        super(checksumType, nad, (byte) (MASK_VALUE_RBLOCK | ((sequence & 1) << BIT_SEQUENCE)), new byte[0], 0, 0);
+        super(checksumType, nad, createPcb(sequence), new byte[0], 0, 0);
+    }
+
+    static byte createPcb(byte sequence) {
+        return (byte) (MASK_VALUE_RBLOCK | ((sequence & 1) << BIT_SEQUENCE));
     }
 
     public RError getError() throws UsbTransportException {
@@ -25,6 +25,7 @@
 package de.cotech.hw.internal.transport.usb.ccid.tpdu;
 
 
+import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 
@@ -36,11 +37,60 @@ class SBlock extends Block {
     static final byte MASK_SBLOCK = (byte) 0b11000000;
     static final byte MASK_VALUE_SBLOCK = (byte) 0b11000000;
 
+    private static final byte MASK_RESPONSE = (byte) 0b00100000;
+    private static final byte MASK_TYPE = (byte) 0b00011111;
+
     SBlock(BlockChecksumAlgorithm checksumType, byte[] data) throws UsbTransportException {
-        super(checksumType, data);
+        this(checksumType, data, 0, data.length);
+    }
+
+    SBlock(BlockChecksumAlgorithm checksumType, byte[] data, int offset, int length) throws UsbTransportException {
+        super(checksumType, data, offset, length);
 
         if ((getPcb() & MASK_SBLOCK) != MASK_VALUE_SBLOCK) {
             throw new IllegalArgumentException("Data contained incorrect block type!");
         }
     }
+
+    static byte createPcb(SBlockType type, boolean response) {
+        return (byte) (MASK_VALUE_SBLOCK | (response ? MASK_RESPONSE : 0) | type.mTypeBits);
+    }
+
+    boolean isResponse() {
+        return (getPcb() & MASK_RESPONSE) != 0;
+    }
+
+    SBlockType getType() throws UsbTransportException {
+        return SBlockType.from(getPcb());
+    }
+
+    /**
+     * Returns the single INF byte of IFS and WTX blocks.
+     */
+    int getParameter() throws UsbTransportException {
+        if (getApduLength() != 1) {
+            throw new UsbTransportException("Expected single byte INF in S-block, got " + getApduLength());
+        }
+        return getApdu()[0] & 0xFF;
+    }
+
+    enum SBlockType {
+        RESYNCH(0), IFS(1), ABORT(2), WTX(3);
+
+        private byte mTypeBits;
+
+        SBlockType(int typeBits) {
+            mTypeBits = (byte) typeBits;
+        }
+
+        @NonNull
+        public static SBlockType from(byte pcb) throws UsbTransportException {
+            for (final SBlockType type : values()) {
+                if (type.mTypeBits == (pcb & MASK_TYPE)) {
+                    return type;
+                }
+            }
+            throw new UsbTransportException("Invalid S block type bits");
+        }
+    }
 }
@@ -40,14 +40,24 @@ class T1TpduBlockFactory {
     }
 
     Block fromBytes(byte[] data) throws UsbTransportException {
-        byte pcbByte = data[Block.OFFSET_PCB];
+        return fromBytes(data, 0, data.length);
+    }
+
+    /**
+     * Parses a block from a slice of data. The returned block references data without copying it.
+     */
+    Block fromBytes(byte[] data, int offset, int length) throws UsbTransportException {
+        if (length <= Block.OFFSET_PCB) {
+            throw new UsbTransportException("TPDU block too short");
+        }
+        byte pcbByte = data[offset + Block.OFFSET_PCB];
 
         if ((pcbByte & IBlock.MASK_IBLOCK) == IBlock.MASK_VALUE_IBLOCK) {
-            return new IBlock(checksumType, data);
+            return new IBlock(checksumType, data, offset, length);
         } else if ((pcbByte & SBlock.MASK_SBLOCK) == SBlock.MASK_VALUE_SBLOCK) {
-            return new SBlock(checksumType, data);
+            return new SBlock(checksumType, data, offset, length);
         } else if ((pcbByte & RBlock.MASK_RBLOCK) == RBlock.MASK_VALUE_RBLOCK) {
-            return new RBlock(checksumType, data);
+            return new RBlock(checksumType, data, offset, length);
         }
 
         throw new UsbTransportException("TPDU Unknown block type");
@@ -61,4 +71,37 @@ class T1TpduBlockFactory {
     RBlock createAckRBlock(byte receivedSeqNum) throws UsbTransportException {
         return new RBlock(checksumType, (byte) 0, (byte) (receivedSeqNum + 1));
     }
+
+    /**
+     * Writes an I-block directly into dest, see {@link #newIBlock(byte, boolean, byte[], int, int)}.
+     *
+     * @return the number of bytes written
+     */
+    int writeIBlock(byte[] dest, int destOffset, byte sequence, boolean chaining, byte[] apdu, int offset,
+            int length) throws UsbTransportException {
+        return Block.writeBlock(checksumType, dest, destOffset,
+                (byte) 0, IBlock.createPcb(sequence, chaining), apdu, offset, length);
+    }
+
+    /**
+     * Writes an acknowledging R-block directly into dest, see {@link #createAckRBlock(byte)}.
+     *
+     * @return the number of bytes written
+     */
+    int writeAckRBlock(byte[] dest, int destOffset, byte receivedSeqNum) throws UsbTransportException {
+        return Block.writeBlock(checksumType, dest, destOffset,
+                (byte) 0, RBlock.createPcb((byte) (receivedSeqNum + 1)), dest, destOffset, 0);
+    }
+
+    /**
+     * Writes an S-block with a single byte parameter, as used by IFS and WTX, directly into dest.
+     *
+     * @return the number of bytes written
+     */
+    int writeSBlock(byte[] dest, int destOffset, SBlock.SBlockType type, boolean response, int parameter)
+            throws UsbTransportException {
+        byte[] inf = { (byte) parameter };
+        return Block.writeBlock(checksumType, dest, destOffset,
+                (byte) 0, SBlock.createPcb(type, response), inf, 0, inf.length);
+    }
 }
@@ -25,6 +25,8 @@
 package de.cotech.hw.internal.transport.usb.ccid.tpdu;
 
 
+import java.nio.ByteBuffer;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
@@ -40,15 +42,26 @@ import de.cotech.hw.util.HwTimber;
 @RestrictTo(Scope.LIBRARY_GROUP)
 public class T1TpduProtocol implements CcidTransportProtocol {
     private final static int MAX_FRAME_LEN = 254;
+    private final static int INITIAL_RESPONSE_BUFFER_LEN = 2 * MAX_FRAME_LEN;
 
     private static final byte PPS_PPPSS = (byte) 0xFF;
     private static final byte PPS_PPS0_T1 = 1;
     private static final byte PPS_PCK = (byte) (PPS_PPPSS ^ PPS_PPS0_T1);
 
+    private static final byte PROTOCOL_NUM_T1 = 1;
+    // bmTCCKST1, bits 7-2 are fixed to 000100b
+    private static final byte TCCKS_T1 = 0x10;
+    private static final byte TCCKS_T1_INVERSE_CONVENTION = 0x02;
+    private static final byte TCCKS_T1_CRC = 0x01;
+
     private CcidTransceiver ccidTransceiver;
     private T1TpduBlockFactory blockFactory;
 
     private byte sequenceCounter = 0;
+    private int ifsc = AnswerToReset.DEFAULT_T1_IFSC;
+
+    /* Chained responses are reassembled here, reused across calls. */
+    private byte[] responseBuffer = new byte[INITIAL_RESPONSE_BUFFER_LEN];
 
 
     public void connect(@NonNull CcidTransceiver ccidTransceiver) throws UsbTransportException {
@@ -57,15 +70,33 @@ public class T1TpduProtocol implements CcidTransportProtocol {
         }
         this.ccidTransceiver = ccidTransceiver;
 
-        this.ccidTransceiver.iccPowerOn();
+        CcidDataBlock atrBlock = this.ccidTransceiver.iccPowerOn();
+        AnswerToReset atr = parseAtrOrDefault(atrBlock.getData());
 
-        // TODO: set checksum from atr
-        blockFactory = new T1TpduBlockFactory(BlockChecksumAlgorithm.LRC);
+        blockFactory = new T1TpduBlockFactory(
+                atr.isT1CrcChecksum() ? BlockChecksumAlgorithm.CRC : BlockChecksumAlgorithm.LRC);
+        ifsc = atr.getT1Ifsc();
 
         boolean skipPpsExchange = ccidTransceiver.hasAutomaticPps();
         if (!skipPpsExchange) {
             performPpsExchange();
         }
+
+        if (!ccidTransceiver.hasAutomaticParameters()) {
+            setReaderParameters(atr, !skipPpsExchange);
+        }
+        ccidTransceiver.setBlockWaitingTimeMillis(atr.getT1BlockWaitingTimeMillis(ccidTransceiver.getDefaultClock()));
+
+        negotiateIfsd();
+    }
+
+    private static AnswerToReset parseAtrOrDefault(byte[] atrBytes) {
+        try {
+            return AnswerToReset.fromBytes(atrBytes);
+        } catch (UsbTransportException e) {
+            HwTimber.w(e, "Failed to parse ATR, using default T=1 parameters");
+            return AnswerToReset.createDefault();
+        }
     }
 
     private void performPpsExchange() throws UsbTransportException {
@@ -79,6 +110,56 @@ public class T1TpduProtocol implements CcidTransportProtocol {
         }
     }
 
+    /**
+     * Tells readers which don't configure themselves from the ATR about the negotiated parameters.
+     * Spec: CCID 6.1.7, Table 6.1-9 Protocol Data Structure for Protocol T=1
+     */
+    private void setReaderParameters(AnswerToReset atr, boolean performedPpsExchange) {
+        // our PPS request doesn't contain PPS1, so that leaves Fi and Di at their defaults
+        int fiDi = performedPpsExchange ? AnswerToReset.DEFAULT_FI_DI : atr.getFiDi();
+        byte tccks = (byte) (TCCKS_T1 | (atr.isInverseConvention() ? TCCKS_T1_INVERSE_CONVENTION : 0) |
+                (atr.isT1CrcChecksum() ? TCCKS_T1_CRC : 0));
+        byte[] protocolData = {
+                (byte) fiDi,
+                tccks,
+                (byte) atr.getExtraGuardTime(),
+                (byte) ((atr.getT1Bwi() << 4) | atr.getT1Cwi()),
+                0x00, // clock stop not supported
+                (byte) atr.getT1Ifsc(),
+                0x00, // NAD
+        };
+
+        try {
+            ccidTransceiver.setParameters(PROTOCOL_NUM_T1, protocolData);
+        } catch (UsbTransportException e) {
+            // the reader may still work with its defaults, as it did before we sent these
+            HwTimber.w(e, "Failed to set T=1 parameters on reader");
+        }
+    }
+
+    /**
+     * Tells the card how large our I-blocks may be, see ISO 7816-3, Part 11.4.2. Until this
+     * succeeds, the card sends its response in I-blocks of at most 32 bytes.
+     */
+    private void negotiateIfsd() throws UsbTransportException {
+        int ifsd = Math.min(MAX_FRAME_LEN, ccidTransceiver.getMaxIfsd());
+        if (ifsd <= AnswerToReset.DEFAULT_T1_IFSC) {
+            return;
+        }
+
+        int blockLength = blockFactory.writeSBlock(ccidTransceiver.getTransmitBuffer(),
+                ccidTransceiver.getXfrBlockPayloadOffset(), SBlock.SBlockType.IFS, false, ifsd);
+        Block responseBlock = transceiveBlockInPlace(blockLength);
+
+        if (responseBlock instanceof SBlock && ((SBlock) responseBlock).isResponse()
+                && ((SBlock) responseBlock).getType() == SBlock.SBlockType.IFS
+                && ((SBlock) responseBlock).getParameter() == ifsd) {
+            HwTimber.d("Negotiated IFSD %d, IFSC is %d", ifsd, ifsc);
+        } else {
+            HwTimber.w("Card didn't confirm IFSD %d, response %s", ifsd, responseBlock);
+        }
+    }
+
     public byte[] transceive(@NonNull byte[] apdu) throws UsbTransportException {
         if (this.ccidTransceiver == null) {
             throw new IllegalStateException("Protocol not connected!");
@@ -92,15 +173,25 @@ public class T1TpduProtocol implements CcidTransportProtocol {
         return receiveChainedResponse(responseBlock);
     }
 
+    @Override
+    public boolean isExtendedLengthSupported() {
+        // T=1 chaining carries APDUs of any length
+        return true;
+    }
+
     private IBlock sendChainedData(@NonNull byte[] apdu) throws UsbTransportException {
+        byte[] transmitBuffer = ccidTransceiver.getTransmitBuffer();
+        int blockOffset = ccidTransceiver.getXfrBlockPayloadOffset();
+
         int sentLength = 0;
         while (sentLength < apdu.length) {
-            boolean hasMore = sentLength + MAX_FRAME_LEN < apdu.length;
-            int len = Math.min(MAX_FRAME_LEN, apdu.length - sentLength);
+            // the card may change its IFSC while we are chaining
+            boolean hasMore = sentLength + ifsc < apdu.length;
+            int len = Math.min(ifsc, apdu.length - sentLength);
 
-            Block sendBlock = blockFactory.newIBlock(sequenceCounter++, hasMore, apdu, sentLength, len);
-            CcidDataBlock response = ccidTransceiver.sendXfrBlock(sendBlock.getRawData());
-            Block responseBlock = blockFactory.fromBytes(response.getData());
+            int blockLength = blockFactory.writeIBlock(
+                    transmitBuffer, blockOffset, sequenceCounter++, hasMore, apdu, sentLength, len);
+            Block responseBlock = transceiveBlockInPlace(blockLength);
 
             sentLength += len;
 
@@ -124,14 +215,16 @@ public class T1TpduProtocol implements CcidTransportProtocol {
     }
 
     private byte[] receiveChainedResponse(IBlock responseIBlock) throws UsbTransportException {
-        byte[] responseApdu = responseIBlock.getApdu();
+        byte[] transmitBuffer = ccidTransceiver.getTransmitBuffer();
+        int blockOffset = ccidTransceiver.getXfrBlockPayloadOffset();
+
+        int responseLength = appendToResponseBuffer(responseIBlock, 0);
 
         while (responseIBlock.getChaining()) {
             byte receivedSeqNum = responseIBlock.getSequence();
 
-            Block ackBlock = blockFactory.createAckRBlock(receivedSeqNum);
-            CcidDataBlock response = ccidTransceiver.sendXfrBlock(ackBlock.getRawData());
-            Block responseBlock = blockFactory.fromBytes(response.getData());
+            int blockLength = blockFactory.writeAckRBlock(transmitBuffer, blockOffset, receivedSeqNum);
+            Block responseBlock = transceiveBlockInPlace(blockLength);
 
             if (!(responseBlock instanceof IBlock)) {
                 HwTimber.e("Invalid response block received %s", responseBlock);
@@ -139,9 +232,69 @@ public class T1TpduProtocol implements CcidTransportProtocol {
             }
 
             responseIBlock = (IBlock) responseBlock;
-            responseApdu = Arrays.concatenate(responseApdu, responseBlock.getApdu());
+            responseLength = appendToResponseBuffer(responseIBlock, responseLength);
         }
 
+        byte[] responseApdu = Arrays.copyOf(responseBuffer, responseLength);
+        // the response may contain secrets, don't keep them around
+        Arrays.fill(responseBuffer, 0, responseLength, (byte) 0);
+        ccidTransceiver.clearReceivedData();
         return responseApdu;
     }
+
+    /**
+     * Sends a block previously written to the transmit buffer, and parses the response block
+     * from the receive buffer. The returned block is valid until the next call to the transceiver.
+     * <p>
+     * IFS and WTX requests from the card are answered here, so they are never returned.
+     */
+    private Block transceiveBlockInPlace(int blockLength) throws UsbTransportException {
+        Block responseBlock = parseResponseBlock(ccidTransceiver.sendXfrBlockInPlace(blockLength));
+
+        while (responseBlock instanceof SBlock && !((SBlock) responseBlock).isResponse()) {
+            SBlock requestBlock = (SBlock) responseBlock;
+            SBlock.SBlockType type = requestBlock.getType();
+            int blockWaitingTimeMultiplier = 0;
+            int parameter;
+            if (type == SBlock.SBlockType.WTX) {
+                parameter = requestBlock.getParameter();
+                blockWaitingTimeMultiplier = parameter;
+                HwTimber.d("Card requested waiting time extension by factor %d", parameter);
+            } else if (type == SBlock.SBlockType.IFS) {
+                parameter = requestBlock.getParameter();
+                if (parameter < 1 || parameter > MAX_FRAME_LEN) {
+                    throw new UsbTransportException("Card requested invalid IFSC " + parameter);
+                }
+                ifsc = parameter;
+                HwTimber.d("Card changed IFSC to %d", parameter);
+            } else {
+                return responseBlock;
+            }
+
+            int responseLength = blockFactory.writeSBlock(ccidTransceiver.getTransmitBuffer(),
+                    ccidTransceiver.getXfrBlockPayloadOffset(), type, true, parameter);
+            responseBlock = parseResponseBlock(
+                    ccidTransceiver.sendXfrBlockInPlace(responseLength, blockWaitingTimeMultiplier));
+        }
+
+        return responseBlock;
+    }
+
+    private Block parseResponseBlock(ByteBuffer response) throws UsbTransportException {
+        return blockFactory.fromBytes(response.array(), response.arrayOffset() + response.position(),
+                response.remaining());
+    }
+
+    private int appendToResponseBuffer(Block block, int responseLength) {
+        int requiredLength = responseLength + block.getApduLength();
+        if (requiredLength > responseBuffer.length) {
+            byte[] largerResponseBuffer = new byte[Math.max(requiredLength, 2 * responseBuffer.length)];
+            System.arraycopy(responseBuffer, 0, largerResponseBuffer, 0, responseLength);
+            Arrays.fill(responseBuffer, 0, responseLength, (byte) 0);
+            responseBuffer = largerResponseBuffer;
+        }
+
+        block.copyApduTo(responseBuffer, responseLength);
+        return requiredLength;
+    }
 }
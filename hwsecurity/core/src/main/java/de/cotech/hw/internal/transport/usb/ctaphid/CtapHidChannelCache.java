@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ctaphid;
+
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidInitStructFactory.CtapHidInitResponse;
+
+
+/**
+ * Remembers the CTAPHID channel allocated on a single USB device.
+ * <p>
+ * A channel stays valid for as long as the authenticator is powered, so one instance is kept per attached
+ * device and reused across transport connections. This saves the CTAPHID_INIT round trip when the same key is
+ * used for several operations. If the authenticator rejects the channel with ERR_INVALID_CHANNEL, the entry is
+ * invalidated and a new channel is allocated.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class CtapHidChannelCache {
+    @Nullable
+    private volatile CtapHidInitResponse initResponse;
+
+    @AnyThread
+    @Nullable
+    CtapHidInitResponse get() {
+        return initResponse;
+    }
+
+    @AnyThread
+    void put(CtapHidInitResponse initResponse) {
+        this.initResponse = initResponse;
+    }
+
+    @AnyThread
+    void invalidate() {
+        initResponse = null;
+    }
+}
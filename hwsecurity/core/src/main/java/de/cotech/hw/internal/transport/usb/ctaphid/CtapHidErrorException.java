@@ -22,30 +22,31 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package de.cotech.hw.internal.transport.usb.ccid.tpdu;
+package de.cotech.hw.internal.transport.usb.ctaphid;
 
 
-import androidx.annotation.NonNull;
-import androidx.annotation.RestrictTo;
-import androidx.annotation.RestrictTo.Scope;
-
-import de.cotech.hw.internal.transport.usb.ccid.CcidTransceiver;
-import de.cotech.hw.internal.transport.usb.ccid.CcidTransceiver.CcidDataBlock;
-import de.cotech.hw.internal.transport.usb.ccid.CcidTransportProtocol;
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
 
-@RestrictTo(Scope.LIBRARY_GROUP)
-public class T1ShortApduProtocol implements CcidTransportProtocol {
-    private CcidTransceiver ccidTransceiver;
 
-    public void connect(@NonNull CcidTransceiver transceiver) throws UsbTransportException {
-        ccidTransceiver = transceiver;
-        ccidTransceiver.iccPowerOn();
+class CtapHidErrorException extends UsbTransportException {
+    static final byte ERR_INVALID_CMD = 0x01;
+    static final byte ERR_INVALID_PAR = 0x02;
+    static final byte ERR_INVALID_LEN = 0x03;
+    static final byte ERR_INVALID_SEQ = 0x04;
+    static final byte ERR_MSG_TIMEOUT = 0x05;
+    static final byte ERR_CHANNEL_BUSY = 0x06;
+    static final byte ERR_LOCK_REQUIRED = 0x0a;
+    static final byte ERR_INVALID_CHANNEL = 0x0b;
+    static final byte ERR_OTHER = 0x7f;
+
+    private final byte errorCode;
+
+    CtapHidErrorException(byte errorCode) {
+        super("CTAPHID error: 0x" + Integer.toHexString(errorCode & 0xff));
+        this.errorCode = errorCode;
     }
 
-    @Override
-    public byte[] transceive(@NonNull final byte[] apdu) throws UsbTransportException {
-        CcidDataBlock response = ccidTransceiver.sendXfrBlock(apdu);
-        return response.getData();
+    byte getErrorCode() {
+        return errorCode;
     }
 }
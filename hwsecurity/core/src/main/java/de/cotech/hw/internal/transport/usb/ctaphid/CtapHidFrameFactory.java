@@ -32,6 +32,7 @@ import java.nio.ByteOrder;
 
 import androidx.annotation.VisibleForTesting;
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.util.HwTimber;
 
 final class CtapHidFrameFactory {
     private static final byte TYPE_INIT = (byte) 0x80; // Initial frame identifier
@@ -49,6 +50,8 @@ final class CtapHidFrameFactory {
     @SuppressWarnings("unused") // public API
     static final byte CTAPHID_CBOR = (byte) (TYPE_INIT | 0x10); // Send CTAPHID message frame
     @SuppressWarnings("unused") // public API
+    static final byte CTAPHID_CANCEL = (byte) (TYPE_INIT | 0x11); // Cancel any outstanding requests on this channel
+    @SuppressWarnings("unused") // public API
     static final byte CTAPHID_ERROR = (byte) (TYPE_INIT | 0x3f); // Error response
     @SuppressWarnings({ "WeakerAccess" }) // public API
     static final byte CTAPHID_KEEPALIVE = (byte) (TYPE_INIT | 0x3b); // Just a keepalive response
@@ -144,143 +147,173 @@ final class CtapHidFrameFactory {
         return blockSize;
     }
 
-    int findExpectedFramesFromInitPacketHeader(int expectedChannelId, ByteBuffer initPacket)
-            throws UsbTransportException {
-        try {
-            initPacket.mark();
-            FrameInitPacketHeader initPacketHeader = FrameInitPacketHeader.fromByteBuffer(initPacket);
-            if (expectedChannelId != CTAPHID_CHANNEL_ID_BROADCAST && initPacketHeader.channelId != expectedChannelId) {
-                throw new CtapHidChangedChannelException(expectedChannelId, initPacketHeader.channelId);
-            }
-            initPacket.reset();
-            return calculatePacketCountForPayload(initPacketHeader.payloadLength);
-        } catch (BufferUnderflowException e) {
-            throw new UsbTransportException(e);
-        }
+    /**
+     * Create a decoder that reassembles a single frame from HID reports as they are received.
+     *
+     * @param expectedChannelId channel identifier of the frame, or {@link #CTAPHID_CHANNEL_ID_BROADCAST} to accept
+     *                          the first init packet on any channel
+     */
+    FrameDecoder newFrameDecoder(int expectedChannelId) {
+        return new FrameDecoder(expectedChannelId);
     }
 
-    KeepaliveType unwrapFrameAsKeepalivePacket(byte[] frameBytes) {
-        ByteBuffer frame = ByteBuffer.wrap(frameBytes).order(ByteOrder.BIG_ENDIAN);
-        FrameInitPacketHeader initPacket = FrameInitPacketHeader.fromByteBuffer(frame);
-        if (initPacket.cmdId != CTAPHID_KEEPALIVE) {
-            return null;
-        }
-        if (initPacket.payloadLength != 1) {
+    KeepaliveType parseKeepaliveType(byte[] keepalivePayload) {
+        if (keepalivePayload.length != 1) {
             return KeepaliveType.UNKNOWN;
         }
-        switch (frame.get()) {
+        switch (keepalivePayload[0]) {
             case KEEPALIVE_TYPE_PROCESSING: return KeepaliveType.PROCESSING;
             case KEEPALIVE_TYPE_UPNEEDED: return KeepaliveType.UPNEEDED;
             default: return KeepaliveType.UNKNOWN;
         }
     }
 
-    /**
-     * Return null until we can completely parse a multi-packet response sans error.
-     *
-     *
-     * @param expectedCmdId      expected command identifier
-     * @param frameBytes       APDU
-     * @return contents of response APDU
-     * @throws UsbTransportException Thrown on error process the response.
-     */
-    byte[] unwrapFrame(int expectedChannelId, byte expectedCmdId, byte[] frameBytes) throws UsbTransportException {
-        try {
-            return unwrapFrameOrThrow(expectedChannelId, expectedCmdId, frameBytes);
-        } catch (BufferUnderflowException | BufferOverflowException | IndexOutOfBoundsException e) {
-            throw new UsbTransportException(e);
+    @VisibleForTesting
+    int calculatePacketCountForPayload(int length) {
+        if (length > MAX_LENGTH_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large, CtapHid maximum is 7906 bytes!");
         }
-    }
 
-    private byte[] unwrapFrameOrThrow(int expectedChannelId, byte expectedCmdId, byte[] frameBytes)
-            throws UsbTransportException {
-        ByteBuffer frame = ByteBuffer.wrap(frameBytes).order(ByteOrder.BIG_ENDIAN);
+        int lengthAfterFirstPacket = length - MAX_LENGTH_INIT_PACKET;
+        return 1 + (lengthAfterFirstPacket + MAX_LENGTH_CONT_PACKET - 1) / MAX_LENGTH_CONT_PACKET;
+    }
 
-        FrameInitPacketHeader initPacket = FrameInitPacketHeader.fromByteBuffer(frame);
-        if (initPacket.cmdId != expectedCmdId) {
-            throw new UsbTransportException("Command mismatch = " + (initPacket.cmdId & 0xff) + " Tag = " + (expectedCmdId & 0xff));
-        }
 
-        if (expectedChannelId != CTAPHID_CHANNEL_ID_BROADCAST && initPacket.channelId != expectedChannelId) {
-            throw new CtapHidChangedChannelException(expectedChannelId, initPacket.channelId);
-        }
+    /**
+     * Incremental frame reassembly. Reports are consumed one at a time, and their payload is copied straight
+     * into a buffer of exactly the size announced by the init packet.
+     * <p>
+     * Reports on other channels and stray continuation packets are skipped. An init packet on the expected
+     * channel while a frame is still incomplete, such as a KEEPALIVE or ERROR, replaces the incomplete frame.
+     */
+    static final class FrameDecoder {
+        private final int expectedChannelId;
 
-        // check we don't have less data than claimed
-        int expectedBufferLength = calculatePacketCountForPayload(initPacket.payloadLength) * CTAPHID_BUFFER_SIZE;
+        private int channelId;
+        private byte cmdId;
+        private byte[] payload;
+        private int offset;
+        private int nextSequenceIdx;
 
-        if (frame.capacity() != expectedBufferLength) {
-            throw new UsbTransportException(
-                    "Payload not finished (" + frame.capacity() + "/" + expectedBufferLength + " bytes).");
+        private FrameDecoder(int expectedChannelId) {
+            this.expectedChannelId = expectedChannelId;
         }
 
-        byte[] payload = new byte[initPacket.payloadLength];
+        /**
+         * Consume a single HID report.
+         *
+         * @return true if the frame is complete
+         * @throws UsbTransportException if the report is malformed or out of sequence
+         */
+        boolean consumeReport(byte[] report) throws UsbTransportException {
+            if (report.length < CTAPHID_BUFFER_SIZE) {
+                throw new UsbTransportException("Invalid HID report size: " + report.length);
+            }
+            if (isComplete()) {
+                throw new IllegalStateException("Frame is already complete!");
+            }
 
-        int offset = 0;
-        int sequenceIdx = 0;
+            ByteBuffer buf = ByteBuffer.wrap(report, 0, CTAPHID_BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            int reportChannelId = buf.getInt();
+            byte cmdOrSequence = buf.get();
+            boolean isInitPacket = (cmdOrSequence & TYPE_INIT) != 0;
+
+            if (isInitPacket) {
+                if (expectedChannelId != CTAPHID_CHANNEL_ID_BROADCAST && reportChannelId != expectedChannelId) {
+                    HwTimber.d("Received message from wrong channel - ignoring");
+                    return false;
+                }
+                if (payload != null) {
+                    HwTimber.d("Received init packet (cmd 0x%02x) before end of frame, restarting",
+                            cmdOrSequence & 0xff);
+                }
+                startFrame(reportChannelId, cmdOrSequence, buf);
+            } else {
+                if (payload == null || reportChannelId != channelId) {
+                    HwTimber.d("Received continuation packet without init packet - ignoring");
+                    return false;
+                }
+                if (cmdOrSequence != nextSequenceIdx) {
+                    throw new UsbTransportException(
+                            "Out of sequence packet. Sequence " + cmdOrSequence + "; expected " + nextSequenceIdx);
+                }
+                nextSequenceIdx += 1;
+                int blockSize = Math.min(MAX_LENGTH_CONT_PACKET, payload.length - offset);
+                buf.get(payload, offset, blockSize);
+                offset += blockSize;
+            }
 
-        offset += readInitPacketPayload(frame, payload);
-        while (offset != payload.length) {
-            offset += readContPacket(initPacket.channelId, frame, payload, offset, sequenceIdx);
-            sequenceIdx += 1;
+            return isComplete();
         }
 
-        return payload;
-    }
+        private void startFrame(int channelId, byte cmdId, ByteBuffer buf) throws UsbTransportException {
+            int payloadLength = buf.getShort() & 0xffff;
+            if (payloadLength > MAX_LENGTH_PAYLOAD) {
+                throw new UsbTransportException("Invalid payload length: " + payloadLength);
+            }
 
-    private int readInitPacketPayload(ByteBuffer frame, byte[] payload) {
-        int packetPayloadLength = Math.min(payload.length, MAX_LENGTH_INIT_PACKET);
-        frame.get(payload, 0, packetPayloadLength);
-        return packetPayloadLength;
-    }
+            this.channelId = channelId;
+            this.cmdId = cmdId;
+            this.payload = new byte[payloadLength];
+            this.nextSequenceIdx = 0;
 
-    private int readContPacket(int expectedChannelId, ByteBuffer frame, byte[] payload, int offset, int sequenceCounter)
-            throws UsbTransportException {
-        int channelId = frame.getInt();
-        if (channelId != expectedChannelId) {
-            throw new CtapHidChangedChannelException(expectedChannelId, channelId);
+            int blockSize = Math.min(MAX_LENGTH_INIT_PACKET, payloadLength);
+            buf.get(payload, 0, blockSize);
+            this.offset = blockSize;
         }
 
-        byte sequenceId = frame.get();
-        if (sequenceId != sequenceCounter) {
-            throw new UsbTransportException(
-                    "Out of sequence packet. Sequence " + sequenceId + "; expected " + sequenceCounter);
+        boolean isComplete() {
+            return payload != null && offset == payload.length;
         }
-        int packetPayloadLength = Math.min(payload.length - offset, MAX_LENGTH_CONT_PACKET);
-        frame.get(payload, offset, packetPayloadLength);
-        return packetPayloadLength;
-    }
 
-    @VisibleForTesting
-    int calculatePacketCountForPayload(int length) {
-        if (length > MAX_LENGTH_PAYLOAD) {
-            throw new IllegalArgumentException("Payload too large, CtapHid maximum is 7906 bytes!");
+        boolean isKeepalive() {
+            return isComplete() && cmdId == CTAPHID_KEEPALIVE;
         }
 
-        int lengthAfterFirstPacket = length - MAX_LENGTH_INIT_PACKET;
-        return 1 + (lengthAfterFirstPacket + MAX_LENGTH_CONT_PACKET - 1) / MAX_LENGTH_CONT_PACKET;
-    }
+        boolean isError() {
+            return isComplete() && cmdId == CTAPHID_ERROR;
+        }
 
+        int getChannelId() {
+            checkComplete();
+            return channelId;
+        }
 
-    public enum KeepaliveType {
-        PROCESSING, UPNEEDED, UNKNOWN
-    }
+        byte getCommand() {
+            checkComplete();
+            return cmdId;
+        }
 
-    private static class FrameInitPacketHeader {
-        int channelId;
-        byte cmdId;
-        int payloadLength;
+        byte[] getPayload() {
+            checkComplete();
+            return payload;
+        }
 
-        FrameInitPacketHeader(int channelId, byte cmdId, int payloadLength) {
-            this.channelId = channelId;
-            this.cmdId = cmdId;
-            this.payloadLength = payloadLength;
+        /**
+         * Return the payload of a complete frame with the given command.
+         *
+         * @throws CtapHidErrorException if the frame is a CTAPHID_ERROR response
+         * @throws UsbTransportException if the frame has a different command
+         */
+        byte[] getPayloadForCommand(byte expectedCmdId) throws UsbTransportException {
+            checkComplete();
+            if (cmdId == CTAPHID_ERROR && expectedCmdId != CTAPHID_ERROR) {
+                throw new CtapHidErrorException(payload.length > 0 ? payload[0] : CtapHidErrorException.ERR_OTHER);
+            }
+            if (cmdId != expectedCmdId) {
+                throw new UsbTransportException("Command mismatch = " + (cmdId & 0xff) + " Tag = " + (expectedCmdId & 0xff));
+            }
+            return payload;
         }
 
-        static FrameInitPacketHeader fromByteBuffer(ByteBuffer frame) {
-            int channelId = frame.getInt();
-            byte cmd = frame.get();
-            int payloadLength = frame.getShort();
-            return new FrameInitPacketHeader(channelId, cmd, payloadLength);
+        private void checkComplete() {
+            if (!isComplete()) {
+                throw new IllegalStateException("Frame is not complete yet!");
+            }
         }
     }
+
+    public enum KeepaliveType {
+        PROCESSING, UPNEEDED, UNKNOWN
+    }
 }
\ No newline at end of file
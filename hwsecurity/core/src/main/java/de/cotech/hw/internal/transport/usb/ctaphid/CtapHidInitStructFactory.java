@@ -94,8 +94,6 @@ class CtapHidInitStructFactory {
 
     @AutoValue
     static abstract class CtapHidInitResponse {
-        private static final byte CAPFLAG_WINK = 1;
-        private static final byte CAPFLAG_LOCK = 2;
 
         abstract int channelId();
         abstract byte versionInterface();
@@ -118,11 +116,19 @@ class CtapHidInitStructFactory {
         }
 
         boolean supportsWink() {
-            return (capabilityFlags() & CAPFLAG_WINK) != 0;
+            return (capabilityFlags() & UsbCtapHidTransport.CAPABILITY_WINK) != 0;
         }
 
         boolean supportsLock() {
-            return (capabilityFlags() & CAPFLAG_LOCK) != 0;
+            return (capabilityFlags() & UsbCtapHidTransport.CAPABILITY_LOCK) != 0;
+        }
+
+        boolean supportsCbor() {
+            return (capabilityFlags() & UsbCtapHidTransport.CAPABILITY_CBOR) != 0;
+        }
+
+        boolean supportsMsg() {
+            return (capabilityFlags() & UsbCtapHidTransport.CAPABILITY_NMSG) == 0;
         }
     }
 
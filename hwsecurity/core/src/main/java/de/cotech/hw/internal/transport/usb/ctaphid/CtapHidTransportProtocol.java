@@ -25,51 +25,53 @@
 package de.cotech.hw.internal.transport.usb.ctaphid;
 
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.security.SecureRandom;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbRequest;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidFrameFactory.FrameDecoder;
 import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidFrameFactory.KeepaliveType;
 import de.cotech.hw.util.HwTimber;
 
 
 @RestrictTo(Scope.LIBRARY_GROUP)
 public class CtapHidTransportProtocol {
+    private static final int INIT_TIMEOUT_MS = 850;
+    private static final int READ_TIMEOUT_MS = 2 * 1000;
+    private static final int WRITE_TIMEOUT_MS = 1000;
+    private static final int CANCEL_TIMEOUT_MS = 500;
+
+    private static final byte CTAP2_ERR_KEEPALIVE_CANCEL = 0x2d;
+
     @NonNull
     private final CtapHidInitStructFactory initStructFactory = new CtapHidInitStructFactory(new SecureRandom());
     @NonNull
     private final CtapHidFrameFactory frameFactory = new CtapHidFrameFactory();
     @NonNull
-    private final UsbDeviceConnection usbCconnection;
-    @NonNull
-    private final UsbEndpoint usbEndpointIn;
-    @NonNull
-    private final UsbEndpoint usbEndpointOut;
-    @NonNull
-    private final ByteBuffer transferBuffer;
+    private final CtapHidUsbPipe usbPipe;
     @NonNull
-    private final ExecutorService executor;
+    private final CtapHidChannelCache channelCache;
 
     private int channelId = CtapHidFrameFactory.CTAPHID_CHANNEL_ID_BROADCAST;
+    private CtapHidInitStructFactory.CtapHidInitResponse initResponse;
 
     CtapHidTransportProtocol(@NonNull UsbDeviceConnection usbCconnection,
                              @NonNull UsbEndpoint usbEndpointIn, @NonNull UsbEndpoint usbEndpointOut) {
+        this(usbCconnection, usbEndpointIn, usbEndpointOut, new CtapHidChannelCache());
+    }
+
+    CtapHidTransportProtocol(@NonNull UsbDeviceConnection usbCconnection,
+                             @NonNull UsbEndpoint usbEndpointIn, @NonNull UsbEndpoint usbEndpointOut,
+                             @NonNull CtapHidChannelCache channelCache) {
         // noinspection ConstantConditions, checking method contract
         if (usbCconnection == null) {
             throw new NullPointerException();
@@ -82,178 +84,179 @@ public class CtapHidTransportProtocol {
         if (usbEndpointOut == null) {
             throw new NullPointerException();
         }
+        // noinspection ConstantConditions, checking method contract
+        if (channelCache == null) {
+            throw new NullPointerException();
+        }
 
-        this.usbCconnection = usbCconnection;
-        this.usbEndpointIn = usbEndpointIn;
-        this.usbEndpointOut = usbEndpointOut;
-        // Allocating a direct buffer here *will break* on some android devices!
-        this.transferBuffer = ByteBuffer.allocate(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
-        this.executor = Executors.newSingleThreadExecutor();
+        this.usbPipe = new CtapHidUsbPipe(usbCconnection, usbEndpointIn, usbEndpointOut, this::newUsbRequest);
+        this.channelCache = channelCache;
     }
 
     @WorkerThread
     public void connect() throws UsbTransportException {
         HwTimber.d("Initializing CTAPHID transport…");
 
-        this.channelId = negotiateChannelId();
+        usbPipe.open();
+
+        CtapHidInitStructFactory.CtapHidInitResponse cachedInitResponse = channelCache.get();
+        if (cachedInitResponse != null) {
+            HwTimber.d("Reusing CTAPHID channel from previous connection");
+            this.initResponse = cachedInitResponse;
+            this.channelId = cachedInitResponse.channelId();
+            return;
+        }
+
+        allocateChannel();
+    }
+
+    @AnyThread
+    public void close() {
+        usbPipe.close();
+    }
+
+    @WorkerThread
+    private void allocateChannel() throws UsbTransportException {
+        this.channelId = CtapHidFrameFactory.CTAPHID_CHANNEL_ID_BROADCAST;
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = negotiateChannelId();
+        this.initResponse = initResponse;
+        this.channelId = initResponse.channelId();
+        channelCache.put(initResponse);
     }
 
-    private int negotiateChannelId() throws UsbTransportException {
+    private CtapHidInitStructFactory.CtapHidInitResponse negotiateChannelId() throws UsbTransportException {
         byte[] initRequestBytes = initStructFactory.createInitRequest();
         byte[] requestFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_INIT, initRequestBytes);
-        writeHidPacketsToUsbDevice(requestFrame);
+        usbPipe.discardPendingReports();
+        usbPipe.writeReports(requestFrame, WRITE_TIMEOUT_MS);
 
-        return performUsbRequestWithTimeout((thread, usbRequest) -> {
-            checkInterrupt(thread);
-            if (!usbRequest.initialize(usbCconnection, usbEndpointIn)) {
-                throw new IOException("Read request could not be opened!");
-            }
+        long deadline = System.currentTimeMillis() + INIT_TIMEOUT_MS;
+        while (true) {
+            FrameDecoder frameDecoder = readFrameFromUsbDevice(channelId, deadline);
+            try {
+                byte[] response = frameDecoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_INIT);
+                CtapHidInitStructFactory.CtapHidInitResponse initResponse = initStructFactory.parseInitResponse(response, initRequestBytes);
 
-            while (true) {
-                checkInterrupt(thread);
-                transferBuffer.clear();
-                if (!usbRequest.queue(transferBuffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
-                    throw new CtapHidFailedEnqueueException("Failed to receive data!");
-                }
-                usbCconnection.requestWait();
-                try {
-                    byte[] response = frameFactory.unwrapFrame(channelId, CtapHidFrameFactory.CTAPHID_INIT, transferBuffer.array());
-                    CtapHidInitStructFactory.CtapHidInitResponse initResponse = initStructFactory.parseInitResponse(response, initRequestBytes);
-
-                    HwTimber.d("CTAPHID_INIT response: %s", initResponse);
-                    return initResponse.channelId();
-                } catch (UsbTransportException e) {
-                    HwTimber.d("Ignoring unrelated INIT response");
-                }
+                HwTimber.d("CTAPHID_INIT response: %s", initResponse);
+                return initResponse;
+            } catch (UsbTransportException e) {
+                HwTimber.d("Ignoring unrelated INIT response");
             }
-        }, 850);
+        }
     }
 
     @WorkerThread
     byte[] transceive(byte[] payload) throws UsbTransportException {
-        byte[] requestFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_MSG, payload);
-        writeHidPacketsToUsbDevice(requestFrame);
-
-        byte[] responseFrame = readHidPacketsFromUsbDevice();
-        return frameFactory.unwrapFrame(channelId, CtapHidFrameFactory.CTAPHID_MSG, responseFrame);
+        try {
+            return transceiveMsg(payload);
+        } catch (CtapHidErrorException e) {
+            reallocateChannelIfInvalid(e);
+            return transceiveMsg(payload);
+        }
     }
 
     @WorkerThread
     byte[] transceiveCbor(byte[] payload) throws UsbTransportException {
-        byte[] requestFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_CBOR, payload);
-        writeHidPacketsToUsbDevice(requestFrame);
-
-        while (true) {
-            byte[] responseFrame = readHidPacketsFromUsbDevice();
-            KeepaliveType keepalivePacketType = frameFactory.unwrapFrameAsKeepalivePacket(responseFrame);
-            if (keepalivePacketType != null) {
-                HwTimber.d("Received keepalive packet (%s), waiting for response..", keepalivePacketType);
-                continue;
-            }
-            return frameFactory.unwrapFrame(channelId, CtapHidFrameFactory.CTAPHID_CBOR, responseFrame);
+        try {
+            return transceiveCborWithKeepalive(payload);
+        } catch (CtapHidErrorException e) {
+            reallocateChannelIfInvalid(e);
+            return transceiveCborWithKeepalive(payload);
         }
     }
 
+    /**
+     * A channel taken from the cache may have been invalidated in the meantime, e.g. because another
+     * application re-initialized the authenticator. In that case the command was rejected without
+     * being processed, so it is safe to allocate a new channel and send it again.
+     */
     @WorkerThread
-    private byte[] readHidPacketsFromUsbDevice() throws UsbTransportException {
-        return performUsbRequestWithTimeout((thread, usbRequest) -> {
-            checkInterrupt(thread);
-
-            if (!usbRequest.initialize(usbCconnection, usbEndpointIn)) {
-                throw new IOException("Read request could not be opened!");
-            }
-
-            checkInterrupt(thread);
-            int expectedFrames = readUntilInitHeaderForChannel(usbRequest);
-
-            byte[] data = new byte[expectedFrames * CtapHidFrameFactory.CTAPHID_BUFFER_SIZE];
-            transferBuffer.clear();
-            transferBuffer.get(data, 0, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
+    private void reallocateChannelIfInvalid(CtapHidErrorException e) throws UsbTransportException {
+        if (e.getErrorCode() != CtapHidErrorException.ERR_INVALID_CHANNEL) {
+            throw e;
+        }
+        HwTimber.d("CTAPHID channel is no longer valid, allocating a new one");
+        channelCache.invalidate();
+        allocateChannel();
+    }
 
-            int offset = CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
-            for (int i = 1; i < expectedFrames; i++) {
-                checkInterrupt(thread);
-                if (!usbRequest.queue(transferBuffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
-                    throw new CtapHidFailedEnqueueException("Failed to receive data!");
-                }
-                usbCconnection.requestWait();
-                transferBuffer.clear();
-                transferBuffer.get(data, offset, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
-                offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
-            }
+    @WorkerThread
+    private byte[] transceiveMsg(byte[] payload) throws UsbTransportException {
+        byte[] requestFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_MSG, payload);
+        usbPipe.discardPendingReports();
+        usbPipe.writeReports(requestFrame, WRITE_TIMEOUT_MS);
 
-            return data;
-        }, 2 * 1000);
+        FrameDecoder frameDecoder = readFrameFromUsbDevice(channelId, System.currentTimeMillis() + READ_TIMEOUT_MS);
+        return frameDecoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_MSG);
     }
 
-    private int readUntilInitHeaderForChannel(UsbRequest usbRequest) throws IOException {
-        while (true) {
-            if (!usbRequest.queue(transferBuffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
-                throw new CtapHidFailedEnqueueException("Failed to receive data!");
-            }
-            usbCconnection.requestWait();
+    @WorkerThread
+    private byte[] transceiveCborWithKeepalive(byte[] payload) throws UsbTransportException {
+        byte[] requestFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_CBOR, payload);
+        usbPipe.discardPendingReports();
+        usbPipe.writeReports(requestFrame, WRITE_TIMEOUT_MS);
 
-            transferBuffer.clear();
+        while (true) {
+            FrameDecoder frameDecoder;
             try {
-                return frameFactory.findExpectedFramesFromInitPacketHeader(channelId, transferBuffer);
-            } catch (CtapHidChangedChannelException e) {
-                HwTimber.d("Received message from wrong channel - ignoring");
+                frameDecoder = readFrameFromUsbDevice(channelId, System.currentTimeMillis() + READ_TIMEOUT_MS);
+            } catch (UsbTransportException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    cancelPendingCborRequest();
+                }
+                throw e;
             }
+            if (frameDecoder.isKeepalive()) {
+                KeepaliveType keepalivePacketType = frameFactory.parseKeepaliveType(frameDecoder.getPayload());
+                HwTimber.d("Received keepalive packet (%s), waiting for response..", keepalivePacketType);
+                continue;
+            }
+            return frameDecoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_CBOR);
         }
     }
 
+    /**
+     * Send CTAPHID_CANCEL after the waiting thread was interrupted, so the authenticator stops waiting for user
+     * presence right away instead of staying busy until its own timeout. The pending request is answered with
+     * CTAP2_ERR_KEEPALIVE_CANCEL, which is consumed here so it does not leak into the next transaction.
+     * <p>
+     * The interrupted status of the thread is restored afterwards.
+     */
     @WorkerThread
-    private void writeHidPacketsToUsbDevice(byte[] hidFrame) throws UsbTransportException {
-        if ((hidFrame.length % CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) != 0) {
-            throw new IllegalArgumentException("Invalid HID frame size!");
-        }
-
-        performUsbRequestWithTimeout((thread, usbRequest) -> {
-            checkInterrupt(thread);
-
-            if (!usbRequest.initialize(usbCconnection, usbEndpointOut)) {
-                throw new IOException("Request could not be opened!");
-            }
+    private void cancelPendingCborRequest() {
+        HwTimber.d("Interrupted while waiting for CTAPHID_CBOR response, sending CTAPHID_CANCEL");
+        try {
+            byte[] cancelFrame = frameFactory.wrapFrame(channelId, CtapHidFrameFactory.CTAPHID_CANCEL, new byte[0]);
+            usbPipe.writeReports(cancelFrame, WRITE_TIMEOUT_MS);
 
-            int offset = 0;
-            while (offset < hidFrame.length) {
-                checkInterrupt(thread);
-                transferBuffer.clear();
-                transferBuffer.put(hidFrame, offset, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
-                if (!usbRequest.queue(transferBuffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
-                    throw new CtapHidFailedEnqueueException("Failed to send data!");
+            long deadline = System.currentTimeMillis() + CANCEL_TIMEOUT_MS;
+            while (true) {
+                FrameDecoder frameDecoder = readFrameFromUsbDevice(channelId, deadline);
+                if (frameDecoder.isKeepalive()) {
+                    continue;
+                }
+                byte[] response = frameDecoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_CBOR);
+                if (response.length > 0 && response[0] == CTAP2_ERR_KEEPALIVE_CANCEL) {
+                    HwTimber.d("Pending CTAPHID_CBOR request was cancelled");
+                } else {
+                    HwTimber.d("CTAPHID_CBOR request finished before it could be cancelled");
                 }
-                usbCconnection.requestWait(); // blocking
-                offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
+                break;
             }
-
-            return null;
-        }, 1000);
+        } catch (UsbTransportException e) {
+            HwTimber.d(e, "No response to CTAPHID_CANCEL");
+        } finally {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @WorkerThread
-    private <T> T performUsbRequestWithTimeout(UsbRequestTask<T> task, int timeoutMs) throws UsbTransportException {
-        UsbRequest usbRequest = newUsbRequest();
-
-        Future<T> future = executor.submit(() -> {
-            Thread thread = Thread.currentThread();
-            try {
-                return task.performUsbRequest(thread, usbRequest);
-            } finally {
-                usbRequest.close();
-            }
-        });
-
-        try {
-            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
-        } catch (ExecutionException e) {
-            throw new UsbTransportException("Error transmitting data!", e.getCause());
-        } catch (InterruptedException e) {
-            future.cancel(true);
-            throw new UsbTransportException("Received interrupt during usb transaction", e);
-        } catch (TimeoutException e) {
-            throw new UsbTransportException("Timed out transmitting data");
+    private FrameDecoder readFrameFromUsbDevice(int expectedChannelId, long deadline) throws UsbTransportException {
+        FrameDecoder frameDecoder = frameFactory.newFrameDecoder(expectedChannelId);
+        while (!usbPipe.readReport(frameDecoder, remainingMillis(deadline))) {
+            // keep reading until the frame is complete
         }
+        return frameDecoder;
     }
 
     @VisibleForTesting
@@ -266,15 +269,11 @@ public class CtapHidTransportProtocol {
         return channelId;
     }
 
-    interface UsbRequestTask<T> {
-        @WorkerThread
-        T performUsbRequest(Thread thread, UsbRequest request) throws IOException, InterruptedException;
+    CtapHidInitStructFactory.CtapHidInitResponse getInitResponse() {
+        return initResponse;
     }
 
-    private static void checkInterrupt(Thread thread) throws InterruptedException {
-        if (thread.isInterrupted()) {
-            HwTimber.d("Received interrupt, canceling USB operation");
-            throw new InterruptedException();
-        }
+    private static long remainingMillis(long deadline) {
+        return deadline - System.currentTimeMillis();
     }
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ctaphid;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidFrameFactory.FrameDecoder;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * Asynchronous report pipe for the interrupt endpoints of a CTAPHID device.
+ * <p>
+ * A ring of IN requests is kept queued for as long as the pipe is open, so the device can send
+ * reports back to back without waiting for the host to queue the next read. Writes are pipelined
+ * through a small pool of OUT requests, and only wait for completion once all reports of a frame
+ * are in flight.
+ * <p>
+ * A single reader thread owns {@link UsbDeviceConnection#requestWait()}, which returns completed
+ * requests for both endpoints. Completed IN requests are handed to the reader of the pipe as is,
+ * and only queued again once their buffer was consumed, so received reports are never copied and
+ * at most {@link #IN_REQUEST_COUNT} of them are pending. Completed OUT requests are returned to
+ * the pool.
+ */
+class CtapHidUsbPipe {
+    private static final int IN_REQUEST_COUNT = 4;
+    private static final int OUT_REQUEST_COUNT = 4;
+    private static final int END_OF_STREAM = -1;
+
+    @NonNull
+    private final UsbDeviceConnection usbConnection;
+    @NonNull
+    private final UsbEndpoint usbEndpointIn;
+    @NonNull
+    private final UsbEndpoint usbEndpointOut;
+    @NonNull
+    private final UsbRequestFactory usbRequestFactory;
+
+    private final UsbRequest[] inRequests = new UsbRequest[IN_REQUEST_COUNT];
+    private final ByteBuffer[] inBuffers = new ByteBuffer[IN_REQUEST_COUNT];
+    private final UsbRequest[] outRequests = new UsbRequest[OUT_REQUEST_COUNT];
+    private final ByteBuffer[] outBuffers = new ByteBuffer[OUT_REQUEST_COUNT];
+
+    // indices of completed IN requests, plus one slot for the END_OF_STREAM marker
+    private final ArrayBlockingQueue<Integer> completedInRequests = new ArrayBlockingQueue<>(IN_REQUEST_COUNT + 1);
+    private final ArrayBlockingQueue<Integer> idleOutRequests = new ArrayBlockingQueue<>(OUT_REQUEST_COUNT);
+    private final Semaphore idleOutRequestPermits = new Semaphore(0);
+
+    private ReaderThread readerThread;
+    private volatile boolean closed;
+
+    CtapHidUsbPipe(@NonNull UsbDeviceConnection usbConnection, @NonNull UsbEndpoint usbEndpointIn,
+            @NonNull UsbEndpoint usbEndpointOut, @NonNull UsbRequestFactory usbRequestFactory) {
+        this.usbConnection = usbConnection;
+        this.usbEndpointIn = usbEndpointIn;
+        this.usbEndpointOut = usbEndpointOut;
+        this.usbRequestFactory = usbRequestFactory;
+    }
+
+    @WorkerThread
+    void open() throws UsbTransportException {
+        if (readerThread != null) {
+            throw new IllegalStateException("Already opened!");
+        }
+
+        try {
+            for (int i = 0; i < IN_REQUEST_COUNT; i++) {
+                inRequests[i] = initializeUsbRequest(usbEndpointIn);
+                // Allocating a direct buffer here *will break* on some android devices!
+                inBuffers[i] = ByteBuffer.allocate(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
+            }
+            for (int i = 0; i < OUT_REQUEST_COUNT; i++) {
+                outRequests[i] = initializeUsbRequest(usbEndpointOut);
+                outBuffers[i] = ByteBuffer.allocate(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
+                idleOutRequests.add(i);
+            }
+            idleOutRequestPermits.release(OUT_REQUEST_COUNT);
+
+            for (int i = 0; i < IN_REQUEST_COUNT; i++) {
+                queueInRequest(i);
+            }
+        } catch (UsbTransportException e) {
+            closed = true;
+            cancelAndCloseRequests();
+            throw e;
+        }
+
+        readerThread = new ReaderThread();
+        readerThread.start();
+    }
+
+    private UsbRequest initializeUsbRequest(UsbEndpoint usbEndpoint) throws UsbTransportException {
+        UsbRequest usbRequest = usbRequestFactory.newUsbRequest();
+        if (!usbRequest.initialize(usbConnection, usbEndpoint)) {
+            usbRequest.close();
+            throw new UsbTransportException("Request could not be opened!");
+        }
+        return usbRequest;
+    }
+
+    private void queueInRequest(int index) throws CtapHidFailedEnqueueException {
+        // requests are closed by the reader thread once the pipe shuts down
+        synchronized (inRequests) {
+            if (closed) {
+                return;
+            }
+            ByteBuffer buffer = inBuffers[index];
+            buffer.clear();
+            if (!inRequests[index].queue(buffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
+                close();
+                throw new CtapHidFailedEnqueueException("Failed to receive data!");
+            }
+        }
+    }
+
+    /**
+     * Drops all reports that were received but not consumed yet, e.g. late keepalive
+     * packets from a previous transaction.
+     */
+    @WorkerThread
+    void discardPendingReports() throws UsbTransportException {
+        Integer index;
+        while ((index = completedInRequests.poll()) != null) {
+            if (index == END_OF_STREAM) {
+                // keep the marker around for subsequent reads
+                completedInRequests.offer(END_OF_STREAM);
+                return;
+            }
+            queueInRequest(index);
+        }
+    }
+
+    /**
+     * Write a frame of one or more HID reports. Up to {@link #OUT_REQUEST_COUNT} reports are in
+     * flight at the same time, this method returns once all of them were completed.
+     */
+    @WorkerThread
+    void writeReports(byte[] hidFrame, long timeoutMs) throws UsbTransportException {
+        if ((hidFrame.length % CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) != 0) {
+            throw new IllegalArgumentException("Invalid HID frame size!");
+        }
+        checkOpen();
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            for (int offset = 0; offset < hidFrame.length; offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+                if (!idleOutRequestPermits.tryAcquire(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                    cancelOutRequests();
+                    throw new UsbTransportException("Timed out transmitting data");
+                }
+                int index = idleOutRequests.remove();
+
+                ByteBuffer buffer = outBuffers[index];
+                buffer.clear();
+                buffer.put(hidFrame, offset, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
+                if (!outRequests[index].queue(buffer, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE)) {
+                    idleOutRequests.add(index);
+                    idleOutRequestPermits.release();
+                    throw new CtapHidFailedEnqueueException("Failed to send data!");
+                }
+            }
+
+            if (!idleOutRequestPermits.tryAcquire(
+                    OUT_REQUEST_COUNT, remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                cancelOutRequests();
+                throw new UsbTransportException("Timed out transmitting data");
+            }
+            idleOutRequestPermits.release(OUT_REQUEST_COUNT);
+        } catch (InterruptedException e) {
+            cancelOutRequests();
+            throw new UsbTransportException("Received interrupt during usb transaction", e);
+        }
+        checkOpen();
+    }
+
+    /**
+     * Pass the next received HID report to the given decoder, waiting up to the given timeout.
+     * The report is read straight from the buffer of its IN request, which is queued again once
+     * the decoder returns.
+     *
+     * @return the result of {@link FrameDecoder#consumeReport(byte[])}
+     */
+    @WorkerThread
+    boolean readReport(@NonNull FrameDecoder frameDecoder, long timeoutMs) throws UsbTransportException {
+        Integer index;
+        try {
+            index = completedInRequests.poll(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new UsbTransportException("Received interrupt during usb transaction", e);
+        }
+        if (index == null) {
+            throw new UsbTransportException("Timed out transmitting data");
+        }
+        if (index == END_OF_STREAM) {
+            // keep the marker around for subsequent reads
+            completedInRequests.offer(END_OF_STREAM);
+            throw new UsbTransportException("Error transmitting data!");
+        }
+        try {
+            return frameDecoder.consumeReport(inBuffers[index].array());
+        } finally {
+            queueInRequest(index);
+        }
+    }
+
+    @AnyThread
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (readerThread == null) {
+            return;
+        }
+        // cancelled requests are returned by requestWait(), which wakes up the reader thread
+        for (UsbRequest usbRequest : inRequests) {
+            usbRequest.cancel();
+        }
+        cancelOutRequests();
+    }
+
+    private void checkOpen() throws UsbTransportException {
+        if (closed) {
+            throw new UsbTransportException("Error transmitting data!");
+        }
+    }
+
+    private void cancelOutRequests() {
+        for (UsbRequest usbRequest : outRequests) {
+            usbRequest.cancel();
+        }
+    }
+
+    private void cancelAndCloseRequests() {
+        synchronized (inRequests) {
+            for (UsbRequest usbRequest : inRequests) {
+                if (usbRequest != null) {
+                    usbRequest.cancel();
+                    usbRequest.close();
+                }
+            }
+        }
+        for (UsbRequest usbRequest : outRequests) {
+            if (usbRequest != null) {
+                usbRequest.cancel();
+                usbRequest.close();
+            }
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    private static int indexOf(UsbRequest[] usbRequests, UsbRequest usbRequest) {
+        for (int i = 0; i < usbRequests.length; i++) {
+            if (usbRequests[i] == usbRequest) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private class ReaderThread extends Thread {
+        ReaderThread() {
+            super("ctaphid-reader");
+            setDaemon(true);
+        }
+
+        @Override
+        @WorkerThread
+        public void run() {
+            try {
+                while (!closed) {
+                    UsbRequest completedRequest = usbConnection.requestWait();
+                    if (closed) {
+                        break;
+                    }
+                    if (completedRequest == null) {
+                        HwTimber.d("USB request failed, device was probably disconnected");
+                        break;
+                    }
+                    if (!onRequestCompleted(completedRequest)) {
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                HwTimber.e(e, "Error in CTAPHID reader thread");
+            } finally {
+                closed = true;
+                completedInRequests.offer(END_OF_STREAM);
+                cancelAndCloseRequests();
+            }
+        }
+
+        @WorkerThread
+        private boolean onRequestCompleted(@NonNull UsbRequest completedRequest) {
+            int inIndex = indexOf(inRequests, completedRequest);
+            if (inIndex >= 0) {
+                // queued again by the consumer, see readReport and discardPendingReports
+                completedInRequests.add(inIndex);
+                return true;
+            }
+
+            int outIndex = indexOf(outRequests, completedRequest);
+            if (outIndex >= 0) {
+                idleOutRequests.add(outIndex);
+                idleOutRequestPermits.release();
+                return true;
+            }
+
+            HwTimber.d("Ignoring completion of unknown USB request");
+            return true;
+        }
+    }
+
+    interface UsbRequestFactory {
+        UsbRequest newUsbRequest();
+    }
+}
@@ -61,6 +61,15 @@ import de.cotech.hw.util.HwTimber;
  */
 @RestrictTo(Scope.LIBRARY_GROUP)
 public class UsbCtapHidTransport implements Transport {
+    /** Capability flag: the authenticator implements CTAPHID_WINK. */
+    public static final int CAPABILITY_WINK = 0x01;
+    /** Capability flag: the authenticator implements CTAPHID_LOCK. */
+    public static final int CAPABILITY_LOCK = 0x02;
+    /** Capability flag: the authenticator implements CTAPHID_CBOR, i.e. supports CTAP2. */
+    public static final int CAPABILITY_CBOR = 0x04;
+    /** Capability flag: the authenticator does not implement CTAPHID_MSG, i.e. doesn't support U2F. */
+    public static final int CAPABILITY_NMSG = 0x08;
+
     private static final int FIDO2_CLA_PROPRIETARY = 0x80;
     private static final int FIDO2_INS = 0x10;
     private static final int FIDO2_P1 = 0x00;
@@ -72,6 +81,7 @@ public class UsbCtapHidTransport implements Transport {
     private final UsbDevice usbDevice;
     private final UsbDeviceConnection usbConnection;
     private final UsbInterface usbInterface;
+    private final CtapHidChannelCache channelCache;
     private boolean enableDebugLogging;
     private CtapHidTransportProtocol ctapHidTransportProtocol;
 
@@ -80,17 +90,20 @@ public class UsbCtapHidTransport implements Transport {
 
     public static UsbCtapHidTransport createUsbTransport(UsbManager usbManager, UsbDevice usbDevice,
                                                          UsbDeviceConnection usbConnection,
-                                                         UsbInterface usbInterface, boolean enableDebugLogging) {
-        return new UsbCtapHidTransport(usbManager, usbDevice, usbConnection, usbInterface, enableDebugLogging);
+                                                         UsbInterface usbInterface, CtapHidChannelCache channelCache,
+                                                         boolean enableDebugLogging) {
+        return new UsbCtapHidTransport(
+                usbManager, usbDevice, usbConnection, usbInterface, channelCache, enableDebugLogging);
     }
 
     private UsbCtapHidTransport(UsbManager usbManager, UsbDevice usbDevice,
                                 UsbDeviceConnection usbConnection, UsbInterface usbInterface,
-                                boolean enableDebugLogging) {
+                                CtapHidChannelCache channelCache, boolean enableDebugLogging) {
         this.usbManager = usbManager;
         this.usbDevice = usbDevice;
         this.usbConnection = usbConnection;
         this.usbInterface = usbInterface;
+        this.channelCache = channelCache;
         this.enableDebugLogging = enableDebugLogging;
     }
 
@@ -146,8 +159,13 @@ public class UsbCtapHidTransport implements Transport {
         checkHidReportPrefix();
 
         CtapHidTransportProtocol ctapHidTransportProtocol =
-                new CtapHidTransportProtocol(usbConnection, usbIntIn, usbIntOut);
-        ctapHidTransportProtocol.connect();
+                new CtapHidTransportProtocol(usbConnection, usbIntIn, usbIntOut, channelCache);
+        try {
+            ctapHidTransportProtocol.connect();
+        } catch (UsbTransportException e) {
+            ctapHidTransportProtocol.close();
+            throw e;
+        }
         this.ctapHidTransportProtocol = ctapHidTransportProtocol;
     }
 
@@ -223,11 +241,64 @@ public class UsbCtapHidTransport implements Transport {
         return true;
     }
 
+    /**
+     * Returns the CTAPHID protocol version reported by the authenticator, or -1 if not connected.
+     */
+    public int getCtapHidProtocolVersion() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        return initResponse != null ? initResponse.versionInterface() & 0xff : -1;
+    }
+
+    /**
+     * Returns the device version reported by the authenticator as "major.minor.build", or null if not connected.
+     */
+    @Nullable
+    public String getDeviceVersion() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        if (initResponse == null) {
+            return null;
+        }
+        return (initResponse.versionMajor() & 0xff) + "." + (initResponse.versionMinor() & 0xff) + "."
+                + (initResponse.versionBuild() & 0xff);
+    }
+
+    /**
+     * Returns the raw capability flags reported by the authenticator, such as {@link #CAPABILITY_WINK}, or 0 if
+     * not connected.
+     */
+    public int getCtapHidCapabilityFlags() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        return initResponse != null ? initResponse.capabilityFlags() & 0xff : 0;
+    }
+
+    public boolean isWinkSupported() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        return initResponse != null && initResponse.supportsWink();
+    }
+
+    public boolean isCborSupported() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        return initResponse != null && initResponse.supportsCbor();
+    }
+
+    public boolean isMsgSupported() {
+        CtapHidInitStructFactory.CtapHidInitResponse initResponse = getInitResponse();
+        return initResponse != null && initResponse.supportsMsg();
+    }
+
+    @Nullable
+    private CtapHidInitStructFactory.CtapHidInitResponse getInitResponse() {
+        return ctapHidTransportProtocol != null ? ctapHidTransportProtocol.getInitResponse() : null;
+    }
+
     @Override
     public void release() {
         if (!released) {
             HwTimber.d("Usb transport disconnected");
             this.released = true;
+            if (ctapHidTransportProtocol != null) {
+                ctapHidTransportProtocol.close();
+            }
             usbConnection.releaseInterface(usbInterface);
             if (transportReleasedCallback != null) {
                 transportReleasedCallback.onTransportReleased();
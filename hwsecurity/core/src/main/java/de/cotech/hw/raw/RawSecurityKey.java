@@ -46,6 +46,7 @@ import de.cotech.hw.internal.transport.Transport;
  * use cases that only work with one kind of applet.
  */
 public class RawSecurityKey extends SecurityKey {
+    private SecurityKeyConnectionMode<?> currentConnectionMode;
     private SecurityKey currentSecurityKey;
 
     RawSecurityKey(SecurityKeyManagerConfig config, Transport transport) {
@@ -63,12 +64,21 @@ public class RawSecurityKey extends SecurityKey {
      * Note that the {@link RawSecurityKey} does not thoroughly manage the status of the currently
      * connected applet. A caller of this method must take care not to mix calls of different
      * applets.
+     * <p>
+     * If the applet of the given connection mode is the one currently connected, the existing
+     * {@link SecurityKey} is returned, without selecting the applet again.
      */
     @NonNull
     @WorkerThread
     public <T extends SecurityKey> T establishAppletConnection(@NonNull SecurityKeyConnectionMode<T> securityKeyConnectionMode)
             throws IOException {
+        if (securityKeyConnectionMode == currentConnectionMode && currentSecurityKey != null &&
+                transport.isConnected()) {
+            // noinspection unchecked, the security key was established by this connection mode
+            return (T) currentSecurityKey;
+        }
         T securityKey = securityKeyConnectionMode.establishSecurityKeyConnection(config, transport);
+        currentConnectionMode = securityKeyConnectionMode;
         currentSecurityKey = securityKey;
         return securityKey;
     }
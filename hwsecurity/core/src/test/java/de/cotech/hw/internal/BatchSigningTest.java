@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import de.cotech.hw.exceptions.PartialAuthenticationException;
+import de.cotech.hw.internal.BatchSigning.DigestSigner;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+
+public class BatchSigningTest {
+    private static final byte[] DIGEST_1 = { 1 };
+    private static final byte[] DIGEST_2 = { 2 };
+    private static final byte[] DIGEST_3 = { 3 };
+
+    @Test
+    public void signAll_returnsSignaturesInOrder() throws Exception {
+        List<byte[]> signatures = BatchSigning.signAll(
+                Arrays.asList(DIGEST_1, DIGEST_2, DIGEST_3), new FailingSigner(-1));
+
+        assertEquals(3, signatures.size());
+        assertArrayEquals(new byte[] { 1, 1 }, signatures.get(0));
+        assertArrayEquals(new byte[] { 2, 2 }, signatures.get(1));
+        assertArrayEquals(new byte[] { 3, 3 }, signatures.get(2));
+    }
+
+    @Test
+    public void signAll_failureAfterFirst_throwsPartial() throws Exception {
+        FailingSigner signer = new FailingSigner(2);
+
+        try {
+            BatchSigning.signAll(Arrays.asList(DIGEST_1, DIGEST_2, DIGEST_3), signer);
+            fail();
+        } catch (PartialAuthenticationException e) {
+            assertEquals(1, e.getFailedIndex());
+            assertEquals(1, e.getSignatures().size());
+            assertArrayEquals(new byte[] { 1, 1 }, e.getSignatures().get(0));
+            assertSame(signer.failure, e.getCause());
+        }
+        assertEquals(2, signer.signCount);
+    }
+
+    @Test
+    public void signAll_failureOnFirst_throwsOriginal() throws Exception {
+        FailingSigner signer = new FailingSigner(1);
+
+        try {
+            BatchSigning.signAll(Arrays.asList(DIGEST_1, DIGEST_2), signer);
+            fail();
+        } catch (IOException e) {
+            assertSame(signer.failure, e);
+        }
+        assertEquals(1, signer.signCount);
+    }
+
+    private static class FailingSigner implements DigestSigner {
+        final IOException failure = new IOException("signing failed");
+        private final int failingDigest;
+        int signCount;
+
+        FailingSigner(int failingDigest) {
+            this.failingDigest = failingDigest;
+        }
+
+        @Override
+        public byte[] sign(byte[] digest) throws IOException {
+            signCount++;
+            if (digest[0] == failingDigest) {
+                throw failure;
+            }
+            return new byte[] { digest[0], digest[0] };
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.dispatch;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.transport.Transport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+
+public class TransportDispatcherTest {
+    ExecutorService workerPool;
+    TransportDispatcher transportDispatcher;
+
+    @Before
+    public void setUp() {
+        workerPool = Executors.newFixedThreadPool(2);
+        transportDispatcher = new TransportDispatcher(workerPool);
+    }
+
+    @After
+    public void tearDown() {
+        workerPool.shutdownNow();
+    }
+
+    @Test
+    public void dispatch_sameTransport_runsInOrder() throws Exception {
+        Transport transport = mock(Transport.class);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int task = i;
+            expected.add(task);
+            transportDispatcher.dispatch(transport, () -> executed.add(task));
+        }
+        transportDispatcher.dispatch(transport, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, executed);
+    }
+
+    @Test
+    public void dispatch_differentTransports_runInParallel() throws Exception {
+        Transport slowTransport = mock(Transport.class);
+        Transport otherTransport = mock(Transport.class);
+        CountDownLatch slowTransportBlocked = new CountDownLatch(1);
+        CountDownLatch otherTransportDone = new CountDownLatch(1);
+
+        transportDispatcher.dispatch(slowTransport, () -> {
+            try {
+                slowTransportBlocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        transportDispatcher.dispatch(otherTransport, otherTransportDone::countDown);
+
+        assertTrue(otherTransportDone.await(5, TimeUnit.SECONDS));
+        slowTransportBlocked.countDown();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.cotech.hw.internal.transport.PresenceScheduler.PresenceCheck;
+import de.cotech.hw.internal.transport.PresenceScheduler.ScheduledPresenceCheck;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 24)
+public class PresenceSchedulerTest {
+    static final long MIN_INTERVAL = 250;
+    static final long MAX_INTERVAL = 2000;
+
+    ScheduledExecutorService executor;
+    PresenceCheck presenceCheck;
+    PresenceScheduler presenceScheduler;
+
+    @Before
+    public void setUp() {
+        executor = mock(ScheduledExecutorService.class);
+        presenceCheck = mock(PresenceCheck.class);
+        presenceScheduler = new PresenceScheduler(executor, Runnable::run);
+    }
+
+    @Test
+    public void schedule_idle_backsOff() {
+        when(presenceCheck.isPresent()).thenReturn(true);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+
+        assertEquals(500, runNextCheck());
+        assertEquals(1000, runNextCheck());
+        assertEquals(2000, runNextCheck());
+        assertEquals(2000, runNextCheck());
+        assertEquals(4, presenceScheduler.getStatistics().getPingCount());
+        assertEquals(0, presenceScheduler.getStatistics().getPingFailureCount());
+    }
+
+    @Test
+    public void schedule_activity_resetsInterval() {
+        when(presenceCheck.isPresent()).thenReturn(true);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+        runNextCheck();
+        runNextCheck();
+        runNextCheck();
+        when(presenceCheck.getLastActivityTime()).thenReturn(System.currentTimeMillis());
+
+        assertEquals(250, runNextCheck());
+        assertEquals(500, runNextCheck());
+        assertEquals(3, presenceScheduler.getStatistics().getPingCount());
+    }
+
+    @Test
+    public void schedule_busy_skipsPing() {
+        when(presenceCheck.isBusy()).thenReturn(true);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+        runNextCheck();
+        runNextCheck();
+
+        verify(presenceCheck, never()).isPresent();
+        assertEquals(0, presenceScheduler.getStatistics().getPingCount());
+        assertEquals(2, presenceScheduler.getStatistics().getSkippedPingCount());
+    }
+
+    @Test
+    public void schedule_lost_stopsChecking() {
+        when(presenceCheck.isPresent()).thenReturn(false);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+        Runnable check = captureScheduledCheck();
+        reset(executor);
+        check.run();
+
+        verify(presenceCheck).onPresenceLost();
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        assertEquals(1, presenceScheduler.getStatistics().getPingFailureCount());
+    }
+
+    @Test
+    public void cancel_stopsChecking() {
+        ScheduledFuture<?> pendingRun = mock(ScheduledFuture.class);
+        doReturn(pendingRun).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        when(presenceCheck.isPresent()).thenReturn(false);
+
+        ScheduledPresenceCheck scheduledPresenceCheck =
+                presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+        Runnable check = captureScheduledCheck();
+        scheduledPresenceCheck.cancel();
+        check.run();
+
+        verify(pendingRun).cancel(false);
+        verify(presenceCheck, never()).isPresent();
+        verify(presenceCheck, never()).onPresenceLost();
+    }
+
+    /** Runs the scheduled check, and returns the delay of the check it schedules next. */
+    private long runNextCheck() {
+        Runnable check = captureScheduledCheck();
+        reset(executor);
+        check.run();
+
+        ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(executor).schedule(any(Runnable.class), delayCaptor.capture(), eq(TimeUnit.MILLISECONDS));
+        return delayCaptor.getValue();
+    }
+
+    private Runnable captureScheduledCheck() {
+        ArgumentCaptor<Runnable> checkCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(checkCaptor.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        return checkCaptor.getValue();
+    }
+
+    @Test
+    public void schedule_fixedInterval_doesNotBackOff() {
+        when(presenceCheck.isPresent()).thenReturn(true);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MIN_INTERVAL);
+
+        assertEquals(250, runNextCheck());
+        assertEquals(250, runNextCheck());
+        assertEquals(250, runNextCheck());
+    }
+
+    @Test
+    public void schedule_runsCheckOnCheckExecutor() {
+        List<Runnable> pendingChecks = new ArrayList<>();
+        presenceScheduler = new PresenceScheduler(executor, pendingChecks::add);
+        when(presenceCheck.isPresent()).thenReturn(true);
+
+        presenceScheduler.schedule(presenceCheck, MIN_INTERVAL, MAX_INTERVAL);
+        Runnable check = captureScheduledCheck();
+        reset(executor);
+        check.run();
+
+        // the scheduler thread is free again right away, the check runs on the check executor
+        verify(presenceCheck, never()).isPresent();
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        pendingChecks.get(0).run();
+        verify(presenceCheck).isPresent();
+        verify(executor).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+}
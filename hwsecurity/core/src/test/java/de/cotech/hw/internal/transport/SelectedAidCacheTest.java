@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.cotech.hw.util.Hex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class SelectedAidCacheTest {
+    private static final byte[] AID_1 = Hex.decodeHexOrFail("A0000006472F0001");
+    private static final byte[] AID_2 = Hex.decodeHexOrFail("A0000006472F000100");
+    private static final byte[] AID_3 = Hex.decodeHexOrFail("A0000005271002");
+    private static final List<byte[]> AIDS = Arrays.asList(AID_1, AID_2, AID_3);
+
+    private SelectedAidCache selectedAidCache;
+    private Transport transport;
+
+    @Before
+    public void setUp() {
+        selectedAidCache = new SelectedAidCache();
+        transport = mock(Transport.class);
+        when(transport.getSecurityKeyIdentifier()).thenReturn("nfc:01020304");
+    }
+
+    @Test
+    public void getAidsInSelectOrder_unknownSecurityKey() {
+        assertSame(AIDS, selectedAidCache.getAidsInSelectOrder(transport, AIDS));
+    }
+
+    @Test
+    public void getAidsInSelectOrder_selectedAidFirst() {
+        selectedAidCache.put(transport, AID_3);
+
+        List<byte[]> aidsInSelectOrder = selectedAidCache.getAidsInSelectOrder(transport, AIDS);
+
+        assertEquals(Arrays.asList(AID_3, AID_1, AID_2), aidsInSelectOrder);
+    }
+
+    @Test
+    public void getAidsInSelectOrder_withoutIdentifier() {
+        Transport otherTransport = mock(Transport.class);
+        selectedAidCache.put(otherTransport, AID_3);
+
+        assertSame(AIDS, selectedAidCache.getAidsInSelectOrder(otherTransport, AIDS));
+    }
+}
@@ -50,6 +50,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
@@ -86,25 +87,40 @@ public class CcidTransceiverTest {
         when(usbConnection.bulkTransfer(same(usbBulkIn), any(byte[].class), any(Integer.class), any(Integer.class)))
                 .thenAnswer(
                         (Answer<Integer>) invocation -> {
-                            byte[] reply = expectReplies.poll();
-                            if (reply == null) {
-                                return -1;
-                            }
-
                             byte[] buf = invocation.getArgument(1);
-                            assertEquals(buf.length, MAX_PACKET_LENGTH_IN);
+                            int length = invocation.getArgument(2);
+                            return replyNextPacket(buf, 0, length);
+                        });
+        when(usbConnection.bulkTransfer(same(usbBulkIn), any(byte[].class), any(Integer.class), any(Integer.class),
+                any(Integer.class)))
+                .thenAnswer(
+                        (Answer<Integer>) invocation -> {
+                            byte[] buf = invocation.getArgument(1);
+                            int offset = invocation.getArgument(2);
+                            int length = invocation.getArgument(3);
+                            return replyNextPacket(buf, offset, length);
+                        });
+
+    }
 
-                            int len = Math.min(buf.length, reply.length);
-                            System.arraycopy(reply, 0, buf, 0, len);
+    private int replyNextPacket(byte[] buf, int offset, int length) {
+        byte[] reply = expectReplies.poll();
+        if (reply == null) {
+            return -1;
+        }
 
-                            if (len < reply.length) {
-                                byte[] rest = Arrays.copyOfRange(reply, len, reply.length);
-                                expectReplies.addFirst(rest);
-                            }
+        assertEquals(MAX_PACKET_LENGTH_IN, length);
+        assertTrue(offset + length <= buf.length);
 
-                            return len;
-                        });
+        int len = Math.min(length, reply.length);
+        System.arraycopy(reply, 0, buf, offset, len);
 
+        if (len < reply.length) {
+            byte[] rest = Arrays.copyOfRange(reply, len, reply.length);
+            expectReplies.addFirst(rest);
+        }
+
+        return len;
     }
 
     @Test
@@ -166,6 +182,47 @@ public class CcidTransceiverTest {
         assertArrayEquals(Hex.decodeHexOrFail(ATR), ccidDataBlock.getData());
     }
 
+    @Test
+    public void testManualVoltageSelection_preferredVoltage() throws Exception {
+        CcidDescriptor description = CcidDescriptor.fromValues((byte) 0, (byte) 3, 2, 132210);
+        CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, description);
+        ccidTransceiver.setPreferredVoltage(CcidDescriptor.Voltage._3V);
+
+        byte[] iccPowerOnVoltage3VCommand = Hex.decodeHexOrFail("62000000000000020000");
+        byte[] iccPowerOnReply = Hex.decodeHexOrFail("80150000000000000000" + ATR);
+        expectReadPreamble();
+        expect(iccPowerOnVoltage3VCommand, iccPowerOnReply);
+
+
+        CcidDataBlock ccidDataBlock = ccidTransceiver.iccPowerOn();
+
+
+        verifyDialog();
+        assertArrayEquals(Hex.decodeHexOrFail(ATR), ccidDataBlock.getData());
+        assertEquals(CcidDescriptor.Voltage._3V, ccidTransceiver.getPoweredOnVoltage());
+    }
+
+    @Test
+    public void testPowerOn_skipsStaleMessage() throws Exception {
+        CcidDescriptor description = CcidDescriptor.fromValues((byte) 0, (byte) 1, 2, 132218);
+        CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, description);
+
+        byte[] iccPowerOnVoltageAutoCommand = Hex.decodeHexOrFail("62000000000000000000");
+        byte[] staleSlotStatusReply = Hex.decodeHexOrFail("81000000000005000000");
+        byte[] iccPowerOnReply = Hex.decodeHexOrFail("80150000000000000000" + ATR);
+        expectReadPreamble();
+        expect(iccPowerOnVoltageAutoCommand, staleSlotStatusReply);
+        expect(null, iccPowerOnReply);
+
+
+        CcidDataBlock ccidDataBlock = ccidTransceiver.iccPowerOn();
+
+
+        verifyDialog();
+        assertArrayEquals(Hex.decodeHexOrFail(ATR), ccidDataBlock.getData());
+        assertEquals(CcidDescriptor.Voltage.AUTO, ccidTransceiver.getPoweredOnVoltage());
+    }
+
     @Test
     public void testXfer() throws Exception {
         CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, null);
@@ -291,6 +348,30 @@ public class CcidTransceiverTest {
         assertArrayEquals(Hex.decodeHexOrFail(responseData), ccidDataBlock.getData());
     }
 
+    @Test
+    public void testXfer_levelChaining() throws Exception {
+        CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, null);
+
+        // 300 bytes don't fit into a single message of the minimum dwMaxCCIDMessageLength
+        byte[] commandApdu = new byte[300];
+        for (int i = 0; i < commandApdu.length; i++) {
+            commandApdu[i] = (byte) i;
+        }
+        byte[] commandBegin = Arrays.concatenate(Hex.decodeHexOrFail("6F050100000000000100"),
+                Arrays.copyOfRange(commandApdu, 0, 261));
+        byte[] commandEnd = Arrays.concatenate(Hex.decodeHexOrFail("6F270000000001000200"),
+                Arrays.copyOfRange(commandApdu, 261, 300));
+        byte[] commandContinueResponse = Hex.decodeHexOrFail("6F000000000002001000");
+        expectChained(commandBegin, Hex.decodeHexOrFail("80000000000000000010"));
+        expect(commandEnd, Hex.decodeHexOrFail("80020000000001000001" + "0102"));
+        expect(commandContinueResponse, Hex.decodeHexOrFail("80020000000002000002" + "9000"));
+
+        byte[] response = ccidTransceiver.sendXfrBlockWithLevelChaining(commandApdu);
+
+        verifyDialog();
+        assertArrayEquals(Hex.decodeHexOrFail("01029000"), response);
+    }
+
     @Test
     public void testReturnsCorrectAutoPpsFlag() {
         CcidDescriptor description = CcidDescriptor.fromValues((byte) 0, (byte) 7, 3, 65722);
@@ -321,7 +402,7 @@ public class CcidTransceiverTest {
     private void expectChained(byte[] command, byte[] reply) {
         for (int i = 0; i < command.length; i+= MAX_PACKET_LENGTH_OUT) {
             int len = Math.min(MAX_PACKET_LENGTH_OUT, command.length - i);
-            when(usbConnection.bulkTransfer(same(usbBulkOut), aryEq(command), eq(i), eq(len),
+            when(usbConnection.bulkTransfer(same(usbBulkOut), startsWith(command), eq(i), eq(len),
                     any(Integer.class))).thenReturn(len);
         }
         if (reply != null) {
@@ -330,9 +411,15 @@ public class CcidTransceiverTest {
         }
     }
 
+    /** The transceiver sends from a buffer sized for the largest message, so only compare the prefix. */
+    private static byte[] startsWith(byte[] prefix) {
+        return argThat(buf -> buf != null && buf.length >= prefix.length &&
+                Arrays.areEqual(prefix, Arrays.copyOf(buf, prefix.length)));
+    }
+
     private void expect(byte[] command, byte[] reply) {
         if (command != null) {
-            when(usbConnection.bulkTransfer(same(usbBulkOut), aryEq(command), eq(0), eq(command.length),
+            when(usbConnection.bulkTransfer(same(usbBulkOut), startsWith(command), eq(0), eq(command.length),
                     any(Integer.class))).thenReturn(command.length);
         }
         if (reply != null) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid.tpdu;
+
+
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.util.Hex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@SuppressWarnings("WeakerAccess")
+public class AnswerToResetTest {
+    // OpenPGP card 3.x, offers T=1 with IFSC 254, BWI 5, CWI 5, LRC
+    static final String ATR_T1 = "3bda11ff81b1fe551f0300318473800180009000e4";
+    // T=1 with TC3 selecting CRC, no historical bytes
+    static final String ATR_T1_CRC = "3b8081410141";
+    static final String ATR_T0 = "3b6500002063cb6600";
+
+    @Test
+    public void parse_t1() throws Exception {
+        AnswerToReset atr = AnswerToReset.fromBytes(Hex.decodeHexOrFail(ATR_T1));
+
+        assertFalse(atr.isInverseConvention());
+        assertTrue(atr.supportsProtocol(1));
+        assertTrue(atr.supportsProtocol(15));
+        assertFalse(atr.supportsProtocol(0));
+        assertEquals(0x11, atr.getFiDi());
+        assertEquals(0xff, atr.getExtraGuardTime());
+        assertEquals(254, atr.getT1Ifsc());
+        assertEquals(5, atr.getT1Bwi());
+        assertEquals(5, atr.getT1Cwi());
+        assertFalse(atr.isT1CrcChecksum());
+        assertArrayEquals(Hex.decodeHexOrFail("00318473800180009000"), atr.getHistoricalBytes());
+    }
+
+    @Test
+    public void parse_t1WithCrc() throws Exception {
+        AnswerToReset atr = AnswerToReset.fromBytes(Hex.decodeHexOrFail(ATR_T1_CRC));
+
+        assertTrue(atr.supportsProtocol(1));
+        assertTrue(atr.isT1CrcChecksum());
+        assertEquals(AnswerToReset.DEFAULT_T1_IFSC, atr.getT1Ifsc());
+        assertEquals(AnswerToReset.DEFAULT_T1_BWI, atr.getT1Bwi());
+    }
+
+    @Test
+    public void parse_t0Only() throws Exception {
+        AnswerToReset atr = AnswerToReset.fromBytes(Hex.decodeHexOrFail(ATR_T0));
+
+        assertTrue(atr.supportsProtocol(0));
+        assertFalse(atr.supportsProtocol(1));
+        assertEquals(AnswerToReset.DEFAULT_T1_IFSC, atr.getT1Ifsc());
+        assertEquals(5, atr.getHistoricalBytes().length);
+    }
+
+    @Test(expected = UsbTransportException.class)
+    public void parse_truncatedInterfaceBytes() throws Exception {
+        AnswerToReset.fromBytes(Hex.decodeHexOrFail("3bda11ff81"));
+    }
+
+    @Test(expected = UsbTransportException.class)
+    public void parse_badInitialCharacter() throws Exception {
+        AnswerToReset.fromBytes(Hex.decodeHexOrFail("3a00"));
+    }
+
+    @Test
+    public void blockWaitingTime() throws Exception {
+        AnswerToReset atr = AnswerToReset.fromBytes(Hex.decodeHexOrFail(ATR_T1));
+
+        // 2^5 * 960 * 372 / 4 MHz = 2857 ms
+        assertEquals(2857, atr.getT1BlockWaitingTimeMillis(4000));
+    }
+
+    @Test
+    public void crcChecksum_roundTrip() throws Exception {
+        byte[] block = new byte[] { 0x00, (byte) 0xc1, 0x01, (byte) 0xfe, 0x00, 0x00 };
+        BlockChecksumAlgorithm.CRC.writeChecksum(block, 0, 4);
+
+        assertTrue(BlockChecksumAlgorithm.CRC.verifyChecksum(block, 0, block.length));
+        block[3] ^= 1;
+        assertFalse(BlockChecksumAlgorithm.CRC.verifyChecksum(block, 0, block.length));
+    }
+}
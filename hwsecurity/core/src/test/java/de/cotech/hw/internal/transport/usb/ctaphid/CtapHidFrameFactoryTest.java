@@ -32,6 +32,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 @SuppressWarnings("WeakerAccess")
@@ -46,28 +48,11 @@ public class CtapHidFrameFactoryTest {
     CtapHidFrameFactory factory = new CtapHidFrameFactory();
 
     @Test
-    public void wrapUnwrap_short() throws Exception {
+    public void wrapDecode_short() throws Exception {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
-        byte[] unwrappedCommand = factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
 
         assertEquals(CtapHidFrameFactory.CTAPHID_PING, wrappedCommand[4]);
-        assertArrayEquals(MESSAGE_SHORT, unwrappedCommand);
-    }
-
-    @Test
-    public void wrapUnwrap_variableShort() throws Exception {
-        for (int i = 0; i < 300; i++) {
-            wrapUnwrap_variableLength(i);
-        }
-    }
-
-    public void wrapUnwrap_variableLength(int len) throws Exception {
-        byte[] payload = new byte[len];
-        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, payload);
-        byte[] unwrappedCommand = factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-
-        assertEquals(CtapHidFrameFactory.CTAPHID_PING, wrappedCommand[4]);
-        assertArrayEquals(payload, unwrappedCommand);
+        assertArrayEquals(MESSAGE_SHORT, decodeReports(CHANNEL_ID, wrappedCommand));
     }
 
     @Test
@@ -84,77 +69,75 @@ public class CtapHidFrameFactoryTest {
     }
 
     @Test
-    public void wrapUnwrap_long() throws Exception {
+    public void wrapDecode_long() throws Exception {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_LONG);
-        byte[] unwrappedCommand = factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
 
         assertEquals(CtapHidFrameFactory.CTAPHID_PING, wrappedCommand[4]);
-        assertArrayEquals(MESSAGE_LONG, unwrappedCommand);
+        assertArrayEquals(MESSAGE_LONG, decodeReports(CHANNEL_ID, wrappedCommand));
     }
 
     @Test
-    public void wrapUnwrap_max() throws Exception {
-        byte[] MESSAGE_MAX = new byte[CTAPHID_MAX_SIZE];
-
-        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_MAX);
-        byte[] unwrappedCommand = factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
+    public void decode_badExpectedChannel() throws Exception {
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
 
-        assertEquals(CtapHidFrameFactory.CTAPHID_PING, wrappedCommand[4]);
-        assertArrayEquals(MESSAGE_MAX, unwrappedCommand);
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID + 1);
+        assertFalse(decoder.consumeReport(wrappedCommand));
+        assertFalse(decoder.isComplete());
     }
 
-    @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_badExpectedChannel() throws UsbTransportException {
+    @Test
+    public void decode_broadcastAcceptsAnyChannel() throws Exception {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
-        factory.unwrapFrame(CHANNEL_ID + 1, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-    }
 
-    @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_badExpectedCommand() throws UsbTransportException {
-        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_MSG, wrappedCommand);
+        CtapHidFrameFactory.FrameDecoder decoder =
+                factory.newFrameDecoder(CtapHidFrameFactory.CTAPHID_CHANNEL_ID_BROADCAST);
+        assertTrue(decoder.consumeReport(wrappedCommand));
+        assertEquals(CHANNEL_ID, decoder.getChannelId());
+        assertEquals(CtapHidFrameFactory.CTAPHID_PING, decoder.getCommand());
     }
 
     @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_truncated() throws UsbTransportException {
+    public void decode_truncatedReport() throws UsbTransportException {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
-        byte[] truncatedCommand = Arrays.copyOf(wrappedCommand, wrappedCommand.length - 1);
+        byte[] truncatedReport = Arrays.copyOf(wrappedCommand, wrappedCommand.length - 1);
 
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, truncatedCommand);
+        factory.newFrameDecoder(CHANNEL_ID).consumeReport(truncatedReport);
     }
 
-    @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_missingPacket() throws UsbTransportException {
+    @Test
+    public void decode_missingPacket() throws UsbTransportException {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_LONG);
-        byte[] truncatedCommand = Arrays.copyOf(wrappedCommand, wrappedCommand.length - CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
 
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, truncatedCommand);
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        int lastOffset = wrappedCommand.length - CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
+        for (int offset = 0; offset < lastOffset; offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+            assertFalse(decoder.consumeReport(getReport(wrappedCommand, offset)));
+        }
+        assertFalse(decoder.isComplete());
     }
 
-    @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_trailing() throws UsbTransportException {
+    @Test(expected = IllegalStateException.class)
+    public void decode_afterComplete() throws UsbTransportException {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
-        byte[] trailingDataCommand = Arrays.append(wrappedCommand, (byte) 0x50);
 
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, trailingDataCommand);
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        assertTrue(decoder.consumeReport(wrappedCommand));
+        decoder.consumeReport(wrappedCommand);
     }
 
-    @Test(expected = UsbTransportException.class)
-    public void wrapUnwrap_incorrectLength() throws UsbTransportException {
+    @Test
+    public void decode_incorrectLength() throws UsbTransportException {
         byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
         byte[] incorrectLengthCommand = Arrays.clone(wrappedCommand);
-        incorrectLengthCommand[5] += 1;
+        incorrectLengthCommand[6] += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
 
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, wrappedCommand);
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, incorrectLengthCommand);
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        assertFalse(decoder.consumeReport(incorrectLengthCommand));
     }
 
     @Test(expected = UsbTransportException.class)
-    public void unwrap_empty() throws UsbTransportException {
-        factory.unwrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, new byte[0]);
+    public void decode_empty() throws UsbTransportException {
+        factory.newFrameDecoder(CHANNEL_ID).consumeReport(new byte[0]);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -168,6 +151,97 @@ public class CtapHidFrameFactoryTest {
         factory.wrapFrame(CHANNEL_ID, (byte) ((5+1<<7) & 0xff), MESSAGE_SHORT);
     }
 
+    @Test
+    public void decode_variableLength() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            byte[] payload = new byte[i];
+            byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, payload);
+            assertArrayEquals(payload, decodeReports(CHANNEL_ID, wrappedCommand));
+        }
+    }
+
+    @Test
+    public void decode_max() throws Exception {
+        byte[] MESSAGE_MAX = new byte[CTAPHID_MAX_SIZE];
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_MAX);
+
+        assertArrayEquals(MESSAGE_MAX, decodeReports(CHANNEL_ID, wrappedCommand));
+    }
+
+    @Test
+    public void decode_skipsOtherChannel() throws Exception {
+        byte[] otherChannelCommand = factory.wrapFrame(CHANNEL_ID + 1, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_LONG);
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
+
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        for (int offset = 0; offset < otherChannelCommand.length; offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+            assertFalse(decoder.consumeReport(getReport(otherChannelCommand, offset)));
+        }
+        assertTrue(decoder.consumeReport(getReport(wrappedCommand, 0)));
+        assertArrayEquals(MESSAGE_SHORT, decoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_PING));
+    }
+
+    @Test
+    public void decode_keepaliveMidStream() throws Exception {
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_LONG);
+        byte[] keepalive = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_KEEPALIVE, new byte[] { 2 });
+
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        assertFalse(decoder.consumeReport(getReport(wrappedCommand, 0)));
+        assertTrue(decoder.consumeReport(keepalive));
+
+        assertTrue(decoder.isKeepalive());
+        assertEquals(CtapHidFrameFactory.KeepaliveType.UPNEEDED, factory.parseKeepaliveType(decoder.getPayload()));
+    }
+
+    @Test
+    public void decode_error() throws Exception {
+        byte[] error = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_ERROR,
+                new byte[] { CtapHidErrorException.ERR_CHANNEL_BUSY });
+
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        assertTrue(decoder.consumeReport(error));
+        assertTrue(decoder.isError());
+        try {
+            decoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_CBOR);
+        } catch (CtapHidErrorException e) {
+            assertEquals(CtapHidErrorException.ERR_CHANNEL_BUSY, e.getErrorCode());
+            return;
+        }
+        throw new AssertionError("expected CtapHidErrorException");
+    }
+
+    @Test(expected = UsbTransportException.class)
+    public void decode_outOfSequence() throws Exception {
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_LONG);
+
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        decoder.consumeReport(getReport(wrappedCommand, 0));
+        decoder.consumeReport(getReport(wrappedCommand, 2 * CtapHidFrameFactory.CTAPHID_BUFFER_SIZE));
+    }
+
+    @Test(expected = UsbTransportException.class)
+    public void decode_badCommand() throws Exception {
+        byte[] wrappedCommand = factory.wrapFrame(CHANNEL_ID, CtapHidFrameFactory.CTAPHID_PING, MESSAGE_SHORT);
+
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(CHANNEL_ID);
+        decoder.consumeReport(wrappedCommand);
+        decoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_MSG);
+    }
+
+    private byte[] decodeReports(int channelId, byte[] wrappedCommand) throws UsbTransportException {
+        CtapHidFrameFactory.FrameDecoder decoder = factory.newFrameDecoder(channelId);
+        for (int offset = 0; offset < wrappedCommand.length; offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+            boolean isComplete = decoder.consumeReport(getReport(wrappedCommand, offset));
+            assertEquals(offset + CtapHidFrameFactory.CTAPHID_BUFFER_SIZE == wrappedCommand.length, isComplete);
+        }
+        return decoder.getPayloadForCommand(CtapHidFrameFactory.CTAPHID_PING);
+    }
+
+    private static byte[] getReport(byte[] wrappedCommand, int offset) {
+        return Arrays.copyOfRange(wrappedCommand, offset, offset + CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
+    }
+
     public static byte[] repeat(byte[] array, int times) {
         byte[] result = new byte[array.length * times];
         for (int i = 0; i < times; i++) {
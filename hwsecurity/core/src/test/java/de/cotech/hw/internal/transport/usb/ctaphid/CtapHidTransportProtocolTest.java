@@ -25,33 +25,31 @@
 package de.cotech.hw.internal.transport.usb.ctaphid;
 
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.annotation.TargetApi;
-import android.hardware.usb.UsbDeviceConnection;
-import android.hardware.usb.UsbEndpoint;
-import android.hardware.usb.UsbRequest;
 import android.os.Build.VERSION_CODES;
 
 import de.cotech.hw.internal.transport.usb.UsbTransportException;
 import de.cotech.hw.util.Hex;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
 
 @SuppressWarnings({ "WeakerAccess", "SameParameterValue" })
@@ -60,34 +58,31 @@ import static org.mockito.Mockito.when;
 @Config(sdk = 24)
 public class CtapHidTransportProtocolTest {
     static final int CHANNEL_ID = 12345678;
+    static final int CHANNEL_ID_2 = 23456789;
     static final byte[] DATA_IN = Hex.decodeHexOrFail("1a2b3d4e5f");
     static final byte[] DATA_OUT = Hex.decodeHexOrFail("5f4e3d2c1b");
     static final byte[] DATA_IN_LONG = new byte[200];
     static final byte[] DATA_OUT_LONG = new byte[199];
+    static final byte[] DATA_IN_MAX = new byte[CtapHidFrameFactoryTest.CTAPHID_MAX_SIZE];
+    static final byte[] DATA_OUT_MAX = new byte[CtapHidFrameFactoryTest.CTAPHID_MAX_SIZE];
 
-    UsbDeviceConnection usbConnection;
-    UsbEndpoint usbIntIn;
-    UsbEndpoint usbIntOut;
-
-    LinkedList<UsbRequest> requestQueue;
+    final LinkedList<Expectation> expectations = new LinkedList<>();
 
+    FakeCtapHidDevice device;
+    CtapHidChannelCache channelCache;
     CtapHidTransportProtocol protocol;
     CtapHidFrameFactory frameFactory = new CtapHidFrameFactory();
 
     @Before
     public void setUp() {
-        usbConnection = mock(UsbDeviceConnection.class);
-        usbIntIn = mock(UsbEndpoint.class);
-        usbIntOut = mock(UsbEndpoint.class);
-
-        requestQueue = new LinkedList<>();
+        device = new FakeCtapHidDevice(this::respond);
+        channelCache = new CtapHidChannelCache();
+        protocol = device.createProtocol(channelCache);
+    }
 
-        protocol = new CtapHidTransportProtocol(usbConnection, usbIntIn, usbIntOut) {
-            @Override
-            UsbRequest newUsbRequest() {
-                return requestQueue.poll();
-            }
-        };
+    @After
+    public void tearDown() {
+        protocol.close();
     }
 
     @Test
@@ -186,49 +181,164 @@ public class CtapHidTransportProtocolTest {
         verifyDialog();
     }
 
+    @Test
+    public void transceive_max() throws Exception {
+        connect();
+
+        expect(CHANNEL_ID, CHANNEL_ID, CtapHidFrameFactory.CTAPHID_MSG, data -> {
+            assertArrayEquals(DATA_IN_MAX, data);
+            return DATA_OUT_MAX;
+        });
+
+        byte[] response = protocol.transceive(DATA_IN_MAX);
+
+        assertArrayEquals(DATA_OUT_MAX, response);
+        verifyDialog();
+    }
+
+    @Test
+    public void connect_reusesCachedChannel() throws Exception {
+        connect();
+        protocol.close();
+
+        protocol = device.createProtocol(channelCache);
+        protocol.connect();
+
+        assertEquals(CHANNEL_ID, protocol.getChannelId());
+        assertEquals(2, protocol.getInitResponse().versionInterface());
+
+        expect(CHANNEL_ID, CHANNEL_ID, CtapHidFrameFactory.CTAPHID_MSG, data -> {
+            assertArrayEquals(DATA_IN, data);
+            return DATA_OUT;
+        });
+
+        byte[] response = protocol.transceive(DATA_IN);
+
+        assertArrayEquals(DATA_OUT, response);
+        verifyDialog();
+    }
+
+    @Test
+    public void transceive_invalidChannel_reallocatesChannel() throws Exception {
+        connect();
+
+        expect(CHANNEL_ID, CHANNEL_ID, CtapHidFrameFactory.CTAPHID_MSG, CtapHidFrameFactory.CTAPHID_ERROR, data -> {
+            assertArrayEquals(DATA_IN, data);
+            return new byte[] { CtapHidErrorException.ERR_INVALID_CHANNEL };
+        });
+        expect(CtapHidFrameFactory.CTAPHID_CHANNEL_ID_BROADCAST, CHANNEL_ID_2, CtapHidFrameFactory.CTAPHID_INIT,
+                nonce -> createInitResponse(nonce, CHANNEL_ID_2));
+        expect(CHANNEL_ID_2, CHANNEL_ID_2, CtapHidFrameFactory.CTAPHID_MSG, data -> {
+            assertArrayEquals(DATA_IN, data);
+            return DATA_OUT;
+        });
+
+        byte[] response = protocol.transceive(DATA_IN);
+
+        assertArrayEquals(DATA_OUT, response);
+        assertEquals(CHANNEL_ID_2, protocol.getChannelId());
+        assertEquals(CHANNEL_ID_2, channelCache.get().channelId());
+        verifyDialog();
+    }
+
+    @Test
+    public void transceiveCbor_interrupted_sendsCancel() throws Exception {
+        connect();
+
+        CountDownLatch requestReceived = new CountDownLatch(1);
+        expect(CHANNEL_ID, CHANNEL_ID, CtapHidFrameFactory.CTAPHID_CBOR, data -> {
+            assertArrayEquals(DATA_IN, data);
+            requestReceived.countDown();
+            // no response, the authenticator waits for user presence
+            return null;
+        });
+        expect(CHANNEL_ID, CHANNEL_ID, CtapHidFrameFactory.CTAPHID_CANCEL, CtapHidFrameFactory.CTAPHID_CBOR, data -> {
+            assertEquals(0, data.length);
+            return new byte[] { 0x2d }; // CTAP2_ERR_KEEPALIVE_CANCEL
+        });
+
+        AtomicReference<Exception> caughtException = new AtomicReference<>();
+        AtomicBoolean wasInterrupted = new AtomicBoolean();
+        Thread operationThread = new Thread(() -> {
+            try {
+                protocol.transceiveCbor(DATA_IN);
+            } catch (Exception e) {
+                caughtException.set(e);
+            }
+            wasInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        operationThread.start();
+
+        assertTrue(requestReceived.await(1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        operationThread.interrupt();
+        operationThread.join(2000);
+
+        assertTrue(caughtException.get() instanceof UsbTransportException);
+        assertTrue(caughtException.get().getCause() instanceof InterruptedException);
+        assertTrue(wasInterrupted.get());
+        verifyDialog();
+    }
+
+    private static byte[] createInitResponse(byte[] nonce, int channelId) {
+        return ByteBuffer
+                .allocate(17)
+                .order(ByteOrder.BIG_ENDIAN)
+                .put(nonce)
+                .putInt(channelId)
+                .put((byte) 2) // channelId
+                .put((byte) 7) // versionMajor
+                .put((byte) 1) // versionMinor
+                .put((byte) 3) // versionBuild
+                .put((byte) 1) // capability flags
+                .array();
+    }
+
     private void verifyDialog() {
-        assertTrue(requestQueue.isEmpty());
+        synchronized (expectations) {
+            assertTrue(expectations.isEmpty());
+        }
+        assertFalse(device.hasPendingReports());
     }
 
     private void expect(int inputChannelId, int outputChannelId, byte cmdId, CtapCommunicationCallback callback) {
-        RequestState state = new RequestState();
-
-        UsbRequest usbRequestOut = mock(UsbRequest.class);
-        when(usbRequestOut.initialize(usbConnection, usbIntOut)).thenReturn(true);
-        when(usbRequestOut.queue(any(ByteBuffer.class), eq(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE))).thenAnswer(
-                (Answer<Boolean>) invocation -> {
-                    state.inputAccumulator.write(invocation.<ByteBuffer>getArgument(0).array());
-                    return true;
-                });
-        requestQueue.add(usbRequestOut);
-
-        UsbRequest usbRequestIn = mock(UsbRequest.class);
-        when(usbRequestIn.initialize(usbConnection, usbIntIn)).thenReturn(true);
-        when(usbRequestIn.queue(any(ByteBuffer.class), eq(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE))).thenAnswer(
-                (Answer<Boolean>) invocation -> {
-                    if (!state.inputFinished) {
-                        state.inputFinished = true;
-                        byte[] inputFrame = frameFactory.unwrapFrame(inputChannelId, cmdId, state.inputAccumulator.toByteArray());
-                        byte[] responseBytes = callback.communicate(inputFrame);
-                        state.output = frameFactory.wrapFrame(outputChannelId, cmdId, responseBytes);
-                        state.inputAccumulator = null;
-                        state.outputOffset = 0;
-                    }
-                    ByteBuffer buf = invocation.getArgument(0);
-                    assertEquals(CtapHidFrameFactory.CTAPHID_BUFFER_SIZE, buf.capacity());
-                    buf.clear();
-                    buf.put(state.output, state.outputOffset, CtapHidFrameFactory.CTAPHID_BUFFER_SIZE);
-                    state.outputOffset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE;
-                    return true;
-                });
-        requestQueue.add(usbRequestIn);
-    }
-
-    static class RequestState {
-        ByteArrayOutputStream inputAccumulator = new ByteArrayOutputStream();
-        boolean inputFinished;
-        public byte[] output;
-        int outputOffset;
+        expect(inputChannelId, outputChannelId, cmdId, cmdId, callback);
+    }
+
+    private void expect(int inputChannelId, int outputChannelId, byte cmdId, byte responseCmdId,
+            CtapCommunicationCallback callback) {
+        Expectation expectation = new Expectation();
+        expectation.inputChannelId = inputChannelId;
+        expectation.outputChannelId = outputChannelId;
+        expectation.cmdId = cmdId;
+        expectation.responseCmdId = responseCmdId;
+        expectation.callback = callback;
+        synchronized (expectations) {
+            expectations.add(expectation);
+        }
+    }
+
+    private byte[] respond(int channelId, byte cmdId, byte[] payload) throws UsbTransportException {
+        Expectation expectation;
+        synchronized (expectations) {
+            expectation = expectations.poll();
+        }
+        assertNotNull(expectation);
+        assertEquals(expectation.inputChannelId, channelId);
+        assertEquals(expectation.cmdId, cmdId);
+        byte[] responseBytes = expectation.callback.communicate(payload);
+        if (responseBytes == null) {
+            return null;
+        }
+        return frameFactory.wrapFrame(expectation.outputChannelId, expectation.responseCmdId, responseBytes);
+    }
+
+    static class Expectation {
+        int inputChannelId;
+        int outputChannelId;
+        byte cmdId;
+        byte responseCmdId;
+        CtapCommunicationCallback callback;
     }
 
     interface CtapCommunicationCallback {
@@ -25,13 +25,11 @@
 package de.cotech.hw.internal.transport;
 
 
-import androidx.annotation.Nullable;
-
-import org.junit.Assert;
-
 import java.io.IOException;
 import java.util.LinkedList;
 
+import org.junit.Assert;
+
 import de.cotech.hw.internal.iso7816.CommandApdu;
 import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.SecurityKeyType;
@@ -41,15 +39,27 @@ import de.cotech.hw.util.Hex;
 import static org.junit.Assert.assertEquals;
 
 
+/**
+ * A transport that checks every command against the expected ones, and answers with the expected responses.
+ * <p>
+ * For benchmarks, {@link #replyToAllWith(ResponseApdu)} answers every command with the same response instead,
+ * without checking it.
+ */
 @SuppressWarnings("WeakerAccess")
 public class FakeTransport implements Transport {
     LinkedList<CommandApdu> expectCommands = new LinkedList<>();
     LinkedList<ResponseApdu> expectResponses = new LinkedList<>();
     LinkedList<IOException> expectExceptions = new LinkedList<>();
     boolean extendedLengthSupported = false;
+    TransportType transportType = TransportType.USB_CTAPHID;
+    ResponseApdu replyToAll;
 
     @Override
     public ResponseApdu transceive(CommandApdu data) throws IOException {
+        if (replyToAll != null) {
+            return replyToAll;
+        }
+
         CommandApdu expected = expectCommands.poll();
         assertEquals(expected, data);
 
@@ -92,10 +102,9 @@ public class FakeTransport implements Transport {
 
     @Override
     public TransportType getTransportType() {
-        return TransportType.USB_CTAPHID;
+        return transportType;
     }
 
-    @Nullable
     @Override
     public SecurityKeyType getSecurityKeyTypeIfAvailable() {
         return null;
@@ -110,6 +119,14 @@ public class FakeTransport implements Transport {
         this.extendedLengthSupported = extendedLengthSupported;
     }
 
+    public void setTransportType(TransportType transportType) {
+        this.transportType = transportType;
+    }
+
+    public void replyToAllWith(ResponseApdu response) {
+        this.replyToAll = response;
+    }
+
     public void expect(String commandBytesHex, String responseBytesHex) throws IOException {
         CommandApdu commandApdu = CommandApdu.fromBytes(Hex.decodeHexOrFail(commandBytesHex));
         commandApdu = commandApdu.withExtendedApduNe();
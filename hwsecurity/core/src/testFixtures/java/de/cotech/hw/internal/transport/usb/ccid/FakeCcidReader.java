@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ccid;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedList;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * A CCID reader on top of a mocked UsbDeviceConnection, set up like in CcidTransceiverTest.
+ * <p>
+ * Every PC_to_RDR message is reassembled from the bulk OUT transfers and answered with a
+ * RDR_to_PC_DataBlock with the same sequence number. SetParameters is acknowledged without
+ * looking at the parameters. Mockito adds a constant overhead per
+ * bulk transfer, so results also scale with the number of USB round trips.
+ */
+public class FakeCcidReader {
+    private static final int CCID_HEADER_LENGTH = 10;
+    private static final byte MESSAGE_TYPE_PC_TO_RDR_ICC_POWER_ON = 0x62;
+    private static final byte MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK = 0x6f;
+    private static final byte MESSAGE_TYPE_PC_TO_RDR_SET_PARAMETERS = 0x61;
+    private static final byte MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK = (byte) 0x80;
+    private static final byte MESSAGE_TYPE_RDR_TO_PC_PARAMETERS = (byte) 0x82;
+
+    public static final int MAX_PACKET_LENGTH = 64;
+    public static final byte[] ATR = {
+            0x3b, (byte) 0xda, 0x11, (byte) 0xff, (byte) 0x81, (byte) 0xb1, (byte) 0xfe, 0x55, 0x1f, 0x03, 0x00,
+            0x31, (byte) 0x84, 0x73, (byte) 0x80, 0x01, (byte) 0x80, 0x00, (byte) 0x90, 0x00, (byte) 0xe4 };
+
+    public interface XfrBlockResponder {
+        byte[] respond(byte[] xfrPayload);
+    }
+
+    private final UsbDeviceConnection usbConnection;
+    private final UsbEndpoint usbBulkIn;
+    private final UsbEndpoint usbBulkOut;
+    private final LinkedList<byte[]> pendingInPackets = new LinkedList<>();
+    private final ByteBuffer outAccumulator = ByteBuffer.allocate(70000).order(ByteOrder.LITTLE_ENDIAN);
+
+    private XfrBlockResponder responder;
+    private int bulkTransferCount;
+
+    public FakeCcidReader(XfrBlockResponder responder) {
+        this.responder = responder;
+
+        usbConnection = mock(UsbDeviceConnection.class);
+        usbBulkIn = mock(UsbEndpoint.class);
+        when(usbBulkIn.getMaxPacketSize()).thenReturn(MAX_PACKET_LENGTH);
+        usbBulkOut = mock(UsbEndpoint.class);
+        when(usbBulkOut.getMaxPacketSize()).thenReturn(MAX_PACKET_LENGTH);
+
+        when(usbConnection.bulkTransfer(same(usbBulkIn), any(byte[].class), anyInt(), anyInt())).thenAnswer(
+                (Answer<Integer>) invocation -> readPacket(invocation.getArgument(1), 0));
+        when(usbConnection.bulkTransfer(same(usbBulkIn), any(byte[].class), anyInt(), anyInt(), anyInt())).thenAnswer(
+                (Answer<Integer>) invocation -> readPacket(invocation.getArgument(1), invocation.getArgument(2)));
+        when(usbConnection.bulkTransfer(same(usbBulkOut), any(byte[].class), anyInt(), anyInt())).thenAnswer(
+                (Answer<Integer>) invocation -> {
+                    byte[] data = invocation.getArgument(1);
+                    return writePacket(data, 0, invocation.getArgument(2));
+                });
+        when(usbConnection.bulkTransfer(same(usbBulkOut), any(byte[].class), anyInt(), anyInt(), anyInt())).thenAnswer(
+                (Answer<Integer>) invocation -> writePacket(
+                        invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+    }
+
+    public CcidTransceiver createTransceiver(int protocols, int features) {
+        CcidDescriptor descriptor = CcidDescriptor.fromValues((byte) 0, (byte) 7, protocols, features);
+        return new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, descriptor);
+    }
+
+    public void setResponder(XfrBlockResponder responder) {
+        this.responder = responder;
+    }
+
+    public int getBulkTransferCount() {
+        return bulkTransferCount;
+    }
+
+    private int readPacket(byte[] buffer, int offset) {
+        bulkTransferCount++;
+        byte[] packet = pendingInPackets.poll();
+        if (packet == null) {
+            return -1;
+        }
+        System.arraycopy(packet, 0, buffer, offset, packet.length);
+        return packet.length;
+    }
+
+    private int writePacket(byte[] data, int offset, int length) {
+        bulkTransferCount++;
+        outAccumulator.put(data, offset, length);
+
+        int messageLength = CCID_HEADER_LENGTH + outAccumulator.getInt(1);
+        if (outAccumulator.position() >= messageLength) {
+            handleMessage(messageLength);
+            outAccumulator.clear();
+        }
+        return length;
+    }
+
+    private void handleMessage(int messageLength) {
+        byte messageType = outAccumulator.get(0);
+        byte sequenceNumber = outAccumulator.get(6);
+
+        byte[] payload = new byte[messageLength - CCID_HEADER_LENGTH];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = outAccumulator.get(CCID_HEADER_LENGTH + i);
+        }
+
+        byte responseType = MESSAGE_TYPE_RDR_TO_PC_DATA_BLOCK;
+        byte[] responseData;
+        if (messageType == MESSAGE_TYPE_PC_TO_RDR_ICC_POWER_ON) {
+            responseData = ATR;
+        } else if (messageType == MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK) {
+            responseData = responder.respond(payload);
+        } else if (messageType == MESSAGE_TYPE_PC_TO_RDR_SET_PARAMETERS) {
+            responseType = MESSAGE_TYPE_RDR_TO_PC_PARAMETERS;
+            responseData = payload;
+        } else {
+            // power off, no response
+            return;
+        }
+
+        byte[] response = new byte[CCID_HEADER_LENGTH + responseData.length];
+        ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN)
+                .put(responseType)
+                .putInt(responseData.length)
+                .put((byte) 0)
+                .put(sequenceNumber);
+        System.arraycopy(responseData, 0, response, CCID_HEADER_LENGTH, responseData.length);
+
+        for (int offset = 0; offset < response.length; offset += MAX_PACKET_LENGTH) {
+            int packetLength = Math.min(MAX_PACKET_LENGTH, response.length - offset);
+            byte[] packet = new byte[packetLength];
+            System.arraycopy(response, offset, packet, 0, packetLength);
+            pendingInPackets.add(packet);
+        }
+    }
+}
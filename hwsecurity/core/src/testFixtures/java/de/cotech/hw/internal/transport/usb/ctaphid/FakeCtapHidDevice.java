@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.internal.transport.usb.ctaphid;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import de.cotech.hw.internal.transport.usb.UsbTransportException;
+import de.cotech.hw.internal.transport.usb.ctaphid.CtapHidFrameFactory.FrameDecoder;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * A CTAPHID authenticator on top of mocked UsbRequests.
+ * <p>
+ * Reports sent to the device are reassembled into frames and passed to a {@link FrameResponder}. The frame it
+ * returns is queued as reports, which complete pending IN requests through {@link UsbDeviceConnection#requestWait()}
+ * like on a device.
+ */
+class FakeCtapHidDevice {
+    interface FrameResponder {
+        /**
+         * Returns the frame to answer a request with, as created by {@link CtapHidFrameFactory#wrapFrame}, or null
+         * to not answer at all.
+         */
+        byte[] respond(int channelId, byte cmdId, byte[] payload) throws UsbTransportException;
+    }
+
+    private final CtapHidFrameFactory frameFactory = new CtapHidFrameFactory();
+    private final UsbDeviceConnection usbConnection;
+    private final UsbEndpoint usbIntIn;
+    private final UsbEndpoint usbIntOut;
+    private final FrameResponder responder;
+
+    private final LinkedBlockingQueue<UsbRequest> completedRequests = new LinkedBlockingQueue<>();
+    private final LinkedList<UsbRequest> pendingInRequests = new LinkedList<>();
+    private final LinkedList<ByteBuffer> pendingInBuffers = new LinkedList<>();
+    private final LinkedList<byte[]> pendingInReports = new LinkedList<>();
+
+    private FrameDecoder requestDecoder;
+
+    FakeCtapHidDevice(FrameResponder responder) {
+        this.responder = responder;
+
+        usbConnection = mock(UsbDeviceConnection.class);
+        usbIntIn = mock(UsbEndpoint.class);
+        usbIntOut = mock(UsbEndpoint.class);
+
+        when(usbConnection.requestWait()).thenAnswer(invocation -> completedRequests.take());
+    }
+
+    CtapHidTransportProtocol createProtocol() {
+        return createProtocol(new CtapHidChannelCache());
+    }
+
+    CtapHidTransportProtocol createProtocol(CtapHidChannelCache channelCache) {
+        return new CtapHidTransportProtocol(usbConnection, usbIntIn, usbIntOut, channelCache) {
+            @Override
+            UsbRequest newUsbRequest() {
+                return mockUsbRequest();
+            }
+        };
+    }
+
+    /**
+     * Returns true if there are reports that were not picked up by an IN request yet.
+     */
+    synchronized boolean hasPendingReports() {
+        return !pendingInReports.isEmpty();
+    }
+
+    private UsbRequest mockUsbRequest() {
+        UsbRequest usbRequest = mock(UsbRequest.class);
+        UsbEndpoint[] initializedEndpoint = new UsbEndpoint[1];
+        when(usbRequest.initialize(same(usbConnection), any(UsbEndpoint.class))).thenAnswer(
+                (Answer<Boolean>) invocation -> {
+                    initializedEndpoint[0] = invocation.getArgument(1);
+                    return true;
+                });
+        when(usbRequest.queue(any(ByteBuffer.class), anyInt())).thenAnswer(
+                (Answer<Boolean>) invocation -> {
+                    ByteBuffer buffer = invocation.getArgument(0);
+                    int length = invocation.getArgument(1);
+                    if (length != CtapHidFrameFactory.CTAPHID_BUFFER_SIZE
+                            || buffer.capacity() != CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+                        throw new AssertionError("Unexpected report size " + length);
+                    }
+                    if (initializedEndpoint[0] == usbIntOut) {
+                        writeReport(buffer.array());
+                        completedRequests.add(usbRequest);
+                    } else {
+                        queueRead(usbRequest, buffer);
+                    }
+                    return true;
+                });
+        when(usbRequest.cancel()).thenAnswer(
+                (Answer<Boolean>) invocation -> {
+                    synchronized (this) {
+                        int index = pendingInRequests.indexOf(usbRequest);
+                        if (index >= 0) {
+                            pendingInRequests.remove(index);
+                            pendingInBuffers.remove(index);
+                            completedRequests.add(usbRequest);
+                        }
+                    }
+                    return true;
+                });
+        return usbRequest;
+    }
+
+    private synchronized void queueRead(UsbRequest usbRequest, ByteBuffer buffer) {
+        pendingInRequests.add(usbRequest);
+        pendingInBuffers.add(buffer);
+        deliverReports();
+    }
+
+    private void deliverReports() {
+        while (!pendingInRequests.isEmpty() && !pendingInReports.isEmpty()) {
+            ByteBuffer buffer = pendingInBuffers.poll();
+            buffer.clear();
+            buffer.put(pendingInReports.poll());
+            completedRequests.add(pendingInRequests.poll());
+        }
+    }
+
+    private synchronized void writeReport(byte[] report) throws UsbTransportException {
+        if (requestDecoder == null) {
+            requestDecoder = frameFactory.newFrameDecoder(CtapHidFrameFactory.CTAPHID_CHANNEL_ID_BROADCAST);
+        }
+        if (!requestDecoder.consumeReport(report)) {
+            return;
+        }
+        FrameDecoder request = requestDecoder;
+        requestDecoder = null;
+
+        byte[] responseFrame = responder.respond(request.getChannelId(), request.getCommand(), request.getPayload());
+        if (responseFrame == null) {
+            return;
+        }
+        for (int offset = 0; offset < responseFrame.length; offset += CtapHidFrameFactory.CTAPHID_BUFFER_SIZE) {
+            pendingInReports.add(Arrays.copyOfRange(
+                    responseFrame, offset, offset + CtapHidFrameFactory.CTAPHID_BUFFER_SIZE));
+        }
+        deliverReports();
+    }
+}
@@ -33,10 +33,12 @@ import de.cotech.hw.SecurityKeyManagerConfig;
 import de.cotech.hw.fido.internal.FidoU2fAppletConnection;
 import de.cotech.hw.fido.internal.async.FidoAsyncOperationManager;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 
 
 public class FidoSecurityKeyConnectionMode extends SecurityKeyConnectionMode<FidoSecurityKey> {
+    private final SelectedAidCache selectedAidCache = new SelectedAidCache();
 
     @Override
     public FidoSecurityKey establishSecurityKeyConnection(SecurityKeyManagerConfig config, Transport transport) throws IOException {
@@ -44,7 +46,8 @@ public class FidoSecurityKeyConnectionMode extends SecurityKeyConnectionMode<Fid
             throw new IllegalArgumentException("Received incompatible transport!");
         }
 
-        FidoU2fAppletConnection fidoU2fAppletConnection = FidoU2fAppletConnection.getInstanceForTransport(transport);
+        FidoU2fAppletConnection fidoU2fAppletConnection = FidoU2fAppletConnection.getInstanceForTransport(
+                transport, selectedAidCache);
         fidoU2fAppletConnection.connectIfNecessary();
 
         return new FidoSecurityKey(config, fidoU2fAppletConnection, transport, new FidoAsyncOperationManager());
@@ -46,6 +46,7 @@ import de.cotech.hw.fido.exceptions.FidoWrongKeyHandleException;
 import de.cotech.hw.internal.iso7816.CommandApdu;
 import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
@@ -70,16 +71,25 @@ public class FidoU2fAppletConnection {
     private final Transport transport;
     @NonNull
     private final FidoU2fCommandApduFactory commandFactory;
+    @NonNull
+    private final SelectedAidCache selectedAidCache;
 
     private boolean isFidoAppletConnected;
 
     public static FidoU2fAppletConnection getInstanceForTransport(@NonNull Transport transport) {
-        return new FidoU2fAppletConnection(transport, new FidoU2fCommandApduFactory());
+        return getInstanceForTransport(transport, new SelectedAidCache());
+    }
+
+    public static FidoU2fAppletConnection getInstanceForTransport(@NonNull Transport transport,
+            @NonNull SelectedAidCache selectedAidCache) {
+        return new FidoU2fAppletConnection(transport, new FidoU2fCommandApduFactory(), selectedAidCache);
     }
 
-    private FidoU2fAppletConnection(@NonNull Transport transport, @NonNull FidoU2fCommandApduFactory commandFactory) {
+    private FidoU2fAppletConnection(@NonNull Transport transport, @NonNull FidoU2fCommandApduFactory commandFactory,
+            @NonNull SelectedAidCache selectedAidCache) {
         this.transport = transport;
         this.commandFactory = commandFactory;
+        this.selectedAidCache = selectedAidCache;
     }
 
     // region connection management
@@ -101,6 +111,7 @@ public class FidoU2fAppletConnection {
             } else {
                 byte[] selectedAid = selectFilesFromPrefixOrFail();
                 HwTimber.d("Connected to AID %s", Hex.encodeHexString(selectedAid));
+                selectedAidCache.put(transport, selectedAid);
             }
 
             isFidoAppletConnected = true;
@@ -111,7 +122,7 @@ public class FidoU2fAppletConnection {
     }
 
     private byte[] selectFilesFromPrefixOrFail() throws IOException {
-        for (byte[] fileAid : FIDO_AID_PREFIXES) {
+        for (byte[] fileAid : selectedAidCache.getAidsInSelectOrder(transport, FIDO_AID_PREFIXES)) {
             byte[] initializedAid = selectFileOrFail(fileAid);
             if (initializedAid != null) {
                 return initializedAid;
@@ -51,11 +51,21 @@ import de.cotech.hw.fido2.internal.webauthn.WebauthnCommand;
 import de.cotech.hw.fido2.internal.webauthn.WebauthnResponse;
 import de.cotech.hw.internal.HwSentry;
 import de.cotech.hw.internal.transport.Transport;
+import de.cotech.hw.internal.transport.usb.ctaphid.UsbCtapHidTransport;
 import org.json.JSONException;
 
 
 @SuppressWarnings({ "unused", "WeakerAccess" }) // All methods are public API
 public class Fido2SecurityKey extends SecurityKey {
+    /** CTAPHID capability flag: the authenticator implements CTAPHID_WINK. */
+    public static final int CTAPHID_CAPABILITY_WINK = UsbCtapHidTransport.CAPABILITY_WINK;
+    /** CTAPHID capability flag: the authenticator implements CTAPHID_LOCK. */
+    public static final int CTAPHID_CAPABILITY_LOCK = UsbCtapHidTransport.CAPABILITY_LOCK;
+    /** CTAPHID capability flag: the authenticator implements CTAPHID_CBOR, i.e. supports CTAP2. */
+    public static final int CTAPHID_CAPABILITY_CBOR = UsbCtapHidTransport.CAPABILITY_CBOR;
+    /** CTAPHID capability flag: the authenticator does not implement CTAPHID_MSG, i.e. doesn't support U2F. */
+    public static final int CTAPHID_CAPABILITY_NMSG = UsbCtapHidTransport.CAPABILITY_NMSG;
+
     private static final int USER_PRESENCE_CHECK_DELAY_MS = 250;
 
     private final Fido2AppletConnection fido2AppletConnection;
@@ -195,6 +205,33 @@ public class Fido2SecurityKey extends SecurityKey {
         fido2AsyncOperationManager.clearAsyncOperation();
     }
 
+    /**
+     * Returns the CTAPHID protocol version reported by a Security Key connected via USB.
+     *
+     * @return the protocol version, or -1 if the Security Key isn't connected via USB CTAPHID.
+     */
+    @AnyThread
+    public int getCtapHidProtocolVersion() {
+        if (!(transport instanceof UsbCtapHidTransport)) {
+            return -1;
+        }
+        return ((UsbCtapHidTransport) transport).getCtapHidProtocolVersion();
+    }
+
+    /**
+     * Returns the CTAPHID capability flags reported by a Security Key connected via USB, such as
+     * {@link #CTAPHID_CAPABILITY_WINK} or {@link #CTAPHID_CAPABILITY_CBOR}.
+     *
+     * @return the capability flags, or 0 if the Security Key isn't connected via USB CTAPHID.
+     */
+    @AnyThread
+    public int getCtapHidCapabilityFlags() {
+        if (!(transport instanceof UsbCtapHidTransport)) {
+            return 0;
+        }
+        return ((UsbCtapHidTransport) transport).getCtapHidCapabilityFlags();
+    }
+
     private WebauthnCallback<PublicKeyCredential> webauthnResponseToJsonCallback(
             WebauthnJsonCallback callback) {
         return new WebauthnCallback<PublicKeyCredential>() {
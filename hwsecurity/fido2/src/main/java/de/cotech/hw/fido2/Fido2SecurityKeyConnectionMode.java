@@ -35,14 +35,19 @@ import de.cotech.hw.fido2.internal.async.Fido2AsyncOperationManager;
 import de.cotech.hw.fido2.internal.operations.WebauthnSecurityKeyOperationFactory;
 import de.cotech.hw.fido2.internal.pinauth.PinAuthCryptoUtil;
 import de.cotech.hw.fido2.internal.pinauth.PinProtocolV1;
+import de.cotech.hw.fido2.internal.pinauth.PinTokenCache;
 import de.cotech.hw.internal.HwSentry;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 
 
 public class Fido2SecurityKeyConnectionMode extends SecurityKeyConnectionMode<Fido2SecurityKey> {
     private static Fido2SecurityKeyConnectionMode INSTANCE;
     private final Fido2SecurityKeyConnectionModeConfig fido2Config;
+    private final SelectedAidCache selectedAidCache = new SelectedAidCache();
+    private final PinAuthCryptoUtil pinAuthCryptoUtil = new PinAuthCryptoUtil();
+    private final PinProtocolV1 pinProtocolV1;
 
     public static Fido2SecurityKeyConnectionMode getInstance() {
         if (INSTANCE == null) {
@@ -60,6 +65,10 @@ public class Fido2SecurityKeyConnectionMode extends SecurityKeyConnectionMode<Fi
 
     public Fido2SecurityKeyConnectionMode(Fido2SecurityKeyConnectionModeConfig fido2Config) {
         this.fido2Config = fido2Config;
+        long pinTokenCacheTtlMillis = fido2Config.getPinTokenCacheTtlMillis();
+        PinTokenCache pinTokenCache = pinTokenCacheTtlMillis > 0 ? new PinTokenCache(pinTokenCacheTtlMillis) : null;
+        // kept across connections, so key agreements with an authenticator can be reused
+        this.pinProtocolV1 = new PinProtocolV1(pinAuthCryptoUtil, pinTokenCache);
     }
 
     @Override
@@ -68,12 +77,15 @@ public class Fido2SecurityKeyConnectionMode extends SecurityKeyConnectionMode<Fi
             throw new IllegalArgumentException("Received incompatible transport!");
         }
 
-        Fido2AppletConnection fido2AppletConnection = Fido2AppletConnection.getInstanceForTransport(transport);
+        Fido2AppletConnection fido2AppletConnection = Fido2AppletConnection.getInstanceForTransport(
+                transport, selectedAidCache);
         fido2AppletConnection.connectIfNecessary();
         fido2AppletConnection.setForceCtap1(fido2Config.isForceU2f());
+        if (fido2AppletConnection.isClientPinSet()) {
+            pinAuthCryptoUtil.prepareNextPlatformKeyPair();
+        }
 
-        WebauthnSecurityKeyOperationFactory operationFactory =
-                new WebauthnSecurityKeyOperationFactory(new PinProtocolV1(new PinAuthCryptoUtil()));
+        WebauthnSecurityKeyOperationFactory operationFactory = new WebauthnSecurityKeyOperationFactory(pinProtocolV1);
         return new Fido2SecurityKey(config, fido2AppletConnection, transport, new Fido2AsyncOperationManager(),
                 operationFactory);
     }
@@ -34,19 +34,32 @@ import com.google.auto.value.AutoValue;
 public abstract class Fido2SecurityKeyConnectionModeConfig  implements Parcelable {
     public abstract boolean isForceU2f();
 
+    /**
+     * How long a pinToken obtained from an authenticator is remembered by the connection mode across connections, or
+     * 0 if it is not.
+     * <p>
+     * While a pinToken is remembered, operations on the same authenticator skip PIN authentication, which saves
+     * several round trips, and don't require the PIN to be entered again. Authenticators keep their pinToken until
+     * they are power cycled, which also invalidates the remembered one. The default is 0.
+     */
+    public abstract long getPinTokenCacheTtlMillis();
+
     public static Fido2SecurityKeyConnectionModeConfig getDefaultConfig() {
         return builder().build();
     }
 
     public static Fido2SecurityKeyConnectionModeConfig.Builder builder() {
         return new AutoValue_Fido2SecurityKeyConnectionModeConfig.Builder()
-                .setForceU2f(false);
+                .setForceU2f(false)
+                .setPinTokenCacheTtlMillis(0);
     }
 
     @AutoValue.Builder
     public static abstract class Builder {
         public abstract Builder setForceU2f(boolean forceU2f);
 
+        public abstract Builder setPinTokenCacheTtlMillis(long pinTokenCacheTtlMillis);
+
         public abstract Fido2SecurityKeyConnectionModeConfig build();
     }
 }
@@ -25,6 +25,9 @@
 package de.cotech.hw.fido2;
 
 
+import java.util.Collections;
+import java.util.List;
+
 import com.google.auto.value.AutoValue;
 import de.cotech.hw.fido2.domain.AuthenticatorResponse;
 import de.cotech.hw.fido2.internal.utils.WebsafeBase64;
@@ -36,6 +39,12 @@ public abstract class PublicKeyCredential extends Credential implements Webauthn
     @SuppressWarnings("mutable")
     public abstract byte[] rawId();
     public abstract AuthenticatorResponse response();
+    /**
+     * Further assertions returned by the authenticator for a request without allowCredentials, i.e. for discoverable
+     * credentials, if more than one credential was found for the relying party. Together with this credential, these
+     * can be used to let the user choose an account.
+     */
+    public abstract List<PublicKeyCredential> additionalCredentials();
 
     public String id() {
         return WebsafeBase64.encodeToString(rawId());
@@ -47,6 +56,11 @@ public abstract class PublicKeyCredential extends Credential implements Webauthn
     }
 
     public static PublicKeyCredential create(byte[] rawId, AuthenticatorResponse response) {
-        return new AutoValue_PublicKeyCredential(rawId, response);
+        return create(rawId, response, Collections.<PublicKeyCredential>emptyList());
+    }
+
+    public static PublicKeyCredential create(byte[] rawId, AuthenticatorResponse response,
+            List<PublicKeyCredential> additionalCredentials) {
+        return new AutoValue_PublicKeyCredential(rawId, response, Collections.unmodifiableList(additionalCredentials));
     }
 }
@@ -28,6 +28,7 @@ package de.cotech.hw.fido2.domain.get;
 import androidx.annotation.Nullable;
 import com.google.auto.value.AutoValue;
 import de.cotech.hw.fido2.domain.AuthenticatorResponse;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
 
 
 @AutoValue
@@ -39,8 +40,18 @@ public abstract class AuthenticatorAssertionResponse extends AuthenticatorRespon
     @Nullable
     @SuppressWarnings("mutable")
     public abstract byte[] userHandle();
+    /**
+     * The user account of a discoverable credential. The authenticator only includes name and displayName if more
+     * than one account was found, and user verification was performed.
+     */
+    @Nullable
+    public abstract PublicKeyCredentialUserEntity user();
 
     public static AuthenticatorAssertionResponse create(byte[] clientDataJson, byte[] authenticatorData, byte[] signature, @Nullable byte[] userHandle) {
-        return new AutoValue_AuthenticatorAssertionResponse(clientDataJson, authenticatorData, signature, userHandle);
+        return create(clientDataJson, authenticatorData, signature, userHandle, null);
+    }
+
+    public static AuthenticatorAssertionResponse create(byte[] clientDataJson, byte[] authenticatorData, byte[] signature, @Nullable byte[] userHandle, @Nullable PublicKeyCredentialUserEntity user) {
+        return new AutoValue_AuthenticatorAssertionResponse(clientDataJson, authenticatorData, signature, userHandle, user);
     }
 }
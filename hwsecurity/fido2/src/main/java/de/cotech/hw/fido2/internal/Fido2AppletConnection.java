@@ -55,6 +55,7 @@ import de.cotech.hw.internal.HwSentry;
 import de.cotech.hw.internal.iso7816.CommandApdu;
 import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
@@ -83,22 +84,33 @@ public class Fido2AppletConnection {
     private final Fido2CommandApduFactory commandFactory;
     @NonNull
     private final Ctap2CommandApduTransformer ctap2CommandApduTransformer;
+    @NonNull
+    private final SelectedAidCache selectedAidCache;
 
     private boolean isFidoAppletConnected;
     private AuthenticatorGetInfoResponse ctap2Info;
     private boolean isForceCtap1;
 
     private PinToken cachedPinToken;
+    private byte[] authenticatorKeyAgreement;
 
     public static Fido2AppletConnection getInstanceForTransport(@NonNull Transport transport) {
-        return new Fido2AppletConnection(transport, new Fido2CommandApduFactory(), new Ctap2CommandApduTransformer());
+        return getInstanceForTransport(transport, new SelectedAidCache());
+    }
+
+    public static Fido2AppletConnection getInstanceForTransport(@NonNull Transport transport,
+            @NonNull SelectedAidCache selectedAidCache) {
+        return new Fido2AppletConnection(transport, new Fido2CommandApduFactory(), new Ctap2CommandApduTransformer(),
+                selectedAidCache);
     }
 
     private Fido2AppletConnection(@NonNull Transport transport, @NonNull Fido2CommandApduFactory commandFactory,
-            @NonNull Ctap2CommandApduTransformer ctap2CommandApduTransformer) {
+            @NonNull Ctap2CommandApduTransformer ctap2CommandApduTransformer,
+            @NonNull SelectedAidCache selectedAidCache) {
         this.transport = transport;
         this.commandFactory = commandFactory;
         this.ctap2CommandApduTransformer = ctap2CommandApduTransformer;
+        this.selectedAidCache = selectedAidCache;
     }
 
     // region connection management
@@ -113,17 +125,37 @@ public class Fido2AppletConnection {
 
     private void connectToDevice() throws IOException {
         try {
-            if (transport.getTransportType() == TransportType.USB_CTAPHID) {
-                HwTimber.d("Using USB U2F HID as a transport. No need to select AID.");
+            boolean isCtapHid = transport.getTransportType() == TransportType.USB_CTAPHID;
+            List<byte[]> aidsInSelectOrder = selectedAidCache.getAidsInSelectOrder(transport, FIDO_AID_PREFIXES);
+            List<ResponseApdu> responses = transceiveConnectWithGetInfo(isCtapHid, aidsInSelectOrder.get(0));
+            boolean isConnectedByBatch = responses.size() == 2 && responses.get(0).isSuccess();
+            if (isConnectedByBatch) {
+                // "FIDO authenticator SHALL reply with its version string in the successful response"
+                checkVersionOrThrow(responses.get(0).getData());
+                if (!isCtapHid) {
+                    selectedAidCache.put(transport, aidsInSelectOrder.get(0));
+                }
+            } else if (isCtapHid) {
                 byte[] versionBytes = readVersion();
                 checkVersionOrThrow(versionBytes);
             } else {
-                byte[] selectedAid = selectFilesFromPrefixOrFail();
+                byte[] selectedAid = selectFilesFromPrefixOrFail(aidsInSelectOrder);
                 HwTimber.d("Connected to AID %s", Hex.encodeHexString(selectedAid));
+                selectedAidCache.put(transport, selectedAid);
+            }
+
+            ResponseApdu getInfoResponse = null;
+            if (isConnectedByBatch && !isIncorrectLength(responses.get(1))) {
+                getInfoResponse = readChainedResponseIfAvailable(responses.get(1));
             }
 
             try {
-                ctap2Info = ctap2AuthenticatorGetInfo();
+                if (getInfoResponse != null) {
+                    ctap2Info = (AuthenticatorGetInfoResponse) ctap2ResponseFromResponseApdu(
+                            AuthenticatorGetInfo.create(), checkResponseOrThrow(getInfoResponse));
+                } else {
+                    ctap2Info = ctap2AuthenticatorGetInfo();
+                }
                 HwTimber.d("Call to AuthenticatorGetInfo returns valid response - using CTAP2");
                 HwTimber.d(ctap2Info.toString());
                 // This is cleaned up globally in handleTransportRelease in SecurityKeyManager
@@ -140,6 +172,37 @@ public class Fido2AppletConnection {
         }
     }
 
+    /**
+     * Sends SELECT for the given AID, or the U2F version request on USB HID, together with
+     * AuthenticatorGetInfo as a single batch. If the first command fails, the batch stops there
+     * and the step by step connection sequence takes over, e.g. for applets with another AID.
+     */
+    private List<ResponseApdu> transceiveConnectWithGetInfo(boolean isCtapHid, byte[] fileAid) throws IOException {
+        CommandApdu connectCommand;
+        if (isCtapHid) {
+            HwTimber.d("Using USB U2F HID as a transport. No need to select AID.");
+            connectCommand = commandFactory.createVersionCommand();
+        } else {
+            connectCommand = commandFactory.createSelectFileCommand(fileAid);
+        }
+        CommandApdu getInfoCommand = ctap2CommandApduTransformer.toCommandApdu(AuthenticatorGetInfo.create());
+
+        List<ResponseApdu> responses = transport.transceiveBatch(Arrays.asList(
+                connectCommand.withExtendedApduNe(), getInfoCommand.withExtendedApduNe()));
+        if (!isCtapHid && !responses.isEmpty() && responses.get(0).isSuccess()) {
+            HwTimber.d("Connected to AID %s", Hex.encodeHexString(fileAid));
+        }
+        return responses;
+    }
+
+    /**
+     * AuthenticatorGetInfo is sent again with the usual APDU length fallbacks in this case.
+     */
+    private static boolean isIncorrectLength(ResponseApdu response) {
+        return response.getSw() == WrongRequestLengthException.SW_WRONG_REQUEST_LENGTH ||
+                response.getSw1() == RESPONSE_SW1_INCORRECT_LENGTH;
+    }
+
     private AuthenticatorGetInfoResponse ctap2AuthenticatorGetInfo() throws IOException {
         return ctap2CommunicateOrThrow(AuthenticatorGetInfo.create());
     }
@@ -168,8 +231,8 @@ public class Fido2AppletConnection {
         return command.getResponseFactory().createResponse(responseData);
     }
 
-    private byte[] selectFilesFromPrefixOrFail() throws IOException {
-        for (byte[] fileAid : FIDO_AID_PREFIXES) {
+    private byte[] selectFilesFromPrefixOrFail(List<byte[]> aidsInSelectOrder) throws IOException {
+        for (byte[] fileAid : aidsInSelectOrder) {
             byte[] initializedAid = selectFileOrFail(fileAid);
             if (initializedAid != null) {
                 return initializedAid;
@@ -211,8 +274,10 @@ public class Fido2AppletConnection {
     // see "FIDO U2F Raw Message Formats", Section 3.3 Status Codes
     // https://fidoalliance.org/specs/fido-u2f-v1.2-ps-20170411/fido-u2f-raw-message-formats-v1.2-ps-20170411.html
     public ResponseApdu communicateOrThrow(CommandApdu commandApdu) throws IOException {
-        ResponseApdu response = communicate(commandApdu);
+        return checkResponseOrThrow(communicate(commandApdu));
+    }
 
+    private ResponseApdu checkResponseOrThrow(ResponseApdu response) throws IOException {
         if (response.isSuccess()) {
             return response;
         }
@@ -385,6 +450,11 @@ public class Fido2AppletConnection {
         this.isForceCtap1 = isForceCtap1;
     }
 
+    @Nullable
+    public String getAaguid() {
+        return ctap2Info != null ? ctap2Info.aaguid() : null;
+    }
+
     @Nullable
     public PinToken getCachedPinToken() {
         return cachedPinToken;
@@ -393,4 +463,17 @@ public class Fido2AppletConnection {
     public void setCachedPinToken(PinToken pinToken) {
         this.cachedPinToken = pinToken;
     }
+
+    /**
+     * The COSE encoded key agreement key of the authenticator. It is regenerated only on power cycle, so it is kept
+     * for the lifetime of this connection once it was retrieved.
+     */
+    @Nullable
+    public byte[] getAuthenticatorKeyAgreement() {
+        return authenticatorKeyAgreement;
+    }
+
+    public void setAuthenticatorKeyAgreement(byte[] authenticatorKeyAgreement) {
+        this.authenticatorKeyAgreement = authenticatorKeyAgreement;
+    }
 }
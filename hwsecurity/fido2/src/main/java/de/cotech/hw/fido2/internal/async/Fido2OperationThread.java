@@ -39,6 +39,8 @@ import androidx.lifecycle.OnLifecycleEvent;
 import de.cotech.hw.exceptions.SecurityKeyDisconnectedException;
 import de.cotech.hw.fido2.exceptions.FidoPresenceRequiredException;
 import de.cotech.hw.fido2.internal.Fido2AppletConnection;
+import de.cotech.hw.fido2.internal.ctap2.Ctap2Exception;
+import de.cotech.hw.fido2.internal.ctap2.CtapErrorResponse;
 import de.cotech.hw.util.HwTimber;
 
 
@@ -96,6 +98,13 @@ abstract class Fido2OperationThread<T> extends Thread implements LifecycleObserv
                 } catch (InterruptedException e1) {
                     break;
                 }
+            } catch (Ctap2Exception e) {
+                if (e.ctapErrorResponse.errorCode() == CtapErrorResponse.CTAP2_ERR_KEEPALIVE_CANCEL) {
+                    HwTimber.e("Fido 2 operation was cancelled");
+                    break;
+                }
+                postToHandler(() -> deliverIoException(e));
+                break;
             } catch (IOException e) {
                 if (e.getCause() instanceof InterruptedException) {
                     HwTimber.e("Fido 2 operation was interrupted");
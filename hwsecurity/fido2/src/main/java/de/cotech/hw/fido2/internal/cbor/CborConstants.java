@@ -38,9 +38,6 @@ public class CborConstants {
     public static final UnicodeString AUTH_DATA = new UnicodeString("authData");
     public static final UnicodeString ATT_STMT = new UnicodeString("attStmt");
 
-    public static final UnicodeString TYPE = new UnicodeString("type");
-    public static final UnicodeString ID = new UnicodeString("id");
-
     public static final Map EMPTY_MAP = new Map();
     public static final byte[] EMPTY_MAP_BYTES = emptyMap();
 
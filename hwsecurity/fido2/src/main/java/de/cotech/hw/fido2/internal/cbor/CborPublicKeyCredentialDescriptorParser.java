@@ -26,36 +26,58 @@ package de.cotech.hw.fido2.internal.cbor;
 
 
 import java.io.IOException;
-import java.util.List;
 
 import de.cotech.hw.fido2.domain.PublicKeyCredentialDescriptor;
 import de.cotech.hw.fido2.domain.PublicKeyCredentialType;
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.ByteString;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
-import de.cotech.hw.fido2.internal.cbor_java.model.Map;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnicodeString;
 
 
 public class CborPublicKeyCredentialDescriptorParser {
+    private static final String[] KEYS = { "type", "id" };
+    private static final int KEY_TYPE = 0;
+    private static final int KEY_ID = 1;
+
     public PublicKeyCredentialDescriptor parse(byte[] data) throws IOException {
+        CborReader reader = new CborReader(data);
+        if (!reader.hasNext()) {
+            throw new IOException(
+                    "Failed to parse PublicKeyCredentialDescriptor, expected 1 element!");
+        }
+
         try {
-            List<DataItem> dataItems = CborDecoder.decode(data);
-            if (dataItems.size() < 1) {
-                throw new IOException(
-                        "Failed to parse PublicKeyCredentialDescriptor, expected 1 element!");
+
+            String type = null;
+            byte[] id = null;
+
+            int mapSize = reader.readMapHeader();
+            for (int i = 0; i < mapSize; i++) {
+                if (reader.nextMajorType() != CborReader.MAJOR_TYPE_TEXT_STRING) {
+                    reader.skipValue();
+                    reader.skipValue();
+                    continue;
+                }
+                switch (reader.readKnownTextString(KEYS)) {
+                    case KEY_TYPE: {
+                        type = reader.readTextString();
+                        break;
+                    }
+                    case KEY_ID: {
+                        id = reader.readByteString();
+                        break;
+                    }
+                    default: {
+                        reader.skipValue();
+                        break;
+                    }
+                }
             }
-            Map cborMap = (Map) dataItems.get(0);
 
-            PublicKeyCredentialType publicKeyCredentialType = PublicKeyCredentialType.fromString(
-                    ((UnicodeString) cborMap.get(CborConstants.TYPE)).getString());
-            byte[] id = ((ByteString) cborMap.get(CborConstants.ID)).getBytes();
+            if (type == null || id == null) {
+                throw new IOException("Missing type or id");
+            }
 
+            PublicKeyCredentialType publicKeyCredentialType = PublicKeyCredentialType.fromString(type);
             return PublicKeyCredentialDescriptor.create(publicKeyCredentialType, id, null);
-        } catch (ClassCastException e) {
-            throw new IOException("Failed to parse PublicKeyCredentialDescriptor!", e);
-        } catch (CborException e) {
+        } catch (IOException e) {
             throw new IOException("Failed to parse PublicKeyCredentialDescriptor!", e);
         }
     }
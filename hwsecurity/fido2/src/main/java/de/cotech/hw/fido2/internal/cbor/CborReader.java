@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.cbor;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * A pull-style CBOR reader that decodes data items directly from a byte array, one at a time.
+ * <p>
+ * In contrast to {@link de.cotech.hw.fido2.internal.cbor_java.CborDecoder}, no data item model is built. Callers
+ * request values in the order they expect them, and skip over anything they are not interested in with
+ * {@link #skipValue()}, which does not allocate. As CTAP2 only uses canonical CBOR, indefinite length items are
+ * rejected.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class CborReader {
+    public static final int MAJOR_TYPE_UNSIGNED_INTEGER = 0;
+    public static final int MAJOR_TYPE_NEGATIVE_INTEGER = 1;
+    public static final int MAJOR_TYPE_BYTE_STRING = 2;
+    public static final int MAJOR_TYPE_TEXT_STRING = 3;
+    public static final int MAJOR_TYPE_ARRAY = 4;
+    public static final int MAJOR_TYPE_MAP = 5;
+    public static final int MAJOR_TYPE_TAG = 6;
+    public static final int MAJOR_TYPE_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int INDEFINITE_LENGTH = 31;
+    private static final int MAX_NESTING_DEPTH = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+
+    public CborReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public CborReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * Returns the major type of the next data item, without consuming it.
+     */
+    public int nextMajorType() throws IOException {
+        requireAvailable(1);
+        return (data[position] & 0xff) >> 5;
+    }
+
+    public long readInteger() throws IOException {
+        int majorType = nextMajorType();
+        if (majorType != MAJOR_TYPE_UNSIGNED_INTEGER && majorType != MAJOR_TYPE_NEGATIVE_INTEGER) {
+            throw new IOException("Expected integer, found major type " + majorType);
+        }
+        long value = readLength(majorType);
+        return majorType == MAJOR_TYPE_UNSIGNED_INTEGER ? value : -1 - value;
+    }
+
+    /**
+     * Reads a map key that is expected to be a small unsigned integer, as used by CTAP2 command and response maps.
+     * Keys of any other type are skipped, and -1 is returned, so the caller can skip the value as an unknown key.
+     */
+    public int readIntegerKey() throws IOException {
+        if (nextMajorType() != MAJOR_TYPE_UNSIGNED_INTEGER) {
+            skipValue();
+            return -1;
+        }
+        long key = readLength(MAJOR_TYPE_UNSIGNED_INTEGER);
+        return key <= Integer.MAX_VALUE ? (int) key : -1;
+    }
+
+    public byte[] readByteString() throws IOException {
+        int length = readStringLength(MAJOR_TYPE_BYTE_STRING);
+        byte[] result = Arrays.copyOfRange(data, position, position + length);
+        position += length;
+        return result;
+    }
+
+    public String readTextString() throws IOException {
+        int length = readStringLength(MAJOR_TYPE_TEXT_STRING);
+        String result = new String(data, position, length, UTF_8);
+        position += length;
+        return result;
+    }
+
+    /**
+     * Reads a text string and returns the index of the matching entry in knownValues, or -1 if none matches.
+     * <p>
+     * The string is compared in place, so reading unknown map keys this way does not allocate. All known values
+     * must be ASCII strings.
+     */
+    public int readKnownTextString(String[] knownValues) throws IOException {
+        int length = readStringLength(MAJOR_TYPE_TEXT_STRING);
+        int start = position;
+        position += length;
+        for (int i = 0; i < knownValues.length; i++) {
+            if (asciiEquals(knownValues[i], start, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean readBoolean() throws IOException {
+        requireAvailable(1);
+        int initialByte = data[position] & 0xff;
+        if (initialByte == ((MAJOR_TYPE_SIMPLE << 5) | SIMPLE_TRUE)) {
+            position++;
+            return true;
+        }
+        if (initialByte == ((MAJOR_TYPE_SIMPLE << 5) | SIMPLE_FALSE)) {
+            position++;
+            return false;
+        }
+        throw new IOException("Expected boolean, found initial byte " + initialByte);
+    }
+
+    /**
+     * Reads the header of a map, and returns its number of key/value pairs.
+     */
+    public int readMapHeader() throws IOException {
+        return readContainerLength(MAJOR_TYPE_MAP);
+    }
+
+    /**
+     * Reads the header of an array, and returns its number of items.
+     */
+    public int readArrayHeader() throws IOException {
+        return readContainerLength(MAJOR_TYPE_ARRAY);
+    }
+
+    /**
+     * Skips over the next data item, including all nested items.
+     */
+    public void skipValue() throws IOException {
+        skipValue(0);
+    }
+
+    /**
+     * Returns a copy of the encoded bytes of the next data item, including all nested items.
+     */
+    public byte[] readEncodedValue() throws IOException {
+        int start = position;
+        skipValue(0);
+        return Arrays.copyOfRange(data, start, position);
+    }
+
+    private void skipValue(int depth) throws IOException {
+        if (depth > MAX_NESTING_DEPTH) {
+            throw new IOException("CBOR data is nested too deeply");
+        }
+        int majorType = nextMajorType();
+        switch (majorType) {
+            case MAJOR_TYPE_UNSIGNED_INTEGER:
+            case MAJOR_TYPE_NEGATIVE_INTEGER:
+            case MAJOR_TYPE_SIMPLE: {
+                // for simple values and floats, the "length" is the value itself
+                readLength(majorType);
+                break;
+            }
+            case MAJOR_TYPE_BYTE_STRING:
+            case MAJOR_TYPE_TEXT_STRING: {
+                int length = readStringLength(majorType);
+                position += length;
+                break;
+            }
+            case MAJOR_TYPE_ARRAY: {
+                int count = readContainerLength(majorType);
+                for (int i = 0; i < count; i++) {
+                    skipValue(depth + 1);
+                }
+                break;
+            }
+            case MAJOR_TYPE_MAP: {
+                int count = readContainerLength(majorType);
+                for (int i = 0; i < count; i++) {
+                    skipValue(depth + 1);
+                    skipValue(depth + 1);
+                }
+                break;
+            }
+            case MAJOR_TYPE_TAG: {
+                readLength(majorType);
+                skipValue(depth + 1);
+                break;
+            }
+        }
+    }
+
+    private int readStringLength(int expectedMajorType) throws IOException {
+        long length = readLengthOfType(expectedMajorType);
+        if (length > end - position) {
+            throw new IOException("CBOR string exceeds available data");
+        }
+        return (int) length;
+    }
+
+    private int readContainerLength(int expectedMajorType) throws IOException {
+        long length = readLengthOfType(expectedMajorType);
+        // every item takes at least one byte, which gives an upper bound without looking at the items
+        if (length > end - position) {
+            throw new IOException("CBOR container exceeds available data");
+        }
+        return (int) length;
+    }
+
+    private long readLengthOfType(int expectedMajorType) throws IOException {
+        int majorType = nextMajorType();
+        if (majorType != expectedMajorType) {
+            throw new IOException("Expected major type " + expectedMajorType + ", found " + majorType);
+        }
+        return readLength(majorType);
+    }
+
+    private long readLength(int majorType) throws IOException {
+        int additionalInformation = data[position++] & 0x1f;
+        if (additionalInformation < 24) {
+            return additionalInformation;
+        }
+        int byteCount;
+        switch (additionalInformation) {
+            case 24: byteCount = 1; break;
+            case 25: byteCount = 2; break;
+            case 26: byteCount = 4; break;
+            case 27: byteCount = 8; break;
+            case INDEFINITE_LENGTH:
+                throw new IOException("Indefinite length CBOR items are not supported");
+            default:
+                throw new IOException("Invalid CBOR additional information " + additionalInformation);
+        }
+        requireAvailable(byteCount);
+        long value = 0;
+        for (int i = 0; i < byteCount; i++) {
+            value = (value << 8) | (data[position++] & 0xff);
+        }
+        if (value < 0 && majorType != MAJOR_TYPE_SIMPLE) {
+            throw new IOException("CBOR value exceeds supported range");
+        }
+        return value;
+    }
+
+    private boolean asciiEquals(String value, int start, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void requireAvailable(int byteCount) throws IOException {
+        if (end - position < byteCount) {
+            throw new IOException("Unexpected end of CBOR data");
+        }
+    }
+}
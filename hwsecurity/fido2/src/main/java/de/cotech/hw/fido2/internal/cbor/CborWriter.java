@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.cbor;
+
+
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * A streaming CBOR writer that encodes data items directly into a growable byte array.
+ * <p>
+ * All lengths are encoded in their shortest form, as required for CTAP2 canonical CBOR. Since items are written in
+ * order, callers are responsible for the rest of the canonical form: maps must be written with their number of
+ * entries known up front, and with their keys in canonical order, i.e. shorter encoded keys first, and keys of the
+ * same length in bytewise lexical order. For the keys used in CTAP2, this means integer keys in ascending order,
+ * followed by text keys ordered by length, then alphabetically.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class CborWriter {
+    private static final int MAJOR_TYPE_UNSIGNED_INTEGER = 0;
+    private static final int MAJOR_TYPE_NEGATIVE_INTEGER = 1 << 5;
+    private static final int MAJOR_TYPE_BYTE_STRING = 2 << 5;
+    private static final int MAJOR_TYPE_TEXT_STRING = 3 << 5;
+    private static final int MAJOR_TYPE_ARRAY = 4 << 5;
+    private static final int MAJOR_TYPE_MAP = 5 << 5;
+    private static final int SIMPLE_FALSE = 0xf4;
+    private static final int SIMPLE_TRUE = 0xf5;
+    private static final int SIMPLE_NULL = 0xf6;
+
+    private byte[] buffer;
+    private int length;
+
+    public CborWriter() {
+        this(256);
+    }
+
+    public CborWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public CborWriter writeInteger(long value) {
+        if (value >= 0) {
+            writeTypeAndLength(MAJOR_TYPE_UNSIGNED_INTEGER, value);
+        } else {
+            writeTypeAndLength(MAJOR_TYPE_NEGATIVE_INTEGER, -1 - value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a byte string, or null if the value is null.
+     */
+    public CborWriter writeByteString(@Nullable byte[] value) {
+        if (value == null) {
+            return writeNull();
+        }
+        writeTypeAndLength(MAJOR_TYPE_BYTE_STRING, value.length);
+        writeRaw(value);
+        return this;
+    }
+
+    /**
+     * Writes a UTF-8 text string, or null if the value is null.
+     */
+    public CborWriter writeTextString(@Nullable String value) {
+        if (value == null) {
+            return writeNull();
+        }
+        int utf8Length = getUtf8Length(value);
+        writeTypeAndLength(MAJOR_TYPE_TEXT_STRING, utf8Length);
+        ensureCapacity(utf8Length);
+        writeUtf8(value);
+        return this;
+    }
+
+    public CborWriter writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) (value ? SIMPLE_TRUE : SIMPLE_FALSE);
+        return this;
+    }
+
+    public CborWriter writeNull() {
+        ensureCapacity(1);
+        buffer[length++] = (byte) SIMPLE_NULL;
+        return this;
+    }
+
+    /**
+     * Starts a definite length array. The given number of items must follow.
+     */
+    public CborWriter writeArrayHeader(int size) {
+        writeTypeAndLength(MAJOR_TYPE_ARRAY, size);
+        return this;
+    }
+
+    /**
+     * Starts a definite length map. The given number of key/value pairs must follow, in canonical key order.
+     */
+    public CborWriter writeMapHeader(int size) {
+        writeTypeAndLength(MAJOR_TYPE_MAP, size);
+        return this;
+    }
+
+    /**
+     * Writes data that is already CBOR encoded, e.g. a COSE key.
+     */
+    public CborWriter writeRaw(byte[] encoded) {
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, buffer, length, encoded.length);
+        length += encoded.length;
+        return this;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void writeTypeAndLength(int majorType, long value) {
+        ensureCapacity(9);
+        if (value < 24) {
+            buffer[length++] = (byte) (majorType | value);
+        } else if (value < 0x100) {
+            buffer[length++] = (byte) (majorType | 24);
+            buffer[length++] = (byte) value;
+        } else if (value < 0x10000) {
+            buffer[length++] = (byte) (majorType | 25);
+            buffer[length++] = (byte) (value >> 8);
+            buffer[length++] = (byte) value;
+        } else if (value < 0x100000000L) {
+            buffer[length++] = (byte) (majorType | 26);
+            buffer[length++] = (byte) (value >> 24);
+            buffer[length++] = (byte) (value >> 16);
+            buffer[length++] = (byte) (value >> 8);
+            buffer[length++] = (byte) value;
+        } else {
+            buffer[length++] = (byte) (majorType | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >> shift);
+            }
+        }
+    }
+
+    private static int getUtf8Length(String value) {
+        int utf8Length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                // unpaired surrogates are replaced with '?', like String.getBytes() does
+                utf8Length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    private void writeUtf8(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        int requiredCapacity = length + additionalBytes;
+        if (requiredCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(requiredCapacity, buffer.length * 2));
+        }
+    }
+}
@@ -45,6 +45,8 @@ public final class P256 {
     static final ECFieldFp FIELD;
     private static final EllipticCurve CURVE;
     private static final ECParameterSpec CURVE_SPEC;
+    // KeyFactory is not guaranteed to be thread-safe, so each thread keeps its own instance
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY = new ThreadLocal<>();
 
     static {
         // Curve P-256
@@ -138,7 +140,7 @@ public final class P256 {
             throw new GeneralSecurityException("point is not on the curve");
         }
         ECPublicKeySpec publicSpec = new ECPublicKeySpec(publicPoint, CURVE_SPEC);
-        KeyFactory kf = KeyFactory.getInstance("EC");
+        KeyFactory kf = getKeyFactory();
         return kf.generatePublic(publicSpec);
     }
 
@@ -168,10 +170,19 @@ public final class P256 {
         BigInteger s = new BigInteger(1 /* positive */, privateKey);
 
         ECPrivateKeySpec privateSpec = new ECPrivateKeySpec(s, CURVE_SPEC);
-        KeyFactory kf = KeyFactory.getInstance("EC");
+        KeyFactory kf = getKeyFactory();
         return kf.generatePrivate(privateSpec);
     }
 
+    private static KeyFactory getKeyFactory() throws GeneralSecurityException {
+        KeyFactory keyFactory = KEY_FACTORY.get();
+        if (keyFactory == null) {
+            keyFactory = KeyFactory.getInstance("EC");
+            KEY_FACTORY.set(keyFactory);
+        }
+        return keyFactory;
+    }
+
     /**
      * Copies a BigInteger to a fixed-sized array as an unsigned big-endian integer, padding with
      * leading zeros. The output array is assumed to contain |length| zero bytes starting at
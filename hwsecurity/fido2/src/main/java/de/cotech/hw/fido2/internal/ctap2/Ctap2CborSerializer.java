@@ -25,34 +25,33 @@
 package de.cotech.hw.fido2.internal.ctap2;
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.util.List;
 import java.util.Map.Entry;
 
-import de.cotech.hw.fido2.internal.cbor_java.CborBuilder;
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborEncoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.builder.ArrayBuilder;
-import de.cotech.hw.fido2.internal.cbor_java.builder.MapBuilder;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
+import de.cotech.hw.fido2.domain.AuthenticatorTransport;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialDescriptor;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialParameters;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialRpEntity;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialType;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
+import de.cotech.hw.fido2.internal.cbor.CborWriter;
 import de.cotech.hw.fido2.internal.cose.CoseIdentifiers.CoseAlg;
 import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPin;
 import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertion;
 import de.cotech.hw.fido2.internal.ctap2.commands.getInfo.AuthenticatorGetInfo;
+import de.cotech.hw.fido2.internal.ctap2.commands.getNextAssertion.AuthenticatorGetNextAssertion;
 import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialDescriptor;
-import de.cotech.hw.fido2.domain.AuthenticatorTransport;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialParameters;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialType;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialEntity;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialRpEntity;
-import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
 import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential.AuthenticatorMakeCredentialOptions;
 import de.cotech.hw.fido2.internal.ctap2.commands.rawCommand.RawCtap2Command;
 
 
+/**
+ * Serializes CTAP2 command parameters to canonical CBOR.
+ * <p>
+ * Parameters are streamed directly into a {@link CborWriter}, without building an intermediate tree of data items.
+ * This means map sizes are counted before a map is written, and keys are written in canonical order, as listed in
+ * the comments below. Integer keys sort before text keys, and text keys sort by length first.
+ */
 class Ctap2CborSerializer {
 
     byte[] toCborBytes(Ctap2Command command) {
@@ -60,208 +59,270 @@ class Ctap2CborSerializer {
             return ((RawCtap2Command) command).data();
         }
 
-        CborBuilder cborBuilder = new CborBuilder();
-        writeToBuilder(cborBuilder, command);
-        List<DataItem> cborData = cborBuilder.build();
-        return writeCborDataToBytes(cborData);
+        CborWriter cborWriter = new CborWriter();
+        writeCommand(cborWriter, command);
+        return cborWriter.toByteArray();
     }
 
-    private byte[] writeCborDataToBytes(List<DataItem> cborData) {
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            new CborEncoder(outputStream).encode(cborData);
-            return outputStream.toByteArray();
-        } catch (CborException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    private void writeToBuilder(CborBuilder cborBuilder, Ctap2Command command) {
+    private void writeCommand(CborWriter cborWriter, Ctap2Command command) {
         if (command instanceof AuthenticatorMakeCredential) {
-            writeToBuilder(cborBuilder, (AuthenticatorMakeCredential) command);
+            writeCommand(cborWriter, (AuthenticatorMakeCredential) command);
         } else if (command instanceof AuthenticatorGetAssertion) {
-            writeToBuilder(cborBuilder, (AuthenticatorGetAssertion) command);
-        } else if (command instanceof AuthenticatorGetInfo) {
-            // nothing to do, this command doesn't contain any parameters
+            writeCommand(cborWriter, (AuthenticatorGetAssertion) command);
+        } else if (command instanceof AuthenticatorGetInfo || command instanceof AuthenticatorGetNextAssertion) {
+            // nothing to do, these commands don't contain any parameters
         } else if (command instanceof AuthenticatorClientPin) {
-            writeToBuilder(cborBuilder, (AuthenticatorClientPin) command);
+            writeCommand(cborWriter, (AuthenticatorClientPin) command);
         } else {
             throw new UnsupportedOperationException();
         }
     }
 
-    private void writeToBuilder(CborBuilder cborBuilder2, AuthenticatorMakeCredential amc) {
-        MapBuilder<?> cborBuilder = cborBuilder2.addMap();
+    private void writeCommand(CborWriter cborWriter, AuthenticatorMakeCredential amc) {
+        List<PublicKeyCredentialDescriptor> excludeList = amc.excludeList();
+        AuthenticatorMakeCredentialOptions options = amc.options();
+        byte[] pinAuth = amc.pinAuth();
+        Integer pinProtocol = amc.pinProtocol();
+
+        int mapSize = 4;
+        mapSize += excludeList != null ? 1 : 0;
+        mapSize += options != null ? 1 : 0;
+        mapSize += pinAuth != null ? 1 : 0;
+        mapSize += pinProtocol != null ? 1 : 0;
+        cborWriter.writeMapHeader(mapSize);
 
         // clientDataHash 	0x01 	byte string (CBOR major type 2).
-        cborBuilder.put(0x01, amc.clientDataHash());
+        cborWriter.writeInteger(0x01);
+        cborWriter.writeByteString(amc.clientDataHash());
 
         // rp 	0x02 	CBOR definite length map (CBOR major type 5).
-        MapBuilder<?> rpMapBuilder = cborBuilder.putMap(0x02);
-        writeToMap(rpMapBuilder, amc.rp());
+        cborWriter.writeInteger(0x02);
+        writeRpEntity(cborWriter, amc.rp());
 
         // user 	0x03 	CBOR definite length map (CBOR major type 5).
-        MapBuilder<?> userMapBuilder = cborBuilder.putMap(0x03);
-        writeToMap(userMapBuilder, amc.user());
+        cborWriter.writeInteger(0x03);
+        writeUserEntity(cborWriter, amc.user());
 
         // pubKeyCredParams 	0x04 	CBOR definite length array (CBOR major type 4) of CBOR definite length maps (CBOR major type 5).
-        ArrayBuilder<?> pubCredBuilder = cborBuilder.putArray(0x04);
-        for (PublicKeyCredentialParameters params : amc.pubKeyCredParams()) {
-            MapBuilder<?> pubCredMapBuidler = pubCredBuilder.addMap();
-            writeToMap(pubCredMapBuidler, params);
+        List<PublicKeyCredentialParameters> pubKeyCredParams = amc.pubKeyCredParams();
+        cborWriter.writeInteger(0x04);
+        cborWriter.writeArrayHeader(pubKeyCredParams.size());
+        for (PublicKeyCredentialParameters params : pubKeyCredParams) {
+            writeCredentialParameters(cborWriter, params);
         }
 
         // optional parameters
 
         // excludeList 	0x05 	CBOR definite length array (CBOR major type 4) of CBOR definite length maps (CBOR major type 5).
-        List<PublicKeyCredentialDescriptor> excludeList = amc.excludeList();
         if (excludeList != null) {
-            ArrayBuilder<?> arrayBuilder = cborBuilder.putArray(0x05);
-            for (PublicKeyCredentialDescriptor descriptor : excludeList) {
-                MapBuilder<?> mapBuilder = arrayBuilder.addMap();
-                writeToMap(mapBuilder, descriptor);
-                mapBuilder.end();
-            }
-            arrayBuilder.end();
+            cborWriter.writeInteger(0x05);
+            writeDescriptors(cborWriter, excludeList);
         }
         // extensions 	0x06 	CBOR definite length map (CBOR major type 5).
 
         // options 	0x07 	CBOR definite length map (CBOR major type 5).
-        AuthenticatorMakeCredentialOptions options = amc.options();
         if (options != null) {
-            MapBuilder<?> mapBuilder = cborBuilder.putMap(0x07);
+            cborWriter.writeInteger(0x07);
             Boolean rk = options.rk();
+            /* uv is not supported yet */
             if (rk != null) {
-                mapBuilder.put("rk", rk);
-            }
-            mapBuilder.end();
-            /* not supported yet
-            Boolean uv = options.uv();
-            if (uv != null) {
-                mapBuilder.put("uv", rk);
+                cborWriter.writeMapHeader(1);
+                cborWriter.writeTextString("rk");
+                cborWriter.writeBoolean(rk);
+            } else {
+                cborWriter.writeMapHeader(0);
             }
-            */
         }
 
         // pinAuth 	0x08 	byte string (CBOR major type 2).
-        if (amc.pinAuth() != null) {
-            cborBuilder.put(0x08, amc.pinAuth());
+        if (pinAuth != null) {
+            cborWriter.writeInteger(0x08);
+            cborWriter.writeByteString(pinAuth);
         }
 
         // pinProtocol 	0x09 	PIN protocol version chosen by the client. For this version of the spec, this SHALL be the number 1.
-        Integer pinProtocol = amc.pinProtocol();
         if (pinProtocol != null) {
-            cborBuilder.put(0x09, pinProtocol);
+            cborWriter.writeInteger(0x09);
+            cborWriter.writeInteger(pinProtocol);
         }
     }
 
-    private void writeToBuilder(CborBuilder cborBuilder2, AuthenticatorGetAssertion aga) {
-        MapBuilder<?> cborBuilder = cborBuilder2.addMap();
+    private void writeCommand(CborWriter cborWriter, AuthenticatorGetAssertion aga) {
+        List<PublicKeyCredentialDescriptor> allowList = aga.allowList();
+        boolean hasAllowList = allowList != null && !allowList.isEmpty();
+        byte[] pinAuth = aga.pinAuth();
+        Integer pinProtocol = aga.pinProtocol();
+
+        int mapSize = 2;
+        mapSize += hasAllowList ? 1 : 0;
+        mapSize += pinAuth != null ? 1 : 0;
+        mapSize += pinProtocol != null ? 1 : 0;
+        cborWriter.writeMapHeader(mapSize);
 
         // rpId 	0x01 	UTF-8 encoded text string (CBOR major type 3).
-        cborBuilder.put(0x01, aga.rpId());
+        cborWriter.writeInteger(0x01);
+        cborWriter.writeTextString(aga.rpId());
         // clientDataHash 	0x02 	byte string (CBOR major type 2).
-        cborBuilder.put(0x02, aga.clientDataHash());
+        cborWriter.writeInteger(0x02);
+        cborWriter.writeByteString(aga.clientDataHash());
 
         // optional parameters
 
         // allowList 	0x03 	CBOR definite length array (CBOR major type 4) of CBOR definite length maps (CBOR major type 5).
-        List<PublicKeyCredentialDescriptor> publicKeyCredentialDescriptors = aga.allowList();
-        if (publicKeyCredentialDescriptors != null && !publicKeyCredentialDescriptors.isEmpty()) {
-            ArrayBuilder<?> pubCredBuilder = cborBuilder.putArray(0x03);
-            for (PublicKeyCredentialDescriptor params : publicKeyCredentialDescriptors) {
-                MapBuilder<?> pubCredMapBuidler = pubCredBuilder.addMap();
-                writeToMap(pubCredMapBuidler, params);
-            }
+        if (hasAllowList) {
+            cborWriter.writeInteger(0x03);
+            writeDescriptors(cborWriter, allowList);
         }
         // extensions 	0x04 	CBOR definite length map (CBOR major type 5).
         // options 	0x05 	CBOR definite length map (CBOR major type 5).
 
         // pinAuth 	0x06 	byte string (CBOR major type 2).
-        if (aga.pinAuth() != null) {
-            cborBuilder.put(0x06, aga.pinAuth());
+        if (pinAuth != null) {
+            cborWriter.writeInteger(0x06);
+            cborWriter.writeByteString(pinAuth);
         }
 
         // pinProtocol 	0x07 	PIN protocol version chosen by the client. For this version of the spec, this SHALL be the number 1.
-        Integer pinProtocol = aga.pinProtocol();
         if (pinProtocol != null) {
-            cborBuilder.put(0x07, pinProtocol);
+            cborWriter.writeInteger(0x07);
+            cborWriter.writeInteger(pinProtocol);
         }
     }
 
-    private void writeToBuilder(CborBuilder cborBuilder2, AuthenticatorClientPin acp) {
-        MapBuilder<?> cborBuilder = cborBuilder2.addMap();
+    private void writeCommand(CborWriter cborWriter, AuthenticatorClientPin acp) {
+        byte[] keyAgreement = acp.keyAgreement();
+        byte[] pinAuth = acp.pinAuth();
+        byte[] newPinEnc = acp.newPinEnc();
+        byte[] pinHashEnc = acp.pinHashEnc();
+
+        int mapSize = 2;
+        mapSize += keyAgreement != null ? 1 : 0;
+        mapSize += pinAuth != null ? 1 : 0;
+        mapSize += newPinEnc != null ? 1 : 0;
+        mapSize += pinHashEnc != null ? 1 : 0;
+        cborWriter.writeMapHeader(mapSize);
 
         // pinProtocol (0x01) 	Unsigned Integer 	Required 	PIN protocol version chosen by the client. For this version of the spec, this SHALL be the number 1.
-        cborBuilder.put(0x01, acp.pinProtocol());
+        cborWriter.writeInteger(0x01);
+        cborWriter.writeInteger(acp.pinProtocol());
         // subCommand (0x02) 	Unsigned Integer 	Required 	The authenticator Client PIN sub command currently being requested
-        cborBuilder.put(0x02, acp.subCommand());
+        cborWriter.writeInteger(0x02);
+        cborWriter.writeInteger(acp.subCommand());
 
         // optional parameters
 
         // keyAgreement (0x03) 	COSE_Key 	Optional 	Public key of platformKeyAgreementKey. The COSE_Key-encoded public key MUST contain the optional "alg" parameter and MUST NOT contain any other optional parameters. The "alg" parameter MUST contain a COSEAlgorithmIdentifier value.
-        if (acp.keyAgreement() != null) {
-            try {
-                cborBuilder.put(Ctap2CborConstants.CBOR_THREE, new CborDecoder(new ByteArrayInputStream(acp.keyAgreement())).decodeNext());
-            } catch (CborException e) {
-                throw new IllegalArgumentException(e);
-            }
+        if (keyAgreement != null) {
+            // already encoded as canonical CBOR by CosePublicKeyUtils
+            cborWriter.writeInteger(0x03);
+            cborWriter.writeRaw(keyAgreement);
         }
 
         // pinAuth (0x04) 	Byte Array 	Optional 	First 16 bytes of HMAC-SHA-256 of encrypted contents using sharedSecret. See Setting a new PIN, Changing existing PIN and Getting pinToken from the authenticator for more details.
-        if (acp.pinAuth() != null) {
-            cborBuilder.put(0x04, acp.pinAuth());
+        if (pinAuth != null) {
+            cborWriter.writeInteger(0x04);
+            cborWriter.writeByteString(pinAuth);
         }
 
         // newPinEnc (0x05) 	Byte Array 	Optional 	Encrypted new PIN using sharedSecret. Encryption is done over UTF-8 representation of new PIN.
-        if (acp.newPinEnc() != null) {
-            cborBuilder.put(0x05, acp.newPinEnc());
+        if (newPinEnc != null) {
+            cborWriter.writeInteger(0x05);
+            cborWriter.writeByteString(newPinEnc);
         }
 
         // pinHashEnc (0x06) 	Byte Array 	Optional 	Encrypted first 16 bytes of SHA-256 of PIN using sharedSecret.
-        if (acp.pinHashEnc() != null) {
-            cborBuilder.put(0x06, acp.pinHashEnc());
+        if (pinHashEnc != null) {
+            cborWriter.writeInteger(0x06);
+            cborWriter.writeByteString(pinHashEnc);
         }
     }
 
-    private void writeToMap(MapBuilder<?> mapBuilder, PublicKeyCredentialRpEntity rpEntity) {
-        writeToMap(mapBuilder, (PublicKeyCredentialEntity) rpEntity);
-        if (rpEntity.id() != null) {
-            mapBuilder.put("id", rpEntity.id());
+    // canonical key order: "id", "icon", "name"
+    private void writeRpEntity(CborWriter cborWriter, PublicKeyCredentialRpEntity rpEntity) {
+        String id = rpEntity.id();
+        String icon = rpEntity.icon();
+
+        int mapSize = 1;
+        mapSize += id != null ? 1 : 0;
+        mapSize += icon != null ? 1 : 0;
+        cborWriter.writeMapHeader(mapSize);
+
+        if (id != null) {
+            cborWriter.writeTextString("id");
+            cborWriter.writeTextString(id);
+        }
+        if (icon != null) {
+            cborWriter.writeTextString("icon");
+            cborWriter.writeTextString(icon);
         }
+        cborWriter.writeTextString("name");
+        cborWriter.writeTextString(rpEntity.name());
     }
 
-    private void writeToMap(MapBuilder<?> mapBuilder, PublicKeyCredentialUserEntity userEntity) {
-        writeToMap(mapBuilder, (PublicKeyCredentialEntity) userEntity);
-        mapBuilder.put("id", userEntity.id());
-        if (userEntity.displayName() != null) {
-            mapBuilder.put("displayName", userEntity.displayName());
+    // canonical key order: "id", "icon", "name", "displayName"
+    private void writeUserEntity(CborWriter cborWriter, PublicKeyCredentialUserEntity userEntity) {
+        String icon = userEntity.icon();
+        String displayName = userEntity.displayName();
+
+        int mapSize = 2;
+        mapSize += icon != null ? 1 : 0;
+        mapSize += displayName != null ? 1 : 0;
+        cborWriter.writeMapHeader(mapSize);
+
+        cborWriter.writeTextString("id");
+        cborWriter.writeByteString(userEntity.id());
+        if (icon != null) {
+            cborWriter.writeTextString("icon");
+            cborWriter.writeTextString(icon);
+        }
+        cborWriter.writeTextString("name");
+        cborWriter.writeTextString(userEntity.name());
+        if (displayName != null) {
+            cborWriter.writeTextString("displayName");
+            cborWriter.writeTextString(displayName);
         }
     }
 
-    private void writeToMap(MapBuilder<?> mapBuilder, PublicKeyCredentialParameters publicKeyCredentialParameters) {
-        for (Entry<PublicKeyCredentialType, CoseAlg> entry : publicKeyCredentialParameters.parameters().entrySet()) {
-            mapBuilder.put("type", entry.getKey().type);
-            mapBuilder.put("alg", entry.getValue().label);
+    // canonical key order: "alg", "type"
+    private void writeCredentialParameters(CborWriter cborWriter, PublicKeyCredentialParameters parameters) {
+        // a map can only hold one "type" and "alg", so the last entry wins
+        Entry<PublicKeyCredentialType, CoseAlg> lastEntry = null;
+        for (Entry<PublicKeyCredentialType, CoseAlg> entry : parameters.parameters().entrySet()) {
+            lastEntry = entry;
+        }
+        if (lastEntry == null) {
+            cborWriter.writeMapHeader(0);
+            return;
         }
+
+        cborWriter.writeMapHeader(2);
+        cborWriter.writeTextString("alg");
+        cborWriter.writeInteger(lastEntry.getValue().label);
+        cborWriter.writeTextString("type");
+        cborWriter.writeTextString(lastEntry.getKey().type);
     }
 
-    private void writeToMap(MapBuilder<?> mapBuilder, PublicKeyCredentialEntity credentialEntity) {
-        mapBuilder.put("name", credentialEntity.name());
-        if (credentialEntity.icon() != null) {
-            mapBuilder.put("icon", credentialEntity.icon());
+    private void writeDescriptors(CborWriter cborWriter, List<PublicKeyCredentialDescriptor> descriptors) {
+        cborWriter.writeArrayHeader(descriptors.size());
+        for (PublicKeyCredentialDescriptor descriptor : descriptors) {
+            writeDescriptor(cborWriter, descriptor);
         }
     }
 
-    private void writeToMap(MapBuilder<?> mapBuilder, PublicKeyCredentialDescriptor descriptor) {
-        mapBuilder.put("type", descriptor.type().type);
-        mapBuilder.put("id", descriptor.id());
+    // canonical key order: "id", "type", "transports"
+    private void writeDescriptor(CborWriter cborWriter, PublicKeyCredentialDescriptor descriptor) {
         List<AuthenticatorTransport> transports = descriptor.transports();
+
+        cborWriter.writeMapHeader(transports != null ? 3 : 2);
+        cborWriter.writeTextString("id");
+        cborWriter.writeByteString(descriptor.id());
+        cborWriter.writeTextString("type");
+        cborWriter.writeTextString(descriptor.type().type);
         if (transports != null) {
-            ArrayBuilder<?> arrayBuilder = mapBuilder.putArray("transports");
+            cborWriter.writeTextString("transports");
+            cborWriter.writeArrayHeader(transports.size());
             for (AuthenticatorTransport transport : transports) {
-                arrayBuilder.add(transport.transport);
+                cborWriter.writeTextString(transport.transport);
             }
         }
     }
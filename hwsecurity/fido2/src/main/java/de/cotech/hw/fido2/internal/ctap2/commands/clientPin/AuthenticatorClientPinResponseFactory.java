@@ -26,16 +26,8 @@ package de.cotech.hw.fido2.internal.ctap2.commands.clientPin;
 
 
 import java.io.IOException;
-import java.util.List;
 
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.ByteString;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
-import de.cotech.hw.fido2.internal.cbor_java.model.Map;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnsignedInteger;
-import de.cotech.hw.fido2.internal.cbor.CborUtils;
-import de.cotech.hw.fido2.internal.ctap2.Ctap2CborConstants;
+import de.cotech.hw.fido2.internal.cbor.CborReader;
 import de.cotech.hw.fido2.internal.ctap2.Ctap2ResponseFactory;
 
 
@@ -44,22 +36,34 @@ public class AuthenticatorClientPinResponseFactory implements
     @Override
     public AuthenticatorClientPinResponse createResponse(byte[] rawResponseData)
             throws IOException {
-        try {
-            List<DataItem> dataItems = CborDecoder.decode(rawResponseData);
-            Map map = (Map) dataItems.get(0);
+        CborReader reader = new CborReader(rawResponseData);
 
-            Map keyAgreementCbor = (Map) map.get(Ctap2CborConstants.CBOR_ONE);
-            byte[] keyAgreement = CborUtils.writeCborDataToBytes(keyAgreementCbor);
-            ByteString pinToken = (ByteString) map.get(Ctap2CborConstants.CBOR_TWO);
-            UnsignedInteger retries = (UnsignedInteger) map.get(Ctap2CborConstants.CBOR_THREE);
+        byte[] keyAgreement = null;
+        byte[] pinToken = null;
+        Integer retries = null;
 
-            return AuthenticatorClientPinResponse.create(
-                    keyAgreement,
-                    pinToken != null ? pinToken.getBytes() : null,
-                    retries != null ? retries.getValue().intValue() : null
-            );
-        } catch (CborException e) {
-            throw new IOException(e);
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            switch (reader.readIntegerKey()) {
+                case 0x01: {
+                    keyAgreement = reader.readEncodedValue();
+                    break;
+                }
+                case 0x02: {
+                    pinToken = reader.readByteString();
+                    break;
+                }
+                case 0x03: {
+                    retries = (int) reader.readInteger();
+                    break;
+                }
+                default: {
+                    reader.skipValue();
+                    break;
+                }
+            }
         }
+
+        return AuthenticatorClientPinResponse.create(keyAgreement, pinToken, retries);
     }
 }
@@ -26,24 +26,20 @@ package de.cotech.hw.fido2.internal.ctap2.commands.getAssertion;
 
 
 import java.io.IOException;
-import java.util.List;
-
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.ByteString;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
-import de.cotech.hw.fido2.internal.cbor_java.model.MajorType;
-import de.cotech.hw.fido2.internal.cbor_java.model.Map;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnicodeString;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnsignedInteger;
+
 import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
-import de.cotech.hw.fido2.internal.cbor.CborUtils;
-import de.cotech.hw.fido2.internal.ctap2.Ctap2CborConstants;
+import de.cotech.hw.fido2.internal.cbor.CborReader;
 import de.cotech.hw.fido2.internal.ctap2.Ctap2ResponseFactory;
 
 
 public class AuthenticatorGetAssertionResponseFactory implements
         Ctap2ResponseFactory<AuthenticatorGetAssertionResponse> {
+    private static final String[] USER_KEYS = { "id", "name", "displayName", "icon" };
+    private static final int USER_KEY_ID = 0;
+    private static final int USER_KEY_NAME = 1;
+    private static final int USER_KEY_DISPLAY_NAME = 2;
+    private static final int USER_KEY_ICON = 3;
+
     private final AuthenticatorGetAssertion authenticatorGetAssertion;
 
     AuthenticatorGetAssertionResponseFactory(AuthenticatorGetAssertion authenticatorGetAssertion) {
@@ -54,59 +50,111 @@ public class AuthenticatorGetAssertionResponseFactory implements
     public AuthenticatorGetAssertionResponse createResponse(byte[] rawResponseData)
             throws IOException {
         try {
-            List<DataItem> dataItems = CborDecoder.decode(rawResponseData);
-            DataItem dataItem = dataItems.get(0);
-            return readAuthenticatorGetAssertionResponse(dataItem);
-        } catch (CborException | ClassCastException e) {
+            return readAuthenticatorGetAssertionResponse(new CborReader(rawResponseData));
+        } catch (IOException e) {
             throw new IOException("Received incorrectly formatted AuthenticatorGetAssertionResponse", e);
         }
     }
 
-    private AuthenticatorGetAssertionResponse readAuthenticatorGetAssertionResponse(DataItem dataItem)
-            throws CborException, IOException {
-        Map responseMap = (Map) dataItem;
+    private AuthenticatorGetAssertionResponse readAuthenticatorGetAssertionResponse(CborReader reader)
+            throws IOException {
+        byte[] credential = null;
+        byte[] authData = null;
+        byte[] signature = null;
+        PublicKeyCredentialUserEntity user = null;
+        Integer numberOfCredentials = null;
 
-        DataItem credential = responseMap.get(Ctap2CborConstants.CBOR_ONE);
-        ByteString authData = (ByteString) responseMap.get(Ctap2CborConstants.CBOR_TWO);
-        ByteString signature = (ByteString) responseMap.get(Ctap2CborConstants.CBOR_THREE);
-        DataItem user = responseMap.get(Ctap2CborConstants.CBOR_FOUR);
-        UnsignedInteger numberOfCredentials =
-                (UnsignedInteger) responseMap.get(Ctap2CborConstants.CBOR_FIVE);
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            switch (reader.readIntegerKey()) {
+                case 0x01: {
+                    credential = reader.readEncodedValue();
+                    break;
+                }
+                case 0x02: {
+                    authData = reader.readByteString();
+                    break;
+                }
+                case 0x03: {
+                    signature = reader.readByteString();
+                    break;
+                }
+                case 0x04: {
+                    user = readPublicKeyCredentialUserEntity(reader);
+                    break;
+                }
+                case 0x05: {
+                    numberOfCredentials = (int) reader.readInteger();
+                    break;
+                }
+                default: {
+                    reader.skipValue();
+                    break;
+                }
+            }
+        }
 
-        PublicKeyCredentialUserEntity publicKeyCredentialUserEntity =
-                readPublicKeyCredentialUserEntity(user);
+        if (authData == null || signature == null) {
+            throw new IOException("Missing authData or signature");
+        }
 
         return AuthenticatorGetAssertionResponse.create(
-                credential != null ? CborUtils.writeCborDataToBytes(credential) : null,
-                authData.getBytes(),
-                signature.getBytes(),
-                publicKeyCredentialUserEntity,
-                numberOfCredentials != null ? numberOfCredentials.getValue().intValue() : null,
+                credential,
+                authData,
+                signature,
+                user,
+                numberOfCredentials,
                 authenticatorGetAssertion.clientDataJson().getBytes()
         );
     }
 
-    private PublicKeyCredentialUserEntity readPublicKeyCredentialUserEntity(DataItem dataItem)
+    private PublicKeyCredentialUserEntity readPublicKeyCredentialUserEntity(CborReader reader)
             throws IOException {
-        if (dataItem == null) {
-            return null;
+        if (reader.nextMajorType() != CborReader.MAJOR_TYPE_MAP) {
+            throw new IOException("Expected user field to be of type Map, found major type " +
+                    reader.nextMajorType());
         }
-        if (dataItem.getMajorType() != MajorType.MAP) {
-            throw new IOException("Expected user field to be of type Map, found " +
-                    dataItem.getMajorType());
+
+        byte[] id = null;
+        String name = null;
+        String displayName = null;
+        String icon = null;
+
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            if (reader.nextMajorType() != CborReader.MAJOR_TYPE_TEXT_STRING) {
+                reader.skipValue();
+                reader.skipValue();
+                continue;
+            }
+            switch (reader.readKnownTextString(USER_KEYS)) {
+                case USER_KEY_ID: {
+                    id = reader.readByteString();
+                    break;
+                }
+                case USER_KEY_NAME: {
+                    name = reader.readTextString();
+                    break;
+                }
+                case USER_KEY_DISPLAY_NAME: {
+                    displayName = reader.readTextString();
+                    break;
+                }
+                case USER_KEY_ICON: {
+                    icon = reader.readTextString();
+                    break;
+                }
+                default: {
+                    reader.skipValue();
+                    break;
+                }
+            }
         }
 
-        Map userMap = ((Map) dataItem);
-        ByteString id = (ByteString) userMap.get(Ctap2CborConstants.CBOR_ID);
-        UnicodeString name = (UnicodeString) userMap.get(Ctap2CborConstants.CBOR_NAME);
-        UnicodeString displayName =  (UnicodeString) userMap.get(Ctap2CborConstants.CBOR_DISPLAYNAME);
-        UnicodeString icon = (UnicodeString) userMap.get(Ctap2CborConstants.CBOR_ICON);
-
-        return PublicKeyCredentialUserEntity.create(
-                id.getBytes(),
-                name != null ? name.getString() : null,
-                displayName != null ? displayName.getString() : null,
-                icon != null ? icon.getString() : null
-        );
+        if (id == null) {
+            throw new IOException("Missing id in user field");
+        }
+
+        return PublicKeyCredentialUserEntity.create(id, name, displayName, icon);
     }
 }
@@ -26,36 +26,31 @@ package de.cotech.hw.fido2.internal.ctap2.commands.getInfo;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.Array;
-import de.cotech.hw.fido2.internal.cbor_java.model.ByteString;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
-import de.cotech.hw.fido2.internal.cbor_java.model.Map;
-import de.cotech.hw.fido2.internal.cbor_java.model.SimpleValue;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnicodeString;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnsignedInteger;
-import de.cotech.hw.fido2.internal.cbor.CborUtils;
+import de.cotech.hw.fido2.internal.cbor.CborReader;
 import de.cotech.hw.fido2.internal.ctap2.Ctap2ResponseFactory;
 
 
 public class AuthenticatorGetInfoResponseFactory
         implements Ctap2ResponseFactory<AuthenticatorGetInfoResponse> {
+    private static final String[] OPTION_KEYS = { "plat", "rk", "clientPin", "up", "uv" };
+    private static final int OPTION_KEY_PLAT = 0;
+    private static final int OPTION_KEY_RK = 1;
+    private static final int OPTION_KEY_CLIENT_PIN = 2;
+    private static final int OPTION_KEY_UP = 3;
+    private static final int OPTION_KEY_UV = 4;
+
     @Override
     public AuthenticatorGetInfoResponse createResponse(byte[] responseData) throws IOException {
-        try {
-            return fromAuthenticatorGetInfoBytes(responseData);
-        } catch (CborException e) {
-            throw new IOException(e);
-        }
+        return fromAuthenticatorGetInfoBytes(responseData);
     }
 
     private AuthenticatorGetInfoResponse fromAuthenticatorGetInfoBytes(byte[] responseBytes)
-            throws CborException {
-        List<DataItem> dataItems = CborDecoder.decode(responseBytes);
-        Map map = (Map) dataItems.get(0);
+            throws IOException {
+        CborReader reader = new CborReader(responseBytes);
 
         List<String> versions = null;
         List<String> extensions = null;
@@ -64,51 +59,54 @@ public class AuthenticatorGetInfoResponseFactory
         Integer maxMsgSize = null;
         List<Integer> pinProtocols = null;
 
-        for (DataItem key : map.getKeys()) {
-            int type = ((UnsignedInteger) key).getValue().intValue();
-            DataItem value = map.get(key);
-            switch (type) {
+        // newer authenticators send a number of additional fields, which are skipped without decoding them
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            switch (reader.readIntegerKey()) {
                 // versions
                 case 0x01: {
                     // definite length array (CBOR major type 4) of UTF-8 encoded strings (CBOR major type 3).
-                    versions = CborUtils.cborArrayToStringArray((Array) value);
+                    versions = readStringArray(reader);
                     break;
                 }
 
                 // extensions
                 case 0x02: {
                     // definite length array (CBOR major type 4) of UTF-8 encoded strings (CBOR major type 3).
-                    extensions = CborUtils.cborArrayToStringArray((Array) value);
+                    extensions = readStringArray(reader);
                     break;
                 }
 
                 // aaguid
                 case 0x03: {
                     // byte string (CBOR major type 2). 16 bytes in length and encoded the same as MakeCredential AuthenticatorData, as specified in [WebAuthN].
-                    ByteString byteString = (ByteString) value;
-                    aaguid = byteString.getBytes();
+                    aaguid = reader.readByteString();
                     break;
                 }
 
                 // options
                 case 0x04: {
                     // Definite length map (CBOR major type 5) of key-value pairs where keys are UTF8 strings (CBOR major type 3) and values are booleans (CBOR simple value 21).
-                    options = cborMapToAuthenticatorOptions((Map) value);
+                    options = readAuthenticatorOptions(reader);
                     break;
                 }
 
                 // maxMsgSize
                 case 0x05: {
                     // unsigned integer(CBOR major type 0). This is the maximum message size supported by the authenticator.
-                    UnsignedInteger unsignedInteger = (UnsignedInteger) value;
-                    maxMsgSize = unsignedInteger.getValue().intValue();
+                    maxMsgSize = (int) reader.readInteger();
                     break;
                 }
 
                 // pinProtocols
                 case 0x06: {
                     // array of unsigned integers (CBOR major type). This is the list of pinProtocols supported by the authenticator.
-                    pinProtocols = CborUtils.cborArrayToIntegerArray((Array) value);
+                    pinProtocols = readIntegerArray(reader);
+                    break;
+                }
+
+                default: {
+                    reader.skipValue();
                     break;
                 }
             }
@@ -121,7 +119,7 @@ public class AuthenticatorGetInfoResponseFactory
         return AuthenticatorGetInfoResponse.create(versions, extensions, aaguid, options, maxMsgSize, pinProtocols);
     }
 
-    private AuthenticatorOptions cborMapToAuthenticatorOptions(Map map) {
+    private AuthenticatorOptions readAuthenticatorOptions(CborReader reader) throws IOException {
         // defaults are handled in AuthenticatorOptions itself
         Boolean plat = null;
         Boolean rk = null;
@@ -129,27 +127,37 @@ public class AuthenticatorGetInfoResponseFactory
         Boolean up = null;
         Boolean uv = null;
 
-        for (DataItem key : map.getKeys()) {
-            UnicodeString stringKey = (UnicodeString) key;
-            boolean value = map.get(key) == SimpleValue.TRUE;
-            switch (stringKey.getString()) {
-                case "plat": {
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            if (reader.nextMajorType() != CborReader.MAJOR_TYPE_TEXT_STRING) {
+                reader.skipValue();
+                reader.skipValue();
+                continue;
+            }
+            int key = reader.readKnownTextString(OPTION_KEYS);
+            if (key < 0) {
+                reader.skipValue();
+                continue;
+            }
+            boolean value = reader.readBoolean();
+            switch (key) {
+                case OPTION_KEY_PLAT: {
                     plat = value;
                     break;
                 }
-                case "rk": {
+                case OPTION_KEY_RK: {
                     rk = value;
                     break;
                 }
-                case "clientPin": {
+                case OPTION_KEY_CLIENT_PIN: {
                     clientPin = value;
                     break;
                 }
-                case "up": {
+                case OPTION_KEY_UP: {
                     up = value;
                     break;
                 }
-                case "uv": {
+                case OPTION_KEY_UV: {
                     uv = value;
                     break;
                 }
@@ -158,4 +166,22 @@ public class AuthenticatorGetInfoResponseFactory
 
         return AuthenticatorOptions.create(plat, rk, clientPin, up, uv);
     }
+
+    private static List<String> readStringArray(CborReader reader) throws IOException {
+        int size = reader.readArrayHeader();
+        ArrayList<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(reader.readTextString());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static List<Integer> readIntegerArray(CborReader reader) throws IOException {
+        int size = reader.readArrayHeader();
+        ArrayList<Integer> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add((int) reader.readInteger());
+        }
+        return Collections.unmodifiableList(result);
+    }
 }
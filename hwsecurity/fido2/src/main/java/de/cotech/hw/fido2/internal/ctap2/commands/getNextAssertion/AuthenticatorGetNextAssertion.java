@@ -25,6 +25,29 @@
 package de.cotech.hw.fido2.internal.ctap2.commands.getNextAssertion;
 
 
-class AuthenticatorGetNextAssertion {
+import com.google.auto.value.AutoValue;
+import de.cotech.hw.fido2.internal.ctap2.Ctap2Command;
+import de.cotech.hw.fido2.internal.ctap2.Ctap2ResponseFactory;
+import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertion;
+import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertionResponse;
 
+
+/**
+ * Requests the next assertion for the preceding authenticatorGetAssertion command, if its response had a
+ * numberOfCredentials greater than one. This command has no parameters, and must be sent right after the previous
+ * authenticatorGetAssertion or authenticatorGetNextAssertion command.
+ */
+@AutoValue
+public abstract class AuthenticatorGetNextAssertion extends Ctap2Command<AuthenticatorGetAssertionResponse> {
+    // the response has the same format, and refers to the same client data
+    abstract AuthenticatorGetAssertion authenticatorGetAssertion();
+
+    public static AuthenticatorGetNextAssertion create(AuthenticatorGetAssertion authenticatorGetAssertion) {
+        return new AutoValue_AuthenticatorGetNextAssertion(COMMAND_GET_NEXT_ASSERTION, authenticatorGetAssertion);
+    }
+
+    @Override
+    public Ctap2ResponseFactory<AuthenticatorGetAssertionResponse> getResponseFactory() {
+        return authenticatorGetAssertion().getResponseFactory();
+    }
 }
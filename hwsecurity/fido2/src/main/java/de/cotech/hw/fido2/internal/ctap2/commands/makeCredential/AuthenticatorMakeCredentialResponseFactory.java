@@ -26,16 +26,8 @@ package de.cotech.hw.fido2.internal.ctap2.commands.makeCredential;
 
 
 import java.io.IOException;
-import java.util.List;
 
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.ByteString;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
-import de.cotech.hw.fido2.internal.cbor_java.model.Map;
-import de.cotech.hw.fido2.internal.cbor_java.model.UnicodeString;
-import de.cotech.hw.fido2.internal.cbor.CborUtils;
-import de.cotech.hw.fido2.internal.ctap2.Ctap2CborConstants;
+import de.cotech.hw.fido2.internal.cbor.CborReader;
 import de.cotech.hw.fido2.internal.ctap2.Ctap2ResponseFactory;
 
 
@@ -50,22 +42,44 @@ public class AuthenticatorMakeCredentialResponseFactory implements
     @Override
     public AuthenticatorMakeCredentialResponse createResponse(byte[] rawResponseData)
             throws IOException {
-        try {
-            List<DataItem> dataItems = CborDecoder.decode(rawResponseData);
-            Map map = (Map) dataItems.get(0);
+        CborReader reader = new CborReader(rawResponseData);
 
-            UnicodeString fmt = (UnicodeString) map.get(Ctap2CborConstants.CBOR_ONE);
-            ByteString authData = (ByteString) map.get(Ctap2CborConstants.CBOR_TWO);
-            DataItem attStmt = map.get(Ctap2CborConstants.CBOR_THREE);
+        String fmt = null;
+        byte[] authData = null;
+        byte[] attStmt = null;
 
-            return AuthenticatorMakeCredentialResponse.create(
-                    fmt.getString(),
-                    authData.getBytes(),
-                    CborUtils.writeCborDataToBytes(attStmt),
-                    authenticatorMakeCredential.clientDataJson().getBytes()
-            );
-        } catch (CborException e) {
-            throw new IOException(e);
+        int mapSize = reader.readMapHeader();
+        for (int i = 0; i < mapSize; i++) {
+            switch (reader.readIntegerKey()) {
+                case 0x01: {
+                    fmt = reader.readTextString();
+                    break;
+                }
+                case 0x02: {
+                    authData = reader.readByteString();
+                    break;
+                }
+                case 0x03: {
+                    // kept in its encoded form, it is only ever passed on as part of the attestation object
+                    attStmt = reader.readEncodedValue();
+                    break;
+                }
+                default: {
+                    reader.skipValue();
+                    break;
+                }
+            }
         }
+
+        if (fmt == null || authData == null || attStmt == null) {
+            throw new IOException("Received incomplete AuthenticatorMakeCredentialResponse");
+        }
+
+        return AuthenticatorMakeCredentialResponse.create(
+                fmt,
+                authData,
+                attStmt,
+                authenticatorMakeCredential.clientDataJson().getBytes()
+        );
     }
 }
@@ -26,6 +26,8 @@ package de.cotech.hw.fido2.internal.operations.ctap2;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import de.cotech.hw.fido2.PublicKeyCredential;
@@ -50,6 +52,7 @@ import de.cotech.hw.fido2.internal.ctap2.Ctap2Exception;
 import de.cotech.hw.fido2.internal.ctap2.CtapErrorResponse;
 import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertion;
 import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertionResponse;
+import de.cotech.hw.fido2.internal.ctap2.commands.getNextAssertion.AuthenticatorGetNextAssertion;
 import de.cotech.hw.fido2.internal.json.JsonCollectedClientDataSerializer;
 import de.cotech.hw.fido2.internal.operations.WebauthnSecurityKeyOperation;
 import de.cotech.hw.fido2.internal.pinauth.PinProtocolV1;
@@ -96,11 +99,25 @@ public class AuthenticatorGetAssertionOperation extends
         try {
             AuthenticatorGetAssertionResponse response =
                     fido2AppletConnection.ctap2CommunicateOrThrow(authenticatorGetAssertion);
-            return ctap2ResponseToWebauthnResponse(request, response);
+            List<PublicKeyCredential> additionalCredentials = Collections.emptyList();
+            if (isResidentKey) {
+                additionalCredentials = getNextAssertions(
+                        fido2AppletConnection, request, authenticatorGetAssertion, response);
+            }
+            return ctap2ResponseToWebauthnResponse(request, response, additionalCredentials);
         } catch (Ctap2Exception e) {
             switch (e.ctapErrorResponse.errorCode()) {
                 case CtapErrorResponse.CTAP2_ERR_PIN_REQUIRED:
                     throw new FidoClientPinRequiredException();
+                case CtapErrorResponse.CTAP2_ERR_PIN_AUTH_INVALID: {
+                    pinProtocolV1.invalidatePinToken(fido2AppletConnection);
+                    if (pinToken != null && pinToken.isFromPinTokenCache()) {
+                        // the authenticator no longer accepts the cached pinToken, e.g. because the PIN was changed
+                        HwTimber.d("Cached pinToken was rejected, retrying with PIN authentication");
+                        return performWebauthnSecurityKeyOperation(fido2AppletConnection, request);
+                    }
+                    break;
+                }
                 case CtapErrorResponse.CTAP2_ERR_INVALID_CREDENTIAL:
                 case CtapErrorResponse.CTAP2_ERR_NO_CREDENTIALS: {
                     if (isResidentKey) {
@@ -121,7 +138,16 @@ public class AuthenticatorGetAssertionOperation extends
         if (fido2AppletConnection.getCachedPinToken() != null) {
             return fido2AppletConnection.getCachedPinToken();
         }
-        if (request.options().userVerification() == UserVerificationRequirement.REQUIRED) {
+        boolean isUserVerificationRequired = request.options().userVerification() == UserVerificationRequirement.REQUIRED;
+        if (pinProtocolV1.isPinTokenCacheEnabled() && (isUserVerificationRequired || request.clientPin() != null)
+                && fido2AppletConnection.isSupportClientPin() && fido2AppletConnection.isClientPinSet()) {
+            PinToken pinToken = pinProtocolV1.getPinTokenFromCache(fido2AppletConnection);
+            if (pinToken != null) {
+                fido2AppletConnection.setCachedPinToken(pinToken);
+                return pinToken;
+            }
+        }
+        if (isUserVerificationRequired) {
             if (!fido2AppletConnection.isSupportClientPin()) {
                 throw new FidoClientPinNotSupportedException();
             }
@@ -163,9 +189,43 @@ public class AuthenticatorGetAssertionOperation extends
         }
     }
 
+    /**
+     * If more than one discoverable credential was found, the authenticator only returns the first assertion. The
+     * remaining ones are fetched right after with authenticatorGetNextAssertion, in the same connection, so the user
+     * only has to confirm once.
+     */
+    private List<PublicKeyCredential> getNextAssertions(
+            Fido2AppletConnection fido2AppletConnection,
+            PublicKeyCredentialGet request,
+            AuthenticatorGetAssertion authenticatorGetAssertion,
+            AuthenticatorGetAssertionResponse firstResponse
+    ) throws IOException {
+        Integer numberOfCredentials = firstResponse.numberOfCredentials();
+        if (numberOfCredentials == null || numberOfCredentials <= 1) {
+            return Collections.emptyList();
+        }
+        HwTimber.d("Authenticator found %d credentials, requesting remaining assertions", numberOfCredentials);
+
+        AuthenticatorGetNextAssertion authenticatorGetNextAssertion =
+                AuthenticatorGetNextAssertion.create(authenticatorGetAssertion);
+        List<PublicKeyCredential> result = new ArrayList<>();
+        for (int i = 1; i < numberOfCredentials; i++) {
+            AuthenticatorGetAssertionResponse response;
+            try {
+                response = fido2AppletConnection.ctap2CommunicateOrThrow(authenticatorGetNextAssertion);
+            } catch (Ctap2Exception e) {
+                HwTimber.e(e, "authenticatorGetNextAssertion failed after %d of %d assertions", i, numberOfCredentials);
+                break;
+            }
+            result.add(ctap2ResponseToWebauthnResponse(request, response, Collections.<PublicKeyCredential>emptyList()));
+        }
+        return result;
+    }
+
     private PublicKeyCredential ctap2ResponseToWebauthnResponse(
             PublicKeyCredentialGet credentialCreate,
-            AuthenticatorGetAssertionResponse response
+            AuthenticatorGetAssertionResponse response,
+            List<PublicKeyCredential> additionalCredentials
     ) throws IOException {
         byte[] credential = determinePublicKeyCredentialId(credentialCreate, response);
 
@@ -185,10 +245,11 @@ public class AuthenticatorGetAssertionOperation extends
                 assertionCreationData.clientDataJSONResult(),
                 assertionCreationData.authenticatorDataResult(),
                 assertionCreationData.signatureResult(),
-                assertionCreationData.userHandleResult()
+                assertionCreationData.userHandleResult(),
+                user
         );
         return PublicKeyCredential
-                .create(assertionCreationData.credentialIdResult(), authenticatorResponse);
+                .create(assertionCreationData.credentialIdResult(), authenticatorResponse, additionalCredentials);
     }
 
     private byte[] determinePublicKeyCredentialId(PublicKeyCredentialGet credentialCreate,
@@ -199,10 +260,6 @@ public class AuthenticatorGetAssertionOperation extends
         if (requestedCredentials != null && requestedCredentials.size() == 1) {
             credential = requestedCredentials.get(0).id();
         } else if (response.credential() != null) {
-            Integer numberOfCredentials = response.numberOfCredentials();
-            if (numberOfCredentials != null && numberOfCredentials > 1) {
-                HwTimber.d("More than one credential returned, but not supported. Returning first.");
-            }
             PublicKeyCredentialDescriptor publicKeyCredentialDescriptor =
                     cborPublicKeyCredentialDescriptorParser.parse(response.credential());
             credential = publicKeyCredentialDescriptor.id();
@@ -86,6 +86,15 @@ public class AuthenticatorMakeCredentialOperation extends
             switch (e.ctapErrorResponse.errorCode()) {
                 case CtapErrorResponse.CTAP2_ERR_PIN_REQUIRED:
                     throw new FidoClientPinRequiredException();
+                case CtapErrorResponse.CTAP2_ERR_PIN_AUTH_INVALID: {
+                    pinProtocolV1.invalidatePinToken(fido2AppletConnection);
+                    if (pinToken != null && pinToken.isFromPinTokenCache()) {
+                        // the authenticator no longer accepts the cached pinToken, e.g. because the PIN was changed
+                        HwTimber.d("Cached pinToken was rejected, retrying with PIN authentication");
+                        return performWebauthnSecurityKeyOperation(fido2AppletConnection, request);
+                    }
+                    break;
+                }
             }
             throw e;
         }
@@ -98,7 +107,17 @@ public class AuthenticatorMakeCredentialOperation extends
         if (fido2AppletConnection.getCachedPinToken() != null) {
             return fido2AppletConnection.getCachedPinToken();
         }
-        if (request.options().authenticatorSelection().userVerification() == UserVerificationRequirement.REQUIRED) {
+        boolean isUserVerificationRequired =
+                request.options().authenticatorSelection().userVerification() == UserVerificationRequirement.REQUIRED;
+        if (pinProtocolV1.isPinTokenCacheEnabled() && (isUserVerificationRequired || request.clientPin() != null)
+                && fido2AppletConnection.isSupportClientPin() && fido2AppletConnection.isClientPinSet()) {
+            PinToken pinToken = pinProtocolV1.getPinTokenFromCache(fido2AppletConnection);
+            if (pinToken != null) {
+                fido2AppletConnection.setCachedPinToken(pinToken);
+                return pinToken;
+            }
+        }
+        if (isUserVerificationRequired) {
             if (!fido2AppletConnection.isSupportClientPin()) {
                 throw new FidoClientPinNotSupportedException();
             }
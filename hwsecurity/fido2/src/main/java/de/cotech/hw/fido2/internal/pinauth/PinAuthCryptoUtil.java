@@ -34,7 +34,11 @@ import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.Keep;
 import androidx.annotation.VisibleForTesting;
 
@@ -42,8 +46,10 @@ import de.cotech.hw.fido2.exceptions.FidoClientPinTooShortException;
 import de.cotech.hw.fido2.internal.cose.CoseIdentifiers.CoseAlg;
 import de.cotech.hw.fido2.internal.cose.CosePublicKeyUtils;
 import de.cotech.hw.fido2.internal.crypto.P256;
+import de.cotech.hw.internal.BackgroundExecutors;
 import de.cotech.hw.util.Arrays;
 import de.cotech.hw.util.HashUtil;
+import de.cotech.hw.util.HwTimber;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -59,6 +65,33 @@ public class PinAuthCryptoUtil {
 
     private static final byte ZERO_BYTE = 0;
 
+    private static Executor keyGenerationExecutor;
+
+    // JCA engine instances are not thread-safe, but can be re-initialized for every use. Keeping one per thread
+    // saves the provider lookup of getInstance() for each operation.
+    private static final ThreadLocal<Mac> HMAC_SHA256 = new ThreadLocal<>();
+    private static final ThreadLocal<Cipher> AES_CBC = new ThreadLocal<>();
+    private static final ThreadLocal<KeyAgreement> ECDH = new ThreadLocal<>();
+
+    private final Executor executor;
+    private FutureTask<KeyPair> nextPlatformKeyPair;
+
+    public PinAuthCryptoUtil() {
+        this(getKeyGenerationExecutor());
+    }
+
+    @VisibleForTesting
+    PinAuthCryptoUtil(Executor executor) {
+        this.executor = executor;
+    }
+
+    private static synchronized Executor getKeyGenerationExecutor() {
+        if (keyGenerationExecutor == null) {
+            keyGenerationExecutor = BackgroundExecutors.createThreadPool("pin-keygen", 1);
+        }
+        return keyGenerationExecutor;
+    }
+
     /**
      * CTAP2 pinAuth, used for authentication of operations based on pinToken.
      * https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#authenticatorClientPIN
@@ -79,7 +112,11 @@ public class PinAuthCryptoUtil {
      */
     private byte[] hmacSha256(byte[] secret, byte[] data) {
         try {
-            Mac hmacSHA256 = Mac.getInstance("HmacSHA256");
+            Mac hmacSHA256 = HMAC_SHA256.get();
+            if (hmacSHA256 == null) {
+                hmacSHA256 = Mac.getInstance("HmacSHA256");
+                HMAC_SHA256.set(hmacSHA256);
+            }
             hmacSHA256.init(new SecretKeySpec(secret, "HmacSHA256"));
             return hmacSHA256.doFinal(data);
         } catch (InvalidKeyException | NoSuchAlgorithmException e) {
@@ -92,7 +129,7 @@ public class PinAuthCryptoUtil {
         try {
             SecretKeySpec secretKey = new SecretKeySpec(sharedSecret, "AES");
             IvParameterSpec ivParameterSpec = new IvParameterSpec(getIv());
-            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            Cipher cipher = getAesCbcCipher();
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivParameterSpec);
             return cipher.doFinal(pinHash);
         } catch (IllegalBlockSizeException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException | BadPaddingException | InvalidKeyException e) {
@@ -136,7 +173,7 @@ public class PinAuthCryptoUtil {
         try {
             SecretKeySpec secretKey = new SecretKeySpec(sharedSecret, "AES");
             IvParameterSpec ivParameterSpec = new IvParameterSpec(new byte[16]);
-            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            Cipher cipher = getAesCbcCipher();
             cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
             return cipher.doFinal(pinTokenEnc);
         } catch (NoSuchPaddingException | NoSuchAlgorithmException e) {
@@ -146,7 +183,51 @@ public class PinAuthCryptoUtil {
         }
     }
 
+    private static Cipher getAesCbcCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = AES_CBC.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            AES_CBC.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a new platform key pair. If one was started with {@link #prepareNextPlatformKeyPair()}, that one is
+     * returned, otherwise a key pair is generated right away.
+     */
     public KeyPair generatePlatformKeyPair() {
+        FutureTask<KeyPair> pregeneratedKeyPair;
+        synchronized (this) {
+            pregeneratedKeyPair = nextPlatformKeyPair;
+            nextPlatformKeyPair = null;
+        }
+
+        if (pregeneratedKeyPair != null) {
+            try {
+                return pregeneratedKeyPair.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                HwTimber.e(e.getCause(), "Platform key pair generation failed in background");
+            }
+        }
+        return newPlatformKeyPair();
+    }
+
+    /**
+     * Starts generating a platform key pair in the background, unless there is one already.
+     */
+    @AnyThread
+    public synchronized void prepareNextPlatformKeyPair() {
+        if (nextPlatformKeyPair != null) {
+            return;
+        }
+        nextPlatformKeyPair = new FutureTask<>(PinAuthCryptoUtil::newPlatformKeyPair);
+        executor.execute(nextPlatformKeyPair);
+    }
+
+    private static KeyPair newPlatformKeyPair() {
         try {
             return P256.newKeyPair();
         } catch (NoSuchAlgorithmException e) {
@@ -176,7 +257,11 @@ public class PinAuthCryptoUtil {
             PublicKey authenticatorPublicKey
     ) {
         try {
-            KeyAgreement ka = KeyAgreement.getInstance("ECDH");
+            KeyAgreement ka = ECDH.get();
+            if (ka == null) {
+                ka = KeyAgreement.getInstance("ECDH");
+                ECDH.set(ka);
+            }
             ka.init(platformPrivateKey);
             ka.doPhase(authenticatorPublicKey, true);
 
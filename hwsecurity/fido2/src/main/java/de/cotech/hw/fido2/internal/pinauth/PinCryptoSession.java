@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.pinauth;
+
+
+import java.util.Arrays;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+
+/**
+ * The result of the key agreement between platform and authenticator: the platform's key agreement key as sent to
+ * the authenticator, and the shared secret derived from it.
+ * <p>
+ * Both stay valid for as long as the authenticator keeps its key agreement key, i.e. until it is power cycled or a
+ * wrong PIN is sent. A session can be reused for all PIN operations until then, which saves the ECDH computation.
+ * <p>
+ * Sessions are reference counted, starting with the reference held by the session cache. The shared secret is
+ * cleared once the last reference is released, so a session evicted from the cache stays usable by operations
+ * that are still running with it.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class PinCryptoSession {
+    private final byte[] platformKeyAgreement;
+    private final byte[] sharedSecret;
+    private int references = 1;
+
+    PinCryptoSession(byte[] platformKeyAgreement, byte[] sharedSecret) {
+        this.platformKeyAgreement = platformKeyAgreement;
+        this.sharedSecret = sharedSecret;
+    }
+
+    /**
+     * The COSE encoded public key of the platform.
+     */
+    public byte[] getPlatformKeyAgreement() {
+        return platformKeyAgreement;
+    }
+
+    public byte[] getSharedSecret() {
+        return sharedSecret;
+    }
+
+    synchronized void retain() {
+        if (references == 0) {
+            throw new IllegalStateException("PinCryptoSession already destroyed");
+        }
+        references++;
+    }
+
+    synchronized void release() {
+        references--;
+        if (references == 0) {
+            Arrays.fill(sharedSecret, (byte) 0);
+        }
+    }
+}
@@ -29,7 +29,10 @@ import java.io.IOException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import androidx.annotation.Nullable;
 import de.cotech.hw.fido2.exceptions.FidoClientPinBlockedException;
 import de.cotech.hw.fido2.exceptions.FidoClientPinInvalidException;
 import de.cotech.hw.fido2.exceptions.FidoClientPinLastAttemptException;
@@ -39,7 +42,6 @@ import de.cotech.hw.fido2.internal.ctap2.Ctap2Exception;
 import de.cotech.hw.fido2.internal.ctap2.CtapErrorResponse;
 import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPin;
 import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPinResponse;
-import de.cotech.hw.util.Arrays;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
 
@@ -47,17 +49,72 @@ import de.cotech.hw.util.HwTimber;
 public class PinProtocolV1 {
     public static final int PIN_PROTOCOL = 1;
 
+    private static final int MAX_CRYPTO_SESSIONS = 4;
+
     private final PinAuthCryptoUtil pinAuthCryptoUtil;
+    @Nullable
+    private final PinTokenCache pinTokenCache;
+    // keyed by the authenticator's key agreement key, least recently used first
+    private final LinkedHashMap<String, PinCryptoSession> cryptoSessions =
+            new LinkedHashMap<String, PinCryptoSession>(MAX_CRYPTO_SESSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PinCryptoSession> eldest) {
+                    if (size() <= MAX_CRYPTO_SESSIONS) {
+                        return false;
+                    }
+                    // destroyed once operations still using it release it as well
+                    eldest.getValue().release();
+                    return true;
+                }
+            };
 
     public PinProtocolV1(PinAuthCryptoUtil pinAuthCryptoUtil) {
+        this(pinAuthCryptoUtil, null);
+    }
+
+    public PinProtocolV1(PinAuthCryptoUtil pinAuthCryptoUtil, @Nullable PinTokenCache pinTokenCache) {
         this.pinAuthCryptoUtil = pinAuthCryptoUtil;
+        this.pinTokenCache = pinTokenCache;
+    }
+
+    public boolean isPinTokenCacheEnabled() {
+        return pinTokenCache != null;
+    }
+
+    /**
+     * Returns a pinToken obtained for this authenticator in an earlier connection, or null if there is none.
+     * <p>
+     * This costs a getKeyAgreement round trip to identify the authenticator. The key agreement key is kept on the
+     * connection, so {@link #clientPinAuthenticate} does not request it again if no pinToken was found.
+     */
+    @Nullable
+    public PinToken getPinTokenFromCache(Fido2AppletConnection fido2AppletConnection) throws IOException {
+        String aaguid = fido2AppletConnection.getAaguid();
+        if (pinTokenCache == null || aaguid == null) {
+            return null;
+        }
+        byte[] authenticatorKeyAgreement = getAuthenticatorKeyAgreement(fido2AppletConnection);
+        PinToken pinToken = pinTokenCache.get(aaguid, authenticatorKeyAgreement);
+        if (pinToken != null) {
+            HwTimber.d("Using cached pinToken, skipping PIN authentication");
+        }
+        return pinToken;
+    }
+
+    /**
+     * Forgets the pinToken of this connection, after the authenticator rejected a pinAuth calculated with it.
+     */
+    public void invalidatePinToken(Fido2AppletConnection fido2AppletConnection) {
+        fido2AppletConnection.setCachedPinToken(null);
+        String aaguid = fido2AppletConnection.getAaguid();
+        byte[] authenticatorKeyAgreement = fido2AppletConnection.getAuthenticatorKeyAgreement();
+        if (pinTokenCache != null && aaguid != null && authenticatorKeyAgreement != null) {
+            pinTokenCache.invalidate(aaguid, authenticatorKeyAgreement);
+        }
     }
 
     public PinToken clientPinAuthenticate(
             Fido2AppletConnection fido2AppletConnection, String pin, boolean lastAttemptOk) throws IOException {
-        AuthenticatorClientPin ctap2Command;
-        AuthenticatorClientPinResponse authenticatorClientPinResponse;
-
         HwTimber.d("Authenticating with PIN");
 
         int retries;
@@ -76,30 +133,44 @@ public class PinProtocolV1 {
             throw e;
         }
 
-        ctap2Command = AuthenticatorClientPin.createGetKeyAgreement();
-        authenticatorClientPinResponse = fido2AppletConnection.ctap2CommunicateOrThrow(ctap2Command);
-
-        KeyPair platformKeyPair = pinAuthCryptoUtil.generatePlatformKeyPair();
-        PrivateKey platformPrivateKey = platformKeyPair.getPrivate();
-        PublicKey authenticatorPublicKey = pinAuthCryptoUtil.publicKeyFromCosePublicKey(authenticatorClientPinResponse.keyAgreement());
+        byte[] authenticatorKeyAgreement = getAuthenticatorKeyAgreement(fido2AppletConnection);
+        PinCryptoSession cryptoSession = getCryptoSession(authenticatorKeyAgreement);
+        try {
+            return getPinToken(fido2AppletConnection, pin, retries, authenticatorKeyAgreement, cryptoSession);
+        } finally {
+            cryptoSession.release();
+        }
+    }
 
-        byte[] sharedSecret = pinAuthCryptoUtil.generateSharedSecret(platformPrivateKey, authenticatorPublicKey);
-        byte[] pinHashEnc = pinAuthCryptoUtil.calculatePinHashEnc(sharedSecret, pin);
+    private PinToken getPinToken(Fido2AppletConnection fido2AppletConnection, String pin, int retries,
+            byte[] authenticatorKeyAgreement, PinCryptoSession cryptoSession) throws IOException {
+        AuthenticatorClientPin ctap2Command;
+        AuthenticatorClientPinResponse authenticatorClientPinResponse;
 
-        byte[] platformKeyAgreementKey = pinAuthCryptoUtil.cosePublicKeyFromPublicKey(platformKeyPair.getPublic());
+        byte[] pinHashEnc = pinAuthCryptoUtil.calculatePinHashEnc(cryptoSession.getSharedSecret(), pin);
 
         try {
-            ctap2Command =
-                    AuthenticatorClientPin.createGetPinToken(platformKeyAgreementKey, pinHashEnc);
+            ctap2Command = AuthenticatorClientPin.createGetPinToken(
+                    cryptoSession.getPlatformKeyAgreement(), pinHashEnc);
             authenticatorClientPinResponse =
                     fido2AppletConnection.ctap2CommunicateOrThrow(ctap2Command);
 
             byte[] pinToken = pinAuthCryptoUtil
-                    .decryptPinToken(sharedSecret, authenticatorClientPinResponse.pinToken());
+                    .decryptPinToken(cryptoSession.getSharedSecret(), authenticatorClientPinResponse.pinToken());
             HwTimber.d("Authentication successful. pinToken is " +
                     Hex.encodeHexString(pinToken));
-            return PinToken.create(pinToken);
+            PinToken result = PinToken.create(pinToken);
+            String aaguid = fido2AppletConnection.getAaguid();
+            if (pinTokenCache != null && aaguid != null) {
+                pinTokenCache.put(aaguid, authenticatorKeyAgreement, result);
+            }
+            return result;
         } catch (Ctap2Exception e) {
+            // "Authenticator generates a new authenticatorKeyAgreementKey" after a PIN mismatch
+            fido2AppletConnection.setAuthenticatorKeyAgreement(null);
+            removeCryptoSession(authenticatorKeyAgreement);
+            // the next attempt needs a new key agreement, get a head start while the user re-enters the PIN
+            pinAuthCryptoUtil.prepareNextPlatformKeyPair();
             switch (e.ctapErrorResponse.errorCode()) {
                 case CtapErrorResponse.CTAP2_ERR_PIN_BLOCKED:
                     throw new FidoClientPinBlockedException();
@@ -108,11 +179,70 @@ public class PinProtocolV1 {
                     throw new FidoClientPinInvalidException(retriesLeft);
             }
             throw e;
-        } finally {
-            Arrays.fill(sharedSecret, (byte) 0);
         }
     }
 
+    /**
+     * Returns the crypto session for the given authenticator key agreement key, or establishes a new one. The
+     * platform key pair is usually generated in the background already at this point.
+     * <p>
+     * The returned session is retained for the caller, who must release it when done.
+     */
+    private PinCryptoSession getCryptoSession(byte[] authenticatorKeyAgreement) throws IOException {
+        String key = Hex.encodeHexString(authenticatorKeyAgreement);
+        synchronized (cryptoSessions) {
+            PinCryptoSession cryptoSession = cryptoSessions.get(key);
+            if (cryptoSession != null) {
+                HwTimber.d("Reusing PIN key agreement with authenticator");
+                cryptoSession.retain();
+                return cryptoSession;
+            }
+        }
+
+        KeyPair platformKeyPair = pinAuthCryptoUtil.generatePlatformKeyPair();
+        PrivateKey platformPrivateKey = platformKeyPair.getPrivate();
+        PublicKey authenticatorPublicKey = pinAuthCryptoUtil.publicKeyFromCosePublicKey(authenticatorKeyAgreement);
+
+        byte[] sharedSecret = pinAuthCryptoUtil.generateSharedSecret(platformPrivateKey, authenticatorPublicKey);
+        byte[] platformKeyAgreementKey = pinAuthCryptoUtil.cosePublicKeyFromPublicKey(platformKeyPair.getPublic());
+
+        PinCryptoSession cryptoSession = new PinCryptoSession(platformKeyAgreementKey, sharedSecret);
+        cryptoSession.retain();
+        PinCryptoSession replaced;
+        synchronized (cryptoSessions) {
+            replaced = cryptoSessions.put(key, cryptoSession);
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+        return cryptoSession;
+    }
+
+    private void removeCryptoSession(byte[] authenticatorKeyAgreement) {
+        PinCryptoSession cryptoSession;
+        synchronized (cryptoSessions) {
+            cryptoSession = cryptoSessions.remove(Hex.encodeHexString(authenticatorKeyAgreement));
+        }
+        if (cryptoSession != null) {
+            cryptoSession.release();
+        }
+    }
+
+    private byte[] getAuthenticatorKeyAgreement(Fido2AppletConnection fido2AppletConnection) throws IOException {
+        byte[] authenticatorKeyAgreement = fido2AppletConnection.getAuthenticatorKeyAgreement();
+        if (authenticatorKeyAgreement != null) {
+            return authenticatorKeyAgreement;
+        }
+        Ctap2Command<AuthenticatorClientPinResponse> ctap2Command = AuthenticatorClientPin.createGetKeyAgreement();
+        AuthenticatorClientPinResponse response = fido2AppletConnection.ctap2CommunicateOrThrow(ctap2Command);
+        authenticatorKeyAgreement = response.keyAgreement();
+        if (authenticatorKeyAgreement == null) {
+            throw new IOException("Failed to retrieve key agreement from authenticator.");
+        }
+        fido2AppletConnection.setAuthenticatorKeyAgreement(authenticatorKeyAgreement);
+        return authenticatorKeyAgreement;
+    }
+
     private int checkRetries(Fido2AppletConnection fido2AppletConnection)
             throws IOException {
         Ctap2Command<AuthenticatorClientPinResponse> ctap2Command = AuthenticatorClientPin.createGetRetries();
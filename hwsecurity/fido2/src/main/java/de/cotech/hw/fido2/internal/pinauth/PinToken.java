@@ -32,8 +32,13 @@ import com.google.auto.value.AutoValue;
 public abstract class PinToken {
     @SuppressWarnings("mutable")
     public abstract byte[] pinToken();
+    public abstract boolean isFromPinTokenCache();
 
     public static PinToken create(byte[] pinToken) {
-        return new AutoValue_PinToken(pinToken);
+        return new AutoValue_PinToken(pinToken, false);
+    }
+
+    static PinToken createFromPinTokenCache(byte[] pinToken) {
+        return new AutoValue_PinToken(pinToken, true);
     }
 }
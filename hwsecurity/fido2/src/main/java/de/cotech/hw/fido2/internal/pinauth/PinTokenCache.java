@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.pinauth;
+
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import androidx.annotation.VisibleForTesting;
+import de.cotech.hw.secrets.ByteSecret;
+import de.cotech.hw.util.Hex;
+
+
+/**
+ * Remembers pinTokens obtained from authenticators across connections, for a limited time.
+ * <p>
+ * An authenticator keeps its pinToken until it is power cycled, so a token obtained in one connection can be used
+ * for later operations, without running getRetries, getKeyAgreement and getPinToken again. Entries are keyed by
+ * the AAGUID together with the authenticator's key agreement key. The key agreement key is also regenerated on
+ * power cycle, so a token from a previous power cycle is never looked up. Tokens are kept in a {@link ByteSecret},
+ * and overwritten when they expire or are invalidated.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class PinTokenCache {
+    private final long ttlMillis;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    public PinTokenCache(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    @AnyThread
+    @Nullable
+    public synchronized PinToken get(@NonNull String aaguid, @NonNull byte[] authenticatorKeyAgreement) {
+        String key = getKey(aaguid, authenticatorKeyAgreement);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(elapsedRealtime())) {
+            entries.remove(key);
+            entry.pinToken.removeFromMemory();
+            return null;
+        }
+        return PinToken.createFromPinTokenCache(entry.pinToken.unsafeGetByteCopy());
+    }
+
+    @AnyThread
+    public synchronized void put(
+            @NonNull String aaguid, @NonNull byte[] authenticatorKeyAgreement, @NonNull PinToken pinToken) {
+        long now = elapsedRealtime();
+        removeExpiredEntries(now);
+
+        ByteSecret pinTokenSecret = ByteSecret.fromByteArrayTakeOwnership(pinToken.pinToken().clone());
+        Entry previousEntry = entries.put(
+                getKey(aaguid, authenticatorKeyAgreement), new Entry(pinTokenSecret, now + ttlMillis));
+        if (previousEntry != null) {
+            previousEntry.pinToken.removeFromMemory();
+        }
+    }
+
+    /**
+     * Removes the pinToken for this authenticator, and returns true if there was one.
+     */
+    @AnyThread
+    public synchronized boolean invalidate(@NonNull String aaguid, @NonNull byte[] authenticatorKeyAgreement) {
+        Entry entry = entries.remove(getKey(aaguid, authenticatorKeyAgreement));
+        if (entry == null) {
+            return false;
+        }
+        entry.pinToken.removeFromMemory();
+        return true;
+    }
+
+    @AnyThread
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.pinToken.removeFromMemory();
+        }
+        entries.clear();
+    }
+
+    private void removeExpiredEntries(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                entry.pinToken.removeFromMemory();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getKey(String aaguid, byte[] authenticatorKeyAgreement) {
+        return aaguid + ":" + Hex.encodeHexString(authenticatorKeyAgreement);
+    }
+
+    @VisibleForTesting
+    long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private static class Entry {
+        final ByteSecret pinToken;
+        final long expiresAt;
+
+        Entry(ByteSecret pinToken, long expiresAt) {
+            this.pinToken = pinToken;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
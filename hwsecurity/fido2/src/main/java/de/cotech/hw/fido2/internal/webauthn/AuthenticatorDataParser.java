@@ -25,17 +25,13 @@
 package de.cotech.hw.fido2.internal.webauthn;
 
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import de.cotech.hw.fido2.internal.cbor_java.CborDecoder;
-import de.cotech.hw.fido2.internal.cbor_java.CborException;
-import de.cotech.hw.fido2.internal.cbor_java.model.DataItem;
 import de.cotech.hw.fido2.domain.create.AttestedCredentialData;
 import de.cotech.hw.fido2.domain.create.AuthenticatorData;
-import de.cotech.hw.fido2.internal.cbor.CborUtils;
+import de.cotech.hw.fido2.internal.cbor.CborReader;
 
 
 public class AuthenticatorDataParser {
@@ -115,15 +111,15 @@ public class AuthenticatorDataParser {
         byte[] credentialId = new byte[credentialIdLength];
         buf.get(credentialId);
 
+        // the credential public key is a COSE_Key, its length is only known by skipping over it
+        CborReader reader = new CborReader(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
         try {
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(
-                    buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
-            DataItem dataItem = new CborDecoder(inputStream).decodeNext();
-            byte[] credentialPublicKey = CborUtils.writeCborDataToBytes(dataItem);
-            buf.position(buf.position() + credentialPublicKey.length);
-            return AttestedCredentialData.create(aaguid, credentialId, credentialPublicKey);
-        } catch (CborException e) {
+            reader.skipValue();
+        } catch (IOException e) {
             throw new IOException("Error reading CBOR-encoded credential data!", e);
         }
+        byte[] credentialPublicKey = new byte[reader.getPosition() - buf.arrayOffset() - buf.position()];
+        buf.get(credentialPublicKey);
+        return AttestedCredentialData.create(aaguid, credentialId, credentialPublicKey);
     }
 }
@@ -139,6 +139,7 @@ public class WebauthnDialogFragment extends BottomSheetDialogFragment
 
     private NfcFullscreenView nfcFullscreenView;
     private ByteSecret currentClientPin;
+    private Fido2SecurityKey currentSecurityKey;
 
     private KeyboardPreferenceRepository keyboardPreferenceRepository;
 
@@ -313,6 +314,7 @@ public class WebauthnDialogFragment extends BottomSheetDialogFragment
                 if (!isAdded()) {
                     return;
                 }
+                cancelSecurityKeyOperation();
                 dismissAllowingStateLoss();
 
                 if (webauthnCommand instanceof PublicKeyCredentialCreate) {
@@ -436,6 +438,7 @@ public class WebauthnDialogFragment extends BottomSheetDialogFragment
     @Override
     public void onCancel(DialogInterface dialog) {
         super.onCancel(dialog);
+        cancelSecurityKeyOperation();
         if (webauthnCommand instanceof PublicKeyCredentialCreate) {
             onMakeCredentialCallback.onMakeCredentialCancel();
         } else if (webauthnCommand instanceof PublicKeyCredentialGet) {
@@ -443,6 +446,16 @@ public class WebauthnDialogFragment extends BottomSheetDialogFragment
         }
     }
 
+    /**
+     * Interrupt a pending operation, which makes a USB security key abort waiting for user presence right away.
+     */
+    private void cancelSecurityKeyOperation() {
+        if (currentSecurityKey != null) {
+            currentSecurityKey.clearAsyncOperation();
+            currentSecurityKey = null;
+        }
+    }
+
     private String getStartTitle() {
         if (options.getTitle() != null) {
             return options.getTitle();
@@ -674,6 +687,7 @@ public class WebauthnDialogFragment extends BottomSheetDialogFragment
     }
 
     private void sendWebAuthnCommands(@NonNull Fido2SecurityKey securityKey) {
+        currentSecurityKey = securityKey;
         if (currentClientPin != null) {
             String clientPin = new String(currentClientPin.getByteCopyAndClear());
             currentClientPin = null;
@@ -84,6 +84,11 @@ public class Fido2SecurityKeyTest {
     static final String GET_ATTESTATION_USERNAMELESS_REQUEST = "8010000000003b02a201747777772e70617373776f72646c6573732e6465760258202365959d0ee11f2435d495bb1ae45fa009791231ca7924014a6c6d57f2ace3320000";
     static final String GET_ATTESTATION_USERNAMELESS_RESPONSE = "00a501a262696450569f7b7441d8a21477c89666de4d04de64747970656a7075626c69632d6b6579025825e628e3d57a75e0a221131be840c2dbd5c6d779c12fad3e631fba871494612d6e010000002a03584730450220571dd10ec977ff31ce1ee58e8eb97391187082a4bcf20016df869037d415cde5022100efe23a62efc504feca19cd6440c180952a39395880c4f568857a5f5e9fa7523804a162696458342028557365726e616d656c6573732075736572206372656174656420617420362f392f323032302031323a33363a323620504d2905039000";
 
+    // the response above announces 3 credentials in total, the remaining ones are fetched one by one
+    static final String GET_NEXT_ASSERTION_REQUEST = "801000000108";
+    static final String GET_NEXT_ASSERTION_RESPONSE_SECOND = "00a401a2626964501111111111111111111111111111111164747970656a7075626c69632d6b6579025825e628e3d57a75e0a221131be840c2dbd5c6d779c12fad3e631fba871494612d6e010000002a03584730450220571dd10ec977ff31ce1ee58e8eb97391187082a4bcf20016df869037d415cde5022100efe23a62efc504feca19cd6440c180952a39395880c4f568857a5f5e9fa7523804a162696444010203049000";
+    static final String GET_NEXT_ASSERTION_RESPONSE_THIRD = "00a401a2626964502222222222222222222222222222222264747970656a7075626c69632d6b6579025825e628e3d57a75e0a221131be840c2dbd5c6d779c12fad3e631fba871494612d6e010000002a03584730450220571dd10ec977ff31ce1ee58e8eb97391187082a4bcf20016df869037d415cde5022100efe23a62efc504feca19cd6440c180952a39395880c4f568857a5f5e9fa7523804a162696444050607089000";
+
     static final String CLIENT_PIN_GET_RETRIES = "801000000606a201010201";
     static final String CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT = "00a103089000";
     static final String CLIENT_PIN_GET_AGREEMENT = "801000000606a201010202";
@@ -189,6 +194,7 @@ public class Fido2SecurityKeyTest {
         assertTrue(publicKeyCredential.response() instanceof AuthenticatorAssertionResponse);
         AuthenticatorAssertionResponse response = (AuthenticatorAssertionResponse) publicKeyCredential.response();
         assertNull(response.userHandle());
+        assertTrue(publicKeyCredential.additionalCredentials().isEmpty());
         assertEquals("{\"type\":\"webauthn.get\",\"origin\":\"https:\\/\\/webauthn.hwsecurity.dev\",\"challenge\":\"BCNrbzS9WfmkDbISaw6WQg\",\"hashAlgorithm\":\"SHA-256\"}",
                 new String(publicKeyCredential.response().clientDataJson()));
     }
@@ -205,6 +211,8 @@ public class Fido2SecurityKeyTest {
                         Collections.emptyList(), UserVerificationRequirement.PREFERRED)
         );
         fakeFidoConnection.expect(GET_ATTESTATION_USERNAMELESS_REQUEST, GET_ATTESTATION_USERNAMELESS_RESPONSE);
+        fakeFidoConnection.expect(GET_NEXT_ASSERTION_REQUEST, GET_NEXT_ASSERTION_RESPONSE_SECOND);
+        fakeFidoConnection.expect(GET_NEXT_ASSERTION_REQUEST, GET_NEXT_ASSERTION_RESPONSE_THIRD);
 
         PublicKeyCredential publicKeyCredential = fido2SecurityKey.webauthnCommand(getParameters);
 
@@ -218,6 +226,17 @@ public class Fido2SecurityKeyTest {
         assertEquals("IChVc2VybmFtZWxlc3MgdXNlciBjcmVhdGVkIGF0IDYvOS8yMDIwIDEyOjM2OjI2IFBNKQ", WebsafeBase64.encodeToString(response.userHandle()));
         assertEquals("{\"type\":\"webauthn.get\",\"origin\":\"https:\\/\\/www.passwordless.dev\",\"challenge\":\"n46bFSgRdToqeoIeef252g\",\"hashAlgorithm\":\"SHA-256\"}",
                 new String(publicKeyCredential.response().clientDataJson()));
+
+        assertEquals(2, publicKeyCredential.additionalCredentials().size());
+        PublicKeyCredential secondCredential = publicKeyCredential.additionalCredentials().get(0);
+        assertArrayEquals(Hex.decodeHexOrFail("11111111111111111111111111111111"), secondCredential.rawId());
+        assertArrayEquals(Hex.decodeHexOrFail("01020304"),
+                ((AuthenticatorAssertionResponse) secondCredential.response()).userHandle());
+        PublicKeyCredential thirdCredential = publicKeyCredential.additionalCredentials().get(1);
+        assertArrayEquals(Hex.decodeHexOrFail("22222222222222222222222222222222"), thirdCredential.rawId());
+        assertArrayEquals(Hex.decodeHexOrFail("05060708"),
+                ((AuthenticatorAssertionResponse) thirdCredential.response()).userHandle());
+        assertArrayEquals(publicKeyCredential.response().clientDataJson(), thirdCredential.response().clientDataJson());
     }
 
     @Test
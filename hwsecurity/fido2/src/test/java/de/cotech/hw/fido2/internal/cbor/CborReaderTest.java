@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.cbor;
+
+
+import java.io.IOException;
+
+import de.cotech.hw.util.Hex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CborReaderTest {
+    // {1: "packed", 2: h'00', 3: {"alg": -7, "sig": h'0102', "x5c": [h'03']}}
+    private static final byte[] MAKE_CREDENTIAL_RESPONSE = Hex.decodeHexOrFail(
+            "a301667061636b6564024100" + "03a363616c6726637369674201026378356381" + "4103");
+    private static final byte[] ATT_STMT = Hex.decodeHexOrFail("a363616c6726637369674201026378356381" + "4103");
+
+    @Test
+    public void readValues() throws Exception {
+        CborReader reader = new CborReader(MAKE_CREDENTIAL_RESPONSE);
+
+        assertEquals(3, reader.readMapHeader());
+        assertEquals(1, reader.readIntegerKey());
+        assertEquals("packed", reader.readTextString());
+        assertEquals(2, reader.readIntegerKey());
+        assertArrayEquals(new byte[] { 0 }, reader.readByteString());
+        assertEquals(3, reader.readIntegerKey());
+        assertArrayEquals(ATT_STMT, reader.readEncodedValue());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void readKnownTextString() throws Exception {
+        CborReader reader = new CborReader(ATT_STMT);
+        String[] knownKeys = { "sig", "alg" };
+
+        assertEquals(3, reader.readMapHeader());
+        assertEquals(1, reader.readKnownTextString(knownKeys));
+        assertEquals(-7, reader.readInteger());
+        assertEquals(0, reader.readKnownTextString(knownKeys));
+        reader.skipValue();
+        assertEquals(-1, reader.readKnownTextString(knownKeys));
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void readIntegerKey_skipsOtherKeyTypes() throws Exception {
+        // {"x": 1, 2: true}
+        CborReader reader = new CborReader(Hex.decodeHexOrFail("a261780102f5"));
+
+        assertEquals(2, reader.readMapHeader());
+        assertEquals(-1, reader.readIntegerKey());
+        reader.skipValue();
+        assertEquals(2, reader.readIntegerKey());
+        assertTrue(reader.readBoolean());
+    }
+
+    @Test
+    public void skipValue_floatAndTag() throws Exception {
+        CborReader reader = new CborReader(Hex.decodeHexOrFail("fb3ff199999999999ac11a5f5e1000"));
+
+        reader.skipValue();
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void readWithOffset() throws Exception {
+        CborReader reader = new CborReader(MAKE_CREDENTIAL_RESPONSE, 13, ATT_STMT.length);
+
+        reader.skipValue();
+        assertEquals(13 + ATT_STMT.length, reader.getPosition());
+    }
+
+    @Test(expected = IOException.class)
+    public void skipValue_truncated() throws Exception {
+        new CborReader(MAKE_CREDENTIAL_RESPONSE, 0, MAKE_CREDENTIAL_RESPONSE.length - 1).skipValue();
+    }
+
+    @Test(expected = IOException.class)
+    public void skipValue_indefiniteLength() throws Exception {
+        new CborReader(Hex.decodeHexOrFail("5f4100ff")).skipValue();
+    }
+
+    @Test(expected = IOException.class)
+    public void skipValue_nestedTooDeeply() throws Exception {
+        new CborReader(Hex.decodeHexOrFail("818181818181818181818181818181818181818100")).skipValue();
+    }
+
+    @Test(expected = IOException.class)
+    public void readByteString_wrongType() throws Exception {
+        new CborReader(ATT_STMT).readByteString();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.ctap2;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.cotech.hw.fido2.domain.AuthenticatorTransport;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialDescriptor;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialParameters;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialRpEntity;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialType;
+import de.cotech.hw.fido2.domain.PublicKeyCredentialUserEntity;
+import de.cotech.hw.fido2.internal.ctap2.commands.clientPin.AuthenticatorClientPin;
+import de.cotech.hw.fido2.internal.ctap2.commands.getAssertion.AuthenticatorGetAssertion;
+import de.cotech.hw.fido2.internal.ctap2.commands.getInfo.AuthenticatorGetInfo;
+import de.cotech.hw.fido2.internal.ctap2.commands.getInfo.AuthenticatorOptions;
+import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential;
+import de.cotech.hw.fido2.internal.ctap2.commands.makeCredential.AuthenticatorMakeCredential.AuthenticatorMakeCredentialOptions;
+import de.cotech.hw.util.Hex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Expected values were produced by the previous serializer, which built the cbor_java data item tree.
+ */
+public class Ctap2CborSerializerTest {
+    private static final byte[] CLIENT_DATA_HASH = Hex.decodeHexOrFail(
+            "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f");
+    private static final byte[] USER_ID = Hex.decodeHexOrFail("01020304");
+    private static final byte[] PIN_AUTH = Hex.decodeHexOrFail("55555555555555555555555555555555");
+    private static final byte[] PIN_HASH_ENC = Hex.decodeHexOrFail("77777777777777777777777777777777");
+    private static final byte[] PUBLIC_KEY_COSE_ES256 = Hex.decodeHexOrFail(
+            "a5010203262001215820a64c3f0601c440ce2061186419804fa5c2d505be6976822f8190602ffd125613225820da39ab5e4079338052a33bd4f05f2b9ce176b2df607e45a93405e77eabb2f1db");
+    private static final List<PublicKeyCredentialDescriptor> DESCRIPTORS = Arrays.asList(
+            PublicKeyCredentialDescriptor.create(PublicKeyCredentialType.PUBLIC_KEY, Hex.decodeHexOrFail("aabb"),
+                    Arrays.asList(AuthenticatorTransport.USB, AuthenticatorTransport.NFC)),
+            PublicKeyCredentialDescriptor.create(PublicKeyCredentialType.PUBLIC_KEY, Hex.decodeHexOrFail("cc"), null));
+
+    private static final byte[] MAKE_CREDENTIAL_CBOR = Hex.decodeHexOrFail(
+            "a8015820000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f02a26269646b6578616d706c652e636f6d" +
+            "646e616d65674578616d706c6503a462696444010203046469636f6e781968747470733a2f2f6578616d706c652e636f6d2f752e70" +
+            "6e67646e616d656c4ac3bc7267656e20f09f94916b646973706c61794e616d65674ac3bc7267656e0481a263616c67266474797065" +
+            "6a7075626c69632d6b65790582a362696442aabb64747970656a7075626c69632d6b65796a7472616e73706f7274738263757362" +
+            "636e6663a262696441cc64747970656a7075626c69632d6b657907a162726bf50850555555555555555555555555555555550901");
+    private static final byte[] MAKE_CREDENTIAL_MINIMAL_CBOR = Hex.decodeHexOrFail(
+            "a5015820000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f02a1646e616d65f603a262696444010203" +
+            "04646e616d65f60481a263616c672664747970656a7075626c69632d6b657907a0");
+    private static final byte[] GET_ASSERTION_CBOR = Hex.decodeHexOrFail(
+            "a5016b6578616d706c652e636f6d025820000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f0382a362" +
+            "696442aabb64747970656a7075626c69632d6b65796a7472616e73706f7274738263757362636e6663a262696441cc6474797065" +
+            "6a7075626c69632d6b65790650555555555555555555555555555555550701");
+    private static final byte[] GET_PIN_TOKEN_CBOR = Hex.decodeHexOrFail(
+            "a40101020503a5010203262001215820a64c3f0601c440ce2061186419804fa5c2d505be6976822f8190602ffd125613225820da39" +
+            "ab5e4079338052a33bd4f05f2b9ce176b2df607e45a93405e77eabb2f1db065077777777777777777777777777777777");
+
+    private final Ctap2CborSerializer serializer = new Ctap2CborSerializer();
+
+    @Test
+    public void toCborBytes_makeCredential() {
+        AuthenticatorMakeCredential command = AuthenticatorMakeCredential.create(CLIENT_DATA_HASH, "{}",
+                PublicKeyCredentialRpEntity.create("example.com", "Example", null),
+                PublicKeyCredentialUserEntity.create(USER_ID, "Jürgen 🔑", "Jürgen",
+                        "https://example.com/u.png"),
+                PublicKeyCredentialParameters.createDefaultEs256List(), DESCRIPTORS,
+                AuthenticatorMakeCredentialOptions.create(true, null), PIN_AUTH, 1);
+
+        assertArrayEquals(MAKE_CREDENTIAL_CBOR, serializer.toCborBytes(command));
+    }
+
+    @Test
+    public void toCborBytes_makeCredential_minimal() {
+        AuthenticatorMakeCredential command = AuthenticatorMakeCredential.create(CLIENT_DATA_HASH, "{}",
+                PublicKeyCredentialRpEntity.create(null, null, null),
+                PublicKeyCredentialUserEntity.create(USER_ID, null, null, null),
+                PublicKeyCredentialParameters.createDefaultEs256List(), null,
+                AuthenticatorMakeCredentialOptions.create(null, null), null, null);
+
+        assertArrayEquals(MAKE_CREDENTIAL_MINIMAL_CBOR, serializer.toCborBytes(command));
+    }
+
+    @Test
+    public void toCborBytes_getAssertion() {
+        AuthenticatorGetAssertion command = AuthenticatorGetAssertion.create("example.com", CLIENT_DATA_HASH, "{}",
+                DESCRIPTORS, AuthenticatorOptions.create(), PIN_AUTH, 1);
+
+        assertArrayEquals(GET_ASSERTION_CBOR, serializer.toCborBytes(command));
+    }
+
+    @Test
+    public void toCborBytes_getAssertion_emptyAllowList() {
+        AuthenticatorGetAssertion command = AuthenticatorGetAssertion.create("example.com", CLIENT_DATA_HASH, "{}",
+                Collections.emptyList(), AuthenticatorOptions.create());
+
+        byte[] expected = Hex.decodeHexOrFail("a2016b6578616d706c652e636f6d025820000102030405060708090a0b0c0d0e0f" +
+                "101112131415161718191a1b1c1d1e1f");
+        assertArrayEquals(expected, serializer.toCborBytes(command));
+    }
+
+    @Test
+    public void toCborBytes_clientPin_getPinToken() {
+        AuthenticatorClientPin command = AuthenticatorClientPin.createGetPinToken(PUBLIC_KEY_COSE_ES256, PIN_HASH_ENC);
+
+        assertArrayEquals(GET_PIN_TOKEN_CBOR, serializer.toCborBytes(command));
+    }
+
+    @Test
+    public void toCborBytes_getInfo_isEmpty() {
+        assertEquals(0, serializer.toCborBytes(AuthenticatorGetInfo.create()).length);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.fido2.internal.ctap2.commands.getInfo;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import de.cotech.hw.util.Hex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class AuthenticatorGetInfoResponseFactoryTest {
+    // FIDO 2.1 style response, including fields 0x07 to 0x0a and an options key that are unknown to the parser
+    private static final byte[] GET_INFO_RESPONSE = Hex.decodeHexOrFail(
+            "aa0183665532465f5632684649444f5f325f306c4649444f5f325f315f50524502826b6372656450726f746563746b686d61" +
+            "632d7365637265740350cb69481e8ff7403993ec0a2729a154a804a562726bf5627570f564706c6174f469636c69656e7450" +
+            "696ef47563726564656e7469616c4d676d7450726576696577f5051904b006810107080818800982636e6663637573620a82" +
+            "a263616c672664747970656a7075626c69632d6b6579a263616c672764747970656a7075626c69632d6b6579");
+
+    @Test
+    public void createResponse() throws Exception {
+        AuthenticatorGetInfoResponse response = new AuthenticatorGetInfoResponseFactory()
+                .createResponse(GET_INFO_RESPONSE);
+
+        assertEquals(Arrays.asList("U2F_V2", "FIDO_2_0", "FIDO_2_1_PRE"), response.versions());
+        assertEquals(Arrays.asList("credProtect", "hmac-secret"), response.extensions());
+        assertEquals(1200, response.maxMsgSize());
+        assertEquals(Collections.singletonList(1), response.pinProtocols());
+        assertTrue(response.options().rk());
+        assertTrue(response.options().up());
+        assertFalse(response.options().plat());
+        assertFalse(response.options().clientPin());
+    }
+}
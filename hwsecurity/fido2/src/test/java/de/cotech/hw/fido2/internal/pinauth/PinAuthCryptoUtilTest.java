@@ -2,9 +2,13 @@ package de.cotech.hw.fido2.internal.pinauth;
 
 
 import java.io.IOException;
+import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
 
 import de.cotech.hw.fido2.internal.cose.CoseIdentifiers.CoseAlg;
 import de.cotech.hw.fido2.internal.cose.CosePublicKeyUtils;
@@ -15,6 +19,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 
 @SuppressWarnings("WeakerAccess")
@@ -78,4 +84,33 @@ public class PinAuthCryptoUtilTest {
 
         assertArrayEquals(secret, SHARED);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void generatePlatformKeyPair_usesPregeneratedKeyPair() throws Exception {
+        List<Runnable> scheduledTasks = new ArrayList<>();
+        PinAuthCryptoUtil pinAuthCryptoUtil = new PinAuthCryptoUtil(scheduledTasks::add);
+
+        pinAuthCryptoUtil.prepareNextPlatformKeyPair();
+        pinAuthCryptoUtil.prepareNextPlatformKeyPair();
+        assertEquals(1, scheduledTasks.size());
+
+        FutureTask<?> pregeneratedKeyPair = (FutureTask<?>) scheduledTasks.get(0);
+        pregeneratedKeyPair.run();
+        KeyPair keyPair = pinAuthCryptoUtil.generatePlatformKeyPair();
+
+        assertSame(pregeneratedKeyPair.get(), keyPair);
+        // the next key pair is only generated in the background once requested
+        assertEquals(1, scheduledTasks.size());
+    }
+
+    @Test
+    public void generatePlatformKeyPair_withoutPregeneratedKeyPair_generatesInline() throws Exception {
+        List<Runnable> scheduledTasks = new ArrayList<>();
+        PinAuthCryptoUtil pinAuthCryptoUtil = new PinAuthCryptoUtil(scheduledTasks::add);
+
+        KeyPair keyPair = pinAuthCryptoUtil.generatePlatformKeyPair();
+
+        assertNotNull(keyPair);
+        assertEquals(0, scheduledTasks.size());
+    }
+}
@@ -14,10 +14,17 @@ import de.cotech.hw.util.Hex;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -44,6 +51,7 @@ public class PinProtocolV1Test {
     static final byte[] PIN_TOKEN = new byte[1];
 
     private FakeFido2AppletConnection fakeFidoConnection;
+    private PinAuthCryptoUtil pinAuthCryptoUtil;
 
     @Before
     public void setup() throws Exception {
@@ -119,9 +127,107 @@ public class PinProtocolV1Test {
 
     }
 
+    @Test
+    public void pinAuth_reusesKeyAgreement() throws Exception {
+        PinProtocolV1 pinProtocolV1 = setupPinProtocol();
+
+        fakeFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE);
+        pinProtocolV1.clientPinAuthenticate(fakeFidoConnection.connection, "1234", false);
+        fakeFidoConnection.verify();
+
+        FakeFido2AppletConnection nextFidoConnection = FakeFido2AppletConnection.create(false);
+        nextFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        nextFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        nextFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE);
+        PinToken pinToken = pinProtocolV1.clientPinAuthenticate(nextFidoConnection.connection, "1234", false);
+
+        assertSame(PIN_TOKEN, pinToken.pinToken());
+        nextFidoConnection.verify();
+        verify(pinAuthCryptoUtil, times(1)).generatePlatformKeyPair();
+        verify(pinAuthCryptoUtil, times(1)).generateSharedSecret(any(), any());
+    }
+
+    @Test
+    public void pinAuth_invalid_dropsKeyAgreement() throws Exception {
+        PinProtocolV1 pinProtocolV1 = setupPinProtocol();
+
+        fakeFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE_INVALID);
+        try {
+            pinProtocolV1.clientPinAuthenticate(fakeFidoConnection.connection, "1234", false);
+        } catch (FidoClientPinInvalidException e) {
+            // expected
+        }
+
+        // the authenticator regenerates its key agreement key after a PIN mismatch
+        fakeFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE);
+        pinProtocolV1.clientPinAuthenticate(fakeFidoConnection.connection, "1234", false);
+
+        fakeFidoConnection.verify();
+        verify(pinAuthCryptoUtil, times(2)).generateSharedSecret(any(), any());
+    }
+
+    @Test
+    public void pinAuth_withPinTokenCache() throws Exception {
+        PinProtocolV1 pinProtocolV1 = setupPinProtocol(createPinTokenCache());
+
+        fakeFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        assertNull(pinProtocolV1.getPinTokenFromCache(fakeFidoConnection.connection));
+
+        // the key agreement key from the lookup above is not requested again
+        fakeFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE);
+        PinToken pinToken = pinProtocolV1.clientPinAuthenticate(fakeFidoConnection.connection, "1234", false);
+        assertFalse(pinToken.isFromPinTokenCache());
+        fakeFidoConnection.verify();
+
+        FakeFido2AppletConnection nextFidoConnection = FakeFido2AppletConnection.create(false);
+        nextFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        PinToken cachedPinToken = pinProtocolV1.getPinTokenFromCache(nextFidoConnection.connection);
+
+        assertArrayEquals(PIN_TOKEN, cachedPinToken.pinToken());
+        assertTrue(cachedPinToken.isFromPinTokenCache());
+        nextFidoConnection.verify();
+    }
+
+    @Test
+    public void pinAuth_withPinTokenCache_invalidate() throws Exception {
+        PinProtocolV1 pinProtocolV1 = setupPinProtocol(createPinTokenCache());
+
+        fakeFidoConnection.expect(CLIENT_PIN_GET_RETRIES, CLIENT_PIN_GET_RETRIES_RESPONSE_EIGHT);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_AGREEMENT, CLIENT_PIN_GET_RESPONSE);
+        fakeFidoConnection.expect(CLIENT_PIN_GET_TOKEN, CLIENT_PIN_GET_TOKEN_RESPONSE);
+        PinToken pinToken = pinProtocolV1.clientPinAuthenticate(fakeFidoConnection.connection, "1234", false);
+        fakeFidoConnection.connection.setCachedPinToken(pinToken);
+
+        pinProtocolV1.invalidatePinToken(fakeFidoConnection.connection);
+
+        assertNull(fakeFidoConnection.connection.getCachedPinToken());
+        assertNull(pinProtocolV1.getPinTokenFromCache(fakeFidoConnection.connection));
+        fakeFidoConnection.verify();
+    }
+
+    private PinTokenCache createPinTokenCache() {
+        return new PinTokenCache(60 * 1000) {
+            @Override
+            long elapsedRealtime() {
+                return 0;
+            }
+        };
+    }
+
     private PinProtocolV1 setupPinProtocol() throws IOException {
-        PinAuthCryptoUtil pinAuthCryptoUtil = mock(PinAuthCryptoUtil.class);
-        PinProtocolV1 pinProtocolV1 = new PinProtocolV1(pinAuthCryptoUtil);
+        return setupPinProtocol(null);
+    }
+
+    private PinProtocolV1 setupPinProtocol(PinTokenCache pinTokenCache) throws IOException {
+        pinAuthCryptoUtil = mock(PinAuthCryptoUtil.class);
+        PinProtocolV1 pinProtocolV1 = new PinProtocolV1(pinAuthCryptoUtil, pinTokenCache);
 
         // These values are opaque to PinProtocolV1. we just generate empty mock objects for them
         PublicKey publicKey = mock(PublicKey.class);
@@ -0,0 +1,68 @@
+package de.cotech.hw.fido2.internal.pinauth;
+
+
+import de.cotech.hw.util.Hex;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class PinTokenCacheTest {
+    static final String AAGUID = "6d44ba9b-f6ec-2e49-b930-0c8fe920cb73";
+    static final byte[] KEY_AGREEMENT = Hex.decodeHexOrFail("a5010203381820012158200102");
+    static final byte[] OTHER_KEY_AGREEMENT = Hex.decodeHexOrFail("a5010203381820012158200304");
+    static final byte[] PIN_TOKEN = Hex.decodeHexOrFail("00112233445566778899aabbccddeeff");
+    static final long TTL_MILLIS = 60 * 1000;
+
+    private long now;
+    private PinTokenCache pinTokenCache;
+
+    @Before
+    public void setup() {
+        now = 1000;
+        pinTokenCache = new PinTokenCache(TTL_MILLIS) {
+            @Override
+            long elapsedRealtime() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void get() {
+        pinTokenCache.put(AAGUID, KEY_AGREEMENT, PinToken.create(PIN_TOKEN));
+
+        PinToken pinToken = pinTokenCache.get(AAGUID, KEY_AGREEMENT);
+
+        assertArrayEquals(PIN_TOKEN, pinToken.pinToken());
+        assertTrue(pinToken.isFromPinTokenCache());
+    }
+
+    @Test
+    public void get_otherKeyAgreement() {
+        pinTokenCache.put(AAGUID, KEY_AGREEMENT, PinToken.create(PIN_TOKEN));
+
+        assertNull(pinTokenCache.get(AAGUID, OTHER_KEY_AGREEMENT));
+    }
+
+    @Test
+    public void get_expired() {
+        pinTokenCache.put(AAGUID, KEY_AGREEMENT, PinToken.create(PIN_TOKEN));
+        now += TTL_MILLIS;
+
+        assertNull(pinTokenCache.get(AAGUID, KEY_AGREEMENT));
+    }
+
+    @Test
+    public void invalidate() {
+        pinTokenCache.put(AAGUID, KEY_AGREEMENT, PinToken.create(PIN_TOKEN));
+
+        assertTrue(pinTokenCache.invalidate(AAGUID, KEY_AGREEMENT));
+        assertFalse(pinTokenCache.invalidate(AAGUID, KEY_AGREEMENT));
+        assertNull(pinTokenCache.get(AAGUID, KEY_AGREEMENT));
+    }
+}
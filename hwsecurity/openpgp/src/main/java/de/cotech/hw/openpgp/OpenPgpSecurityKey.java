@@ -40,6 +40,7 @@ import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import de.cotech.hw.SecurityKey;
 import de.cotech.hw.SecurityKeyAuthenticator;
@@ -61,7 +62,7 @@ import de.cotech.hw.openpgp.internal.operations.ChangeKeyRsaOp;
 import de.cotech.hw.openpgp.internal.operations.ModifyPinOp;
 import de.cotech.hw.openpgp.internal.operations.ResetAndWipeOp;
 import de.cotech.hw.openpgp.pairedkey.PairedSecurityKey;
-import de.cotech.hw.openpgp.util.RsaEncryptionUtil;
+import de.cotech.hw.openpgp.util.RsaKeyPairPool;
 import de.cotech.hw.provider.CotechSecurityKeyProvider;
 import de.cotech.hw.provider.SecurityKeyPrivateKey.SecurityKeyEcdsaPrivateKey;
 import de.cotech.hw.provider.SecurityKeyPrivateKey.SecurityKeyRsaPrivateKey;
@@ -213,6 +214,14 @@ public class OpenPgpSecurityKey extends SecurityKey {
 
     @WorkerThread
     public PairedSecurityKey setupPairedKey(ByteSecret newPin, ByteSecret newPuk, AlgorithmConfig algorithmConfig) throws IOException {
+        RsaKeyPairPool rsaKeyPairPool = RsaKeyPairPool.getInstance();
+        // start generating any missing key pairs in the background, while the security key is being wiped
+        if (algorithmConfig == AlgorithmConfig.RSA_2048_UPLOAD) {
+            rsaKeyPairPool.prefill(3);
+        } else if (algorithmConfig == AlgorithmConfig.RSA_2048_ONLY_ENCRYPTION_UPLOAD) {
+            rsaKeyPairPool.prefill(1);
+        }
+
         boolean isInFactoryDefaultState = isInFactoryDefaultState();
         if (!isInFactoryDefaultState) {
             wipeAndVerify();
@@ -223,10 +232,10 @@ public class OpenPgpSecurityKey extends SecurityKey {
 
         switch (algorithmConfig) {
             case RSA_2048_UPLOAD: {
-                RsaEncryptionUtil rsaEncryptUtil = new RsaEncryptionUtil();
-                KeyPair encryptKeyPair = rsaEncryptUtil.generateRsa2048KeyPair();
-                KeyPair signKeyPair = rsaEncryptUtil.generateRsa2048KeyPair();
-                KeyPair authKeyPair = rsaEncryptUtil.generateRsa2048KeyPair();
+                List<KeyPair> keyPairs = rsaKeyPairPool.takeKeyPairs(3);
+                KeyPair encryptKeyPair = keyPairs.get(0);
+                KeyPair signKeyPair = keyPairs.get(1);
+                KeyPair authKeyPair = keyPairs.get(2);
                 byte[] encryptFingerprint = changeKeyRsaOp.changeKey(KeyType.ENCRYPT, encryptKeyPair, creationTime);
                 byte[] signFingerprint = changeKeyRsaOp.changeKey(KeyType.SIGN, signKeyPair, creationTime);
                 byte[] authFingerprint = changeKeyRsaOp.changeKey(KeyType.AUTH, authKeyPair, creationTime);
@@ -241,8 +250,7 @@ public class OpenPgpSecurityKey extends SecurityKey {
                 );
             }
             case RSA_2048_ONLY_ENCRYPTION_UPLOAD: {
-                RsaEncryptionUtil rsaEncryptUtil = new RsaEncryptionUtil();
-                KeyPair encryptKeyPair = rsaEncryptUtil.generateRsa2048KeyPair();
+                KeyPair encryptKeyPair = rsaKeyPairPool.takeKeyPairs(1).get(0);
                 byte[] encryptFingerprint = changeKeyRsaOp.changeKey(KeyType.ENCRYPT, encryptKeyPair, creationTime);
 
                 updatePinAndPukUsingDefaultPuk(newPin, newPuk);
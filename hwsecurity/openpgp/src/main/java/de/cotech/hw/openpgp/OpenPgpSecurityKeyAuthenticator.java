@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.util.List;
 
 
 public class OpenPgpSecurityKeyAuthenticator implements SecurityKeyAuthenticator {
@@ -60,6 +61,14 @@ public class OpenPgpSecurityKeyAuthenticator implements SecurityKeyAuthenticator
         return psoAuthenticateOp.calculateAuthenticationSignature(pairedPin, digest, hashAlgo);
     }
 
+    @Override
+    @WorkerThread
+    public List<byte[]> authenticatePresignedDigests(List<byte[]> digests, String hashAlgo) throws IOException {
+        ByteSecret pairedPin = pinProvider.getPin(openPgpSecurityKey.getOpenPgpInstanceAid());
+        InternalAuthenticateOp psoAuthenticateOp = InternalAuthenticateOp.create(openPgpSecurityKey.openPgpAppletConnection);
+        return psoAuthenticateOp.calculateAuthenticationSignatures(pairedPin, digests, hashAlgo);
+    }
+
     public byte[] authenticateWithDigest(byte[] challenge, String hashAlgo) throws IOException, NoSuchAlgorithmException {
         byte[] digest;
         KeyFormat keyFormat = openPgpSecurityKey.openPgpAppletConnection.getOpenPgpCapabilities().getAuthKeyFormat();
@@ -30,8 +30,10 @@ import de.cotech.hw.SecurityKey;
 import de.cotech.hw.SecurityKeyConnectionMode;
 import de.cotech.hw.SecurityKeyManagerConfig;
 import de.cotech.hw.internal.transport.SecurityKeyInfo;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
+import de.cotech.hw.openpgp.internal.OpenPgpDataObjectCache;
 import de.cotech.hw.util.HwTimber;
 
 import java.io.IOException;
@@ -60,6 +62,8 @@ public class OpenPgpSecurityKeyConnectionMode extends SecurityKeyConnectionMode<
     }
 
     private final OpenPgpSecurityKeyConnectionModeConfig config;
+    private final OpenPgpDataObjectCache dataObjectCache = new OpenPgpDataObjectCache();
+    private final SelectedAidCache selectedAidCache = new SelectedAidCache();
 
     @Override
     @WorkerThread
@@ -71,7 +75,7 @@ public class OpenPgpSecurityKeyConnectionMode extends SecurityKeyConnectionMode<
         }
 
         OpenPgpAppletConnection openPgpAppletConnection = OpenPgpAppletConnection.getInstanceForTransport(
-                transport, config.getOpenPgpAidPrefixes());
+                transport, config.getOpenPgpAidPrefixes(), dataObjectCache, selectedAidCache);
         openPgpAppletConnection.connectIfNecessary();
 
         return new OpenPgpSecurityKey(securityKeyManagerConfig, transport, openPgpAppletConnection);
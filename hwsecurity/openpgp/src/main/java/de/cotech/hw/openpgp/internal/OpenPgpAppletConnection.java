@@ -54,6 +54,7 @@ import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.internal.transport.SecurityKeyInfo;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.SecurityKeyType;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
+import de.cotech.hw.internal.transport.SelectedAidCache;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.openpgp.CardCapabilities;
 import de.cotech.hw.openpgp.OpenPgpCapabilities;
@@ -93,11 +94,14 @@ public class OpenPgpAppletConnection {
     @Nullable
     private final KeyStore smKeyStore;
     private final OpenPgpCommandApduFactory commandFactory;
+    @NonNull
+    private final OpenPgpDataObjectCache dataObjectCache;
+    @NonNull
+    private final SelectedAidCache selectedAidCache;
 
     private SecurityKeyType securityKeyType;
     private CardCapabilities cardCapabilities;
     private OpenPgpCapabilities openPgpCapabilities;
-    private KdfParameters kdfParameters;
 
     private SecureMessaging secureMessaging;
 
@@ -110,24 +114,31 @@ public class OpenPgpAppletConnection {
 
     public static OpenPgpAppletConnection getInstanceForTransport(
             @NonNull Transport transport,
-            @NonNull List<byte[]> aidPrefixes) {
-        return new OpenPgpAppletConnection(transport, aidPrefixes, null, new OpenPgpCommandApduFactory());
+            @NonNull List<byte[]> aidPrefixes,
+            @NonNull OpenPgpDataObjectCache dataObjectCache,
+            @NonNull SelectedAidCache selectedAidCache) {
+        return new OpenPgpAppletConnection(transport, aidPrefixes, null, new OpenPgpCommandApduFactory(),
+                dataObjectCache, selectedAidCache);
     }
 
 
     private OpenPgpAppletConnection(@NonNull Transport transport, @NonNull List<byte[]> aidPrefixes,
-                                    @Nullable KeyStore smKeyStore, OpenPgpCommandApduFactory commandFactory) {
+                                    @Nullable KeyStore smKeyStore, OpenPgpCommandApduFactory commandFactory,
+                                    @NonNull OpenPgpDataObjectCache dataObjectCache,
+                                    @NonNull SelectedAidCache selectedAidCache) {
         this.transport = transport;
         this.aidPrefixes = aidPrefixes;
         this.smKeyStore = smKeyStore;
         this.commandFactory = commandFactory;
+        this.dataObjectCache = dataObjectCache;
+        this.selectedAidCache = selectedAidCache;
     }
 
     // region connection management
 
     public void connectIfNecessary() throws IOException {
         if (isOpenPgpAppletConnected) {
-            refreshConnectionCapabilities();
+            refreshConnectionCapabilitiesIfInvalidated();
             return;
         }
 
@@ -144,18 +155,23 @@ public class OpenPgpAppletConnection {
 
             determineSecurityKeyType();
 
-            byte[] selectedAid = selectFilesFromPrefixOrFail();
+            List<byte[]> aidsInSelectOrder = selectedAidCache.getAidsInSelectOrder(transport, aidPrefixes);
+            byte[] selectedAid = selectFirstAidAndRefreshCapabilities(aidsInSelectOrder);
+            if (selectedAid == null) {
+                selectedAid = selectFilesFromPrefixOrFail(aidsInSelectOrder);
 
-            try {
-                refreshConnectionCapabilities();
-            } catch (ConditionsNotSatisfiedException e) {
-                HwTimber.d("Got conditions of use not satisfied while establishing connection");
-                attemptReactivate(selectedAid);
+                try {
+                    refreshConnectionCapabilities();
+                } catch (ConditionsNotSatisfiedException e) {
+                    HwTimber.d("Got conditions of use not satisfied while establishing connection");
+                    attemptReactivate(selectedAid);
 
-                HwTimber.d("Retrying failed connection");
-                selectFilesFromPrefixOrFail();
-                refreshConnectionCapabilities();
+                    HwTimber.d("Retrying failed connection");
+                    selectFilesFromPrefixOrFail(aidsInSelectOrder);
+                    refreshConnectionCapabilities();
+                }
             }
+            selectedAidCache.put(transport, selectedAid);
 
             logAidInformation();
 
@@ -175,8 +191,42 @@ public class OpenPgpAppletConnection {
         isPw3Validated = false;
     }
 
-    private byte[] selectFilesFromPrefixOrFail() throws IOException {
-        for (byte[] fileAid : aidPrefixes) {
+    /**
+     * Sends SELECT for the first AID and GET DATA for the application related data as a
+     * single batch, which is all it takes to connect to most security keys. Returns null if that
+     * didn't work out, e.g. because the applet has another AID or must be reactivated, in which
+     * case the step by step connection sequence takes over.
+     */
+    @Nullable
+    private byte[] selectFirstAidAndRefreshCapabilities(List<byte[]> aidsInSelectOrder) throws IOException {
+        if (aidsInSelectOrder.isEmpty()) {
+            return null;
+        }
+        byte[] fileAid = aidsInSelectOrder.get(0);
+        CommandApdu select = commandFactory.createSelectFileCommand(fileAid);
+        CommandApdu getDataApplicationRelatedData = commandFactory.createGetDataApplicationRelatedData();
+        // capabilities are unknown before the first GET DATA, so stick to short APDUs like communicate() does
+        if (!commandFactory.isSuitableForShortApdu(select) ||
+                !commandFactory.isSuitableForShortApdu(getDataApplicationRelatedData)) {
+            return null;
+        }
+
+        List<ResponseApdu> responses = transport.transceiveBatch(Arrays.asList(
+                commandFactory.createShortApdu(select), commandFactory.createShortApdu(getDataApplicationRelatedData)));
+        if (responses.size() != 2 || !responses.get(0).isSuccess()) {
+            return null;
+        }
+        ResponseApdu getDataResponse = readChainedResponseIfAvailable(responses.get(1));
+        if (!getDataResponse.isSuccess()) {
+            return null;
+        }
+
+        updateConnectionCapabilities(getDataResponse.getData());
+        return fileAid;
+    }
+
+    private byte[] selectFilesFromPrefixOrFail(List<byte[]> aidsInSelectOrder) throws IOException {
+        for (byte[] fileAid : aidsInSelectOrder) {
             byte[] initializedAid = selectFileOrReactivateOrFail(fileAid);
             if (initializedAid != null) {
                 return initializedAid;
@@ -230,9 +280,34 @@ public class OpenPgpAppletConnection {
     public void refreshConnectionCapabilities() throws IOException {
         CommandApdu getDataApplicationRelatedData = commandFactory.createGetDataApplicationRelatedData();
         byte[] rawOpenPgpCapabilities = readData(getDataApplicationRelatedData);
+        updateConnectionCapabilities(rawOpenPgpCapabilities);
+    }
 
-        OpenPgpCapabilities openPgpCapabilities = OpenPgpCapabilities.fromBytes(rawOpenPgpCapabilities);
-        setConnectionCapabilities(openPgpCapabilities);
+    /**
+     * Like {@link #refreshConnectionCapabilities()}, but only reads the Application Related Data again if the
+     * cached copy was invalidated, e.g. by a write to the card or a wrong PIN.
+     */
+    public void refreshConnectionCapabilitiesIfInvalidated() throws IOException {
+        OpenPgpCapabilities cachedCapabilities = dataObjectCache.getApplicationRelatedData(openPgpCapabilities.getAid());
+        if (cachedCapabilities != null) {
+            setConnectionCapabilities(cachedCapabilities);
+            return;
+        }
+        refreshConnectionCapabilities();
+    }
+
+    /**
+     * Drops all data objects cached for this card, e.g. after it was reset.
+     */
+    public void invalidateCachedDataObjects() {
+        dataObjectCache.invalidate(openPgpCapabilities.getAid());
+    }
+
+    /**
+     * Marks the cached Application Related Data as outdated, e.g. after a retry counter was reset.
+     */
+    public void invalidateCachedApplicationRelatedData() {
+        dataObjectCache.invalidateApplicationRelatedData(openPgpCapabilities.getAid());
     }
 
     private void logAidInformation() {
@@ -242,6 +317,12 @@ public class OpenPgpAppletConnection {
         }
     }
 
+    private void updateConnectionCapabilities(byte[] rawOpenPgpCapabilities) throws IOException {
+        OpenPgpCapabilities openPgpCapabilities = OpenPgpCapabilities.fromBytes(rawOpenPgpCapabilities);
+        dataObjectCache.putApplicationRelatedData(rawOpenPgpCapabilities, openPgpCapabilities);
+        setConnectionCapabilities(openPgpCapabilities);
+    }
+
     private void setConnectionCapabilities(OpenPgpCapabilities openPgpCapabilities) throws IOException {
         this.openPgpCapabilities = openPgpCapabilities;
         this.cardCapabilities = new CardCapabilities(openPgpCapabilities.getHistoricalBytes());
@@ -283,11 +364,22 @@ public class OpenPgpAppletConnection {
             return response;
         }
 
+        if (isWrongPinWithRetriesLeft(response.getSw()) && isPinCommand(commandApdu)) {
+            // the status word tells the remaining retries, no need to read the PW status bytes again
+            dataObjectCache.onWrongPin(openPgpCapabilities.getAid());
+            int retriesLeft = response.getSw2() & 0x0F;
+            if (isPw3Command(commandApdu)) {
+                throw new OpenPgpWrongPinException(openPgpCapabilities.getPw1TriesLeft(), retriesLeft);
+            }
+            throw new OpenPgpWrongPinException(retriesLeft, openPgpCapabilities.getPw3TriesLeft());
+        }
+
         switch (response.getSw()) {
             case OpenPgpWrongPinException.SW_WRONG_PIN:
             case OpenPgpWrongPinException.SW_WRONG_PIN_YKNEO_1:
             case OpenPgpWrongPinException.SW_WRONG_PIN_YKNEO_2:
                 // get current number of retries (capabilities must be refreshed for USB!)
+                dataObjectCache.onWrongPin(openPgpCapabilities.getAid());
                 refreshConnectionCapabilities();
                 int pinRetriesLeft = getOpenPgpCapabilities().getPw1TriesLeft();
                 int pukRetriesLeft = getOpenPgpCapabilities().getPw3TriesLeft();
@@ -313,9 +405,29 @@ public class OpenPgpAppletConnection {
         }
     }
 
+    /**
+     * 63Cx, where x is the number of retries left. Older YubiKey NEOs return this instead of 6982, see
+     * {@link OpenPgpWrongPinException#SW_WRONG_PIN_YKNEO_1}. 63C0 means the PIN is blocked.
+     */
+    private static boolean isWrongPinWithRetriesLeft(int sw) {
+        return (sw & 0xFFF0) == 0x63C0 && sw != OpenPgpLockedException.SW_OPENPGP_LOCKED_YKNEO;
+    }
+
+    private static boolean isPinCommand(CommandApdu commandApdu) {
+        return commandApdu.getINS() == OpenPgpCommandApduFactory.INS_VERIFY ||
+                commandApdu.getINS() == OpenPgpCommandApduFactory.INS_CHANGE_REFERENCE_DATA;
+    }
+
+    private static boolean isPw3Command(CommandApdu commandApdu) {
+        return commandApdu.getINS() == OpenPgpCommandApduFactory.INS_VERIFY ?
+                commandApdu.getP2() == OpenPgpCommandApduFactory.P2_VERIFY_PW3 :
+                commandApdu.getP2() == OpenPgpCommandApduFactory.P2_CHANGE_REFERENCE_DATA_PW3;
+    }
+
     @NonNull
     private ResponseApdu transceiveWithChaining(CommandApdu commandApdu) throws IOException {
-        if (cardCapabilities.hasExtended()) {
+        // short APDU level readers can't pass on extended APDUs, even if the card supports them
+        if (cardCapabilities.hasExtended() && transport.isExtendedLengthSupported()) {
             return transport.transceive(commandApdu);
         } else if (commandFactory.isSuitableForShortApdu(commandApdu)) {
             CommandApdu shortApdu = commandFactory.createShortApdu(commandApdu);
@@ -340,6 +452,9 @@ public class OpenPgpAppletConnection {
             }
 
             return lastResponse;
+        } else if (cardCapabilities.hasExtended()) {
+            // some NFC stacks report no extended length support, but send extended APDUs just fine
+            return transport.transceive(commandApdu);
         } else {
             throw new IOException("Command too long, and chaining unavailable");
         }
@@ -440,15 +555,9 @@ public class OpenPgpAppletConnection {
     }
 
     private KdfParameters retrieveKdfDo() throws IOException {
-        if (kdfParameters != null) {
-            return kdfParameters;
-        }
-
-        // query hardware for KDF-DO
+        // query hardware for KDF-DO, unless cached
         // see page 18 of [0]
-        CommandApdu getKdfDoCommand = commandFactory.createGetDataKdf();
-        ResponseApdu kdfDoResponse = communicateOrThrow(getKdfDoCommand);
-        byte[] kdfDo = kdfDoResponse.getData();
+        byte[] kdfDo = readDataObjectCached(OpenPgpCommandApduFactory.DO_GET_DATA_KDF);
 
         // empty KDF-DO means plain UTF-8 password is being used
         // see page 19 of [0]
@@ -456,9 +565,7 @@ public class OpenPgpAppletConnection {
             return null;
         }
 
-        kdfParameters = KdfParameters.fromKdfDo(kdfDo);
-
-        return kdfParameters;
+        return KdfParameters.fromKdfDo(kdfDo);
     }
 
     public void verifyPinForSignature(ByteSecret pinSecret) throws IOException {
@@ -476,6 +583,7 @@ public class OpenPgpAppletConnection {
         Arrays.fill(transformedPin, (byte) 0);
 
         ResponseApdu response = communicateOrThrow(verifyPw1ForSignatureCommand);
+        dataObjectCache.onPinVerified(openPgpCapabilities.getAid());
 
         isPw1ValidatedForSignature = true;
     }
@@ -495,6 +603,7 @@ public class OpenPgpAppletConnection {
         Arrays.fill(transformedPin, (byte) 0);
 
         communicateOrThrow(verifyPw1ForOtherCommand);
+        dataObjectCache.onPinVerified(openPgpCapabilities.getAid());
 
         isPw1ValidatedForOther = true;
     }
@@ -514,6 +623,7 @@ public class OpenPgpAppletConnection {
         Arrays.fill(transformedPuk, (byte) 0);
 
         communicateOrThrow(verifyPw3Command);
+        dataObjectCache.onPinVerified(openPgpCapabilities.getAid());
 
         isPw3Validated = true;
     }
@@ -535,18 +645,32 @@ public class OpenPgpAppletConnection {
         return response.getData();
     }
 
+    private byte[] readDataObjectCached(int dataObject) throws IOException {
+        if (!OpenPgpDataObjectCache.isCacheable(dataObject)) {
+            return readData(commandFactory.createGetDataCommand(dataObject));
+        }
+        byte[] aid = openPgpCapabilities.getAid();
+        byte[] data = dataObjectCache.getDataObject(aid, dataObject);
+        if (data == null) {
+            data = readData(commandFactory.createGetDataCommand(dataObject));
+            dataObjectCache.putDataObject(aid, dataObject, data);
+        }
+        return data;
+    }
+
     private String readUrl() throws IOException {
-        CommandApdu getDataUrlCommand = commandFactory.createGetDataUrlCommand();
-        byte[] data = readData(getDataUrlCommand);
+        byte[] data = readDataObjectCached(OpenPgpCommandApduFactory.DO_GET_DATA_URL);
         return new String(data).trim();
     }
 
     private byte[] readUserId() throws IOException {
-        CommandApdu getDataUserIdCommand = commandFactory.createGetDataUserIdCommand();
-        return readData(getDataUserIdCommand);
+        return readDataObjectCached(OpenPgpCommandApduFactory.DO_GET_DATA_CARDHOLDER_RELATED_DATA);
     }
 
     public SecurityKeyInfo readSecurityKeyInfo() throws IOException {
+        // retry counters may be outdated after a wrong PIN
+        refreshConnectionCapabilitiesIfInvalidated();
+
         byte[][] fingerprints = new byte[3][];
         fingerprints[0] = openPgpCapabilities.getFingerprintSign();
         fingerprints[1] = openPgpCapabilities.getFingerprintEncrypt();
@@ -597,14 +721,17 @@ public class OpenPgpAppletConnection {
     }
 
     public byte[] getData(int dataObject) throws IOException {
-        CommandApdu commandApdu = commandFactory.createGetDataCommand(dataObject);
-        ResponseApdu responseApdu = communicateOrThrow(commandApdu);
-        return responseApdu.getData();
+        return readDataObjectCached(dataObject).clone();
     }
 
     public void putData(int dataObject, byte[] data) throws IOException {
         CommandApdu commandApdu = commandFactory.createPutDataCommand(dataObject, data);
-        communicateOrThrow(commandApdu);
+        try {
+            communicateOrThrow(commandApdu);
+        } finally {
+            // also invalidated if the write failed, the card's state is unknown in that case
+            dataObjectCache.invalidateDataObject(openPgpCapabilities.getAid(), dataObject);
+        }
     }
 
     public void setKeyMetadata(KeyType keyType, Date timestamp, byte[] fingerprint) throws IOException {
@@ -62,11 +62,11 @@ public class OpenPgpCommandApduFactory {
     static final int INS_VERIFY = 0x20;
     private static final int P2_VERIFY_PW1_SIGN = 0x81;
     private static final int P2_VERIFY_PW1_OTHER = 0x82;
-    private static final int P2_VERIFY_PW3 = 0x83;
+    static final int P2_VERIFY_PW3 = 0x83;
 
     static final int INS_CHANGE_REFERENCE_DATA = 0x24;
     private static final int P2_CHANGE_REFERENCE_DATA_PW1 = 0x81;
-    private static final int P2_CHANGE_REFERENCE_DATA_PW3 = 0x83;
+    static final int P2_CHANGE_REFERENCE_DATA_PW3 = 0x83;
 
     static final int INS_RESET_RETRY_COUNTER = 0x2C;
     private static final int P1_RESET_RETRY_COUNTER_NEW_PW = 0x02;
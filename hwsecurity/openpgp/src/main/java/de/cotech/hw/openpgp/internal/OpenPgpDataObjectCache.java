@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.internal;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+import de.cotech.hw.openpgp.OpenPgpCapabilities;
+import de.cotech.hw.util.Hex;
+
+
+/**
+ * Caches data objects read from OpenPGP cards, keyed by the card's AID, which includes its serial number.
+ * <p>
+ * The Application Related Data (DO 6E) is read once per connection, and then kept until a write to the card
+ * makes it outdated. A few other static data objects, namely the URL, cardholder related data, KDF-DO and
+ * cardholder certificate, are also kept across connections, as long as the Application Related Data read on
+ * connect is unchanged. Any other data object is never cached: some change without a write from our side,
+ * e.g. the signature counter (DO 7A) or PW status bytes (DO C4), and the private use DOs 0103 and 0104 may
+ * only be read after PIN verification.
+ * <p>
+ * Invalidation rules:
+ * <ul>
+ * <li>PUT DATA invalidates the written data object and the Application Related Data, which embeds most
+ * writable data objects, e.g. fingerprints, timestamps and algorithm attributes.</li>
+ * <li>A wrong PIN invalidates the Application Related Data, because its PW status bytes contain the retry
+ * counters. The next successful verification invalidates it again, since it resets the counter.</li>
+ * <li>Resetting the card invalidates everything cached for it.</li>
+ * </ul>
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class OpenPgpDataObjectCache {
+    private static final Set<Integer> CACHEABLE_DATA_OBJECTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            OpenPgpCommandApduFactory.DO_GET_DATA_APPLICATION_RELATED_DATA,
+            OpenPgpCommandApduFactory.DO_GET_DATA_CARDHOLDER_RELATED_DATA,
+            OpenPgpCommandApduFactory.DO_GET_DATA_URL,
+            OpenPgpCommandApduFactory.DO_GET_DATA_KDF,
+            OpenPgpCommandApduFactory.DO_GET_DATA_CARD_HOLDER_CERT
+    )));
+
+    private final HashMap<String, CardEntry> cards = new HashMap<>();
+
+    @AnyThread
+    @Nullable
+    synchronized OpenPgpCapabilities getApplicationRelatedData(byte[] aid) {
+        CardEntry cardEntry = cards.get(Hex.encodeHexString(aid));
+        return cardEntry != null ? cardEntry.capabilities : null;
+    }
+
+    @AnyThread
+    synchronized void putApplicationRelatedData(byte[] rawApplicationRelatedData, OpenPgpCapabilities capabilities) {
+        CardEntry cardEntry = getOrCreateCardEntry(capabilities.getAid());
+        if (cardEntry.rawApplicationRelatedData != null &&
+                !Arrays.equals(cardEntry.rawApplicationRelatedData, rawApplicationRelatedData)) {
+            // the card was changed since we last saw it, so don't trust anything else from before either
+            cardEntry.dataObjects.clear();
+        }
+        cardEntry.rawApplicationRelatedData = rawApplicationRelatedData;
+        cardEntry.capabilities = capabilities;
+    }
+
+    static boolean isCacheable(int dataObject) {
+        return CACHEABLE_DATA_OBJECTS.contains(dataObject);
+    }
+
+    @AnyThread
+    @Nullable
+    synchronized byte[] getDataObject(byte[] aid, int dataObject) {
+        if (!isCacheable(dataObject)) {
+            return null;
+        }
+        CardEntry cardEntry = cards.get(Hex.encodeHexString(aid));
+        return cardEntry != null ? cardEntry.dataObjects.get(dataObject) : null;
+    }
+
+    @AnyThread
+    synchronized void putDataObject(byte[] aid, int dataObject, byte[] data) {
+        if (!isCacheable(dataObject)) {
+            return;
+        }
+        getOrCreateCardEntry(aid).dataObjects.put(dataObject, data);
+    }
+
+    @AnyThread
+    synchronized void invalidateDataObject(byte[] aid, int dataObject) {
+        CardEntry cardEntry = cards.get(Hex.encodeHexString(aid));
+        if (cardEntry != null) {
+            cardEntry.dataObjects.remove(dataObject);
+            cardEntry.capabilities = null;
+        }
+    }
+
+    @AnyThread
+    synchronized void invalidateApplicationRelatedData(byte[] aid) {
+        CardEntry cardEntry = cards.get(Hex.encodeHexString(aid));
+        if (cardEntry != null) {
+            cardEntry.capabilities = null;
+        }
+    }
+
+    @AnyThread
+    synchronized void onWrongPin(byte[] aid) {
+        CardEntry cardEntry = getOrCreateCardEntry(aid);
+        cardEntry.capabilities = null;
+        cardEntry.isRetryCounterDecreased = true;
+    }
+
+    @AnyThread
+    synchronized void onPinVerified(byte[] aid) {
+        CardEntry cardEntry = cards.get(Hex.encodeHexString(aid));
+        if (cardEntry != null && cardEntry.isRetryCounterDecreased) {
+            cardEntry.capabilities = null;
+            cardEntry.isRetryCounterDecreased = false;
+        }
+    }
+
+    @AnyThread
+    synchronized void invalidate(byte[] aid) {
+        cards.remove(Hex.encodeHexString(aid));
+    }
+
+    @NonNull
+    private CardEntry getOrCreateCardEntry(byte[] aid) {
+        String key = Hex.encodeHexString(aid);
+        CardEntry cardEntry = cards.get(key);
+        if (cardEntry == null) {
+            cardEntry = new CardEntry();
+            cards.put(key, cardEntry);
+        }
+        return cardEntry;
+    }
+
+    private static class CardEntry {
+        private final HashMap<Integer, byte[]> dataObjects = new HashMap<>();
+        private byte[] rawApplicationRelatedData;
+        private OpenPgpCapabilities capabilities;
+        private boolean isRetryCounterDecreased;
+    }
+}
@@ -26,9 +26,12 @@ package de.cotech.hw.openpgp.internal.operations;
 
 
 import java.io.IOException;
+import java.util.List;
 
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
+import de.cotech.hw.exceptions.PartialAuthenticationException;
+import de.cotech.hw.internal.BatchSigning;
 import de.cotech.hw.secrets.ByteSecret;
 import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
 import de.cotech.hw.openpgp.OpenPgpCapabilities;
@@ -70,4 +73,27 @@ public class InternalAuthenticateOp {
 
         return signatureUtils.encodeSignature(response.getData(), authKeyFormat);
     }
+
+    /**
+     * Call INTERNAL AUTHENTICATE for each of the given hashes, verifying the PIN and reading the key format
+     * only once. The commands are sent back to back while the applet stays selected.
+     *
+     * @param challenges the hashes for signing
+     * @return the signatures, in the order of the hashes
+     * @throws PartialAuthenticationException if signing failed after at least one signature was created
+     */
+    public List<byte[]> calculateAuthenticationSignatures(ByteSecret pin, List<byte[]> challenges, String hashAlgo)
+            throws IOException {
+        connection.verifyPinForOther(pin);
+
+        OpenPgpCapabilities openPgpCapabilities = connection.getOpenPgpCapabilities();
+        KeyFormat authKeyFormat = openPgpCapabilities.getAuthKeyFormat();
+
+        return BatchSigning.signAll(challenges, challenge -> {
+            byte[] data = signatureUtils.prepareData(challenge, hashAlgo, authKeyFormat);
+            CommandApdu command = connection.getCommandFactory().createInternalAuthCommand(data);
+            ResponseApdu response = connection.communicateOrThrow(command);
+            return signatureUtils.encodeSignature(response.getData(), authKeyFormat);
+        });
+    }
 }
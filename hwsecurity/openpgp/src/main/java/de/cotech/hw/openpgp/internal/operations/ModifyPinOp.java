@@ -72,6 +72,7 @@ public class ModifyPinOp {
 
         CommandApdu changePin = connection.getCommandFactory().createResetPw1Command(newPinCopy);
         connection.communicateOrThrow(changePin);
+        connection.invalidateCachedApplicationRelatedData();
 
         connection.resetPwState();
     }
@@ -92,6 +93,7 @@ public class ModifyPinOp {
 
         CommandApdu changePin = connection.getCommandFactory().createChangePw3Command(currentPw3Copy, newPw3Copy);
         connection.communicateOrThrow(changePin);
+        connection.invalidateCachedApplicationRelatedData();
 
         connection.invalidatePw3();
     }
@@ -30,12 +30,15 @@ import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.VisibleForTesting;
 
+import de.cotech.hw.exceptions.SecurityKeyDisconnectedException;
 import de.cotech.hw.openpgp.internal.openpgp.EcKeyFormat;
 import de.cotech.hw.openpgp.internal.openpgp.RsaKeyFormat;
 import de.cotech.hw.secrets.ByteSecret;
@@ -43,6 +46,7 @@ import de.cotech.hw.internal.iso7816.CommandApdu;
 import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
 import de.cotech.hw.openpgp.internal.openpgp.KeyFormat;
+import de.cotech.hw.openpgp.pairedkey.SessionSecretResult;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -91,6 +95,43 @@ public class PsoDecryptOp {
     public byte[] simpleDecryptSessionKeyRsa(ByteSecret pin, byte[] encryptedSessionKey) throws IOException {
         connection.verifyPinForOther(pin);
 
+        return simpleDecipherRsa(encryptedSessionKey);
+    }
+
+    /**
+     * Decrypts a number of session keys, verifying PW1 only once. The PSO:DECIPHER commands are sent back to
+     * back, and a failure for one session key does not prevent decryption of the following ones.
+     * <p>
+     * Errors that concern the whole session, i.e. a failed PIN verification, are thrown. If the security key is
+     * disconnected midway, all remaining results carry that error.
+     *
+     * @return one result per encrypted session key, in the same order
+     */
+    public List<SessionSecretResult> simpleDecryptSessionKeysRsa(ByteSecret pin, List<byte[]> encryptedSessionKeys)
+            throws IOException {
+        connection.verifyPinForOther(pin);
+
+        List<SessionSecretResult> results = new ArrayList<>(encryptedSessionKeys.size());
+        IOException disconnectedException = null;
+        for (byte[] encryptedSessionKey : encryptedSessionKeys) {
+            if (disconnectedException != null) {
+                results.add(SessionSecretResult.createError(disconnectedException));
+                continue;
+            }
+            try {
+                byte[] secret = simpleDecipherRsa(encryptedSessionKey);
+                results.add(SessionSecretResult.createSuccess(ByteSecret.fromByteArrayTakeOwnership(secret)));
+            } catch (SecurityKeyDisconnectedException e) {
+                disconnectedException = e;
+                results.add(SessionSecretResult.createError(e));
+            } catch (IOException e) {
+                results.add(SessionSecretResult.createError(e));
+            }
+        }
+        return results;
+    }
+
+    private byte[] simpleDecipherRsa(byte[] encryptedSessionKey) throws IOException {
         byte[] psoDecipherPayload = Arrays.prepend(encryptedSessionKey, (byte) 0x00);
 
         CommandApdu command = connection.getCommandFactory().createDecipherCommand(psoDecipherPayload, encryptedSessionKey.length);
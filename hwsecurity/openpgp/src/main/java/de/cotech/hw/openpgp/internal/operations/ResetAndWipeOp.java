@@ -69,6 +69,7 @@ public class ResetAndWipeOp {
         // If a security key is in a bad state and terminate fails, it could still be reactivated with reactivate
         CommandApdu terminate = connection.getCommandFactory().createTerminateDfCommand();
         connection.communicate(terminate);
+        connection.invalidateCachedDataObjects();
 
         if (!reactivateSecurityKey) {
             return;
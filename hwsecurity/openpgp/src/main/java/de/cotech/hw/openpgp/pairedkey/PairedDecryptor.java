@@ -26,6 +26,7 @@ package de.cotech.hw.openpgp.pairedkey;
 
 
 import java.io.IOException;
+import java.util.List;
 
 import de.cotech.hw.openpgp.OpenPgpSecurityKey;
 import de.cotech.hw.secrets.ByteSecret;
@@ -89,4 +90,29 @@ public class PairedDecryptor {
         return ByteSecret.fromByteArrayTakeOwnership(secret);
     }
 
+    /**
+     * Decrypts a number of session secrets in one session, e.g. when opening several files at once. The PIN is
+     * requested and verified only once.
+     * <p>
+     * Each encrypted secret gets its own {@link SessionSecretResult}, so a single broken item does not fail the
+     * whole batch.
+     *
+     * @param encryptedSessionSecrets the session secrets to decrypt
+     * @return one result per encrypted secret, in the same order
+     *
+     * @throws IOException if communication with the card failed before any secret was decrypted, e.g. because
+     *         of a wrong PIN
+     * @throws PairedSecurityKeyException if the connected security key doesn't match the paired one
+     */
+    public List<SessionSecretResult> decryptSessionSecrets(List<byte[]> encryptedSessionSecrets) throws IOException {
+        if (!openPgpSecurityKey.matchesPairedSecurityKey(pairedSecurityKey)) {
+            throw new PairedSecurityKeyException();
+        }
+
+        ByteSecret pairedPin = pinProvider.getPin(openPgpSecurityKey.getOpenPgpInstanceAid());
+
+        PsoDecryptOp psoDecryptOp = PsoDecryptOp.create(openPgpSecurityKey.openPgpAppletConnection);
+        return psoDecryptOp.simpleDecryptSessionKeysRsa(pairedPin, encryptedSessionSecrets);
+    }
+
 }
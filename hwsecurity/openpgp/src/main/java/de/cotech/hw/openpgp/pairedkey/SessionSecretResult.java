@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.pairedkey;
+
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+
+import com.google.auto.value.AutoValue;
+
+import de.cotech.hw.secrets.ByteSecret;
+
+
+/**
+ * The outcome of decrypting a single session secret in
+ * {@link PairedDecryptor#decryptSessionSecrets(java.util.List)}.
+ * <p>
+ * Exactly one of {@link #getSessionSecret()} and {@link #getError()} is non-null.
+ */
+@AutoValue
+public abstract class SessionSecretResult {
+    @Nullable
+    public abstract ByteSecret getSessionSecret();
+
+    @Nullable
+    public abstract IOException getError();
+
+    public boolean isSuccess() {
+        return getSessionSecret() != null;
+    }
+
+    /**
+     * Returns the decrypted session secret, or throws the error that occurred while decrypting it.
+     */
+    @NonNull
+    public ByteSecret getSessionSecretOrThrow() throws IOException {
+        ByteSecret sessionSecret = getSessionSecret();
+        if (sessionSecret == null) {
+            throw getError();
+        }
+        return sessionSecret;
+    }
+
+    @RestrictTo(Scope.LIBRARY_GROUP)
+    public static SessionSecretResult createSuccess(@NonNull ByteSecret sessionSecret) {
+        return new AutoValue_SessionSecretResult(sessionSecret, null);
+    }
+
+    @RestrictTo(Scope.LIBRARY_GROUP)
+    public static SessionSecretResult createError(@NonNull IOException error) {
+        return new AutoValue_SessionSecretResult(null, error);
+    }
+}
@@ -38,6 +38,7 @@ import java.security.NoSuchProviderException;
 import java.util.Arrays;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import de.cotech.hw.secrets.ByteSecret;
 import javax.crypto.BadPaddingException;
@@ -51,12 +52,19 @@ import javax.crypto.spec.SecretKeySpec;
 
 /**
  * An {@link InputStream} that decrypts data with a {@link ByteSecret}.
+ * <p>
+ * Reads files written by {@link EncryptingFileOutputStream} as well as {@link SegmentedEncryptingFileOutputStream}.
+ * For the latter, data is authenticated segment by segment, so the first bytes are available without decrypting
+ * the whole file, and {@link #skip(long)} does not decrypt the skipped data.
  *
- * See {@link DecryptingFileInputStream}.
- *
- * @see DecryptingFileInputStream
+ * @see EncryptingFileOutputStream
+ * @see SegmentedDecryptingFile
  */
 public class DecryptingFileInputStream extends InputStream {
+    @Nullable
+    private final SegmentedDecryptingFile segmentedFile;
+    private long segmentedPosition;
+
     private final Cipher cipher;
 
     private final InputStream inputStream;
@@ -75,6 +83,15 @@ public class DecryptingFileInputStream extends InputStream {
             throw new FileNotFoundException();
         }
 
+        if (SegmentedAeadFormat.isSegmentedFile(file)) {
+            segmentedFile = SegmentedDecryptingFile.open(file, byteSecret);
+            cipher = null;
+            inputStream = null;
+            totalCiphertextLength = 0;
+            return;
+        }
+        segmentedFile = null;
+
         inputStream = new BufferedInputStream(new FileInputStream(file));
         totalCiphertextLength = file.length();
 
@@ -100,6 +117,12 @@ public class DecryptingFileInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
+        if (segmentedFile != null) {
+            byte[] buffer = new byte[1];
+            int bytesRead = read(buffer, 0, 1);
+            return bytesRead == -1 ? -1 : buffer[0] & 0xff;
+        }
+
         fillDecryptedBuffer();
         if (cleartextLength == -1) {
             return -1;
@@ -114,6 +137,14 @@ public class DecryptingFileInputStream extends InputStream {
 
     @Override
     public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (segmentedFile != null) {
+            int bytesRead = segmentedFile.read(segmentedPosition, buffer, offset, length);
+            if (bytesRead > 0) {
+                segmentedPosition += bytesRead;
+            }
+            return bytesRead;
+        }
+
         int totalBytesRead = 0;
         while (length > 0) {
             fillDecryptedBuffer();
@@ -160,8 +191,35 @@ public class DecryptingFileInputStream extends InputStream {
         return cleartextLength - cleartextPosition;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        if (segmentedFile == null) {
+            return super.skip(n);
+        }
+        long bytesSkipped = Math.max(0, Math.min(n, segmentedFile.size() - segmentedPosition));
+        segmentedPosition += bytesSkipped;
+        return bytesSkipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (segmentedFile != null) {
+            return (int) Math.min(Integer.MAX_VALUE, segmentedFile.size() - segmentedPosition);
+        }
+        return super.available();
+    }
+
     @Override
     public boolean markSupported() {
         return false;
     }
+
+    @Override
+    public void close() throws IOException {
+        if (segmentedFile != null) {
+            segmentedFile.close();
+        } else {
+            inputStream.close();
+        }
+    }
 }
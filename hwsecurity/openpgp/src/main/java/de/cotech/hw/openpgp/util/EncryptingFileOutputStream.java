@@ -66,8 +66,12 @@ import javax.crypto.spec.SecretKeySpec;
  * <p>
  *
  * Internally, this uses AES-GCM for authenticated encryption. The randomly generated nonce is stored as part of the file.
+ * <p>
+ * The whole file is a single AES-GCM message, which can only be authenticated after reading it to the end. For large
+ * files that are read partially or out of order, e.g. media, use {@link SegmentedEncryptingFileOutputStream}.
  *
  * @see DecryptingFileInputStream
+ * @see SegmentedEncryptingFileOutputStream
  */
 public class EncryptingFileOutputStream extends OutputStream {
     private final OutputStream outputStream;
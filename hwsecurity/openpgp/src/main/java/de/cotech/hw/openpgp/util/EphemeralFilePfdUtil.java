@@ -130,8 +130,12 @@ class EphemeralFilePfdUtil {
         BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(cacheFile));
         byte[] buf = new byte[256];
         int len;
-        while ((len = inputStream.read(buf)) > 0) {
-            outputStream.write(buf, 0, len);
+        try {
+            while ((len = inputStream.read(buf)) > 0) {
+                outputStream.write(buf, 0, len);
+            }
+        } finally {
+            outputStream.close();
         }
     }
 }
@@ -35,7 +35,6 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build.VERSION_CODES;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.MemoryFile;
 import android.os.ParcelFileDescriptor;
 import android.os.ProxyFileDescriptorCallback;
@@ -68,9 +67,6 @@ class MemoryFilePfdUtil {
             throws IOException {
         MemoryFile memoryFile = obtainRefcountedMemoryFile(cacheId, plaintextLength, inputStreamProvider);
 
-        HandlerThread handlerThread = new HandlerThread("ProxyFileDescriptorHandlerThread");
-        handlerThread.start();
-        Handler pfdCallbackHandler = new Handler(handlerThread.getLooper());
         ProxyFileDescriptorCallback pfdCallback = new ProxyFileDescriptorCallback() {
             public long onGetSize() {
                 return (long) plaintextLength;
@@ -94,11 +90,11 @@ class MemoryFilePfdUtil {
 
             public void onRelease() {
                 releaseRefcountedMemoryFile(cacheId, memoryFile);
-                pfdCallbackHandler.getLooper().quitSafely();
             }
         };
         return storageManager
-                .openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY, pfdCallback, pfdCallbackHandler);
+                .openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY, pfdCallback,
+                        SeekablePfdUtil.getProxyCallbackHandler());
     }
 
     private void releaseRefcountedMemoryFile(String cacheId, MemoryFile memoryFile) {
@@ -33,6 +33,8 @@ import android.content.Context;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
 
+import androidx.annotation.NonNull;
+
 
 /**
  * Utility class for loading streamed data into a seekable {@link ParcelFileDescriptor}.
@@ -59,10 +61,18 @@ import android.os.ParcelFileDescriptor;
  * }
  * </pre>
  * <p>
- * Internally, this uses one of two mechanisms:
+ * If the data is available from a {@link SeekableDataSource}, e.g. a {@link SegmentedDecryptingFile}, use
+ * {@link #loadToParcelFileDescriptor(SeekableDataSourceProvider, String)} instead. On Android O or higher, this only
+ * decrypts the regions that are actually read, so the file descriptor is available immediately and memory use is
+ * bounded regardless of the file size.
+ * <p>
+ * Internally, this uses one of three mechanisms:
  * <ul>
- *     <li>On Android O (sdk 26) or higher, it uses a {@link android.os.ProxyFileDescriptorCallback} backed by a
- *          reference-counted {@link android.os.MemoryFile}.</li>
+ *     <li>On Android O (sdk 26) or higher, with a {@link SeekableDataSource}, it uses a
+ *          {@link android.os.ProxyFileDescriptorCallback} that reads from the data source on demand, with a bounded
+ *          cache of recently read chunks.</li>
+ *     <li>On Android O (sdk 26) or higher, with an {@link InputStream}, it uses a
+ *          {@link android.os.ProxyFileDescriptorCallback} backed by a reference-counted {@link android.os.MemoryFile}.</li>
  *     <li>On earlier Android versions, it falls back to a mechanism based on ephemeral file descriptors. To this end,
  *          it creates a file on storage that is deleted immediately after opening a couple of file descriptors. These
  *          file descriptors are cached and used for any subsequent access. Note that this method does <b>not</b> keep
@@ -75,10 +85,14 @@ import android.os.ParcelFileDescriptor;
 public class ParcelFileDescriptorUtil {
     private MemoryFilePfdUtil memoryFilePfdUtil;
     private EphemeralFilePfdUtil ephemeralFilePfdUtil;
+    private SeekablePfdUtil seekablePfdUtil;
 
     public ParcelFileDescriptorUtil(Context context) {
         this.memoryFilePfdUtil = new MemoryFilePfdUtil(context);
         this.ephemeralFilePfdUtil = new EphemeralFilePfdUtil(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            this.seekablePfdUtil = new SeekablePfdUtil(context);
+        }
     }
 
     /**
@@ -102,6 +116,39 @@ public class ParcelFileDescriptorUtil {
         }
     }
 
+    /**
+     * Returns a seekable ParcelFileDescriptor that reads from a {@link SeekableDataSource}.
+     * <p>
+     * On Android O or higher, a new data source is opened for each file descriptor, and closed once the file
+     * descriptor is released. Only the regions that are read are requested from the data source. Recently read
+     * chunks are cached by cacheId, up to a fixed total size.
+     *
+     * @param dataSourceProvider A closure that opens a SeekableDataSource with the desired file content.
+     * @param cacheId An id that identifies the content, for caching purposes.
+     */
+    public ParcelFileDescriptor loadToParcelFileDescriptor(
+            SeekableDataSourceProvider dataSourceProvider, String cacheId) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return seekablePfdUtil.openProxyFileDescriptor(cacheId, dataSourceProvider.openDataSource());
+        }
+
+        SeekableDataSource dataSource = dataSourceProvider.openDataSource();
+        try {
+            return ephemeralFilePfdUtil.loadDataToFileDescriptor(cacheId, () -> new DataSourceInputStream(dataSource));
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Drops all cached plaintext chunks of file descriptors obtained from a {@link SeekableDataSource}.
+     */
+    public void clearCache() {
+        if (seekablePfdUtil != null) {
+            seekablePfdUtil.clearCache();
+        }
+    }
+
     /**
      * Simple interface for obtaining an InputStream.
      *
@@ -110,4 +157,38 @@ public class ParcelFileDescriptorUtil {
     public interface InputStreamProvider {
         InputStream getInputStream() throws FileNotFoundException;
     }
+
+    /**
+     * Simple interface for opening a {@link SeekableDataSource}.
+     *
+     * @see #loadToParcelFileDescriptor(SeekableDataSourceProvider, String)
+     */
+    public interface SeekableDataSourceProvider {
+        SeekableDataSource openDataSource() throws IOException;
+    }
+
+    private static class DataSourceInputStream extends InputStream {
+        private final SeekableDataSource dataSource;
+        private long position;
+
+        DataSourceInputStream(SeekableDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            int bytesRead = read(buffer, 0, 1);
+            return bytesRead == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = dataSource.read(position, buffer, offset, length);
+            if (bytesRead > 0) {
+                position += bytesRead;
+            }
+            return bytesRead;
+        }
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import de.cotech.hw.internal.BackgroundExecutors;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * A small pool of RSA-2048 key pairs, generated in the background ahead of time.
+ * <p>
+ * Setting up a security key with {@link de.cotech.hw.openpgp.OpenPgpSecurityKey.AlgorithmConfig#RSA_2048_UPLOAD}
+ * needs three fresh RSA key pairs, which takes several seconds on slower devices. Call {@link #prefill()} as soon
+ * as it is likely that a setup will follow, e.g. when showing the setup screen, so the key pairs are ready by the
+ * time the security key is connected and only need to be uploaded.
+ * <p>
+ * Key pairs are generated in parallel. A key pair is handed out only once. Key pairs that are not used within
+ * ten minutes, or that are dropped with {@link #clear()}, are destroyed as far as the security provider allows.
+ * Expiry is scheduled on the pool's executor, so this also happens while the pool is not used.
+ */
+public class RsaKeyPairPool {
+    private static final int POOL_CAPACITY = 3;
+    private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static RsaKeyPairPool instance;
+
+    private final ScheduledExecutorService executor;
+    private final Callable<KeyPair> keyPairGenerator;
+    private final ArrayDeque<PooledKeyPair> pooledKeyPairs = new ArrayDeque<>();
+    private ScheduledFuture<?> expiryTask;
+
+    public static synchronized RsaKeyPairPool getInstance() {
+        if (instance == null) {
+            int poolSize = Math.min(POOL_CAPACITY, Runtime.getRuntime().availableProcessors());
+            ScheduledExecutorService executor = BackgroundExecutors.createScheduledThreadPool("rsa-keygen", poolSize);
+            RsaEncryptionUtil rsaEncryptionUtil = new RsaEncryptionUtil();
+            instance = new RsaKeyPairPool(executor, rsaEncryptionUtil::generateRsa2048KeyPair);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    RsaKeyPairPool(ScheduledExecutorService executor, Callable<KeyPair> keyPairGenerator) {
+        this.executor = executor;
+        this.keyPairGenerator = keyPairGenerator;
+    }
+
+    /**
+     * Starts generating key pairs in the background, until the pool is full.
+     */
+    @AnyThread
+    public void prefill() {
+        prefill(POOL_CAPACITY);
+    }
+
+    /**
+     * Starts generating key pairs in the background, until the pool holds the given number of key pairs or is full.
+     */
+    @AnyThread
+    public synchronized void prefill(int count) {
+        discardExpiredKeyPairs();
+        int targetSize = Math.min(count, POOL_CAPACITY);
+        while (pooledKeyPairs.size() < targetSize) {
+            pooledKeyPairs.add(new PooledKeyPair(submitGeneration(), nanoTime()));
+        }
+        scheduleExpiry();
+    }
+
+    /**
+     * Returns the given number of key pairs. Pooled key pairs are used first, the missing ones are generated in
+     * parallel. This method blocks until all key pairs are available.
+     */
+    @WorkerThread
+    public List<KeyPair> takeKeyPairs(int count) throws IOException {
+        List<KeyPairTask> pendingKeyPairs = new ArrayList<>(count);
+        synchronized (this) {
+            discardExpiredKeyPairs();
+            while (pendingKeyPairs.size() < count && !pooledKeyPairs.isEmpty()) {
+                pendingKeyPairs.add(pooledKeyPairs.poll().keyPair);
+            }
+        }
+        int pooledCount = pendingKeyPairs.size();
+        while (pendingKeyPairs.size() < count) {
+            pendingKeyPairs.add(submitGeneration());
+        }
+        HwTimber.d("Taking %d RSA key pairs, %d from pool", count, pooledCount);
+
+        List<KeyPair> keyPairs = new ArrayList<>(count);
+        try {
+            for (KeyPairTask pendingKeyPair : pendingKeyPairs) {
+                keyPairs.add(pendingKeyPair.get());
+            }
+            return keyPairs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(pendingKeyPairs);
+            throw new InterruptedIOException("Interrupted while generating key pairs");
+        } catch (ExecutionException e) {
+            discard(pendingKeyPairs);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to generate key pair", e.getCause());
+        }
+    }
+
+    /**
+     * Destroys all pooled key pairs, and cancels generation of those that are not ready yet.
+     */
+    @AnyThread
+    public synchronized void clear() {
+        for (PooledKeyPair pooledKeyPair : pooledKeyPairs) {
+            pooledKeyPair.keyPair.discard();
+        }
+        pooledKeyPairs.clear();
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getPooledCount() {
+        return pooledKeyPairs.size();
+    }
+
+    private KeyPairTask submitGeneration() {
+        KeyPairTask task = new KeyPairTask(keyPairGenerator);
+        executor.execute(task);
+        return task;
+    }
+
+    @VisibleForTesting
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Schedules discarding the oldest pooled key pair once it expires, unless that is scheduled already.
+     */
+    private void scheduleExpiry() {
+        if (expiryTask != null || pooledKeyPairs.isEmpty()) {
+            return;
+        }
+        long delayNanos = pooledKeyPairs.peek().createdAtNanos + MAX_AGE_NANOS - nanoTime();
+        expiryTask = executor.schedule(this::onExpiry, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void onExpiry() {
+        expiryTask = null;
+        discardExpiredKeyPairs();
+        scheduleExpiry();
+    }
+
+    private void discardExpiredKeyPairs() {
+        long now = nanoTime();
+        while (!pooledKeyPairs.isEmpty() && now - pooledKeyPairs.peek().createdAtNanos >= MAX_AGE_NANOS) {
+            HwTimber.d("Discarding unused RSA key pair");
+            pooledKeyPairs.poll().keyPair.discard();
+        }
+    }
+
+    private static void discard(List<KeyPairTask> keyPairs) {
+        for (KeyPairTask keyPair : keyPairs) {
+            keyPair.discard();
+        }
+    }
+
+    private static void destroy(KeyPair keyPair) {
+        PrivateKey privateKey = keyPair.getPrivate();
+        if (!(privateKey instanceof Destroyable)) {
+            return;
+        }
+        try {
+            ((Destroyable) privateKey).destroy();
+        } catch (DestroyFailedException e) {
+            HwTimber.d("Security provider does not support destroying private keys");
+        }
+    }
+
+    /**
+     * Generation of a single key pair. If the key pair is discarded while it is still being generated, it is
+     * destroyed as soon as generation finishes.
+     */
+    private static class KeyPairTask extends FutureTask<KeyPair> {
+        private volatile boolean discarded;
+
+        KeyPairTask(Callable<KeyPair> keyPairGenerator) {
+            super(keyPairGenerator);
+        }
+
+        void discard() {
+            discarded = true;
+            if (cancel(false)) {
+                return;
+            }
+            if (isDone()) {
+                destroyResult();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (discarded) {
+                destroyResult();
+            }
+        }
+
+        private void destroyResult() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                destroy(get());
+            } catch (InterruptedException | ExecutionException e) {
+                // nothing to destroy
+            }
+        }
+    }
+
+    private static class PooledKeyPair {
+        final KeyPairTask keyPair;
+        final long createdAtNanos;
+
+        PooledKeyPair(KeyPairTask keyPair, long createdAtNanos) {
+            this.keyPair = keyPair;
+            this.createdAtNanos = createdAtNanos;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * Data of known size that can be read at arbitrary positions, e.g. a {@link SegmentedDecryptingFile}.
+ *
+ * @see ParcelFileDescriptorUtil#loadToParcelFileDescriptor(ParcelFileDescriptorUtil.SeekableDataSourceProvider, String)
+ */
+public interface SeekableDataSource extends Closeable {
+    /**
+     * Returns the total size of the data.
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads data starting at the given position.
+     *
+     * @return the number of bytes read, which is only less than requested at the end of the data, or -1 if the
+     *         position is at or past the end of the data
+     */
+    int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException;
+}
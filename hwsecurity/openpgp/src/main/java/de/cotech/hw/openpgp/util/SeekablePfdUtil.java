@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.LruCache;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import androidx.annotation.VisibleForTesting;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * Serves a {@link SeekableDataSource} through a {@link ProxyFileDescriptorCallback}.
+ * <p>
+ * Reads are answered by reading only the requested region from the data source. Chunks that were read are kept in
+ * a bounded LRU cache, so repeated reads of the same region, e.g. by a receiver that opens the descriptor twice,
+ * don't decrypt again. Once the last file descriptor for a cacheId is released, its chunks are dropped and zeroed.
+ * The callbacks of all proxy file descriptors run on a single shared handler thread.
+ */
+@TargetApi(VERSION_CODES.O)
+@RestrictTo(Scope.LIBRARY_GROUP)
+class SeekablePfdUtil {
+    @VisibleForTesting
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_BYTES = 4 * 1024 * 1024;
+
+    private static Handler proxyCallbackHandler;
+
+    private final StorageManager storageManager;
+    private final LruCache<String, byte[]> chunkCache = new LruCache<String, byte[]>(MAX_CACHED_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, byte[] oldValue, byte[] newValue) {
+            Arrays.fill(oldValue, (byte) 0);
+        }
+    };
+    // number of open file descriptors per cacheId, chunks are only kept while this is non-zero
+    private final HashMap<String, Integer> openDescriptorCounts = new HashMap<>();
+
+    SeekablePfdUtil(Context context) {
+        this.storageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
+    }
+
+    /**
+     * Returns the handler for all {@link ProxyFileDescriptorCallback}s. Since callbacks are always called on this
+     * thread, they don't need to synchronize with each other.
+     */
+    static synchronized Handler getProxyCallbackHandler() {
+        if (proxyCallbackHandler == null) {
+            HandlerThread handlerThread = new HandlerThread("ProxyFileDescriptorHandlerThread");
+            handlerThread.start();
+            proxyCallbackHandler = new Handler(handlerThread.getLooper());
+        }
+        return proxyCallbackHandler;
+    }
+
+    /**
+     * Opens a proxy file descriptor for the given data source. The data source is closed once the file descriptor
+     * is released.
+     */
+    ParcelFileDescriptor openProxyFileDescriptor(String cacheId, SeekableDataSource dataSource) throws IOException {
+        ProxyFileDescriptorCallback pfdCallback;
+        try {
+            pfdCallback = createProxyFileDescriptorCallback(cacheId, dataSource, dataSource.size());
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(dataSource);
+            throw e;
+        }
+
+        try {
+            return storageManager.openProxyFileDescriptor(
+                    ParcelFileDescriptor.MODE_READ_ONLY, pfdCallback, getProxyCallbackHandler());
+        } catch (IOException | RuntimeException e) {
+            pfdCallback.onRelease();
+            throw e;
+        }
+    }
+
+    @VisibleForTesting
+    ProxyFileDescriptorCallback createProxyFileDescriptorCallback(
+            String cacheId, SeekableDataSource dataSource, long dataSize) {
+        acquireCacheId(cacheId);
+        return new ProxyFileDescriptorCallback() {
+            @Override
+            public long onGetSize() {
+                return dataSize;
+            }
+
+            @Override
+            public int onRead(long offset, int size, byte[] data) throws ErrnoException {
+                try {
+                    return readCached(cacheId, dataSource, dataSize, offset, size, data);
+                } catch (IOException e) {
+                    HwTimber.e(e, "Failed reading data for %s", cacheId);
+                    throw new ErrnoException("onRead", OsConstants.EIO);
+                }
+            }
+
+            @Override
+            public void onRelease() {
+                closeQuietly(dataSource);
+                releaseCacheId(cacheId);
+            }
+        };
+    }
+
+    /**
+     * Drops all cached chunks.
+     */
+    void clearCache() {
+        chunkCache.evictAll();
+    }
+
+    @VisibleForTesting
+    int getCachedBytes() {
+        return chunkCache.size();
+    }
+
+    private void acquireCacheId(String cacheId) {
+        synchronized (openDescriptorCounts) {
+            Integer openCount = openDescriptorCounts.get(cacheId);
+            openDescriptorCounts.put(cacheId, openCount == null ? 1 : openCount + 1);
+        }
+    }
+
+    private void releaseCacheId(String cacheId) {
+        synchronized (openDescriptorCounts) {
+            Integer openCount = openDescriptorCounts.get(cacheId);
+            if (openCount != null && openCount > 1) {
+                openDescriptorCounts.put(cacheId, openCount - 1);
+                return;
+            }
+            openDescriptorCounts.remove(cacheId);
+
+            // removed entries are zeroed in entryRemoved()
+            for (String chunkKey : chunkCache.snapshot().keySet()) {
+                if (cacheId.equals(chunkKey.substring(0, chunkKey.lastIndexOf(':')))) {
+                    chunkCache.remove(chunkKey);
+                }
+            }
+        }
+    }
+
+    private int readCached(String cacheId, SeekableDataSource dataSource, long dataSize,
+            long offset, int length, byte[] output) throws IOException {
+        int totalBytesRead = 0;
+        while (totalBytesRead < length && offset < dataSize) {
+            long chunkIndex = offset / CHUNK_SIZE;
+            int chunkOffset = (int) (offset % CHUNK_SIZE);
+            byte[] chunk = obtainChunk(cacheId, dataSource, dataSize, chunkIndex);
+
+            int bytesToCopy = Math.min(length - totalBytesRead, chunk.length - chunkOffset);
+            System.arraycopy(chunk, chunkOffset, output, totalBytesRead, bytesToCopy);
+            totalBytesRead += bytesToCopy;
+            offset += bytesToCopy;
+        }
+        return totalBytesRead;
+    }
+
+    private byte[] obtainChunk(String cacheId, SeekableDataSource dataSource, long dataSize, long chunkIndex)
+            throws IOException {
+        String chunkKey = cacheId + ":" + chunkIndex;
+        byte[] chunk = chunkCache.get(chunkKey);
+        if (chunk != null) {
+            return chunk;
+        }
+
+        long chunkStart = chunkIndex * CHUNK_SIZE;
+        chunk = new byte[(int) Math.min(CHUNK_SIZE, dataSize - chunkStart)];
+        int chunkLength = 0;
+        while (chunkLength < chunk.length) {
+            int bytesRead = dataSource.read(chunkStart + chunkLength, chunk, chunkLength, chunk.length - chunkLength);
+            if (bytesRead <= 0) {
+                throw new IOException("Unexpected end of data");
+            }
+            chunkLength += bytesRead;
+        }
+        chunkCache.put(chunkKey, chunk);
+        return chunk;
+    }
+
+    private static void closeQuietly(SeekableDataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            HwTimber.e(e, "Ignoring exception from SeekableDataSource.close()");
+        }
+    }
+}
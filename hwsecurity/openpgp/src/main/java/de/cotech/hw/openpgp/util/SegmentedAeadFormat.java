@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+
+import de.cotech.hw.secrets.ByteSecret;
+
+
+/**
+ * The segmented file format written by {@link SegmentedEncryptingFileOutputStream}.
+ * <p>
+ * A file starts with a header of {@link #HEADER_LENGTH} bytes:
+ * <pre>
+ * 0x00 | version (1) | segment size (4, big endian) | salt (16) | nonce prefix (7)
+ * </pre>
+ * Single-stream files written by {@link EncryptingFileOutputStream} start with the length of their IV, which is
+ * never zero, so the first byte tells both formats apart.
+ * <p>
+ * The header is followed by the plaintext, split into segments of the given size, each encrypted with AES-GCM
+ * and followed by its own 16 byte tag. Only the last segment may be shorter, and it may be empty. The nonce of a
+ * segment is the nonce prefix, followed by the segment index (4 bytes, big endian), followed by 0x01 for the last
+ * segment and 0x00 for all others. Segments that are reordered, or a file that is truncated at a segment
+ * boundary, therefore fail authentication.
+ * <p>
+ * The segment key is derived from the secret with HKDF-SHA256, using the salt and the complete header as info.
+ * This binds the header to all segments, and makes nonce reuse across files encrypted with the same secret
+ * impossible in practice.
+ */
+final class SegmentedAeadFormat {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MIN_SEGMENT_SIZE = 64;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final int TAG_LENGTH = 16;
+    static final int HEADER_LENGTH = 29;
+
+    private static final int FORMAT_MARKER = 0x00;
+    private static final int VERSION_1 = 0x01;
+    private static final int SALT_OFFSET = 6;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_OFFSET = SALT_OFFSET + SALT_LENGTH;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + 5;
+
+    static final long MAX_SEGMENT_COUNT = 1L << 32;
+
+    private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding", "BC");
+            } catch (GeneralSecurityException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    private final byte[] header;
+    private final int segmentSize;
+    private final SecretKeySpec segmentKey;
+
+    static SegmentedAeadFormat createForEncryption(ByteSecret byteSecret, int segmentSize, SecureRandom random) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + MIN_SEGMENT_SIZE + " and "
+                    + MAX_SEGMENT_SIZE + " bytes");
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        header[0] = FORMAT_MARKER;
+        header[1] = VERSION_1;
+        header[2] = (byte) (segmentSize >> 24);
+        header[3] = (byte) (segmentSize >> 16);
+        header[4] = (byte) (segmentSize >> 8);
+        header[5] = (byte) segmentSize;
+        byte[] saltAndNoncePrefix = new byte[SALT_LENGTH + NONCE_PREFIX_LENGTH];
+        random.nextBytes(saltAndNoncePrefix);
+        System.arraycopy(saltAndNoncePrefix, 0, header, SALT_OFFSET, saltAndNoncePrefix.length);
+
+        return new SegmentedAeadFormat(header, segmentSize, byteSecret);
+    }
+
+    static SegmentedAeadFormat readFromHeader(byte[] header, ByteSecret byteSecret) throws IOException {
+        if (header.length != HEADER_LENGTH || header[0] != FORMAT_MARKER) {
+            throw new IOException("Not a segmented file");
+        }
+        if (header[1] != VERSION_1) {
+            throw new IOException("Unsupported segmented file version " + header[1]);
+        }
+        int segmentSize = ((header[2] & 0xff) << 24) | ((header[3] & 0xff) << 16)
+                | ((header[4] & 0xff) << 8) | (header[5] & 0xff);
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Invalid segment size " + segmentSize);
+        }
+
+        return new SegmentedAeadFormat(header.clone(), segmentSize, byteSecret);
+    }
+
+    /**
+     * Returns true if the given file starts like a segmented file, rather than a single-stream file.
+     */
+    static boolean isSegmentedFile(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return inputStream.read() == FORMAT_MARKER;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private SegmentedAeadFormat(byte[] header, int segmentSize, ByteSecret byteSecret) {
+        this.header = header;
+        this.segmentSize = segmentSize;
+
+        byte[] secretBytes = byteSecret.getByteCopyAndClear();
+        byte[] keyBytes = new byte[secretBytes.length];
+        try {
+            byte[] salt = Arrays.copyOfRange(header, SALT_OFFSET, SALT_OFFSET + SALT_LENGTH);
+            HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+            hkdf.init(new HKDFParameters(secretBytes, salt, header));
+            hkdf.generateBytes(keyBytes, 0, keyBytes.length);
+            segmentKey = new SecretKeySpec(keyBytes, "AES");
+        } finally {
+            Arrays.fill(secretBytes, (byte) 0);
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    byte[] getHeader() {
+        return header.clone();
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int getCiphertextSegmentSize() {
+        return segmentSize + TAG_LENGTH;
+    }
+
+    /**
+     * Encrypts a single segment. This method may be called from multiple threads at once.
+     */
+    byte[] encryptSegment(byte[] plaintext, int offset, int length, long segmentIndex, boolean isLastSegment) {
+        Cipher cipher = CIPHER.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, segmentKey, createNonce(segmentIndex, isLastSegment));
+            return cipher.doFinal(plaintext, offset, length);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Decrypts and authenticates a single segment. This method may be called from multiple threads at once.
+     *
+     * @return the number of plaintext bytes written to the output buffer
+     */
+    int decryptSegment(byte[] ciphertext, int offset, int length, long segmentIndex, boolean isLastSegment,
+            byte[] output, int outputOffset) throws IOException {
+        Cipher cipher = CIPHER.get();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, segmentKey, createNonce(segmentIndex, isLastSegment));
+            return cipher.doFinal(ciphertext, offset, length, output, outputOffset);
+        } catch (BadPaddingException e) {
+            throw new IOException("Authentication of segment " + segmentIndex + " failed", e);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private IvParameterSpec createNonce(long segmentIndex, boolean isLastSegment) {
+        if (segmentIndex < 0 || segmentIndex >= MAX_SEGMENT_COUNT) {
+            throw new IllegalArgumentException("Segment index out of range: " + segmentIndex);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        System.arraycopy(header, NONCE_PREFIX_OFFSET, nonce, 0, NONCE_PREFIX_LENGTH);
+        nonce[NONCE_PREFIX_LENGTH] = (byte) (segmentIndex >> 24);
+        nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (segmentIndex >> 16);
+        nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (segmentIndex >> 8);
+        nonce[NONCE_PREFIX_LENGTH + 3] = (byte) segmentIndex;
+        nonce[NONCE_PREFIX_LENGTH + 4] = (byte) (isLastSegment ? 0x01 : 0x00);
+        return new IvParameterSpec(nonce);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+import de.cotech.hw.secrets.ByteSecret;
+
+
+/**
+ * Random access to a file written by {@link SegmentedEncryptingFileOutputStream}.
+ * <p>
+ * Reads at an arbitrary position only decrypt and authenticate the segments they touch, so seeking in a large
+ * file is as cheap as reading from its start. The last segment is authenticated when the file is opened, which
+ * makes {@link #size()} reliable and detects a wrong secret or a truncated file right away.
+ * <p>
+ * Instances are safe to use from multiple threads.
+ *
+ * @see SegmentedEncryptingFileOutputStream
+ */
+public class SegmentedDecryptingFile implements SeekableDataSource {
+    private final RandomAccessFile randomAccessFile;
+    private final SegmentedAeadFormat format;
+    private final long ciphertextLength;
+    private final long segmentCount;
+    private final long plaintextSize;
+
+    private final byte[] ciphertextBuf;
+    private final byte[] cleartextBuf;
+    private long cleartextSegmentIndex = -1;
+    private int cleartextLength;
+    private boolean closed = false;
+
+    /**
+     * Opens a segmented file for reading. The given secret is cleared from memory, also if opening fails.
+     *
+     * @throws IOException if the file is not in the segmented format, or its last segment fails authentication
+     */
+    public static SegmentedDecryptingFile open(@NonNull File file, ByteSecret byteSecret) throws IOException {
+        RandomAccessFile randomAccessFile;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+        } catch (IOException | RuntimeException e) {
+            byteSecret.removeFromMemory();
+            throw e;
+        }
+        try {
+            return new SegmentedDecryptingFile(randomAccessFile, byteSecret);
+        } catch (IOException | RuntimeException e) {
+            // the secret is only consumed once the header was read successfully
+            byteSecret.removeFromMemory();
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private SegmentedDecryptingFile(RandomAccessFile randomAccessFile, ByteSecret byteSecret) throws IOException {
+        this.randomAccessFile = randomAccessFile;
+
+        long fileLength = randomAccessFile.length();
+        if (fileLength < SegmentedAeadFormat.HEADER_LENGTH + SegmentedAeadFormat.TAG_LENGTH) {
+            throw new IOException("File is too short for a segmented file");
+        }
+
+        byte[] header = new byte[SegmentedAeadFormat.HEADER_LENGTH];
+        randomAccessFile.readFully(header);
+        format = SegmentedAeadFormat.readFromHeader(header, byteSecret);
+
+        int ciphertextSegmentSize = format.getCiphertextSegmentSize();
+        ciphertextLength = fileLength - SegmentedAeadFormat.HEADER_LENGTH;
+        segmentCount = (ciphertextLength + ciphertextSegmentSize - 1) / ciphertextSegmentSize;
+        if (segmentCount > SegmentedAeadFormat.MAX_SEGMENT_COUNT) {
+            throw new IOException("Too many segments");
+        }
+        long lastSegmentLength = ciphertextLength - (segmentCount - 1) * ciphertextSegmentSize;
+        if (lastSegmentLength < SegmentedAeadFormat.TAG_LENGTH) {
+            throw new IOException("Last segment is truncated");
+        }
+        plaintextSize = ciphertextLength - segmentCount * SegmentedAeadFormat.TAG_LENGTH;
+
+        ciphertextBuf = new byte[ciphertextSegmentSize];
+        cleartextBuf = new byte[format.getSegmentSize()];
+
+        loadSegment(segmentCount - 1);
+    }
+
+    /**
+     * Returns the size of the decrypted data.
+     */
+    @Override
+    public long size() {
+        return plaintextSize;
+    }
+
+    /**
+     * Reads decrypted data starting at the given position. Unlike {@link java.io.InputStream#read(byte[])}, this
+     * method fills the buffer as far as possible, and only reads less than requested at the end of the data.
+     *
+     * @return the number of bytes read, or -1 if the position is at or past the end of the data
+     * @throws IOException if a segment fails authentication
+     */
+    @Override
+    public synchronized int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("File is closed");
+        }
+        if (position < 0 || offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= plaintextSize) {
+            return -1;
+        }
+
+        int segmentSize = format.getSegmentSize();
+        int totalBytesRead = 0;
+        while (length > 0 && position < plaintextSize) {
+            long segmentIndex = position / segmentSize;
+            int segmentOffset = (int) (position % segmentSize);
+            loadSegment(segmentIndex);
+
+            int bytesToCopy = Math.min(length, cleartextLength - segmentOffset);
+            System.arraycopy(cleartextBuf, segmentOffset, buffer, offset, bytesToCopy);
+            position += bytesToCopy;
+            offset += bytesToCopy;
+            length -= bytesToCopy;
+            totalBytesRead += bytesToCopy;
+        }
+        return totalBytesRead;
+    }
+
+    private void loadSegment(long segmentIndex) throws IOException {
+        if (segmentIndex == cleartextSegmentIndex) {
+            return;
+        }
+        cleartextSegmentIndex = -1;
+
+        int ciphertextSegmentSize = format.getCiphertextSegmentSize();
+        long segmentStart = segmentIndex * ciphertextSegmentSize;
+        boolean isLastSegment = segmentIndex == segmentCount - 1;
+        int segmentLength = isLastSegment ? (int) (ciphertextLength - segmentStart) : ciphertextSegmentSize;
+
+        randomAccessFile.seek(SegmentedAeadFormat.HEADER_LENGTH + segmentStart);
+        randomAccessFile.readFully(ciphertextBuf, 0, segmentLength);
+        cleartextLength = format.decryptSegment(ciphertextBuf, 0, segmentLength, segmentIndex, isLastSegment,
+                cleartextBuf, 0);
+        cleartextSegmentIndex = segmentIndex;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cleartextSegmentIndex = -1;
+        Arrays.fill(cleartextBuf, (byte) 0);
+        randomAccessFile.close();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import de.cotech.hw.internal.BackgroundExecutors;
+import de.cotech.hw.secrets.ByteSecret;
+
+
+/**
+ * An {@link OutputStream} that encrypts data with a {@link ByteSecret}, in a segmented format that allows
+ * random access during decryption.
+ *
+ * <pre>
+ * ByteSecret secret = SecretGenerator.getInstance().createRandom(32);
+ * SegmentedEncryptingFileOutputStream efos =
+ *         new SegmentedEncryptingFileOutputStream(new File("video.encrypted"), secret.copy());
+ * try {
+ *     copy(videoInputStream, efos);
+ * } finally {
+ *     efos.close();
+ * }
+ * SegmentedDecryptingFile decryptingFile = SegmentedDecryptingFile.open(new File("video.encrypted"), secret);
+ * int bytesRead = decryptingFile.read(position, buffer, 0, buffer.length);
+ * </pre>
+ * <p>
+ * The data is split into fixed-size segments, which are encrypted with AES-GCM individually. Each segment is
+ * authenticated on its own, so reading a part of the file only requires decrypting the segments it touches.
+ * Segments are encrypted on multiple threads, and written to the file in order.
+ * <p>
+ * Files written by this class can also be read with {@link DecryptingFileInputStream}. Note that data is only
+ * written to the file once a full segment is available, so {@link #flush()} does not write partial segments.
+ *
+ * @see SegmentedDecryptingFile
+ * @see DecryptingFileInputStream
+ */
+public class SegmentedEncryptingFileOutputStream extends OutputStream {
+    private static Executor sharedExecutor;
+
+    private final OutputStream outputStream;
+    private final SegmentedAeadFormat format;
+    @Nullable
+    private final Executor executor;
+    private final int maxPendingSegments;
+    private final ArrayDeque<Future<byte[]>> pendingSegments = new ArrayDeque<>();
+
+    private byte[] segmentBuffer;
+    private int segmentBufferLength;
+    private long segmentIndex;
+    private boolean closed = false;
+
+    /**
+     * Creates a stream with the default segment size of 64 KiB, which encrypts segments on a shared pool of
+     * one thread per processor core.
+     */
+    public SegmentedEncryptingFileOutputStream(@NonNull File file, ByteSecret byteSecret) throws IOException {
+        this(file, byteSecret, SegmentedAeadFormat.DEFAULT_SEGMENT_SIZE, getSharedExecutor());
+    }
+
+    /**
+     * Creates a stream with the given segment size.
+     *
+     * @param segmentSize the number of plaintext bytes per segment. Smaller segments make random access cheaper,
+     *         larger segments have less overhead. Must be between 64 bytes and 16 MiB.
+     * @param executor the executor to encrypt segments on, or null to encrypt on the writing thread
+     */
+    public SegmentedEncryptingFileOutputStream(@NonNull File file, ByteSecret byteSecret, int segmentSize,
+            @Nullable Executor executor) throws IOException {
+        super();
+
+        format = SegmentedAeadFormat.createForEncryption(byteSecret, segmentSize, new SecureRandom());
+        this.executor = executor;
+        maxPendingSegments = executor != null ? 2 * Runtime.getRuntime().availableProcessors() : 0;
+        segmentBuffer = new byte[segmentSize];
+
+        outputStream = new BufferedOutputStream(new FileOutputStream(file), format.getCiphertextSegmentSize());
+        outputStream.write(format.getHeader());
+    }
+
+    @Override
+    public void write(int i) throws IOException {
+        write(new byte[] { (byte) i });
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer) throws IOException {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (len > 0) {
+            // a full segment is only submitted once more data arrives, since the last segment is encrypted differently
+            if (segmentBufferLength == segmentBuffer.length) {
+                submitSegment(false);
+            }
+            int bytesToCopy = Math.min(len, segmentBuffer.length - segmentBufferLength);
+            System.arraycopy(buffer, off, segmentBuffer, segmentBufferLength, bytesToCopy);
+            segmentBufferLength += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+        }
+    }
+
+    private void submitSegment(boolean isLastSegment) throws IOException {
+        if (segmentIndex >= SegmentedAeadFormat.MAX_SEGMENT_COUNT) {
+            throw new IOException("File too large for segment size");
+        }
+
+        byte[] plaintext = segmentBuffer;
+        int length = segmentBufferLength;
+        long index = segmentIndex++;
+        FutureTask<byte[]> task = new FutureTask<>(() -> {
+            byte[] ciphertext = format.encryptSegment(plaintext, 0, length, index, isLastSegment);
+            Arrays.fill(plaintext, 0, length, (byte) 0);
+            return ciphertext;
+        });
+        pendingSegments.add(task);
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+
+        segmentBuffer = isLastSegment ? null : new byte[plaintext.length];
+        segmentBufferLength = 0;
+
+        while (pendingSegments.size() > maxPendingSegments) {
+            writeNextPendingSegment();
+        }
+    }
+
+    private void writeNextPendingSegment() throws IOException {
+        Future<byte[]> nextSegment = pendingSegments.peek();
+        try {
+            outputStream.write(nextSegment.get());
+            pendingSegments.remove();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            submitSegment(true);
+            while (!pendingSegments.isEmpty()) {
+                writeNextPendingSegment();
+            }
+        } finally {
+            closed = true;
+            for (Future<byte[]> pendingSegment : pendingSegments) {
+                pendingSegment.cancel(false);
+            }
+            pendingSegments.clear();
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Writes all segments that are complete to the file. Data of an incomplete segment stays buffered until the
+     * segment is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingSegments.isEmpty()) {
+            writeNextPendingSegment();
+        }
+        outputStream.flush();
+    }
+
+    private static synchronized Executor getSharedExecutor() {
+        if (sharedExecutor == null) {
+            int poolSize = Runtime.getRuntime().availableProcessors();
+            sharedExecutor = BackgroundExecutors.createThreadPool("segment-encryption", poolSize);
+        }
+        return sharedExecutor;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.internal;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.cotech.hw.openpgp.OpenPgpCapabilities;
+import de.cotech.hw.util.Hex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class OpenPgpDataObjectCacheTest {
+    private static final byte[] AID = Hex.decodeHexOrFail("D2760001240103040006123456780000");
+    private static final byte[] RAW_APPLICATION_RELATED_DATA = Hex.decodeHexOrFail("6e024f00");
+    private static final byte[] RAW_APPLICATION_RELATED_DATA_CHANGED = Hex.decodeHexOrFail("6e024f01");
+    private static final byte[] URL = "https://example.org".getBytes();
+    private static final int DO_SIGNATURE_COUNTER = 0x7A;
+    private static final int DO_PW_STATUS_BYTES = 0xC4;
+    private static final int DO_PRIVATE_USE_3 = 0x0103;
+    private static final int DO_PRIVATE_USE_4 = 0x0104;
+
+    private OpenPgpDataObjectCache cache;
+    private OpenPgpCapabilities capabilities;
+
+    @Before
+    public void setUp() {
+        cache = new OpenPgpDataObjectCache();
+        capabilities = mock(OpenPgpCapabilities.class);
+        when(capabilities.getAid()).thenReturn(AID);
+    }
+
+    @Test
+    public void putData_invalidatesDataObjectAndApplicationRelatedData() {
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA, capabilities);
+        cache.putDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL, URL);
+
+        assertSame(capabilities, cache.getApplicationRelatedData(AID));
+        assertArrayEquals(URL, cache.getDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL));
+
+        cache.invalidateDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL);
+
+        assertNull(cache.getApplicationRelatedData(AID));
+        assertNull(cache.getDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL));
+    }
+
+    @Test
+    public void changedApplicationRelatedData_dropsDataObjects() {
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA, capabilities);
+        cache.putDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL, URL);
+
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA.clone(), capabilities);
+        assertArrayEquals(URL, cache.getDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL));
+
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA_CHANGED, capabilities);
+        assertNull(cache.getDataObject(AID, OpenPgpCommandApduFactory.DO_GET_DATA_URL));
+    }
+
+    @Test
+    public void pinVerifiedAfterWrongPin_invalidatesRetryCounters() {
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA, capabilities);
+        cache.onPinVerified(AID);
+        assertSame(capabilities, cache.getApplicationRelatedData(AID));
+
+        cache.onWrongPin(AID);
+        assertNull(cache.getApplicationRelatedData(AID));
+
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA, capabilities);
+        cache.onPinVerified(AID);
+        assertNull(cache.getApplicationRelatedData(AID));
+    }
+
+    @Test
+    public void dynamicAndPinProtectedDataObjects_areNotCached() {
+        int[] uncachedDataObjects = { DO_SIGNATURE_COUNTER, DO_PW_STATUS_BYTES, DO_PRIVATE_USE_3, DO_PRIVATE_USE_4 };
+        cache.putApplicationRelatedData(RAW_APPLICATION_RELATED_DATA, capabilities);
+
+        for (int dataObject : uncachedDataObjects) {
+            cache.putDataObject(AID, dataObject, URL);
+
+            // not served from the cache, so OpenPgpAppletConnection reads it from the card every time
+            assertFalse(OpenPgpDataObjectCache.isCacheable(dataObject));
+            assertNull(cache.getDataObject(AID, dataObject));
+        }
+    }
+}
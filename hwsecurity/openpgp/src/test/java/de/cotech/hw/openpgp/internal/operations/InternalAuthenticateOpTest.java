@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.internal.operations;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.openpgp.OpenPgpCapabilities;
+import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
+import de.cotech.hw.openpgp.internal.OpenPgpCommandApduFactory;
+import de.cotech.hw.openpgp.internal.openpgp.RsaKeyFormat;
+import de.cotech.hw.openpgp.internal.openpgp.RsaKeyFormat.RsaImportFormat;
+import de.cotech.hw.secrets.ByteSecret;
+import de.cotech.hw.util.Hex;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * The partial failure semantics of batch signing are covered by BatchSigningTest.
+ */
+public class InternalAuthenticateOpTest {
+    private static final String SHA256_DIGEST_INFO_PREFIX = "3031300D060960864801650304020105000420";
+    private static final byte[] DIGEST_1 = filled(32, (byte) 1);
+    private static final byte[] DIGEST_2 = filled(32, (byte) 2);
+    private static final byte[] SIGNATURE_1 = { 1, 1 };
+    private static final byte[] SIGNATURE_2 = { 2, 2 };
+
+    private OpenPgpAppletConnection connection;
+    private OpenPgpCommandApduFactory commandFactory;
+    private InternalAuthenticateOp internalAuthenticateOp;
+
+    @Before
+    public void setUp() {
+        OpenPgpCapabilities openPgpCapabilities = mock(OpenPgpCapabilities.class);
+        // 16 bit modulus, so signatures are two bytes long
+        when(openPgpCapabilities.getAuthKeyFormat())
+                .thenReturn(RsaKeyFormat.getInstance(16, 4, RsaImportFormat.CRT_WITH_MODULUS));
+
+        commandFactory = mock(OpenPgpCommandApduFactory.class);
+        connection = mock(OpenPgpAppletConnection.class);
+        when(connection.getOpenPgpCapabilities()).thenReturn(openPgpCapabilities);
+        when(connection.getCommandFactory()).thenReturn(commandFactory);
+        when(connection.communicateOrThrow(any())).thenReturn(
+                ResponseApdu.create(0x9000, SIGNATURE_1), ResponseApdu.create(0x9000, SIGNATURE_2));
+
+        internalAuthenticateOp = InternalAuthenticateOp.create(connection);
+    }
+
+    @Test
+    public void calculateAuthenticationSignatures_verifiesPinOnce() throws Exception {
+        ByteSecret pin = ByteSecret.unsafeFromString("123456");
+
+        List<byte[]> signatures = internalAuthenticateOp.calculateAuthenticationSignatures(
+                pin, Arrays.asList(DIGEST_1, DIGEST_2), "SHA-256");
+
+        assertEquals(2, signatures.size());
+        verify(connection).verifyPinForOther(pin);
+    }
+
+    @Test
+    public void calculateAuthenticationSignatures_sendsInternalAuthenticatePerDigest() throws Exception {
+        internalAuthenticateOp.calculateAuthenticationSignatures(
+                ByteSecret.unsafeFromString("123456"), Arrays.asList(DIGEST_1, DIGEST_2), "SHA-256");
+
+        verify(commandFactory).createInternalAuthCommand(aryEq(digestInfo(DIGEST_1)));
+        verify(commandFactory).createInternalAuthCommand(aryEq(digestInfo(DIGEST_2)));
+    }
+
+    private static byte[] digestInfo(byte[] sha256Digest) {
+        return Hex.decodeHexOrFail(SHA256_DIGEST_INFO_PREFIX + Hex.encodeHexString(sha256Digest));
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] result = new byte[length];
+        Arrays.fill(result, value);
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.internal.operations;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import de.cotech.hw.exceptions.SecurityKeyDisconnectedException;
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
+import de.cotech.hw.openpgp.internal.OpenPgpCommandApduFactory;
+import de.cotech.hw.openpgp.pairedkey.SessionSecretResult;
+import de.cotech.hw.secrets.ByteSecret;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class PsoDecryptOpTest {
+    private static final byte[] ENCRYPTED_SESSION_KEY = { 0x42 };
+    private static final byte[] SESSION_KEY_1 = { 1 };
+    private static final byte[] SESSION_KEY_3 = { 3 };
+
+    private OpenPgpAppletConnection connection;
+    private PsoDecryptOp psoDecryptOp;
+
+    @Before
+    public void setUp() {
+        connection = mock(OpenPgpAppletConnection.class);
+        when(connection.getCommandFactory()).thenReturn(mock(OpenPgpCommandApduFactory.class));
+
+        psoDecryptOp = PsoDecryptOp.create(connection);
+    }
+
+    @Test
+    public void simpleDecryptSessionKeysRsa_recordsFailure_andContinues() throws Exception {
+        ByteSecret pin = ByteSecret.unsafeFromString("123456");
+        IOException failure = new IOException("bad ciphertext");
+        when(connection.communicateOrThrow(any()))
+                .thenReturn(ResponseApdu.create(0x9000, SESSION_KEY_1.clone()))
+                .thenThrow(failure)
+                .thenReturn(ResponseApdu.create(0x9000, SESSION_KEY_3.clone()));
+
+        List<SessionSecretResult> results = psoDecryptOp.simpleDecryptSessionKeysRsa(pin,
+                Arrays.asList(ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertArrayEquals(SESSION_KEY_1, results.get(0).getSessionSecret().unsafeGetByteCopy());
+        assertFalse(results.get(1).isSuccess());
+        assertNull(results.get(1).getSessionSecret());
+        assertSame(failure, results.get(1).getError());
+        assertTrue(results.get(2).isSuccess());
+        assertArrayEquals(SESSION_KEY_3, results.get(2).getSessionSecret().unsafeGetByteCopy());
+        verify(connection).verifyPinForOther(pin);
+        verify(connection, times(3)).communicateOrThrow(any());
+    }
+
+    @Test
+    public void simpleDecryptSessionKeysRsa_disconnected_skipsRemaining() throws Exception {
+        SecurityKeyDisconnectedException disconnected = new SecurityKeyDisconnectedException();
+        when(connection.communicateOrThrow(any()))
+                .thenReturn(ResponseApdu.create(0x9000, SESSION_KEY_1.clone()))
+                .thenThrow(disconnected);
+
+        List<SessionSecretResult> results = psoDecryptOp.simpleDecryptSessionKeysRsa(
+                ByteSecret.unsafeFromString("123456"), Arrays.asList(
+                        ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY));
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertSame(disconnected, results.get(1).getError());
+        assertSame(disconnected, results.get(2).getError());
+        assertSame(disconnected, results.get(3).getError());
+        verify(connection, times(2)).communicateOrThrow(any());
+    }
+
+    @Test(expected = IOException.class)
+    public void simpleDecryptSessionKeysRsa_pinFailure_throws() throws Exception {
+        ByteSecret pin = ByteSecret.unsafeFromString("123456");
+        doThrow(new IOException("wrong PIN")).when(connection).verifyPinForOther(pin);
+
+        psoDecryptOp.simpleDecryptSessionKeysRsa(pin, Arrays.asList(ENCRYPTED_SESSION_KEY, ENCRYPTED_SESSION_KEY));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.pairedkey;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import de.cotech.hw.SecurityKeyManagerConfig;
+import de.cotech.hw.exceptions.SecurityKeyDisconnectedException;
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.internal.transport.Transport;
+import de.cotech.hw.openpgp.OpenPgpSecurityKey;
+import de.cotech.hw.openpgp.internal.OpenPgpAppletConnection;
+import de.cotech.hw.openpgp.internal.OpenPgpCommandApduFactory;
+import de.cotech.hw.secrets.ByteSecret;
+import de.cotech.hw.secrets.PinProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+
+public class PairedDecryptorTest {
+    private static final byte[] AID = { 0x0A };
+    private static final byte[] ENCRYPTED_SECRET = { 0x42 };
+    private static final byte[] SECRET_1 = { 1 };
+    private static final byte[] SECRET_2 = { 2 };
+
+    private OpenPgpAppletConnection connection;
+    private OpenPgpSecurityKey openPgpSecurityKey;
+    private PinProvider pinProvider;
+    private PairedSecurityKey pairedSecurityKey;
+    private PairedDecryptor pairedDecryptor;
+
+    @Before
+    public void setUp() {
+        connection = mock(OpenPgpAppletConnection.class);
+        when(connection.getCommandFactory()).thenReturn(mock(OpenPgpCommandApduFactory.class));
+
+        openPgpSecurityKey = mock(OpenPgpSecurityKey.class, withSettings().useConstructor(
+                mock(SecurityKeyManagerConfig.class), mock(Transport.class), connection));
+        pairedSecurityKey = mock(PairedSecurityKey.class);
+        when(openPgpSecurityKey.matchesPairedSecurityKey(pairedSecurityKey)).thenReturn(true);
+        when(openPgpSecurityKey.getOpenPgpInstanceAid()).thenReturn(AID);
+
+        pinProvider = mock(PinProvider.class);
+        when(pinProvider.getPin(AID)).thenReturn(ByteSecret.unsafeFromString("123456"));
+
+        pairedDecryptor = new PairedDecryptor(openPgpSecurityKey, pinProvider, pairedSecurityKey);
+    }
+
+    @Test
+    public void decryptSessionSecrets_requestsPinOnce_andKeepsOrder() throws Exception {
+        when(connection.communicateOrThrow(any())).thenReturn(
+                ResponseApdu.create(0x9000, SECRET_1.clone()), ResponseApdu.create(0x9000, SECRET_2.clone()));
+
+        List<SessionSecretResult> results =
+                pairedDecryptor.decryptSessionSecrets(Arrays.asList(ENCRYPTED_SECRET, ENCRYPTED_SECRET));
+
+        assertEquals(2, results.size());
+        assertArrayEquals(SECRET_1, results.get(0).getSessionSecretOrThrow().unsafeGetByteCopy());
+        assertArrayEquals(SECRET_2, results.get(1).getSessionSecretOrThrow().unsafeGetByteCopy());
+        verify(pinProvider).getPin(AID);
+        verify(connection).verifyPinForOther(any());
+    }
+
+    @Test
+    public void decryptSessionSecrets_failedItem_throwsOnlyForThatItem() throws Exception {
+        IOException failure = new IOException("bad ciphertext");
+        when(connection.communicateOrThrow(any()))
+                .thenThrow(failure)
+                .thenReturn(ResponseApdu.create(0x9000, SECRET_2.clone()));
+
+        List<SessionSecretResult> results =
+                pairedDecryptor.decryptSessionSecrets(Arrays.asList(ENCRYPTED_SECRET, ENCRYPTED_SECRET));
+
+        try {
+            results.get(0).getSessionSecretOrThrow();
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertArrayEquals(SECRET_2, results.get(1).getSessionSecretOrThrow().unsafeGetByteCopy());
+    }
+
+    @Test
+    public void decryptSessionSecrets_disconnected_skipsRemaining() throws Exception {
+        SecurityKeyDisconnectedException disconnected = new SecurityKeyDisconnectedException();
+        when(connection.communicateOrThrow(any())).thenThrow(disconnected);
+
+        List<SessionSecretResult> results = pairedDecryptor.decryptSessionSecrets(
+                Arrays.asList(ENCRYPTED_SECRET, ENCRYPTED_SECRET, ENCRYPTED_SECRET));
+
+        assertEquals(3, results.size());
+        for (SessionSecretResult result : results) {
+            assertSame(disconnected, result.getError());
+        }
+        verify(connection, times(1)).communicateOrThrow(any());
+    }
+
+    @Test
+    public void decryptSessionSecrets_otherSecurityKey_throws() throws Exception {
+        when(openPgpSecurityKey.matchesPairedSecurityKey(pairedSecurityKey)).thenReturn(false);
+
+        try {
+            pairedDecryptor.decryptSessionSecrets(Arrays.asList(ENCRYPTED_SECRET, ENCRYPTED_SECRET));
+            fail();
+        } catch (PairedSecurityKeyException e) {
+            verify(pinProvider, never()).getPin(any());
+        }
+    }
+}
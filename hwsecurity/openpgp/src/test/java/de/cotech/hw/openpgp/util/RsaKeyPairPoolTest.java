@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+
+public class RsaKeyPairPoolTest {
+    private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final List<KeyPair> generatedKeyPairs = new ArrayList<>();
+    private ScheduledExecutorService executor;
+    private RsaKeyPairPool rsaKeyPairPool;
+    private long nowNanos;
+
+    @Before
+    public void setUp() {
+        Callable<KeyPair> keyPairGenerator = () -> {
+            KeyPair keyPair = new KeyPair(mock(PublicKey.class), mock(PrivateKey.class));
+            generatedKeyPairs.add(keyPair);
+            return keyPair;
+        };
+        executor = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        doReturn(mock(ScheduledFuture.class))
+                .when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        rsaKeyPairPool = new RsaKeyPairPool(executor, keyPairGenerator) {
+            @Override
+            long nanoTime() {
+                return nowNanos;
+            }
+        };
+    }
+
+    @Test
+    public void takeKeyPairs_withEmptyPool_generates() throws Exception {
+        List<KeyPair> keyPairs = rsaKeyPairPool.takeKeyPairs(3);
+
+        assertEquals(3, keyPairs.size());
+        assertEquals(3, generatedKeyPairs.size());
+    }
+
+    @Test
+    public void takeKeyPairs_afterPrefill_usesPooled() throws Exception {
+        rsaKeyPairPool.prefill();
+        List<KeyPair> keyPairs = rsaKeyPairPool.takeKeyPairs(2);
+
+        assertEquals(3, generatedKeyPairs.size());
+        assertSame(generatedKeyPairs.get(0), keyPairs.get(0));
+        assertSame(generatedKeyPairs.get(1), keyPairs.get(1));
+        assertEquals(1, rsaKeyPairPool.getPooledCount());
+    }
+
+    @Test
+    public void takeKeyPairs_withPartialPool_generatesMissing() throws Exception {
+        rsaKeyPairPool.prefill(1);
+        List<KeyPair> keyPairs = rsaKeyPairPool.takeKeyPairs(3);
+
+        assertEquals(3, keyPairs.size());
+        assertEquals(3, generatedKeyPairs.size());
+        assertEquals(0, rsaKeyPairPool.getPooledCount());
+    }
+
+    @Test
+    public void prefill_isBounded() {
+        rsaKeyPairPool.prefill(10);
+        rsaKeyPairPool.prefill();
+
+        assertEquals(3, rsaKeyPairPool.getPooledCount());
+        assertEquals(3, generatedKeyPairs.size());
+    }
+
+    @Test
+    public void clear_destroysPooledKeyPairs() throws Exception {
+        rsaKeyPairPool.prefill(2);
+        rsaKeyPairPool.clear();
+
+        assertEquals(0, rsaKeyPairPool.getPooledCount());
+        verify(generatedKeyPairs.get(0).getPrivate()).destroy();
+        verify(generatedKeyPairs.get(1).getPrivate()).destroy();
+    }
+
+    @Test
+    public void takeKeyPairs_doesNotDestroyReturnedKeyPairs() throws Exception {
+        rsaKeyPairPool.prefill(1);
+        List<KeyPair> keyPairs = rsaKeyPairPool.takeKeyPairs(1);
+        rsaKeyPairPool.clear();
+
+        verify(keyPairs.get(0).getPrivate(), never()).destroy();
+    }
+
+    @Test
+    public void prefill_schedulesExpiry() throws Exception {
+        rsaKeyPairPool.prefill(2);
+        Runnable expiry = captureScheduledExpiry(1, MAX_AGE_NANOS);
+
+        nowNanos += MAX_AGE_NANOS;
+        expiry.run();
+
+        assertEquals(0, rsaKeyPairPool.getPooledCount());
+        verify(generatedKeyPairs.get(0).getPrivate()).destroy();
+        verify(generatedKeyPairs.get(1).getPrivate()).destroy();
+    }
+
+    @Test
+    public void expiry_keepsYoungerKeyPairs_andReschedules() throws Exception {
+        rsaKeyPairPool.prefill(1);
+        Runnable expiry = captureScheduledExpiry(1, MAX_AGE_NANOS);
+
+        nowNanos += MAX_AGE_NANOS / 2;
+        rsaKeyPairPool.prefill(2);
+        nowNanos += MAX_AGE_NANOS / 2;
+        expiry.run();
+
+        assertEquals(1, rsaKeyPairPool.getPooledCount());
+        verify(generatedKeyPairs.get(0).getPrivate()).destroy();
+        verify(generatedKeyPairs.get(1).getPrivate(), never()).destroy();
+        captureScheduledExpiry(2, MAX_AGE_NANOS / 2);
+    }
+
+    private Runnable captureScheduledExpiry(int scheduleCount, long delayNanos) {
+        ArgumentCaptor<Runnable> expiryCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(scheduleCount)).schedule(expiryCaptor.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+        verify(executor).schedule(any(Runnable.class), eq(delayNanos), eq(TimeUnit.NANOSECONDS));
+        return expiryCaptor.getValue();
+    }
+}
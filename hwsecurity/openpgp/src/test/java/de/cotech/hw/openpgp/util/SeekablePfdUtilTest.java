@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.IOException;
+
+import android.os.ProxyFileDescriptorCallback;
+
+import androidx.annotation.NonNull;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static de.cotech.hw.openpgp.util.SeekablePfdUtil.CHUNK_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class SeekablePfdUtilTest {
+    private static final int DATA_SIZE = 2 * CHUNK_SIZE + 100;
+    private static final String CACHE_ID = "cache-id";
+
+    private SeekablePfdUtil seekablePfdUtil;
+    private FakeDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        seekablePfdUtil = new SeekablePfdUtil(RuntimeEnvironment.application);
+        dataSource = new FakeDataSource(DATA_SIZE);
+    }
+
+    @Test
+    public void onRead_acrossChunkBoundary() throws Exception {
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+
+        byte[] output = new byte[20];
+        int bytesRead = callback.onRead(CHUNK_SIZE - 10, output.length, output);
+
+        assertEquals(20, bytesRead);
+        assertDataAt(CHUNK_SIZE - 10, output, bytesRead);
+        assertEquals(2 * CHUNK_SIZE, seekablePfdUtil.getCachedBytes());
+    }
+
+    @Test
+    public void onRead_seekBackwards_usesCachedChunk() throws Exception {
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+
+        byte[] output = new byte[100];
+        callback.onRead(2 * CHUNK_SIZE, output.length, output);
+        callback.onRead(10, output.length, output);
+        assertDataAt(10, output, output.length);
+        int readCount = dataSource.readCount;
+
+        callback.onRead(2 * CHUNK_SIZE, output.length, output);
+        assertDataAt(2 * CHUNK_SIZE, output, output.length);
+        assertEquals(readCount, dataSource.readCount);
+    }
+
+    @Test
+    public void onRead_atEnd() throws Exception {
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+
+        byte[] output = new byte[200];
+        assertEquals(100, callback.onRead(2 * CHUNK_SIZE, output.length, output));
+        assertDataAt(2 * CHUNK_SIZE, output, 100);
+        assertEquals(0, callback.onRead(DATA_SIZE, output.length, output));
+    }
+
+    @Test
+    public void onRelease_dropsCachedChunks() throws Exception {
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+        callback.onRead(0, 10, new byte[10]);
+        assertEquals(CHUNK_SIZE, seekablePfdUtil.getCachedBytes());
+
+        callback.onRelease();
+
+        assertTrue(dataSource.isClosed);
+        assertEquals(0, seekablePfdUtil.getCachedBytes());
+    }
+
+    @Test
+    public void onRelease_keepsChunksOfOpenDescriptors() throws Exception {
+        FakeDataSource otherDataSource = new FakeDataSource(DATA_SIZE);
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+        ProxyFileDescriptorCallback otherCallback = createCallback(CACHE_ID, otherDataSource);
+        callback.onRead(0, 10, new byte[10]);
+
+        callback.onRelease();
+        assertEquals(CHUNK_SIZE, seekablePfdUtil.getCachedBytes());
+
+        byte[] output = new byte[10];
+        otherCallback.onRead(0, output.length, output);
+        assertDataAt(0, output, output.length);
+        assertEquals(0, otherDataSource.readCount);
+
+        otherCallback.onRelease();
+        assertEquals(0, seekablePfdUtil.getCachedBytes());
+    }
+
+    @Test
+    public void onRelease_keepsChunksOfOtherCacheIds() throws Exception {
+        ProxyFileDescriptorCallback callback = createCallback(CACHE_ID, dataSource);
+        ProxyFileDescriptorCallback otherCallback = createCallback(CACHE_ID + ":other", new FakeDataSource(DATA_SIZE));
+        callback.onRead(0, 10, new byte[10]);
+        otherCallback.onRead(0, 10, new byte[10]);
+
+        callback.onRelease();
+
+        assertEquals(CHUNK_SIZE, seekablePfdUtil.getCachedBytes());
+    }
+
+    private ProxyFileDescriptorCallback createCallback(String cacheId, FakeDataSource dataSource) {
+        return seekablePfdUtil.createProxyFileDescriptorCallback(cacheId, dataSource, dataSource.size());
+    }
+
+    private static void assertDataAt(long position, byte[] output, int length) {
+        for (int i = 0; i < length; i++) {
+            assertEquals(FakeDataSource.byteAt(position + i), output[i]);
+        }
+    }
+
+    static class FakeDataSource implements SeekableDataSource {
+        final long size;
+        int readCount;
+        boolean isClosed;
+
+        FakeDataSource(long size) {
+            this.size = size;
+        }
+
+        static byte byteAt(long position) {
+            return (byte) (position * 31 + position / CHUNK_SIZE);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int bytesRead = (int) Math.min(length, size - position);
+            for (int i = 0; i < bytesRead; i++) {
+                buffer[offset + i] = byteAt(position + i);
+            }
+            readCount++;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+}
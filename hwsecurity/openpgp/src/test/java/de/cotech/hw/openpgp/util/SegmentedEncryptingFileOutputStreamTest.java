@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.openpgp.util;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.cotech.hw.secrets.ByteSecret;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class SegmentedEncryptingFileOutputStreamTest {
+    private static final byte[] SECRET = new byte[32];
+    private static final int SEGMENT_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @BeforeClass
+    public static void setUpProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+        new Random(1).nextBytes(SECRET);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void roundTrip_parallel() throws Exception {
+        byte[] data = createData(10_500);
+        File file = writeSegmented(data, executor);
+
+        assertArrayEquals(data, readAll(new DecryptingFileInputStream(file, newSecret())));
+    }
+
+    @Test
+    public void roundTrip_onWritingThread() throws Exception {
+        byte[] data = createData(10_500);
+        File file = writeSegmented(data, null);
+
+        assertArrayEquals(data, readAll(new DecryptingFileInputStream(file, newSecret())));
+    }
+
+    @Test
+    public void roundTrip_exactMultipleOfSegmentSize() throws Exception {
+        byte[] data = createData(3 * SEGMENT_SIZE);
+        File file = writeSegmented(data, executor);
+
+        assertEquals(SegmentedAeadFormat.HEADER_LENGTH + 3 * (SEGMENT_SIZE + SegmentedAeadFormat.TAG_LENGTH),
+                file.length());
+        assertArrayEquals(data, readAll(new DecryptingFileInputStream(file, newSecret())));
+    }
+
+    @Test
+    public void roundTrip_empty() throws Exception {
+        File file = writeSegmented(new byte[0], executor);
+
+        SegmentedDecryptingFile decryptingFile = SegmentedDecryptingFile.open(file, newSecret());
+        assertEquals(0, decryptingFile.size());
+        assertEquals(-1, decryptingFile.read(0, new byte[10], 0, 10));
+        decryptingFile.close();
+    }
+
+    @Test
+    public void read_atPositionAcrossSegments() throws Exception {
+        byte[] data = createData(10_500);
+        File file = writeSegmented(data, executor);
+
+        SegmentedDecryptingFile decryptingFile = SegmentedDecryptingFile.open(file, newSecret());
+        byte[] buffer = new byte[2500];
+        int bytesRead = decryptingFile.read(4321, buffer, 0, buffer.length);
+        decryptingFile.close();
+
+        assertEquals(10_500, decryptingFile.size());
+        assertEquals(2500, bytesRead);
+        assertArrayEquals(Arrays.copyOfRange(data, 4321, 4321 + 2500), buffer);
+    }
+
+    @Test
+    public void read_nearEnd_returnsRemainingBytes() throws Exception {
+        byte[] data = createData(10_500);
+        File file = writeSegmented(data, executor);
+
+        SegmentedDecryptingFile decryptingFile = SegmentedDecryptingFile.open(file, newSecret());
+        byte[] buffer = new byte[100];
+        int bytesRead = decryptingFile.read(10_450, buffer, 0, buffer.length);
+        decryptingFile.close();
+
+        assertEquals(50, bytesRead);
+        assertArrayEquals(Arrays.copyOfRange(data, 10_450, 10_500), Arrays.copyOf(buffer, 50));
+    }
+
+    @Test
+    public void skip_inDecryptingFileInputStream() throws Exception {
+        byte[] data = createData(10_500);
+        File file = writeSegmented(data, executor);
+
+        DecryptingFileInputStream inputStream = new DecryptingFileInputStream(file, newSecret());
+        assertEquals(7000, inputStream.skip(7000));
+
+        assertArrayEquals(Arrays.copyOfRange(data, 7000, data.length), readAll(inputStream));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_withWrongSecret_fails() throws Exception {
+        File file = writeSegmented(createData(2500), executor);
+
+        SegmentedDecryptingFile.open(file, ByteSecret.fromByteArrayTakeOwnership(new byte[32]));
+    }
+
+    @Test
+    public void open_withUnsupportedHeader_clearsSecret() throws Exception {
+        File file = writeSegmented(createData(2500), executor);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(1);
+        randomAccessFile.write(0x7F);
+        randomAccessFile.close();
+        ByteSecret secret = newSecret();
+
+        try {
+            SegmentedDecryptingFile.open(file, secret);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            secret.length();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected, the secret was cleared
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_truncatedAtSegmentBoundary_fails() throws Exception {
+        File file = writeSegmented(createData(2500), executor);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(SegmentedAeadFormat.HEADER_LENGTH + 2 * (SEGMENT_SIZE + SegmentedAeadFormat.TAG_LENGTH));
+        randomAccessFile.close();
+
+        SegmentedDecryptingFile.open(file, newSecret());
+    }
+
+    @Test
+    public void read_reorderedSegments_fails() throws Exception {
+        File file = writeSegmented(createData(2500), executor);
+        int ciphertextSegmentSize = SEGMENT_SIZE + SegmentedAeadFormat.TAG_LENGTH;
+        byte[] firstSegment = new byte[ciphertextSegmentSize];
+        byte[] secondSegment = new byte[ciphertextSegmentSize];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(SegmentedAeadFormat.HEADER_LENGTH);
+        randomAccessFile.readFully(firstSegment);
+        randomAccessFile.readFully(secondSegment);
+        randomAccessFile.seek(SegmentedAeadFormat.HEADER_LENGTH);
+        randomAccessFile.write(secondSegment);
+        randomAccessFile.write(firstSegment);
+        randomAccessFile.close();
+
+        SegmentedDecryptingFile decryptingFile = SegmentedDecryptingFile.open(file, newSecret());
+        try {
+            decryptingFile.read(0, new byte[10], 0, 10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            decryptingFile.close();
+        }
+    }
+
+    @Test
+    public void singleStreamFile_isStillReadable() throws Exception {
+        byte[] data = createData(10_500);
+        File file = temporaryFolder.newFile();
+        EncryptingFileOutputStream outputStream = new EncryptingFileOutputStream(file, newSecret());
+        outputStream.write(data);
+        outputStream.close();
+
+        assertArrayEquals(data, readAll(new DecryptingFileInputStream(file, newSecret())));
+    }
+
+    private File writeSegmented(byte[] data, ExecutorService executor) throws IOException {
+        File file = temporaryFolder.newFile();
+        SegmentedEncryptingFileOutputStream outputStream =
+                new SegmentedEncryptingFileOutputStream(file, newSecret(), SEGMENT_SIZE, executor);
+        // write in uneven chunks, so segment boundaries don't line up with writes
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(333, data.length - offset);
+            outputStream.write(data, offset, length);
+            offset += length;
+        }
+        outputStream.close();
+        return file;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            result.write(buffer, 0, bytesRead);
+        }
+        inputStream.close();
+        return result.toByteArray();
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static ByteSecret newSecret() {
+        return ByteSecret.fromByteArrayTakeOwnership(SECRET.clone());
+    }
+}
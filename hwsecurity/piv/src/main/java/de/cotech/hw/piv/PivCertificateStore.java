@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.piv;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+
+/**
+ * A persistent store for certificates read from PIV cards, which can be passed to
+ * {@link PivSecurityKeyConnectionMode#PivSecurityKeyConnectionMode(PivCertificateStore)}.
+ * <p>
+ * Reading a certificate from a card takes several round trips, which is often slower than the signature
+ * operation itself, especially over NFC. With a store, a certificate is read once per card, and then loaded
+ * from the store on later connections.
+ * <p>
+ * Cards are identified by the GUID from their Card Holder Unique Identifier (CHUID). Cards without a GUID
+ * are not cached. Note that the GUID is not authenticated, so certificates from the store should not be
+ * trusted any more than certificates read from the card.
+ */
+public interface PivCertificateStore {
+    /**
+     * Returns the encoded certificate stored for the given card and key reference, or null if there is none.
+     */
+    @Nullable
+    @WorkerThread
+    byte[] loadCertificate(@NonNull String cardGuid, @NonNull PivKeyReference keyReference);
+
+    @WorkerThread
+    void storeCertificate(@NonNull String cardGuid, @NonNull PivKeyReference keyReference,
+            @NonNull byte[] certificateBytes);
+
+    /**
+     * Removes the certificate stored for the given card and key reference. This is called when the key on the
+     * card no longer matches the stored certificate, e.g. because the card was re-provisioned.
+     */
+    @WorkerThread
+    void removeCertificate(@NonNull String cardGuid, @NonNull PivKeyReference keyReference);
+}
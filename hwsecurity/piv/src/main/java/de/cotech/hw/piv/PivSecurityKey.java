@@ -32,12 +32,9 @@ import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.WorkerThread;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.PrivateKey;
-import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.HashMap;
 
@@ -47,6 +44,7 @@ import de.cotech.hw.SecurityKeyManagerConfig;
 import de.cotech.hw.SecurityKeyTlsClientCertificateAuthenticator;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.piv.internal.PivAppletConnection;
+import de.cotech.hw.piv.internal.PivCertificateCache;
 import de.cotech.hw.piv.internal.operations.ResetRetryCounterOp;
 import de.cotech.hw.provider.CotechSecurityKeyProvider;
 import de.cotech.hw.provider.SecurityKeyPrivateKey.SecurityKeyEcdsaPrivateKey;
@@ -57,12 +55,22 @@ import de.cotech.hw.secrets.PinProvider;
 @SuppressWarnings({"WeakerAccess", "unused"}) // public API
 public class PivSecurityKey extends SecurityKey {
     final PivAppletConnection pivAppletConnection;
+    private final PivCertificateCache sharedCertificateCache;
 
     private final HashMap<PivKeyReference, X509Certificate> certificateCache = new HashMap<>();
+    private boolean isCardGuidRead;
+    private String cardGuid;
 
     public PivSecurityKey(SecurityKeyManagerConfig config, Transport transport, PivAppletConnection pivAppletConnection) {
+        this(config, transport, pivAppletConnection, new PivCertificateCache(null));
+    }
+
+    @RestrictTo(Scope.LIBRARY_GROUP)
+    public PivSecurityKey(SecurityKeyManagerConfig config, Transport transport, PivAppletConnection pivAppletConnection,
+            PivCertificateCache sharedCertificateCache) {
         super(config, transport);
         this.pivAppletConnection = pivAppletConnection;
+        this.sharedCertificateCache = sharedCertificateCache;
     }
 
     @NonNull
@@ -111,17 +119,44 @@ public class PivSecurityKey extends SecurityKey {
             return cachedCertificate;
         }
 
+        // a single short GET DATA for the CHUID is cheaper than reading the whole certificate
+        String cardGuid = getCardGuid();
+        if (cardGuid != null) {
+            cachedCertificate = sharedCertificateCache.get(cardGuid, keyReference);
+            if (cachedCertificate != null) {
+                certificateCache.put(keyReference, cachedCertificate);
+                return cachedCertificate;
+            }
+        }
+
         byte[] certBytes = pivAppletConnection.retrieveCertificateBytes(keyReference);
-        CertificateFactory fact = CertificateFactory.getInstance("X.509");
-        Certificate certificate = fact.generateCertificate(new ByteArrayInputStream(certBytes));
-        if (certificate == null) {
-            throw new IOException("Failed to decode X509 certificate!");
+        X509Certificate certificate = PivCertificateCache.parseCertificate(certBytes);
+        certificateCache.put(keyReference, certificate);
+        if (cardGuid != null) {
+            sharedCertificateCache.put(cardGuid, keyReference, certBytes, certificate);
+        }
+        return certificate;
+    }
+
+    /**
+     * Drops the certificate for the given key reference from all caches, so it is read from the card again
+     * on next use.
+     */
+    @WorkerThread
+    void invalidateCertificate(PivKeyReference keyReference) {
+        certificateCache.remove(keyReference);
+        if (cardGuid != null) {
+            sharedCertificateCache.invalidate(cardGuid, keyReference);
         }
-        if (!(certificate instanceof X509Certificate)) {
-            throw new IOException("Decoded certificate is not an X509 certificate!");
+    }
+
+    @WorkerThread
+    private String getCardGuid() throws IOException {
+        if (!isCardGuidRead) {
+            cardGuid = pivAppletConnection.readCardGuid();
+            isCardGuidRead = true;
         }
-        certificateCache.put(keyReference, (X509Certificate) certificate);
-        return (X509Certificate) certificate;
+        return cardGuid;
     }
 
     @RestrictTo(Scope.LIBRARY_GROUP)
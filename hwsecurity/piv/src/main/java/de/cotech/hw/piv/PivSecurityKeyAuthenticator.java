@@ -27,6 +27,7 @@ package de.cotech.hw.piv;
 
 import androidx.annotation.WorkerThread;
 import de.cotech.hw.SecurityKeyAuthenticator;
+import de.cotech.hw.SecurityKeyException;
 import de.cotech.hw.piv.internal.operations.GeneralAuthenticateOp;
 import de.cotech.hw.secrets.ByteSecret;
 import de.cotech.hw.secrets.PinProvider;
@@ -35,6 +36,8 @@ import java.io.IOException;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
 
 
 public class PivSecurityKeyAuthenticator implements SecurityKeyAuthenticator {
@@ -53,15 +56,47 @@ public class PivSecurityKeyAuthenticator implements SecurityKeyAuthenticator {
 
     @WorkerThread
     public byte[] authenticatePresignedDigest(byte[] digest, String hashAlgo) throws IOException {
+        return authenticatePresignedDigests(Collections.singletonList(digest), hashAlgo).get(0);
+    }
+
+    /**
+     * Signs the digests with GENERAL AUTHENTICATE.
+     * <p>
+     * The certificate may come from a cache, and the key on the card may have been replaced since. If the
+     * card rejects the command, or the first signature doesn't match the certificate's public key, the
+     * certificate is dropped from the cache, so the next attempt reads it from the card again.
+     */
+    @Override
+    @WorkerThread
+    public List<byte[]> authenticatePresignedDigests(List<byte[]> digests, String hashAlgo) throws IOException {
         ByteSecret pairedPin = pairedPinProvider.getPin(pivSecurityKey.pivAppletConnection.getConnectedAppletAid());
+        X509Certificate x509Certificate;
         try {
-            X509Certificate x509Certificate = pivSecurityKey.retrieveCertificate(keyReference);
-            GeneralAuthenticateOp generalAuthenticateOp = GeneralAuthenticateOp.create(pivSecurityKey.pivAppletConnection, x509Certificate);
-            return generalAuthenticateOp.calculateAuthenticationSignature(pairedPin, digest, hashAlgo, keyReference);
+            x509Certificate = pivSecurityKey.retrieveCertificate(keyReference);
         } catch (CertificateException e) {
             throw new IOException(e);
         }
+        // verified up front, so a failure below is caused by the signing key
+        pivSecurityKey.pivAppletConnection.verifyPin(pairedPin);
 
+        GeneralAuthenticateOp generalAuthenticateOp =
+                GeneralAuthenticateOp.create(pivSecurityKey.pivAppletConnection, x509Certificate);
+        List<byte[]> signatures;
+        try {
+            signatures = generalAuthenticateOp.calculateAuthenticationSignatures(
+                    pairedPin, digests, hashAlgo, keyReference);
+        } catch (SecurityKeyException e) {
+            pivSecurityKey.invalidateCertificate(keyReference);
+            throw e;
+        }
+
+        // one signature is enough to tell whether the key matches the certificate
+        if (!signatures.isEmpty()
+                && !generalAuthenticateOp.isSignatureValid(digests.get(0), hashAlgo, signatures.get(0))) {
+            pivSecurityKey.invalidateCertificate(keyReference);
+            throw new IOException("Signature does not match the certificate of " + keyReference);
+        }
+        return signatures;
     }
 
     public byte[] authenticateWithDigest(byte[] challenge, String hashAlgo) throws IOException, NoSuchAlgorithmException {
@@ -28,6 +28,8 @@ package de.cotech.hw.piv;
 import java.io.IOException;
 import java.util.Collections;
 
+import androidx.annotation.Nullable;
+
 import de.cotech.hw.SecurityKey;
 import de.cotech.hw.SecurityKeyConnectionMode;
 import de.cotech.hw.SecurityKeyManagerConfig;
@@ -35,6 +37,7 @@ import de.cotech.hw.internal.transport.SecurityKeyInfo;
 import de.cotech.hw.internal.transport.SecurityKeyInfo.TransportType;
 import de.cotech.hw.internal.transport.Transport;
 import de.cotech.hw.piv.internal.PivAppletConnection;
+import de.cotech.hw.piv.internal.PivCertificateCache;
 import de.cotech.hw.util.Hex;
 import de.cotech.hw.util.HwTimber;
 
@@ -42,6 +45,20 @@ import de.cotech.hw.util.HwTimber;
 public class PivSecurityKeyConnectionMode extends SecurityKeyConnectionMode<PivSecurityKey> {
     private static final byte[] AID_PREFIX_PIV = Hex.decodeHexOrFail("A000000308");
 
+    private final PivCertificateCache certificateCache;
+
+    public PivSecurityKeyConnectionMode() {
+        this(null);
+    }
+
+    /**
+     * Creates a connection mode that keeps certificates read from cards in the given store, in addition to the
+     * in-memory cache that every instance has.
+     */
+    public PivSecurityKeyConnectionMode(@Nullable PivCertificateStore certificateStore) {
+        this.certificateCache = new PivCertificateCache(certificateStore);
+    }
+
     @Override
     public PivSecurityKey establishSecurityKeyConnection(SecurityKeyManagerConfig config, Transport transport) throws IOException {
         if (transport.getTransportType() == SecurityKeyInfo.TransportType.USB_CTAPHID) {
@@ -53,7 +70,7 @@ public class PivSecurityKeyConnectionMode extends SecurityKeyConnectionMode<PivS
                 transport, Collections.singletonList(AID_PREFIX_PIV));
         pivAppletConnection.connectIfNecessary();
 
-        return new PivSecurityKey(config, transport, pivAppletConnection);
+        return new PivSecurityKey(config, transport, pivAppletConnection, certificateCache);
     }
 
     @Override
@@ -26,6 +26,7 @@ package de.cotech.hw.piv.internal;
 
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import androidx.annotation.VisibleForTesting;
@@ -44,6 +45,7 @@ import de.cotech.hw.piv.PivKeyReference;
 import de.cotech.hw.piv.exceptions.PivWrongPinException;
 import de.cotech.hw.secrets.ByteSecret;
 import de.cotech.hw.util.Hex;
+import de.cotech.hw.util.HwTimber;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -56,6 +58,10 @@ public class PivAppletConnection {
     private static final int APDU_SW1_RESPONSE_AVAILABLE = 0x61;
     private static final int RESPONSE_SW1_INCORRECT_LENGTH = 0x6c;
 
+    // Card Holder Unique Identifier, see SP 800-73-4 Part 1, Appendix A
+    private static final String DO_CHUID = "5FC102";
+    private static final int TAG_CHUID_GUID = 0x34;
+
     @NonNull
     private final Transport transport;
     @NonNull
@@ -299,6 +305,37 @@ public class PivAppletConnection {
         return responseTlv0x70.mV;
     }
 
+    /**
+     * Reads the GUID from the card's CHUID, which identifies the card across connections. Returns null if the
+     * card has no CHUID, or its GUID is unset.
+     */
+    @Nullable
+    public String readCardGuid() throws IOException {
+        Iso7816TLV[] chuidTlvs;
+        try {
+            chuidTlvs = Iso7816TLV.readList(getData(DO_CHUID), false);
+        } catch (SecurityKeyException e) {
+            HwTimber.d("No CHUID available (%s)", e.getShortErrorName());
+            return null;
+        }
+
+        for (Iso7816TLV tlv : chuidTlvs) {
+            if (tlv.mT == TAG_CHUID_GUID && !isAllZeros(tlv.mV)) {
+                return Hex.encodeHexString(tlv.mV);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAllZeros(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public byte[] getData(String dataObjectHex) throws IOException {
         byte[] dataObject = Hex.decodeHex(dataObjectHex);
         byte[] retrieve = Iso7816TLV.encode(0x5c, dataObject);
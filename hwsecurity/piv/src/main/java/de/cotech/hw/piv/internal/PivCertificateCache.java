@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.piv.internal;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.RestrictTo.Scope;
+import androidx.annotation.WorkerThread;
+
+import de.cotech.hw.piv.PivCertificateStore;
+import de.cotech.hw.piv.PivKeyReference;
+import de.cotech.hw.util.HwTimber;
+
+
+/**
+ * Keeps parsed certificates per card and key reference, keyed by the card's GUID. Certificates are kept in
+ * memory for the lifetime of the connection mode, and in the {@link PivCertificateStore}, if one was provided.
+ */
+@RestrictTo(Scope.LIBRARY_GROUP)
+public class PivCertificateCache {
+    @Nullable
+    private final PivCertificateStore certificateStore;
+    private final HashMap<String, X509Certificate> certificates = new HashMap<>();
+
+    public PivCertificateCache(@Nullable PivCertificateStore certificateStore) {
+        this.certificateStore = certificateStore;
+    }
+
+    @Nullable
+    @WorkerThread
+    public synchronized X509Certificate get(@NonNull String cardGuid, @NonNull PivKeyReference keyReference) {
+        String key = getKey(cardGuid, keyReference);
+        X509Certificate certificate = certificates.get(key);
+        if (certificate != null || certificateStore == null) {
+            return certificate;
+        }
+
+        byte[] certificateBytes = certificateStore.loadCertificate(cardGuid, keyReference);
+        if (certificateBytes == null) {
+            return null;
+        }
+        try {
+            certificate = parseCertificate(certificateBytes);
+        } catch (IOException | CertificateException e) {
+            HwTimber.e(e, "Ignoring unreadable certificate from store");
+            return null;
+        }
+        certificates.put(key, certificate);
+        return certificate;
+    }
+
+    @WorkerThread
+    public synchronized void put(@NonNull String cardGuid, @NonNull PivKeyReference keyReference,
+            @NonNull byte[] certificateBytes, @NonNull X509Certificate certificate) {
+        certificates.put(getKey(cardGuid, keyReference), certificate);
+        if (certificateStore != null) {
+            certificateStore.storeCertificate(cardGuid, keyReference, certificateBytes);
+        }
+    }
+
+    /**
+     * Drops the certificate for the given card and key reference, from memory as well as from the store.
+     */
+    @WorkerThread
+    public synchronized void invalidate(@NonNull String cardGuid, @NonNull PivKeyReference keyReference) {
+        HwTimber.d("Dropping cached certificate for %s", keyReference);
+        certificates.remove(getKey(cardGuid, keyReference));
+        if (certificateStore != null) {
+            certificateStore.removeCertificate(cardGuid, keyReference);
+        }
+    }
+
+    @NonNull
+    public static X509Certificate parseCertificate(byte[] certificateBytes) throws IOException, CertificateException {
+        CertificateFactory fact = CertificateFactory.getInstance("X.509");
+        Certificate certificate = fact.generateCertificate(new ByteArrayInputStream(certificateBytes));
+        if (certificate == null) {
+            throw new IOException("Failed to decode X509 certificate!");
+        }
+        if (!(certificate instanceof X509Certificate)) {
+            throw new IOException("Decoded certificate is not an X509 certificate!");
+        }
+        return (X509Certificate) certificate;
+    }
+
+    private static String getKey(String cardGuid, PivKeyReference keyReference) {
+        return cardGuid + ":" + keyReference.name();
+    }
+}
@@ -28,6 +28,8 @@ package de.cotech.hw.piv.internal.operations;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.RestrictTo.Scope;
 import de.cotech.hw.SecurityKeyException;
+import de.cotech.hw.exceptions.PartialAuthenticationException;
+import de.cotech.hw.internal.BatchSigning;
 import de.cotech.hw.internal.iso7816.CommandApdu;
 import de.cotech.hw.internal.iso7816.ResponseApdu;
 import de.cotech.hw.piv.PivKeyReference;
@@ -40,6 +42,7 @@ import java.security.*;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.List;
 
 
 @RestrictTo(Scope.LIBRARY_GROUP)
@@ -70,6 +73,34 @@ public class GeneralAuthenticateOp {
         return signatureUtils.unpackSignatureData(response.getData());
     }
 
+    /**
+     * Sign each of the given digests with GENERAL AUTHENTICATE, verifying the PIN only once. The commands are
+     * sent back to back while the applet stays selected.
+     *
+     * @throws PartialAuthenticationException if signing failed after at least one signature was created
+     */
+    public List<byte[]> calculateAuthenticationSignatures(ByteSecret pin, List<byte[]> digests, String hashAlgo,
+            PivKeyReference keyRef) throws IOException {
+        connection.verifyPin(pin);
+
+        PublicKey publicKey = x509Certificate.getPublicKey();
+        PivCommandApduFactory commandFactory = connection.getCommandFactory();
+
+        return BatchSigning.signAll(digests, digest -> {
+            byte[] data = signatureUtils.prepareData(digest, publicKey, hashAlgo);
+            CommandApdu command = getCommandApduForKey(commandFactory, keyRef, publicKey, data);
+            ResponseApdu response = connection.communicateOrThrow(command);
+            return signatureUtils.unpackSignatureData(response.getData());
+        });
+    }
+
+    /**
+     * Checks whether a signature created by this operation matches the public key of its certificate.
+     */
+    public boolean isSignatureValid(byte[] digest, String hashAlgo, byte[] signature) throws IOException {
+        return signatureUtils.verifySignature(digest, x509Certificate.getPublicKey(), hashAlgo, signature);
+    }
+
     private static CommandApdu getCommandApduForKey(PivCommandApduFactory commandFactory, PivKeyReference keyRef,
             PublicKey publicKey, byte[] data) throws IOException {
         if (publicKey instanceof RSAPublicKey) {
@@ -91,6 +122,13 @@ public class GeneralAuthenticateOp {
     /*
     // Sadly, the X509Certificate class offers no way to get the OID of the *signed* key, only the *signing* key.
     // That means we'll have to figure out the public key type differently :(
+    /**
+     * Checks whether a signature created by this operation matches the public key of its certificate.
+     */
+    public boolean isSignatureValid(byte[] digest, String hashAlgo, byte[] signature) throws IOException {
+        return signatureUtils.verifySignature(digest, x509Certificate.getPublicKey(), hashAlgo, signature);
+    }
+
     private static CommandApdu getCommandApduForKey(PivCommandApduFactory commandFactory, PivKeyReference keyRef,
             ASN1ObjectIdentifier algoOid, byte[] data) throws IOException {
         if (algoOid.on(PKCSObjectIdentifiers.pkcs_1)) {
@@ -31,10 +31,18 @@ import de.cotech.hw.util.Arrays;
 import de.cotech.hw.util.Hex;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
 import java.security.interfaces.RSAPublicKey;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
 
 class PivSignatureUtils {
     private static final String RIPEMD160 = "RIPEMD160";
@@ -131,6 +139,32 @@ class PivSignatureUtils {
         return result;
     }
 
+    /**
+     * Checks whether the signature over the given hash was made with the private key for the given public key.
+     */
+    boolean verifySignature(byte[] hash, PublicKey publicKey, String hashAlgo, byte[] signature)
+            throws IOException {
+        try {
+            if (publicKey instanceof RSAPublicKey) {
+                int bitLength = ((RSAPublicKey) publicKey).getModulus().bitLength();
+                byte[] expected = pkcs1Pad(prepareDsi(hash, hashAlgo), bitLength / 8);
+                Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+                byte[] actual = cipher.doFinal(signature);
+                return new BigInteger(1, expected).equals(new BigInteger(1, actual));
+            }
+            Signature verifier = Signature.getInstance("NONEwithECDSA");
+            verifier.initVerify(publicKey);
+            verifier.update(hash);
+            return verifier.verify(signature);
+        } catch (BadPaddingException | IllegalBlockSizeException | SignatureException e) {
+            // the signature couldn't even be decoded for this key
+            return false;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to verify signature", e);
+        }
+    }
+
     byte[] unpackSignatureData(byte[] signature) throws IOException {
         Iso7816TLV tlv = Iso7816TLV.readSingle(signature, true);
         Iso7816TLV outer = Iso7816TLV.find(tlv, 0x7C);
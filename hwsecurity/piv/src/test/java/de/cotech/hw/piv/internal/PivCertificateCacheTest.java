@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.piv.internal;
+
+
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+import de.cotech.hw.piv.PivCertificateStore;
+import de.cotech.hw.piv.PivKeyReference;
+import de.cotech.hw.util.Hex;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class PivCertificateCacheTest {
+    private static final String CARD_GUID = "00112233445566778899aabbccddeeff";
+    private static final String OTHER_CARD_GUID = "ffeeddccbbaa99887766554433221100";
+    private static final byte[] CERTIFICATE_BYTES = Hex.decodeHexOrFail("3082");
+
+    @Test
+    public void get_afterPut_returnsCertificateFromMemory() {
+        PivCertificateStore certificateStore = mock(PivCertificateStore.class);
+        PivCertificateCache certificateCache = new PivCertificateCache(certificateStore);
+        X509Certificate certificate = mock(X509Certificate.class);
+
+        certificateCache.put(CARD_GUID, PivKeyReference.AUTHENTICATION, CERTIFICATE_BYTES, certificate);
+
+        verify(certificateStore).storeCertificate(CARD_GUID, PivKeyReference.AUTHENTICATION, CERTIFICATE_BYTES);
+        assertSame(certificate, certificateCache.get(CARD_GUID, PivKeyReference.AUTHENTICATION));
+        assertNull(certificateCache.get(CARD_GUID, PivKeyReference.DIGITAL_SIGNATURE));
+        assertNull(certificateCache.get(OTHER_CARD_GUID, PivKeyReference.AUTHENTICATION));
+    }
+
+    @Test
+    public void get_withUnreadableStoredCertificate_returnsNull() {
+        PivCertificateStore certificateStore = mock(PivCertificateStore.class);
+        when(certificateStore.loadCertificate(CARD_GUID, PivKeyReference.AUTHENTICATION)).thenReturn(CERTIFICATE_BYTES);
+        PivCertificateCache certificateCache = new PivCertificateCache(certificateStore);
+
+        assertNull(certificateCache.get(CARD_GUID, PivKeyReference.AUTHENTICATION));
+    }
+
+    @Test
+    public void invalidate_removesCertificateFromMemoryAndStore() {
+        PivCertificateStore certificateStore = mock(PivCertificateStore.class);
+        PivCertificateCache certificateCache = new PivCertificateCache(certificateStore);
+        certificateCache.put(CARD_GUID, PivKeyReference.AUTHENTICATION, CERTIFICATE_BYTES, mock(X509Certificate.class));
+
+        certificateCache.invalidate(CARD_GUID, PivKeyReference.AUTHENTICATION);
+
+        verify(certificateStore).removeCertificate(CARD_GUID, PivKeyReference.AUTHENTICATION);
+        assertNull(certificateCache.get(CARD_GUID, PivKeyReference.AUTHENTICATION));
+    }
+
+    @Test
+    public void put_withoutStore_keepsCertificateInMemory() {
+        PivCertificateCache certificateCache = new PivCertificateCache(null);
+        X509Certificate certificate = mock(X509Certificate.class);
+
+        assertNull(certificateCache.get(CARD_GUID, PivKeyReference.AUTHENTICATION));
+        certificateCache.put(CARD_GUID, PivKeyReference.AUTHENTICATION, CERTIFICATE_BYTES, certificate);
+
+        assertSame(certificate, certificateCache.get(CARD_GUID, PivKeyReference.AUTHENTICATION));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018-2021 Confidential Technologies GmbH
+ *
+ * You can purchase a commercial license at https://hwsecurity.dev.
+ * Buying such a license is mandatory as soon as you develop commercial
+ * activities involving this program without disclosing the source code
+ * of your own applications.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.cotech.hw.piv.internal.operations;
+
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import de.cotech.hw.internal.iso7816.ResponseApdu;
+import de.cotech.hw.piv.PivKeyReference;
+import de.cotech.hw.piv.internal.PivAppletConnection;
+import de.cotech.hw.piv.internal.PivCommandApduFactory;
+import de.cotech.hw.secrets.ByteSecret;
+import de.cotech.hw.util.Hex;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * The partial failure semantics of batch signing are covered by BatchSigningTest.
+ */
+public class GeneralAuthenticateOpTest {
+    private static final String SHA256_DIGEST_INFO_PREFIX = "3031300D060960864801650304020105000420";
+    // 7C { 82 (empty) 81 { challenge } }, for a 2048 bit key
+    private static final String GENERAL_AUTHENTICATE_PREFIX_RSA_2048 = "7C820106820081820100";
+    private static final int RSA_2048_BLOCK_SIZE = 256;
+    private static final byte[] DIGEST_1 = filled(32, (byte) 1);
+    private static final byte[] DIGEST_2 = filled(32, (byte) 2);
+    private static final byte[] SIGNATURE_1 = { 1 };
+    private static final byte[] SIGNATURE_2 = { 2 };
+
+    private PivAppletConnection connection;
+    private PivCommandApduFactory commandFactory;
+    private GeneralAuthenticateOp generalAuthenticateOp;
+
+    @Before
+    public void setUp() throws Exception {
+        RSAPublicKey publicKey = mock(RSAPublicKey.class);
+        when(publicKey.getModulus()).thenReturn(BigInteger.ONE.shiftLeft(2047));
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(certificate.getPublicKey()).thenReturn(publicKey);
+
+        commandFactory = mock(PivCommandApduFactory.class);
+        connection = mock(PivAppletConnection.class);
+        when(connection.getCommandFactory()).thenReturn(commandFactory);
+        when(connection.communicateOrThrow(any())).thenReturn(
+                createSignatureResponse(SIGNATURE_1), createSignatureResponse(SIGNATURE_2));
+
+        generalAuthenticateOp = GeneralAuthenticateOp.create(connection, certificate);
+    }
+
+    @Test
+    public void calculateAuthenticationSignatures_verifiesPinOnce() throws Exception {
+        ByteSecret pin = ByteSecret.unsafeFromString("123456");
+
+        List<byte[]> signatures = generalAuthenticateOp.calculateAuthenticationSignatures(
+                pin, Arrays.asList(DIGEST_1, DIGEST_2), "SHA-256", PivKeyReference.AUTHENTICATION);
+
+        assertEquals(2, signatures.size());
+        verify(connection).verifyPin(pin);
+    }
+
+    @Test
+    public void calculateAuthenticationSignatures_sendsGeneralAuthenticatePerDigest() throws Exception {
+        generalAuthenticateOp.calculateAuthenticationSignatures(ByteSecret.unsafeFromString("123456"),
+                Arrays.asList(DIGEST_1, DIGEST_2), "SHA-256", PivKeyReference.AUTHENTICATION);
+
+        verify(commandFactory).createGeneralAuthenticateRSA(eq(0x9A), aryEq(generalAuthenticateData(DIGEST_1)));
+        verify(commandFactory).createGeneralAuthenticateRSA(eq(0x9A), aryEq(generalAuthenticateData(DIGEST_2)));
+    }
+
+    /** Returns the dynamic authentication template with the PKCS#1 v1.5 padded DigestInfo as challenge. */
+    private static byte[] generalAuthenticateData(byte[] sha256Digest) {
+        byte[] digestInfo = Hex.decodeHexOrFail(SHA256_DIGEST_INFO_PREFIX + Hex.encodeHexString(sha256Digest));
+        byte[] padded = filled(RSA_2048_BLOCK_SIZE, (byte) 0xff);
+        padded[0] = 0x00;
+        padded[1] = 0x01;
+        padded[RSA_2048_BLOCK_SIZE - digestInfo.length - 1] = 0x00;
+        System.arraycopy(digestInfo, 0, padded, RSA_2048_BLOCK_SIZE - digestInfo.length, digestInfo.length);
+        return Hex.decodeHexOrFail(GENERAL_AUTHENTICATE_PREFIX_RSA_2048 + Hex.encodeHexString(padded));
+    }
+
+    private static ResponseApdu createSignatureResponse(byte[] signature) {
+        // 7C { 82 { signature } }, for signatures shorter than 126 bytes
+        byte[] data = new byte[signature.length + 4];
+        data[0] = 0x7C;
+        data[1] = (byte) (signature.length + 2);
+        data[2] = (byte) 0x82;
+        data[3] = (byte) signature.length;
+        System.arraycopy(signature, 0, data, 4, signature.length);
+        return ResponseApdu.create(0x9000, data);
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] result = new byte[length];
+        Arrays.fill(result, value);
+        return result;
+    }
+}